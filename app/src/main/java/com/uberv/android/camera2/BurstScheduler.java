@@ -0,0 +1,165 @@
+package com.uberv.android.camera2;
+
+/**
+ * Decides when to submit the still requests of a burst.
+ * <p>
+ * At most {@code maxInFlight} requests are outstanding at the camera, and never more than the image write
+ * queue has free slots for, so a slow disk throttles the burst instead of making the reader drop frames.
+ * All methods may be called from any thread.
+ */
+public class BurstScheduler {
+
+    /**
+     * The capture session the burst is submitted to.
+     */
+    public interface Session {
+
+        /**
+         * Submit {@code count} still requests in one go (e.g. through {@code captureBurst}).
+         */
+        void submit(int count) throws Exception;
+    }
+
+    /**
+     * Where captured images end up; bounds how many requests are worth having in flight.
+     */
+    public interface WriteCapacity {
+
+        /**
+         * @return number of images the write queue can still accept right now
+         */
+        int getFreeSlots();
+    }
+
+    public interface Listener {
+
+        /**
+         * Called once every request of the burst has completed or failed, or the burst was cancelled.
+         *
+         * @param captured      number of shots that completed successfully
+         * @param shotsPerSecond captured shots per second between {@link #start()} and the last completion
+         */
+        void onBurstFinished(int captured, int failed, double shotsPerSecond);
+    }
+
+    private final int mTotalShots;
+    private final int mMaxInFlight;
+    private final Session mSession;
+    private final WriteCapacity mWriteCapacity;
+    private final Clock mClock;
+    private final Listener mListener;
+
+    private int mSubmitted;
+    private int mCaptured;
+    private int mFailed;
+    private boolean mStarted;
+    private boolean mFinished;
+    private long mStartNanos;
+    private long mLastCompletionNanos;
+
+    public BurstScheduler(int totalShots, int maxInFlight, Session session, WriteCapacity writeCapacity,
+                          Clock clock, Listener listener) {
+        if (totalShots < 1 || maxInFlight < 1) {
+            throw new IllegalArgumentException("totalShots and maxInFlight must be positive");
+        }
+        mTotalShots = totalShots;
+        mMaxInFlight = maxInFlight;
+        mSession = session;
+        mWriteCapacity = writeCapacity;
+        mClock = clock;
+        mListener = listener;
+    }
+
+    public synchronized void start() {
+        if (mStarted) {
+            throw new IllegalStateException("burst already started");
+        }
+        mStarted = true;
+        mStartNanos = mClock.nanoTime();
+        mLastCompletionNanos = mStartNanos;
+        pump();
+    }
+
+    /**
+     * The image of a burst request has been handed to the write queue. Counting shots here rather than on the
+     * capture result keeps images that are between the camera and the queue inside the in-flight budget.
+     */
+    public synchronized void onShotCompleted() {
+        if (mFinished) {
+            return;
+        }
+        mCaptured++;
+        mLastCompletionNanos = mClock.nanoTime();
+        pump();
+    }
+
+    /**
+     * A request of the burst failed; it is not retried.
+     */
+    public synchronized void onShotFailed() {
+        if (mFinished) {
+            return;
+        }
+        mFailed++;
+        pump();
+    }
+
+    /**
+     * The write queue has freed a slot; submit more requests if the burst was throttled.
+     */
+    public synchronized void onWriteSlotFreed() {
+        if (mStarted && !mFinished) {
+            pump();
+        }
+    }
+
+    /**
+     * Stop submitting; requests already at the camera still complete but are no longer counted.
+     */
+    public synchronized void cancel() {
+        if (!mFinished) {
+            finish();
+        }
+    }
+
+    public synchronized int getInFlight() {
+        return mSubmitted - mCaptured - mFailed;
+    }
+
+    public synchronized boolean isFinished() {
+        return mFinished;
+    }
+
+    private void pump() {
+        if (mCaptured + mFailed == mTotalShots) {
+            finish();
+            return;
+        }
+        int inFlight = getInFlight();
+        // requests at the camera will each need a write slot once their image arrives
+        int budget = Math.min(mMaxInFlight, mWriteCapacity.getFreeSlots()) - inFlight;
+        int count = Math.min(budget, mTotalShots - mSubmitted);
+        if (count <= 0) {
+            return;
+        }
+        try {
+            mSession.submit(count);
+            mSubmitted += count;
+        } catch (Exception e) {
+            mSubmitted += count;
+            mFailed += count;
+            if (mCaptured + mFailed == mTotalShots) {
+                finish();
+            }
+        }
+    }
+
+    private void finish() {
+        mFinished = true;
+        long elapsed = mLastCompletionNanos - mStartNanos;
+        double shotsPerSecond = elapsed > 0 ? mCaptured * 1e9 / elapsed : 0;
+        if (mListener != null) {
+            mListener.onBurstFinished(mCaptured, mFailed, shotsPerSecond);
+        }
+    }
+}
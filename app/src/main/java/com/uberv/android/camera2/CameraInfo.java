@@ -0,0 +1,220 @@
+package com.uberv.android.camera2;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The subset of a camera's characteristics this app needs to set up a session, in plain Java so that it can be
+ * cached on disk (see {@link CameraInfoCache}).
+ * <p>
+ * Output sizes are stored per output as packed {@code [w0, h0, w1, h1, ...]} arrays. Outputs are keyed by image
+ * format, or by one of the {@code OUTPUT_*} keys for outputs that the framework describes by class.
+ */
+public class CameraInfo {
+    // output sizes of map.getOutputSizes(SurfaceTexture.class)
+    public static final int OUTPUT_SURFACE_TEXTURE = -1;
+    // output sizes of map.getOutputSizes(MediaRecorder.class)
+    public static final int OUTPUT_MEDIA_RECORDER = -2;
+
+    private final String mId;
+    private final int mLensFacing;
+    private final int mSensorOrientation;
+    private final boolean mTimestampRealtime;
+    private final int mHardwareLevel;
+    private final Map<Integer, int[]> mOutputSizes;
+    private final int[] mFpsRanges;
+    private final int[] mHighSpeedVideoConfigs;
+    // built on first use, derived from mOutputSizes
+    private final Map<Integer, SizeIndex> mSizeIndexes = new HashMap<>();
+
+    private CameraInfo(Builder builder) {
+        mId = builder.mId;
+        mLensFacing = builder.mLensFacing;
+        mSensorOrientation = builder.mSensorOrientation;
+        mTimestampRealtime = builder.mTimestampRealtime;
+        mHardwareLevel = builder.mHardwareLevel;
+        mOutputSizes = Collections.unmodifiableMap(new TreeMap<>(builder.mOutputSizes));
+        mFpsRanges = builder.mFpsRanges;
+        mHighSpeedVideoConfigs = builder.mHighSpeedVideoConfigs;
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    /**
+     * @return raw {@code CameraCharacteristics.LENS_FACING} value
+     */
+    public int getLensFacing() {
+        return mLensFacing;
+    }
+
+    public int getSensorOrientation() {
+        return mSensorOrientation;
+    }
+
+    /**
+     * @return true if sensor timestamps use the {@code SystemClock.elapsedRealtimeNanos()} time base
+     */
+    public boolean isTimestampRealtime() {
+        return mTimestampRealtime;
+    }
+
+    /**
+     * @return raw {@code INFO_SUPPORTED_HARDWARE_LEVEL} value, see {@link StreamCombinationPlanner}
+     */
+    public int getHardwareLevel() {
+        return mHardwareLevel;
+    }
+
+    /**
+     * @return packed width/height pairs, empty if the output is not supported
+     */
+    public int[] getOutputSizes(int output) {
+        int[] sizes = mOutputSizes.get(output);
+        return sizes == null ? new int[0] : sizes.clone();
+    }
+
+    /**
+     * @return the output's sizes indexed for selection, built once per output
+     */
+    public synchronized SizeIndex getSizeIndex(int output) {
+        SizeIndex index = mSizeIndexes.get(output);
+        if (index == null) {
+            int[] sizes = mOutputSizes.get(output);
+            index = new SizeIndex(sizes == null ? new int[0] : sizes);
+            mSizeIndexes.put(output, index);
+        }
+        return index;
+    }
+
+    /**
+     * @return AE target fps ranges as packed {@code [min0, max0, min1, max1, ...]}
+     */
+    public int[] getFpsRanges() {
+        return mFpsRanges.clone();
+    }
+
+    /**
+     * @return constrained high speed video configurations as packed {@code [w, h, minFps, maxFps, ...]}
+     */
+    public int[] getHighSpeedVideoConfigs() {
+        return mHighSpeedVideoConfigs.clone();
+    }
+
+    Map<Integer, int[]> getAllOutputSizes() {
+        return mOutputSizes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CameraInfo)) {
+            return false;
+        }
+        CameraInfo other = (CameraInfo) o;
+        if (!mId.equals(other.mId) || mLensFacing != other.mLensFacing
+                || mSensorOrientation != other.mSensorOrientation || mTimestampRealtime != other.mTimestampRealtime
+                || mHardwareLevel != other.mHardwareLevel
+                || !Arrays.equals(mFpsRanges, other.mFpsRanges)
+                || !Arrays.equals(mHighSpeedVideoConfigs, other.mHighSpeedVideoConfigs)
+                || !mOutputSizes.keySet().equals(other.mOutputSizes.keySet())) {
+            return false;
+        }
+        for (Map.Entry<Integer, int[]> entry : mOutputSizes.entrySet()) {
+            if (!Arrays.equals(entry.getValue(), other.mOutputSizes.get(entry.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        return mId.hashCode() * 31 + mLensFacing;
+    }
+
+    @Override
+    public String toString() {
+        return "CameraInfo{id=" + mId + ", facing=" + mLensFacing + ", orientation=" + mSensorOrientation
+                + ", level=" + mHardwareLevel + ", outputs=" + mOutputSizes.keySet() + "}";
+    }
+
+    public static class Builder {
+        private final String mId;
+        private int mLensFacing;
+        private int mSensorOrientation;
+        private boolean mTimestampRealtime;
+        // what a camera that doesn't report a level is held to
+        private int mHardwareLevel = StreamCombinationPlanner.LEVEL_LEGACY;
+        private final Map<Integer, int[]> mOutputSizes = new TreeMap<>();
+        private int[] mFpsRanges = new int[0];
+        private int[] mHighSpeedVideoConfigs = new int[0];
+
+        public Builder(String id) {
+            mId = id;
+        }
+
+        public Builder setLensFacing(int lensFacing) {
+            mLensFacing = lensFacing;
+            return this;
+        }
+
+        public Builder setSensorOrientation(int sensorOrientation) {
+            mSensorOrientation = sensorOrientation;
+            return this;
+        }
+
+        public Builder setTimestampRealtime(boolean timestampRealtime) {
+            mTimestampRealtime = timestampRealtime;
+            return this;
+        }
+
+        public Builder setHardwareLevel(int hardwareLevel) {
+            mHardwareLevel = hardwareLevel;
+            return this;
+        }
+
+        /**
+         * @param sizes packed width/height pairs
+         */
+        public Builder setOutputSizes(int output, int[] sizes) {
+            if (sizes.length % 2 != 0) {
+                throw new IllegalArgumentException("sizes must be width/height pairs");
+            }
+            mOutputSizes.put(output, sizes.clone());
+            return this;
+        }
+
+        /**
+         * @param ranges packed min/max pairs
+         */
+        public Builder setFpsRanges(int[] ranges) {
+            if (ranges.length % 2 != 0) {
+                throw new IllegalArgumentException("ranges must be min/max pairs");
+            }
+            mFpsRanges = ranges.clone();
+            return this;
+        }
+
+        /**
+         * @param configs packed width/height/minFps/maxFps quadruples
+         */
+        public Builder setHighSpeedVideoConfigs(int[] configs) {
+            if (configs.length % 4 != 0) {
+                throw new IllegalArgumentException("configs must be width/height/minFps/maxFps quadruples");
+            }
+            mHighSpeedVideoConfigs = configs.clone();
+            return this;
+        }
+
+        public CameraInfo build() {
+            return new CameraInfo(this);
+        }
+    }
+}
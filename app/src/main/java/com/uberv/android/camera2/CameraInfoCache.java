@@ -0,0 +1,161 @@
+package com.uberv.android.camera2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists {@link CameraInfo} for every camera so that startup does not have to query (and parse) the camera
+ * characteristics again.
+ * <p>
+ * The file is tagged with a fingerprint of the device/build; a cache written under another fingerprint, by another
+ * format version, or that cannot be parsed is treated as missing.
+ */
+public class CameraInfoCache {
+    private static final int MAGIC = 0x43414d49; // "CAMI"
+    static final int VERSION = 4;
+    // no real list comes close; guards against allocating garbage lengths from a corrupt file
+    private static final int MAX_ARRAY_LENGTH = 1 << 16;
+    // devices have a handful of cameras, logical ones included
+    private static final int MAX_CAMERAS = 64;
+
+    private final File mFile;
+
+    public CameraInfoCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return cached cameras, or null if there is no valid cache for {@code fingerprint}
+     */
+    public List<CameraInfo> load(String fingerprint) {
+        if (!mFile.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            return read(in, fingerprint);
+        } catch (IOException | RuntimeException e) {
+            // corrupt or truncated, e.g. the process died while writing
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the cache atomically: readers either see the previous file or the complete new one.
+     */
+    public void save(String fingerprint, List<CameraInfo> cameras) throws IOException {
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(mFile.getName(), ".tmp", parent);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            write(out, fingerprint, cameras);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("unable to replace " + mFile);
+            }
+        } finally {
+            closeQuietly(out);
+            tmp.delete();
+        }
+    }
+
+    public void invalidate() {
+        mFile.delete();
+    }
+
+    static void write(DataOutputStream out, String fingerprint, List<CameraInfo> cameras) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(fingerprint);
+        out.writeInt(cameras.size());
+        for (CameraInfo camera : cameras) {
+            out.writeUTF(camera.getId());
+            out.writeInt(camera.getLensFacing());
+            out.writeInt(camera.getSensorOrientation());
+            out.writeBoolean(camera.isTimestampRealtime());
+            out.writeInt(camera.getHardwareLevel());
+            writeInts(out, camera.getFpsRanges());
+            writeInts(out, camera.getHighSpeedVideoConfigs());
+            Map<Integer, int[]> outputs = camera.getAllOutputSizes();
+            out.writeInt(outputs.size());
+            for (Map.Entry<Integer, int[]> output : outputs.entrySet()) {
+                out.writeInt(output.getKey());
+                writeInts(out, output.getValue());
+            }
+        }
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static int[] readInts(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_ARRAY_LENGTH) {
+            throw new IOException("bad array length " + length);
+        }
+        int[] values = new int[length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+
+    static List<CameraInfo> read(DataInputStream in, String fingerprint) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION || !fingerprint.equals(in.readUTF())) {
+            return null;
+        }
+        int cameraCount = in.readInt();
+        if (cameraCount < 0 || cameraCount > MAX_CAMERAS) {
+            throw new IOException("bad camera count " + cameraCount);
+        }
+        List<CameraInfo> cameras = new ArrayList<>(cameraCount);
+        for (int i = 0; i < cameraCount; i++) {
+            CameraInfo.Builder builder = new CameraInfo.Builder(in.readUTF())
+                    .setLensFacing(in.readInt())
+                    .setSensorOrientation(in.readInt())
+                    .setTimestampRealtime(in.readBoolean())
+                    .setHardwareLevel(in.readInt())
+                    .setFpsRanges(readInts(in))
+                    .setHighSpeedVideoConfigs(readInts(in));
+            int outputCount = in.readInt();
+            for (int j = 0; j < outputCount; j++) {
+                int output = in.readInt();
+                builder.setOutputSizes(output, readInts(in));
+            }
+            cameras.add(builder.build());
+        }
+        if (in.read() != -1) {
+            // trailing garbage means this is not a file we wrote
+            return null;
+        }
+        return Collections.unmodifiableList(cameras);
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.uberv.android.camera2;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads the camera work runs on, one lane per kind of work so that a slow task in one lane never delays
+ * another: a disk write does not hold up an AF lock callback, frame analysis does not hold up an image reader.
+ * <p>
+ * Every lane is a {@link MeteredExecutor} with its own queue depth and latency statistics. Lanes whose thread
+ * also receives framework callbacks through a {@code Handler} count those too, see
+ * {@code HandlerThreadExecutor#setMeter}.
+ * {@link #shutdown(long, TimeUnit)} stops the lanes in dependency order so that work already queued is finished
+ * while nothing new is produced: first the lanes that create images, then the image I/O (which drains the writes
+ * in flight), then the processing lane.
+ */
+public class CameraLanes {
+
+    public enum Lane {
+        // device and session callbacks, requests to the camera and the capture state machine
+        CONTROL,
+        // image reader callbacks: pairing stills with their results, handing frames to analysis
+        RESULTS,
+        // writing captured images to disk
+        IMAGE_IO,
+        // CPU heavy frame processing
+        PROCESSING
+    }
+
+    private static final Lane[] LANES = Lane.values();
+
+    private final MeteredExecutor[] mLanes = new MeteredExecutor[LANES.length];
+
+    /**
+     * @param executors one executor per {@link Lane}, in declaration order; the lanes take ownership of them
+     */
+    public CameraLanes(Clock clock, ExecutorService... executors) {
+        if (executors.length != LANES.length) {
+            throw new IllegalArgumentException("need " + LANES.length + " executors, got " + executors.length);
+        }
+        for (Lane lane : LANES) {
+            String name = lane.name().toLowerCase(Locale.US);
+            mLanes[lane.ordinal()] = new MeteredExecutor(name, executors[lane.ordinal()], clock);
+        }
+    }
+
+    public MeteredExecutor get(Lane lane) {
+        return mLanes[lane.ordinal()];
+    }
+
+    /**
+     * Stop accepting work on every lane and wait, lane by lane in {@link Lane} order, for the queued tasks to
+     * finish.
+     *
+     * @param timeout shared by all lanes
+     * @return true if every lane finished in time
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean terminated = true;
+        for (MeteredExecutor lane : mLanes) {
+            lane.shutdown();
+            terminated &= lane.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        return terminated;
+    }
+
+    /**
+     * @return one line per lane
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        for (MeteredExecutor lane : mLanes) {
+            out.append(lane.dump()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * @return an executor with one thread named {@code threadName}
+     */
+    public static ExecutorService newSingleThreadExecutor(final String threadName) {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, threadName);
+            }
+        });
+    }
+}
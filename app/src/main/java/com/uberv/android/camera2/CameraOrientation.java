@@ -0,0 +1,31 @@
+package com.uberv.android.camera2;
+
+/**
+ * Rotation arithmetic between the camera sensor and the display.
+ */
+public final class CameraOrientation {
+
+    private CameraOrientation() {
+    }
+
+    /**
+     * @param rotation one of {@code Surface.ROTATION_0/90/180/270}
+     * @return the rotation in degrees
+     */
+    public static int displayRotationToDegrees(int rotation) {
+        if (rotation < 0 || rotation > 3) {
+            throw new IllegalArgumentException("not a display rotation: " + rotation);
+        }
+        return rotation * 90;
+    }
+
+    /**
+     * @param sensorOrientation clockwise angle the sensor image has to be rotated to be upright on the device in
+     *                          its natural orientation
+     * @param displayDegrees    current display rotation in degrees
+     * @return angle between the sensor image and the display; 90 or 270 means width and height are swapped
+     */
+    public static int sensorToDeviceRotation(int sensorOrientation, int displayDegrees) {
+        return (sensorOrientation + displayDegrees + 360) % 360;
+    }
+}
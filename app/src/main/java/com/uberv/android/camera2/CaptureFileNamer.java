@@ -0,0 +1,108 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.util.TimeZone;
+
+/**
+ * Names capture files {@code <prefix>yyyyMMdd_HHmmss_SSS<extension>} after the local time of the capture, without
+ * touching the file system.
+ * <p>
+ * Names are unique and increase in the order they are handed out: a capture in the same millisecond as the
+ * previous one (a burst) or one with an earlier time (the clock was set back) keeps the previous time and gets a
+ * {@code _001}, {@code _002}, ... suffix. Uniqueness is only guaranteed among the names of one instance, so keep
+ * one per directory. Thread safe.
+ */
+public class CaptureFileNamer {
+    private final File mDirectory;
+    private final String mPrefix;
+    private final String mExtension;
+    private final TimeZone mTimeZone;
+    private final StringBuilder mName = new StringBuilder(48);
+    private long mLastMillis = Long.MIN_VALUE;
+    private int mCollisions;
+
+    /**
+     * @param extension including the dot, e.g. {@code ".jpg"}
+     */
+    public CaptureFileNamer(File directory, String prefix, String extension, TimeZone timeZone) {
+        mDirectory = directory;
+        mPrefix = prefix;
+        mExtension = extension;
+        mTimeZone = timeZone;
+    }
+
+    public CaptureFileNamer(File directory, String prefix, String extension) {
+        this(directory, prefix, extension, TimeZone.getDefault());
+    }
+
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @param wallClockMillis time of the capture, e.g. {@code System.currentTimeMillis()}
+     */
+    public File next(long wallClockMillis) {
+        return new File(mDirectory, nextName(wallClockMillis));
+    }
+
+    synchronized String nextName(long wallClockMillis) {
+        if (wallClockMillis > mLastMillis) {
+            mLastMillis = wallClockMillis;
+            mCollisions = 0;
+        } else {
+            mCollisions++;
+        }
+        StringBuilder name = mName;
+        name.setLength(0);
+        name.append(mPrefix);
+        appendLocalTime(name, mLastMillis + mTimeZone.getOffset(mLastMillis));
+        if (mCollisions > 0) {
+            name.append('_');
+            appendPadded(name, mCollisions, 3);
+        }
+        name.append(mExtension);
+        return name.toString();
+    }
+
+    /**
+     * Append {@code yyyyMMdd_HHmmss_SSS} of a local time given as milliseconds since the local epoch.
+     */
+    static void appendLocalTime(StringBuilder out, long localMillis) {
+        long days = localMillis / 86400000L;
+        int millisOfDay = (int) (localMillis % 86400000L);
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += 86400000;
+        }
+        // days since 1970-01-01 to a proleptic Gregorian date, see H. Hinnant's "civil_from_days"
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+        int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        appendPadded(out, year, 4);
+        appendPadded(out, month, 2);
+        appendPadded(out, day, 2);
+        out.append('_');
+        appendPadded(out, millisOfDay / 3600000, 2);
+        appendPadded(out, millisOfDay / 60000 % 60, 2);
+        appendPadded(out, millisOfDay / 1000 % 60, 2);
+        out.append('_');
+        appendPadded(out, millisOfDay % 1000, 3);
+    }
+
+    private static void appendPadded(StringBuilder out, long value, int digits) {
+        for (long limit = 10, i = 1; i < digits; i++, limit *= 10) {
+            if (value < limit) {
+                out.append('0');
+            }
+        }
+        out.append(value);
+    }
+}
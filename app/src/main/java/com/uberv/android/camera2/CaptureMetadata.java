@@ -0,0 +1,155 @@
+package com.uberv.android.camera2;
+
+/**
+ * The parts of a capture result that describe how an image was taken, in plain Java so that they can travel with
+ * the image to the writer. Values the device did not report are {@link #UNKNOWN} (or NaN for floats).
+ */
+public class CaptureMetadata {
+    public static final int UNKNOWN = -1;
+
+    private final long mTimestampNanos;
+    private final long mFrameNumber;
+    private final long mExposureTimeNanos;
+    private final int mSensitivity;
+    private final float mFocusDistanceDiopters;
+    private final float mAperture;
+    private final float mFocalLength;
+    private final int mAfState;
+    private final int mAeState;
+
+    private CaptureMetadata(Builder builder) {
+        mTimestampNanos = builder.mTimestampNanos;
+        mFrameNumber = builder.mFrameNumber;
+        mExposureTimeNanos = builder.mExposureTimeNanos;
+        mSensitivity = builder.mSensitivity;
+        mFocusDistanceDiopters = builder.mFocusDistanceDiopters;
+        mAperture = builder.mAperture;
+        mFocalLength = builder.mFocalLength;
+        mAfState = builder.mAfState;
+        mAeState = builder.mAeState;
+    }
+
+    /**
+     * @return sensor timestamp of the start of exposure, the same as the image's
+     */
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    public long getFrameNumber() {
+        return mFrameNumber;
+    }
+
+    public long getExposureTimeNanos() {
+        return mExposureTimeNanos;
+    }
+
+    /**
+     * @return ISO sensitivity
+     */
+    public int getSensitivity() {
+        return mSensitivity;
+    }
+
+    /**
+     * @return focus distance in diopters (1/m), 0 for infinity
+     */
+    public float getFocusDistanceDiopters() {
+        return mFocusDistanceDiopters;
+    }
+
+    /**
+     * @return f-number
+     */
+    public float getAperture() {
+        return mAperture;
+    }
+
+    /**
+     * @return focal length in millimeters
+     */
+    public float getFocalLength() {
+        return mFocalLength;
+    }
+
+    /**
+     * @return one of the {@code CaptureStateMachine.AF_STATE_*} values
+     */
+    public int getAfState() {
+        return mAfState;
+    }
+
+    /**
+     * @return one of the {@code CaptureStateMachine.AE_STATE_*} values
+     */
+    public int getAeState() {
+        return mAeState;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureMetadata{frame=" + mFrameNumber + ", exposureNs=" + mExposureTimeNanos
+                + ", iso=" + mSensitivity + ", focusDiopters=" + mFocusDistanceDiopters + ", f/" + mAperture
+                + ", focalLengthMm=" + mFocalLength + ", af=" + mAfState + ", ae=" + mAeState + "}";
+    }
+
+    public static class Builder {
+        private final long mTimestampNanos;
+        private long mFrameNumber = UNKNOWN;
+        private long mExposureTimeNanos = UNKNOWN;
+        private int mSensitivity = UNKNOWN;
+        private float mFocusDistanceDiopters = Float.NaN;
+        private float mAperture = Float.NaN;
+        private float mFocalLength = Float.NaN;
+        private int mAfState = UNKNOWN;
+        private int mAeState = UNKNOWN;
+
+        public Builder(long timestampNanos) {
+            mTimestampNanos = timestampNanos;
+        }
+
+        public Builder setFrameNumber(long frameNumber) {
+            mFrameNumber = frameNumber;
+            return this;
+        }
+
+        public Builder setExposureTimeNanos(long exposureTimeNanos) {
+            mExposureTimeNanos = exposureTimeNanos;
+            return this;
+        }
+
+        public Builder setSensitivity(int sensitivity) {
+            mSensitivity = sensitivity;
+            return this;
+        }
+
+        public Builder setFocusDistanceDiopters(float focusDistanceDiopters) {
+            mFocusDistanceDiopters = focusDistanceDiopters;
+            return this;
+        }
+
+        public Builder setAperture(float aperture) {
+            mAperture = aperture;
+            return this;
+        }
+
+        public Builder setFocalLength(float focalLength) {
+            mFocalLength = focalLength;
+            return this;
+        }
+
+        public Builder setAfState(int afState) {
+            mAfState = afState;
+            return this;
+        }
+
+        public Builder setAeState(int aeState) {
+            mAeState = aeState;
+            return this;
+        }
+
+        public CaptureMetadata build() {
+            return new CaptureMetadata(this);
+        }
+    }
+}
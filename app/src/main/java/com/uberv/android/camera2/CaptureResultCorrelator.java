@@ -0,0 +1,152 @@
+package com.uberv.android.camera2;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Pairs images with the capture results they were taken with. Both carry the sensor timestamp of the start of
+ * exposure, but they arrive on separate callbacks and in either order, so whichever comes first waits here for the
+ * other.
+ * <p>
+ * The wait is bounded: at most {@code imageCapacity} images (each typically pins a reader buffer) and
+ * {@code resultCapacity} results are kept, and anything more than
+ * {@code maxAgeNanos} older than the newest timestamp seen is given up on. Such orphans go to the
+ * {@link Listener} as well, an orphaned image still has to be saved or closed. All listener calls are made with the
+ * correlator's lock held and must not call back into it. Thread safe.
+ *
+ * @param <I> image type, e.g. a camera {@code Image}
+ * @param <R> result type, e.g. {@link CaptureMetadata}
+ */
+public class CaptureResultCorrelator<I, R> {
+
+    public interface Listener<I, R> {
+
+        void onMatched(long timestampNanos, I image, R result);
+
+        /**
+         * No result arrived for {@code image} in time, e.g. because the capture failed after the image was
+         * produced. The listener now owns the image.
+         */
+        void onImageOrphaned(long timestampNanos, I image);
+
+        /**
+         * No image arrived for {@code result} in time, e.g. because it was dropped by the reader.
+         */
+        void onResultOrphaned(long timestampNanos, R result);
+    }
+
+    private final int mImageCapacity;
+    private final int mResultCapacity;
+    private final long mMaxAgeNanos;
+    private final Listener<I, R> mListener;
+    private final TreeMap<Long, I> mImages = new TreeMap<>();
+    private final TreeMap<Long, R> mResults = new TreeMap<>();
+    private long mNewestNanos = Long.MIN_VALUE;
+    private long mMatched;
+    private long mOrphanedImages;
+    private long mOrphanedResults;
+
+    public CaptureResultCorrelator(int imageCapacity, int resultCapacity, long maxAgeNanos,
+                                   Listener<I, R> listener) {
+        if (imageCapacity < 1 || resultCapacity < 1) {
+            throw new IllegalArgumentException("capacities must be positive: " + imageCapacity + ", "
+                    + resultCapacity);
+        }
+        mImageCapacity = imageCapacity;
+        mResultCapacity = resultCapacity;
+        mMaxAgeNanos = maxAgeNanos;
+        mListener = listener;
+    }
+
+    public synchronized void offerImage(long timestampNanos, I image) {
+        R result = mResults.remove(timestampNanos);
+        if (result != null) {
+            mMatched++;
+            mListener.onMatched(timestampNanos, image, result);
+        } else {
+            I duplicate = mImages.put(timestampNanos, image);
+            if (duplicate != null) {
+                orphanImage(timestampNanos, duplicate);
+            }
+        }
+        advance(timestampNanos);
+    }
+
+    public synchronized void offerResult(long timestampNanos, R result) {
+        I image = mImages.remove(timestampNanos);
+        if (image != null) {
+            mMatched++;
+            mListener.onMatched(timestampNanos, image, result);
+        } else {
+            R duplicate = mResults.put(timestampNanos, result);
+            if (duplicate != null) {
+                orphanResult(timestampNanos, duplicate);
+            }
+        }
+        advance(timestampNanos);
+    }
+
+    private void advance(long timestampNanos) {
+        mNewestNanos = Math.max(mNewestNanos, timestampNanos);
+        long oldest = mNewestNanos - mMaxAgeNanos;
+        while (!mImages.isEmpty() && (mImages.size() > mImageCapacity || mImages.firstKey() < oldest)) {
+            Map.Entry<Long, I> entry = mImages.pollFirstEntry();
+            orphanImage(entry.getKey(), entry.getValue());
+        }
+        while (!mResults.isEmpty() && (mResults.size() > mResultCapacity || mResults.firstKey() < oldest)) {
+            Map.Entry<Long, R> entry = mResults.pollFirstEntry();
+            orphanResult(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Give up on everything that is waiting, e.g. because the session is closing.
+     */
+    public synchronized void clear() {
+        while (!mImages.isEmpty()) {
+            Map.Entry<Long, I> entry = mImages.pollFirstEntry();
+            orphanImage(entry.getKey(), entry.getValue());
+        }
+        while (!mResults.isEmpty()) {
+            Map.Entry<Long, R> entry = mResults.pollFirstEntry();
+            orphanResult(entry.getKey(), entry.getValue());
+        }
+        mNewestNanos = Long.MIN_VALUE;
+    }
+
+    private void orphanImage(long timestampNanos, I image) {
+        mOrphanedImages++;
+        mListener.onImageOrphaned(timestampNanos, image);
+    }
+
+    private void orphanResult(long timestampNanos, R result) {
+        mOrphanedResults++;
+        mListener.onResultOrphaned(timestampNanos, result);
+    }
+
+    public synchronized int getPendingImages() {
+        return mImages.size();
+    }
+
+    public synchronized int getPendingResults() {
+        return mResults.size();
+    }
+
+    public synchronized long getMatched() {
+        return mMatched;
+    }
+
+    public synchronized long getOrphanedImages() {
+        return mOrphanedImages;
+    }
+
+    public synchronized long getOrphanedResults() {
+        return mOrphanedResults;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "matched=" + mMatched + " orphanedImages=" + mOrphanedImages + " orphanedResults=" + mOrphanedResults
+                + " pending=" + mImages.size() + "/" + mResults.size();
+    }
+}
@@ -0,0 +1,319 @@
+package com.uberv.android.camera2;
+
+/**
+ * Drives a still capture through preview → AF lock → AE precapture → capture → unlock.
+ * <p>
+ * The machine is fed the AF/AE states of every capture result and issues {@link Actions} in return. Each waiting
+ * state has a deadline: when the lens or the AE routine is too slow the machine moves on with whatever it has
+ * rather than holding the shutter forever. Time spent in each state is recorded in {@link StateStats}.
+ * <p>
+ * Not thread safe; call it from the camera callback thread only.
+ */
+public class CaptureStateMachine {
+
+    // mirror of CaptureResult.CONTROL_AF_STATE_* so the machine can run without the Android framework
+    public static final int AF_STATE_INACTIVE = 0;
+    public static final int AF_STATE_PASSIVE_SCAN = 1;
+    public static final int AF_STATE_PASSIVE_FOCUSED = 2;
+    public static final int AF_STATE_ACTIVE_SCAN = 3;
+    public static final int AF_STATE_FOCUSED_LOCKED = 4;
+    public static final int AF_STATE_NOT_FOCUSED_LOCKED = 5;
+    public static final int AF_STATE_PASSIVE_UNFOCUSED = 6;
+
+    // mirror of CaptureResult.CONTROL_AF_MODE_OFF
+    public static final int AF_MODE_OFF = 0;
+
+    // mirror of CaptureResult.CONTROL_AE_STATE_*
+    public static final int AE_STATE_INACTIVE = 0;
+    public static final int AE_STATE_SEARCHING = 1;
+    public static final int AE_STATE_CONVERGED = 2;
+    public static final int AE_STATE_LOCKED = 3;
+    public static final int AE_STATE_FLASH_REQUIRED = 4;
+    public static final int AE_STATE_PRECAPTURE = 5;
+
+    public enum State {
+        PREVIEW,
+        // AF trigger sent, waiting for the lens to lock
+        WAITING_LOCK,
+        // AE precapture trigger sent, waiting for the sequence to start
+        WAITING_PRECAPTURE,
+        // precapture running, waiting for it to finish
+        WAITING_NON_PRECAPTURE,
+        // still request(s) submitted, waiting for them to complete
+        CAPTURING
+    }
+
+    /**
+     * Requests the machine makes to the camera.
+     */
+    public interface Actions {
+
+        /**
+         * Send an AF trigger start.
+         */
+        void lockFocus();
+
+        /**
+         * Send an AE precapture trigger start.
+         */
+        void runPrecaptureSequence();
+
+        /**
+         * Submit the still capture; report back through {@link #onCaptureCompleted()}.
+         */
+        void captureStill();
+
+        /**
+         * Cancel the AF trigger and resume the plain preview.
+         */
+        void unlockFocus();
+    }
+
+    public interface TransitionListener {
+
+        /**
+         * @param durationNanos time spent in {@code from}
+         * @param timedOut      true if {@code from} was left because its deadline expired
+         */
+        void onTransition(State from, State to, long durationNanos, boolean timedOut);
+    }
+
+    private final Actions mActions;
+    private final Clock mClock;
+    private final long[] mTimeoutNanos = new long[State.values().length];
+    private final StateStats[] mStats = new StateStats[State.values().length];
+    private TransitionListener mTransitionListener;
+
+    private State mState = State.PREVIEW;
+    private long mStateEnteredNanos;
+    private Integer mLastAeState;
+    // the result of the request carrying the AF trigger has arrived
+    private boolean mFocusTriggerSeen;
+
+    public CaptureStateMachine(Actions actions, Clock clock) {
+        mActions = actions;
+        mClock = clock;
+        for (State state : State.values()) {
+            mStats[state.ordinal()] = new StateStats();
+        }
+        setTimeoutMillis(State.WAITING_LOCK, 1000);
+        setTimeoutMillis(State.WAITING_PRECAPTURE, 500);
+        setTimeoutMillis(State.WAITING_NON_PRECAPTURE, 1000);
+        setTimeoutMillis(State.CAPTURING, 3000);
+        mStateEnteredNanos = clock.nanoTime();
+    }
+
+    /**
+     * @param millis deadline for leaving {@code state}, 0 to wait forever
+     */
+    public void setTimeoutMillis(State state, long millis) {
+        mTimeoutNanos[state.ordinal()] = millis * 1000000L;
+    }
+
+    public void setTransitionListener(TransitionListener listener) {
+        mTransitionListener = listener;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    public StateStats getStats(State state) {
+        return mStats[state.ordinal()];
+    }
+
+    /**
+     * Start a capture sequence.
+     *
+     * @return false if a capture is already in progress
+     */
+    public boolean takePicture() {
+        if (mState != State.PREVIEW) {
+            return false;
+        }
+        mLastAeState = null;
+        mFocusTriggerSeen = false;
+        moveTo(State.WAITING_LOCK, false);
+        mActions.lockFocus();
+        return true;
+    }
+
+    /**
+     * Feed the AF and AE state of a capture result whose AF mode is not known; {@code null} means the device does
+     * not report it.
+     */
+    public void onCaptureResult(Integer afState, Integer aeState) {
+        onCaptureResult(afState, aeState, null, false);
+    }
+
+    /**
+     * Feed the AF and AE state of a capture result; {@code null} means the device does not report it.
+     *
+     * @param afMode         AF mode of the result, null if not reported
+     * @param focusTriggered true for the result of the request carrying the AF trigger
+     */
+    public void onCaptureResult(Integer afState, Integer aeState, Integer afMode, boolean focusTriggered) {
+        mLastAeState = aeState;
+        switch (mState) {
+            case WAITING_LOCK:
+                mFocusTriggerSeen |= focusTriggered;
+                if (afState == null
+                        || afState == AF_STATE_FOCUSED_LOCKED
+                        || afState == AF_STATE_NOT_FOCUSED_LOCKED
+                        // earlier results predate the trigger, INACTIVE only means it has no effect once the
+                        // trigger was processed or on a fixed focus lens
+                        || (afState == AF_STATE_INACTIVE
+                        && (mFocusTriggerSeen || (afMode != null && afMode == AF_MODE_OFF)))) {
+                    onFocusSettled(aeState, false);
+                    return;
+                }
+                break;
+            case WAITING_PRECAPTURE:
+                if (aeState == null
+                        || aeState == AE_STATE_PRECAPTURE
+                        || aeState == AE_STATE_FLASH_REQUIRED) {
+                    moveTo(State.WAITING_NON_PRECAPTURE, false);
+                    return;
+                }
+                break;
+            case WAITING_NON_PRECAPTURE:
+                if (aeState == null || aeState != AE_STATE_PRECAPTURE) {
+                    capture(false);
+                    return;
+                }
+                break;
+            default:
+                break;
+        }
+        checkTimeout();
+    }
+
+    /**
+     * The still capture finished (successfully or not).
+     */
+    public void onCaptureCompleted() {
+        if (mState == State.CAPTURING) {
+            unlock(false);
+        }
+    }
+
+    /**
+     * Abort any capture in progress without issuing actions, e.g. because the session was closed.
+     */
+    public void reset() {
+        if (mState != State.PREVIEW) {
+            moveTo(State.PREVIEW, false);
+        }
+    }
+
+    /**
+     * Enforce the deadline of the current state. Called on every capture result; may also be called from a
+     * timer in case results stop arriving.
+     */
+    public void checkTimeout() {
+        long timeout = mTimeoutNanos[mState.ordinal()];
+        if (mState == State.PREVIEW || timeout <= 0 || mClock.nanoTime() - mStateEnteredNanos < timeout) {
+            return;
+        }
+        switch (mState) {
+            case WAITING_LOCK:
+                // the lens did not lock in time; shoot with whatever focus we have
+                onFocusSettled(mLastAeState, true);
+                break;
+            case WAITING_PRECAPTURE:
+            case WAITING_NON_PRECAPTURE:
+                capture(true);
+                break;
+            case CAPTURING:
+                unlock(true);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onFocusSettled(Integer aeState, boolean timedOut) {
+        if (aeState == null || aeState == AE_STATE_CONVERGED || aeState == AE_STATE_LOCKED) {
+            capture(timedOut);
+        } else {
+            moveTo(State.WAITING_PRECAPTURE, timedOut);
+            mActions.runPrecaptureSequence();
+        }
+    }
+
+    private void capture(boolean timedOut) {
+        moveTo(State.CAPTURING, timedOut);
+        mActions.captureStill();
+    }
+
+    private void unlock(boolean timedOut) {
+        moveTo(State.PREVIEW, timedOut);
+        mActions.unlockFocus();
+    }
+
+    private void moveTo(State next, boolean timedOut) {
+        long now = mClock.nanoTime();
+        long duration = now - mStateEnteredNanos;
+        State previous = mState;
+        mStats[previous.ordinal()].record(duration, timedOut);
+        mState = next;
+        mStateEnteredNanos = now;
+        if (mTransitionListener != null) {
+            mTransitionListener.onTransition(previous, next, duration, timedOut);
+        }
+    }
+
+    /**
+     * How long the machine stayed in one state.
+     */
+    public static class StateStats {
+        private long mCount;
+        private long mTimeouts;
+        private long mTotalNanos;
+        private long mMaxNanos;
+        private long mLastNanos;
+
+        void record(long durationNanos, boolean timedOut) {
+            mCount++;
+            if (timedOut) {
+                mTimeouts++;
+            }
+            mTotalNanos += durationNanos;
+            mMaxNanos = Math.max(mMaxNanos, durationNanos);
+            mLastNanos = durationNanos;
+        }
+
+        /**
+         * @return number of times the state was left
+         */
+        public long getCount() {
+            return mCount;
+        }
+
+        /**
+         * @return number of times the state was left because its deadline expired
+         */
+        public long getTimeouts() {
+            return mTimeouts;
+        }
+
+        public long getMeanNanos() {
+            return mCount == 0 ? 0 : mTotalNanos / mCount;
+        }
+
+        public long getMaxNanos() {
+            return mMaxNanos;
+        }
+
+        public long getLastNanos() {
+            return mLastNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + mCount + " timeouts=" + mTimeouts
+                    + " meanMs=" + getMeanNanos() / 1000000 + " maxMs=" + mMaxNanos / 1000000
+                    + " lastMs=" + mLastNanos / 1000000;
+        }
+    }
+}
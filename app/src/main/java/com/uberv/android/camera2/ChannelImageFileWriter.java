@@ -0,0 +1,74 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes the image buffer straight to a {@link FileChannel}.
+ * <p>
+ * Camera image planes are direct buffers, so they are handed to the channel as they are without a heap copy.
+ * Heap buffers are staged through a small pooled direct chunk instead of one temporary buffer per image.
+ */
+public class ChannelImageFileWriter implements ImageFileWriter {
+    // staging chunk used for non-direct buffers
+    private static final int CHUNK_SIZE = 256 * 1024;
+
+    private final DirectBufferPool mPool;
+
+    public ChannelImageFileWriter(DirectBufferPool pool) {
+        mPool = pool;
+    }
+
+    @Override
+    public long write(ByteBuffer data, File target) throws IOException {
+        return write(new ByteBuffer[]{data}, target);
+    }
+
+    @Override
+    public long write(ByteBuffer[] data, File target) throws IOException {
+        FileOutputStream fos = new FileOutputStream(target);
+        try {
+            FileChannel channel = fos.getChannel();
+            long written = 0;
+            for (ByteBuffer buffer : data) {
+                written += buffer.isDirect() ? writeFully(channel, buffer) : writeStaged(channel, buffer);
+            }
+            return written;
+        } finally {
+            fos.close();
+        }
+    }
+
+    private long writeStaged(FileChannel channel, ByteBuffer data) throws IOException {
+        ByteBuffer chunk = mPool.acquire(Math.min(CHUNK_SIZE, Math.max(data.remaining(), 1)));
+        try {
+            long written = 0;
+            ByteBuffer source = data.duplicate();
+            while (source.hasRemaining()) {
+                int n = Math.min(source.remaining(), chunk.capacity());
+                ByteBuffer slice = source.duplicate();
+                slice.limit(slice.position() + n);
+                chunk.clear();
+                chunk.put(slice);
+                chunk.flip();
+                written += writeFully(channel, chunk);
+                source.position(source.position() + n);
+            }
+            data.position(data.limit());
+            return written;
+        } finally {
+            mPool.release(chunk);
+        }
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += channel.write(buffer);
+        }
+        return written;
+    }
+}
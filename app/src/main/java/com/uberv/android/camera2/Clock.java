@@ -0,0 +1,19 @@
+package com.uberv.android.camera2;
+
+/**
+ * Monotonic time source, so that pipeline timings can be driven by a fake clock in unit tests.
+ */
+public interface Clock {
+
+    /**
+     * @return current monotonic time in nanoseconds
+     */
+    long nanoTime();
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+}
@@ -0,0 +1,334 @@
+package com.uberv.android.camera2;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.media.MediaMuxer;
+import android.os.Build;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Video recorder built from a {@link MediaCodec} encoder and a {@link MediaMuxer}, an alternative to
+ * {@code MediaRecorder} that exposes what happens between the camera and the file.
+ * <p>
+ * The camera renders into the encoder's input surface. A drain thread copies every encoded sample out of the
+ * encoder into a pooled buffer and hands it to a bounded {@link EncodedSampleQueue}, so the encoder is never held
+ * up by the file system; a muxer thread takes the samples and writes them through a {@link SampleMuxer}. If the
+ * muxer falls behind far enough to fill the queue, samples are dropped up to the next key frame rather than
+ * stalling the encoder, whose key frame interval is configurable for that reason. Encoder latency and dropped
+ * frames are in {@link #getMetrics()}, bytes written in {@link #getSampleMuxer()}.
+ * <p>
+ * Drive it like a {@code MediaRecorder} through {@link RecorderWarmup}: {@link #configure} once per video size,
+ * then prepare, start, stop and reset per file. Video only.
+ */
+public class CodecRecorder implements RecorderWarmup.Recorder {
+    private static final String LOG_TAG = CodecRecorder.class.getSimpleName();
+    private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int VIDEO_TRACK = 0;
+    private static final long DRAIN_TIMEOUT_US = 10 * 1000;
+    private static final long TAKE_TIMEOUT_MS = 100;
+    // how long stop() waits for the encoder to flush its last frames
+    private static final long STOP_TIMEOUT_MS = 2000;
+    // samples the muxer holds back to interleave tracks, the lone video track never waits
+    private static final int MAX_HELD_SAMPLES = 8;
+
+    private final int mMaxQueuedSamples;
+    private final long mMaxQueuedBytes;
+    private final DirectBufferPool mPool;
+    private final Clock mClock;
+    private int mWidth;
+    private int mHeight;
+    private int mBitRate;
+    private int mFrameRate;
+    private int mKeyFrameIntervalSeconds;
+    private int mOrientationHint;
+    private Surface mPersistentSurface;
+
+    private MediaCodec mCodec;
+    private MediaMuxer mMuxer;
+    private Surface mInputSurface;
+    private Thread mDrainThread;
+    private Thread mMuxerThread;
+    private volatile MediaFormat mOutputFormat;
+    private volatile RuntimeException mFailure;
+    private volatile EncodedSampleQueue mQueue;
+    private volatile SampleMuxer<MediaFormat> mSampleMuxer;
+    private volatile EncoderMetrics mMetrics;
+
+    /**
+     * @param maxQueuedSamples encoded samples waiting for the muxer at most
+     * @param maxQueuedBytes   bytes waiting for the muxer at most
+     * @param pool             sample copies are taken from and returned to
+     * @param clock            on the camera's timestamp base, for the encoder latency
+     */
+    public CodecRecorder(int maxQueuedSamples, long maxQueuedBytes, DirectBufferPool pool, Clock clock) {
+        mMaxQueuedSamples = maxQueuedSamples;
+        mMaxQueuedBytes = maxQueuedBytes;
+        mPool = pool;
+        mClock = clock;
+    }
+
+    /**
+     * Set what the next {@link #prepare(File)} records.
+     *
+     * @param persistentSurface input surface to reuse across files (API 23), null to create one per file
+     */
+    public void configure(int width, int height, int bitRate, int frameRate, int keyFrameIntervalSeconds,
+                          int orientationHint, Surface persistentSurface) {
+        mWidth = width;
+        mHeight = height;
+        mBitRate = bitRate;
+        mFrameRate = frameRate;
+        mKeyFrameIntervalSeconds = keyFrameIntervalSeconds;
+        mOrientationHint = orientationHint;
+        mPersistentSurface = persistentSurface;
+    }
+
+    @Override
+    public void prepare(File output) throws IOException {
+        MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, mWidth, mHeight);
+        format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+        format.setInteger(MediaFormat.KEY_BIT_RATE, mBitRate);
+        format.setInteger(MediaFormat.KEY_FRAME_RATE, mFrameRate);
+        format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, mKeyFrameIntervalSeconds);
+        mCodec = MediaCodec.createEncoderByType(MIME_TYPE);
+        mCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && mPersistentSurface != null) {
+            mCodec.setInputSurface(mPersistentSurface);
+            mInputSurface = mPersistentSurface;
+        } else {
+            mInputSurface = mCodec.createInputSurface();
+        }
+        mMuxer = new MediaMuxer(output.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        mMuxer.setOrientationHint(mOrientationHint);
+        mOutputFormat = null;
+        mFailure = null;
+        mQueue = new EncodedSampleQueue(mMaxQueuedSamples, mMaxQueuedBytes);
+        mSampleMuxer = new SampleMuxer<>(new MediaMuxerAdapter(mMuxer), 1, MAX_HELD_SAMPLES, mPool);
+        mMetrics = new EncoderMetrics(mClock, mFrameRate);
+    }
+
+    /**
+     * @return surface the camera renders the frames to record into, valid after {@link #prepare(File)}
+     */
+    public Surface getInputSurface() {
+        return mInputSurface;
+    }
+
+    @Override
+    public void start() {
+        mCodec.start();
+        final MediaCodec codec = mCodec;
+        final EncodedSampleQueue queue = mQueue;
+        final EncoderMetrics metrics = mMetrics;
+        final SampleMuxer<MediaFormat> sampleMuxer = mSampleMuxer;
+        mDrainThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drain(codec, queue, metrics);
+                } catch (RuntimeException e) {
+                    fail(e);
+                    // let the muxer finish what it has
+                    queue.offer(EncodedSampleQueue.Sample.endOfStream(VIDEO_TRACK));
+                }
+            }
+        }, "camera2-encoder-drain");
+        mMuxerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mux(queue, sampleMuxer);
+                } catch (InterruptedException e) {
+                    fail(new IllegalStateException("muxing interrupted", e));
+                } catch (RuntimeException e) {
+                    fail(e);
+                }
+            }
+        }, "camera2-muxer");
+        mDrainThread.start();
+        mMuxerThread.start();
+    }
+
+    /**
+     * Flush the encoder and finish the file.
+     *
+     * @throws RuntimeException if nothing was recorded or encoding failed, like {@code MediaRecorder.stop()}
+     */
+    @Override
+    public void stop() {
+        mCodec.signalEndOfInputStream();
+        join(mDrainThread);
+        join(mMuxerThread);
+        mDrainThread = null;
+        mMuxerThread = null;
+        Log.d(LOG_TAG, mMetrics + ", " + mQueue + ", " + mSampleMuxer);
+        if (mFailure != null) {
+            throw mFailure;
+        }
+    }
+
+    @Override
+    public void reset() {
+        // after a failed prepare, or to drop a recording that never stopped
+        interrupt(mDrainThread);
+        interrupt(mMuxerThread);
+        mDrainThread = null;
+        mMuxerThread = null;
+        if (mCodec != null) {
+            try {
+                mCodec.stop();
+            } catch (IllegalStateException e) {
+                // never started
+            }
+            mCodec.release();
+            mCodec = null;
+        }
+        if (mMuxer != null) {
+            try {
+                mMuxer.release();
+            } catch (IllegalStateException e) {
+                // started but never stopped, the file is unusable anyway
+            }
+            mMuxer = null;
+        }
+        if (mInputSurface != null && mInputSurface != mPersistentSurface) {
+            mInputSurface.release();
+        }
+        mInputSurface = null;
+    }
+
+    /**
+     * @return encoder statistics of the current or last file, null before the first one
+     */
+    public EncoderMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    public EncodedSampleQueue getQueue() {
+        return mQueue;
+    }
+
+    public SampleMuxer<MediaFormat> getSampleMuxer() {
+        return mSampleMuxer;
+    }
+
+    public String dump() {
+        EncoderMetrics metrics = mMetrics;
+        return metrics == null ? "codec recorder: idle" : metrics + ", " + mQueue + ", " + mSampleMuxer;
+    }
+
+    private void drain(MediaCodec codec, EncodedSampleQueue queue, EncoderMetrics metrics) {
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        while (!Thread.currentThread().isInterrupted()) {
+            int index = codec.dequeueOutputBuffer(info, DRAIN_TIMEOUT_US);
+            if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                // comes before the first sample, the muxer thread sees it when that sample arrives
+                mOutputFormat = codec.getOutputFormat();
+                continue;
+            }
+            if (index < 0) {
+                continue;
+            }
+            // config data is part of the output format
+            if (info.size > 0 && (info.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) == 0) {
+                metrics.onEncoded(info.presentationTimeUs);
+                ByteBuffer encoded = codec.getOutputBuffer(index);
+                encoded.limit(info.offset + info.size).position(info.offset);
+                ByteBuffer copy = mPool.acquire(info.size);
+                copy.put(encoded);
+                copy.flip();
+                if (!queue.offer(new EncodedSampleQueue.Sample(VIDEO_TRACK, copy, info.presentationTimeUs,
+                        info.flags & ~MediaCodec.BUFFER_FLAG_END_OF_STREAM))) {
+                    mPool.release(copy);
+                    metrics.onDiscarded();
+                }
+            }
+            codec.releaseOutputBuffer(index, false);
+            if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                queue.offer(EncodedSampleQueue.Sample.endOfStream(VIDEO_TRACK));
+                return;
+            }
+        }
+    }
+
+    private void mux(EncodedSampleQueue queue, SampleMuxer<MediaFormat> sampleMuxer) throws InterruptedException {
+        while (true) {
+            EncodedSampleQueue.Sample sample = queue.take(TAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            MediaFormat format = mOutputFormat;
+            if (format != null && !sampleMuxer.isStarted()) {
+                sampleMuxer.addTrack(VIDEO_TRACK, format);
+            }
+            if (sample == null) {
+                continue;
+            }
+            sampleMuxer.write(sample);
+            if (sample.isEndOfStream()) {
+                // throws if not a single frame made it
+                sampleMuxer.finish();
+                return;
+            }
+        }
+    }
+
+    private void fail(RuntimeException e) {
+        Log.w(LOG_TAG, "recording failed", e);
+        if (mFailure == null) {
+            mFailure = e;
+        }
+    }
+
+    private void join(Thread thread) {
+        try {
+            thread.join(STOP_TIMEOUT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            thread.interrupt();
+            fail(new IllegalStateException(thread.getName() + " did not finish"));
+        }
+    }
+
+    private static void interrupt(Thread thread) {
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    private static final class MediaMuxerAdapter implements SampleMuxer.Muxer<MediaFormat> {
+        private final MediaMuxer mMuxer;
+        private final MediaCodec.BufferInfo mInfo = new MediaCodec.BufferInfo();
+
+        MediaMuxerAdapter(MediaMuxer muxer) {
+            mMuxer = muxer;
+        }
+
+        @Override
+        public int addTrack(MediaFormat format) {
+            return mMuxer.addTrack(format);
+        }
+
+        @Override
+        public void start() {
+            mMuxer.start();
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer data, long presentationTimeUs, int flags) {
+            mInfo.set(data.position(), data.remaining(), presentationTimeUs, flags);
+            mMuxer.writeSampleData(trackIndex, data, mInfo);
+        }
+
+        @Override
+        public void stop() {
+            mMuxer.stop();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.uberv.android.camera2;
+
+/**
+ * 3x3 integer convolution of the color channels, alpha is kept. Pixels outside the image repeat the border.
+ */
+public class ConvolutionFilter implements PixelFilter {
+    private final int[] mKernel;
+    private final int mDivisor;
+
+    /**
+     * @param kernel  9 weights, row after row
+     * @param divisor sum of the weights for a filter that keeps brightness
+     */
+    public ConvolutionFilter(int[] kernel, int divisor) {
+        if (kernel.length != 9) {
+            throw new IllegalArgumentException("kernel needs 9 weights, got " + kernel.length);
+        }
+        if (divisor == 0) {
+            throw new IllegalArgumentException("divisor must not be 0");
+        }
+        mKernel = kernel.clone();
+        mDivisor = divisor;
+    }
+
+    public static ConvolutionFilter sharpen() {
+        return new ConvolutionFilter(new int[]{
+                0, -1, 0,
+                -1, 5, -1,
+                0, -1, 0}, 1);
+    }
+
+    /**
+     * Gaussian blur, smooths sensor noise.
+     */
+    public static ConvolutionFilter denoise() {
+        return new ConvolutionFilter(new int[]{
+                1, 2, 1,
+                2, 4, 2,
+                1, 2, 1}, 16);
+    }
+
+    @Override
+    public void apply(int[] src, int[] dst, int width, int height, int left, int top, int right, int bottom) {
+        int[] k = mKernel;
+        int divisor = mDivisor;
+        int half = divisor / 2;
+        for (int y = top; y < bottom; y++) {
+            int above = (y > 0 ? y - 1 : 0) * width;
+            int row = y * width;
+            int below = (y < height - 1 ? y + 1 : y) * width;
+            for (int x = left; x < right; x++) {
+                int xl = x > 0 ? x - 1 : 0;
+                int xr = x < width - 1 ? x + 1 : x;
+                int p0 = src[above + xl], p1 = src[above + x], p2 = src[above + xr];
+                int p3 = src[row + xl], p4 = src[row + x], p5 = src[row + xr];
+                int p6 = src[below + xl], p7 = src[below + x], p8 = src[below + xr];
+                int r = k[0] * ((p0 >> 16) & 0xff) + k[1] * ((p1 >> 16) & 0xff) + k[2] * ((p2 >> 16) & 0xff)
+                        + k[3] * ((p3 >> 16) & 0xff) + k[4] * ((p4 >> 16) & 0xff) + k[5] * ((p5 >> 16) & 0xff)
+                        + k[6] * ((p6 >> 16) & 0xff) + k[7] * ((p7 >> 16) & 0xff) + k[8] * ((p8 >> 16) & 0xff);
+                int g = k[0] * ((p0 >> 8) & 0xff) + k[1] * ((p1 >> 8) & 0xff) + k[2] * ((p2 >> 8) & 0xff)
+                        + k[3] * ((p3 >> 8) & 0xff) + k[4] * ((p4 >> 8) & 0xff) + k[5] * ((p5 >> 8) & 0xff)
+                        + k[6] * ((p6 >> 8) & 0xff) + k[7] * ((p7 >> 8) & 0xff) + k[8] * ((p8 >> 8) & 0xff);
+                int b = k[0] * (p0 & 0xff) + k[1] * (p1 & 0xff) + k[2] * (p2 & 0xff)
+                        + k[3] * (p3 & 0xff) + k[4] * (p4 & 0xff) + k[5] * (p5 & 0xff)
+                        + k[6] * (p6 & 0xff) + k[7] * (p7 & 0xff) + k[8] * (p8 & 0xff);
+                dst[row + x] = (p4 & 0xff000000)
+                        | (clamp(divide(r, divisor, half)) << 16)
+                        | (clamp(divide(g, divisor, half)) << 8)
+                        | clamp(divide(b, divisor, half));
+            }
+        }
+    }
+
+    private static int divide(int sum, int divisor, int half) {
+        return divisor == 1 ? sum : (sum + half) / divisor;
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,89 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Recycles direct {@link ByteBuffer}s so that large transient copies do not churn the heap.
+ * <p>
+ * Buffers are kept in power-of-two size classes; at most {@code maxPooledBytes} worth of idle buffers are kept,
+ * anything released beyond that is left to the garbage collector.
+ */
+public class DirectBufferPool {
+    // smallest size class, 4 KiB
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 30;
+
+    private final long mMaxPooledBytes;
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private final ArrayDeque<ByteBuffer>[] mFree = new ArrayDeque[MAX_SHIFT + 1];
+    private long mPooledBytes;
+    private long mAllocations;
+    private long mReuses;
+
+    public DirectBufferPool(long maxPooledBytes) {
+        mMaxPooledBytes = maxPooledBytes;
+        for (int i = MIN_SHIFT; i <= MAX_SHIFT; i++) {
+            mFree[i] = new ArrayDeque<>();
+        }
+    }
+
+    /**
+     * @return a cleared direct buffer whose limit is exactly {@code size} (capacity may be larger)
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        int shift = sizeClass(size);
+        ByteBuffer buffer = mFree[shift].poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocateDirect(1 << shift);
+            mAllocations++;
+        } else {
+            mPooledBytes -= buffer.capacity();
+            mReuses++;
+        }
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    /**
+     * Return a buffer obtained from {@link #acquire(int)}. The caller must not touch it afterwards.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        if (!buffer.isDirect() || Integer.bitCount(capacity) != 1 || capacity < (1 << MIN_SHIFT)) {
+            throw new IllegalArgumentException("buffer was not acquired from this pool");
+        }
+        if (mPooledBytes + capacity > mMaxPooledBytes) {
+            return;
+        }
+        mPooledBytes += capacity;
+        mFree[Integer.numberOfTrailingZeros(capacity)].push(buffer);
+    }
+
+    public synchronized long getPooledBytes() {
+        return mPooledBytes;
+    }
+
+    /**
+     * @return number of buffers that had to be freshly allocated
+     */
+    public synchronized long getAllocations() {
+        return mAllocations;
+    }
+
+    /**
+     * @return number of acquisitions served from the pool
+     */
+    public synchronized long getReuses() {
+        return mReuses;
+    }
+
+    private static int sizeClass(int size) {
+        if (size < 0 || size > (1 << MAX_SHIFT)) {
+            throw new IllegalArgumentException("unsupported buffer size: " + size);
+        }
+        int shift = size <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(size - 1);
+        return Math.max(shift, MIN_SHIFT);
+    }
+}
@@ -0,0 +1,26 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An already encoded (JPEG) image waiting to be persisted, e.g. a wrapper around a camera {@code Image}.
+ */
+public interface EncodedImage {
+
+    /**
+     * @return buffer holding the encoded bytes between its position and limit
+     */
+    ByteBuffer getBuffer();
+
+    /**
+     * Called on the I/O thread right before the image is written.
+     *
+     * @return Exif APP1 segment to splice into the image (see {@link ExifWriter}), or null to write it as it is
+     */
+    ByteBuffer getExifSegment();
+
+    /**
+     * Return the underlying image to its producer. Called exactly once by the pipeline.
+     */
+    void close();
+}
@@ -0,0 +1,192 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded hand-off of encoded samples from the encoder's drain thread to the muxer thread.
+ * <p>
+ * The drain thread must never block: an encoder whose output is not drained stops taking input and the camera
+ * drops frames at its surface without telling anyone. So {@link #offer(Sample)} refuses a sample once the queue
+ * holds {@code maxSamples} samples or {@code maxBytes} bytes. A dropped sample breaks the decoding of every frame
+ * that refers to it, so after a drop the track's samples keep being refused until its next key frame, which the
+ * stream can be decoded from again. End of stream markers are always accepted.
+ */
+public class EncodedSampleQueue {
+    // MediaCodec.BUFFER_FLAG_* values
+    public static final int FLAG_KEY_FRAME = 1;
+    public static final int FLAG_CODEC_CONFIG = 2;
+    public static final int FLAG_END_OF_STREAM = 4;
+
+    /**
+     * One encoded access unit. The queue only moves it; whoever takes it owns {@link #getData()}.
+     */
+    public static final class Sample {
+        private final int mTrack;
+        private final ByteBuffer mData;
+        private final long mPresentationTimeUs;
+        private final int mFlags;
+
+        /**
+         * @param data sample bytes between position and limit
+         */
+        public Sample(int track, ByteBuffer data, long presentationTimeUs, int flags) {
+            mTrack = track;
+            mData = data;
+            mPresentationTimeUs = presentationTimeUs;
+            mFlags = flags;
+        }
+
+        /**
+         * @return end of stream marker for {@code track}, it carries no data
+         */
+        public static Sample endOfStream(int track) {
+            return new Sample(track, null, 0, FLAG_END_OF_STREAM);
+        }
+
+        public int getTrack() {
+            return mTrack;
+        }
+
+        /**
+         * @return the sample bytes, null for an end of stream marker
+         */
+        public ByteBuffer getData() {
+            return mData;
+        }
+
+        public int getSize() {
+            return mData == null ? 0 : mData.remaining();
+        }
+
+        public long getPresentationTimeUs() {
+            return mPresentationTimeUs;
+        }
+
+        public int getFlags() {
+            return mFlags;
+        }
+
+        public boolean isKeyFrame() {
+            return (mFlags & FLAG_KEY_FRAME) != 0;
+        }
+
+        public boolean isEndOfStream() {
+            return (mFlags & FLAG_END_OF_STREAM) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Sample{track=" + mTrack + ", pts=" + mPresentationTimeUs + ", size=" + getSize() + ", flags="
+                    + mFlags + "}";
+        }
+    }
+
+    private final int mMaxSamples;
+    private final long mMaxBytes;
+    private final ArrayDeque<Sample> mSamples = new ArrayDeque<>();
+    // per track, set after a drop until the next key frame
+    private boolean[] mAwaitingKeyFrame = new boolean[0];
+    private long mBytes;
+    private long mPeakBytes;
+    private long mDroppedSamples;
+    private long mDroppedBytes;
+
+    public EncodedSampleQueue(int maxSamples, long maxBytes) {
+        if (maxSamples < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("queue bounds must be positive: " + maxSamples + ", " + maxBytes);
+        }
+        mMaxSamples = maxSamples;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Queue a sample without blocking. On success the queue owns it; otherwise the caller keeps it and is expected
+     * to recycle its buffer.
+     *
+     * @return false if the sample was dropped, because the queue is full or the track waits for a key frame
+     */
+    public synchronized boolean offer(Sample sample) {
+        int track = sample.getTrack();
+        if (track >= mAwaitingKeyFrame.length) {
+            boolean[] awaiting = new boolean[track + 1];
+            System.arraycopy(mAwaitingKeyFrame, 0, awaiting, 0, mAwaitingKeyFrame.length);
+            mAwaitingKeyFrame = awaiting;
+        }
+        if (!sample.isEndOfStream()) {
+            boolean full = mSamples.size() >= mMaxSamples || mBytes + sample.getSize() > mMaxBytes;
+            if (full || (mAwaitingKeyFrame[track] && !sample.isKeyFrame())) {
+                mAwaitingKeyFrame[track] = true;
+                mDroppedSamples++;
+                mDroppedBytes += sample.getSize();
+                return false;
+            }
+            mAwaitingKeyFrame[track] = false;
+        }
+        mSamples.add(sample);
+        mBytes += sample.getSize();
+        mPeakBytes = Math.max(mPeakBytes, mBytes);
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Wait for the next sample.
+     *
+     * @return the oldest sample, null if none arrived within the timeout
+     */
+    public synchronized Sample take(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (mSamples.isEmpty()) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return null;
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        Sample sample = mSamples.poll();
+        mBytes -= sample.getSize();
+        return sample;
+    }
+
+    /**
+     * @return the oldest sample without waiting, null if the queue is empty
+     */
+    public synchronized Sample poll() {
+        Sample sample = mSamples.poll();
+        if (sample != null) {
+            mBytes -= sample.getSize();
+        }
+        return sample;
+    }
+
+    public synchronized int size() {
+        return mSamples.size();
+    }
+
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * @return most bytes queued at once, how close the muxer came to falling behind
+     */
+    public synchronized long getPeakBytes() {
+        return mPeakBytes;
+    }
+
+    public synchronized long getDroppedSamples() {
+        return mDroppedSamples;
+    }
+
+    public synchronized long getDroppedBytes() {
+        return mDroppedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "EncodedSampleQueue{" + mSamples.size() + "/" + mMaxSamples + " samples, " + mBytes + "/"
+                + mMaxBytes + " bytes, peak " + mPeakBytes + ", dropped " + mDroppedSamples + "}";
+    }
+}
@@ -0,0 +1,88 @@
+package com.uberv.android.camera2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encoder side statistics of a recording: how long frames take from the sensor to the encoder's output, and how
+ * many frames never made it.
+ * <p>
+ * Latency needs the presentation times to be on the {@link Clock}'s time base, which they are when the frames
+ * come straight from the camera; a sample whose latency comes out negative or implausibly large is not counted.
+ * Frames dropped before the encoder (by the camera or by an encoder that fell behind) leave gaps in the
+ * presentation times, each gap is counted as the number of frame intervals that fit into it. Record from the
+ * encoder's drain thread, read from anywhere.
+ */
+public class EncoderMetrics {
+    // anything slower than this is a clock mismatch rather than latency
+    private static final long MAX_LATENCY_NANOS = 10 * 1000000000L;
+
+    private final Clock mClock;
+    private final long mFrameIntervalUs;
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+    private final AtomicLong mEncodedFrames = new AtomicLong();
+    private final AtomicLong mDroppedFrames = new AtomicLong();
+    private long mLastPresentationTimeUs = Long.MIN_VALUE;
+
+    /**
+     * @param clock     on the presentation times' time base
+     * @param frameRate the frames are expected at, 0 to not count gaps
+     */
+    public EncoderMetrics(Clock clock, int frameRate) {
+        mClock = clock;
+        mFrameIntervalUs = frameRate > 0 ? 1000000L / frameRate : 0;
+    }
+
+    /**
+     * The encoder produced a frame.
+     */
+    public void onEncoded(long presentationTimeUs) {
+        long latency = mClock.nanoTime() - presentationTimeUs * 1000;
+        if (latency >= 0 && latency < MAX_LATENCY_NANOS) {
+            mLatency.recordNanos(latency);
+        }
+        mEncodedFrames.incrementAndGet();
+        long last = mLastPresentationTimeUs;
+        mLastPresentationTimeUs = presentationTimeUs;
+        if (last == Long.MIN_VALUE || mFrameIntervalUs == 0 || presentationTimeUs <= last) {
+            return;
+        }
+        // rounded, frame times jitter around the nominal interval
+        long missing = (presentationTimeUs - last + mFrameIntervalUs / 2) / mFrameIntervalUs - 1;
+        if (missing > 0) {
+            mDroppedFrames.addAndGet(missing);
+        }
+    }
+
+    /**
+     * An encoded frame was thrown away after the encoder, e.g. by a full {@link EncodedSampleQueue}.
+     */
+    public void onDiscarded() {
+        mDroppedFrames.incrementAndGet();
+    }
+
+    /**
+     * @return sensor to encoder output latency
+     */
+    public LatencyHistogram getLatency() {
+        return mLatency;
+    }
+
+    public long getEncodedFrames() {
+        return mEncodedFrames.get();
+    }
+
+    /**
+     * @return frames missing from the recording, whether lost before or after the encoder
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames.get();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("encoder: ").append(mEncodedFrames.get()).append(" frames, ")
+                .append(mDroppedFrames.get()).append(" dropped, latency ");
+        mLatency.appendSummary(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,465 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+/**
+ * Builds the Exif APP1 segment of a JPEG: capture time, exposure, ISO, lens, orientation and GPS position.
+ * <p>
+ * Only what was set is written. The segment is a few hundred bytes plus the optional thumbnail and is built in one
+ * heap buffer; the image data is never touched, {@link JpegExifSplicer} places the segment in the stream.
+ * Not thread safe.
+ */
+public class ExifWriter {
+    // APP1 segments carry a 16 bit length which counts itself but not the marker
+    static final int MAX_SEGMENT_LENGTH = 0xFFFF + 2;
+
+    static final int TAG_MAKE = 0x010F;
+    static final int TAG_MODEL = 0x0110;
+    static final int TAG_ORIENTATION = 0x0112;
+    static final int TAG_DATE_TIME = 0x0132;
+    static final int TAG_COMPRESSION = 0x0103;
+    static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+    static final int TAG_EXIF_IFD = 0x8769;
+    static final int TAG_GPS_IFD = 0x8825;
+    static final int TAG_EXPOSURE_TIME = 0x829A;
+    static final int TAG_F_NUMBER = 0x829D;
+    static final int TAG_ISO = 0x8827;
+    static final int TAG_EXIF_VERSION = 0x9000;
+    static final int TAG_DATE_TIME_ORIGINAL = 0x9003;
+    static final int TAG_DATE_TIME_DIGITIZED = 0x9004;
+    static final int TAG_OFFSET_TIME = 0x9010;
+    static final int TAG_OFFSET_TIME_ORIGINAL = 0x9011;
+    static final int TAG_SUBJECT_DISTANCE = 0x9206;
+    static final int TAG_FOCAL_LENGTH = 0x920A;
+    static final int TAG_SUB_SEC_TIME_ORIGINAL = 0x9291;
+    static final int TAG_GPS_VERSION = 0x0000;
+    static final int TAG_GPS_LATITUDE_REF = 0x0001;
+    static final int TAG_GPS_LATITUDE = 0x0002;
+    static final int TAG_GPS_LONGITUDE_REF = 0x0003;
+    static final int TAG_GPS_LONGITUDE = 0x0004;
+    static final int TAG_GPS_ALTITUDE_REF = 0x0005;
+    static final int TAG_GPS_ALTITUDE = 0x0006;
+    static final int TAG_GPS_TIME_STAMP = 0x0007;
+    static final int TAG_GPS_DATE_STAMP = 0x001D;
+
+    static final int TYPE_BYTE = 1;
+    static final int TYPE_ASCII = 2;
+    static final int TYPE_SHORT = 3;
+    static final int TYPE_LONG = 4;
+    static final int TYPE_RATIONAL = 5;
+    static final int TYPE_UNDEFINED = 7;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+    private static final byte[] EXIF_VERSION = {'0', '2', '3', '1'};
+    private static final int COMPRESSION_JPEG = 6;
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private String mMake;
+    private String mModel;
+    private int mOrientation;
+    private long mDateTimeMillis = UNSET;
+    private TimeZone mTimeZone;
+    private long mExposureTimeNanos = UNSET;
+    private int mSensitivity = CaptureMetadata.UNKNOWN;
+    private float mAperture = Float.NaN;
+    private float mFocalLength = Float.NaN;
+    private float mFocusDistanceDiopters = Float.NaN;
+    private double mLatitude = Double.NaN;
+    private double mLongitude = Double.NaN;
+    private double mAltitude = Double.NaN;
+    private long mLocationTimeMillis = UNSET;
+    private ByteBuffer mThumbnail;
+
+    public ExifWriter setMake(String make) {
+        mMake = make;
+        return this;
+    }
+
+    public ExifWriter setModel(String model) {
+        mModel = model;
+        return this;
+    }
+
+    /**
+     * @param degrees clockwise rotation that makes the image upright: 0, 90, 180 or 270
+     */
+    public ExifWriter setOrientationDegrees(int degrees) {
+        mOrientation = degreesToExifOrientation(degrees);
+        return this;
+    }
+
+    /**
+     * @param wallClockMillis capture time, e.g. {@code System.currentTimeMillis()}
+     * @param zone            time zone the local date and time are written in
+     */
+    public ExifWriter setDateTime(long wallClockMillis, TimeZone zone) {
+        mDateTimeMillis = wallClockMillis;
+        mTimeZone = zone;
+        return this;
+    }
+
+    /**
+     * Take exposure time, ISO, aperture, focal length and focus distance from a capture result; values the device
+     * did not report are left out.
+     */
+    public ExifWriter setCaptureMetadata(CaptureMetadata metadata) {
+        mExposureTimeNanos = metadata.getExposureTimeNanos() > 0 ? metadata.getExposureTimeNanos() : UNSET;
+        mSensitivity = metadata.getSensitivity();
+        mAperture = metadata.getAperture();
+        mFocalLength = metadata.getFocalLength();
+        mFocusDistanceDiopters = metadata.getFocusDistanceDiopters();
+        return this;
+    }
+
+    /**
+     * @param altitudeMeters above sea level, NaN if unknown
+     * @param fixTimeMillis  UTC time of the fix
+     */
+    public ExifWriter setLocation(double latitude, double longitude, double altitudeMeters, long fixTimeMillis) {
+        if (latitude < -90 || latitude > 90 || longitude < -180 || longitude > 180) {
+            throw new IllegalArgumentException("not a location: " + latitude + ", " + longitude);
+        }
+        mLatitude = latitude;
+        mLongitude = longitude;
+        mAltitude = altitudeMeters;
+        mLocationTimeMillis = fixTimeMillis;
+        return this;
+    }
+
+    /**
+     * @param thumbnail JPEG thumbnail to embed, e.g. the one from {@link JpegExifSplicer#findThumbnail(ByteBuffer)};
+     *                  left out if it does not fit into the segment
+     */
+    public ExifWriter setThumbnail(ByteBuffer thumbnail) {
+        mThumbnail = thumbnail;
+        return this;
+    }
+
+    /**
+     * @return the APP1 segment, marker included, between position 0 and the limit of the returned buffer
+     */
+    public ByteBuffer buildSegment() {
+        ByteBuffer segment = buildSegment(mThumbnail);
+        if (segment == null && mThumbnail != null) {
+            segment = buildSegment(null);
+        }
+        if (segment == null) {
+            throw new IllegalStateException("exif tags do not fit into one segment");
+        }
+        return segment;
+    }
+
+    private ByteBuffer buildSegment(ByteBuffer thumbnail) {
+        Ifd ifd0 = new Ifd();
+        Ifd exif = new Ifd();
+        Ifd gps = null;
+        Ifd ifd1 = null;
+        if (mMake != null) {
+            ifd0.putAscii(TAG_MAKE, mMake);
+        }
+        if (mModel != null) {
+            ifd0.putAscii(TAG_MODEL, mModel);
+        }
+        if (mOrientation != 0) {
+            ifd0.putShort(TAG_ORIENTATION, mOrientation);
+        }
+        exif.put(TAG_EXIF_VERSION, TYPE_UNDEFINED, EXIF_VERSION.length, EXIF_VERSION);
+        if (mDateTimeMillis != UNSET) {
+            putDateTime(ifd0, exif);
+        }
+        if (mExposureTimeNanos != UNSET) {
+            exif.putRational(TAG_EXPOSURE_TIME, mExposureTimeNanos, 1000000000L);
+        }
+        if (!Float.isNaN(mAperture) && mAperture > 0) {
+            exif.putRational(TAG_F_NUMBER, Math.round(mAperture * 100.0), 100);
+        }
+        if (mSensitivity > 0) {
+            // values above the SHORT range are written as 65535 by convention
+            exif.putShort(TAG_ISO, Math.min(mSensitivity, 0xFFFF));
+        }
+        if (!Float.isNaN(mFocusDistanceDiopters) && mFocusDistanceDiopters >= 0) {
+            if (mFocusDistanceDiopters == 0) {
+                // infinity
+                exif.putRational(TAG_SUBJECT_DISTANCE, 0xFFFFFFFFL, 1);
+            } else {
+                exif.putRational(TAG_SUBJECT_DISTANCE, Math.round(1000.0 / mFocusDistanceDiopters), 1000);
+            }
+        }
+        if (!Float.isNaN(mFocalLength) && mFocalLength > 0) {
+            exif.putRational(TAG_FOCAL_LENGTH, Math.round(mFocalLength * 1000.0), 1000);
+        }
+        if (!Double.isNaN(mLatitude)) {
+            gps = new Ifd();
+            putLocation(gps);
+        }
+        if (thumbnail != null) {
+            ifd1 = new Ifd();
+            ifd1.putShort(TAG_COMPRESSION, COMPRESSION_JPEG);
+            ifd1.putLong(TAG_JPEG_INTERCHANGE_FORMAT, 0);
+            ifd1.putLong(TAG_JPEG_INTERCHANGE_FORMAT_LENGTH, thumbnail.remaining());
+        }
+
+        // pointers are fixed size, so the layout can be computed with placeholders and patched afterwards
+        ifd0.putLong(TAG_EXIF_IFD, 0);
+        if (gps != null) {
+            ifd0.putLong(TAG_GPS_IFD, 0);
+        }
+        int exifOffset = 8 + ifd0.size();
+        int gpsOffset = exifOffset + exif.size();
+        int ifd1Offset = gpsOffset + (gps != null ? gps.size() : 0);
+        int thumbnailOffset = ifd1Offset + (ifd1 != null ? ifd1.size() : 0);
+        int tiffSize = thumbnailOffset + (thumbnail != null ? thumbnail.remaining() : 0);
+        int segmentSize = 4 + EXIF_HEADER.length + tiffSize;
+        if (segmentSize > MAX_SEGMENT_LENGTH) {
+            return null;
+        }
+        ifd0.putLong(TAG_EXIF_IFD, exifOffset);
+        if (gps != null) {
+            ifd0.putLong(TAG_GPS_IFD, gpsOffset);
+        }
+        if (ifd1 != null) {
+            ifd1.putLong(TAG_JPEG_INTERCHANGE_FORMAT, thumbnailOffset);
+        }
+
+        ByteBuffer out = ByteBuffer.allocate(segmentSize);
+        out.put((byte) 0xFF).put((byte) 0xE1);
+        out.putShort((short) (segmentSize - 2));
+        out.put(EXIF_HEADER);
+        ByteBuffer tiff = out.slice().order(ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) 'I').put((byte) 'I').putShort((short) 42).putInt(8);
+        ifd0.write(tiff, 8, ifd1 != null ? ifd1Offset : 0);
+        exif.write(tiff, exifOffset, 0);
+        if (gps != null) {
+            gps.write(tiff, gpsOffset, 0);
+        }
+        if (ifd1 != null) {
+            ifd1.write(tiff, ifd1Offset, 0);
+            tiff.position(thumbnailOffset);
+            tiff.put(thumbnail.duplicate());
+        }
+        out.clear();
+        return out;
+    }
+
+    private void putDateTime(Ifd ifd0, Ifd exif) {
+        Calendar calendar = new GregorianCalendar(mTimeZone);
+        calendar.setTimeInMillis(mDateTimeMillis);
+        StringBuilder text = new StringBuilder(19);
+        appendPadded(text, calendar.get(Calendar.YEAR), 4).append(':');
+        appendPadded(text, calendar.get(Calendar.MONTH) + 1, 2).append(':');
+        appendPadded(text, calendar.get(Calendar.DAY_OF_MONTH), 2).append(' ');
+        appendPadded(text, calendar.get(Calendar.HOUR_OF_DAY), 2).append(':');
+        appendPadded(text, calendar.get(Calendar.MINUTE), 2).append(':');
+        appendPadded(text, calendar.get(Calendar.SECOND), 2);
+        String dateTime = text.toString();
+
+        text.setLength(0);
+        int offsetMinutes = mTimeZone.getOffset(mDateTimeMillis) / 60000;
+        text.append(offsetMinutes < 0 ? '-' : '+');
+        appendPadded(text, Math.abs(offsetMinutes) / 60, 2).append(':');
+        appendPadded(text, Math.abs(offsetMinutes) % 60, 2);
+        String offset = text.toString();
+
+        text.setLength(0);
+        appendPadded(text, calendar.get(Calendar.MILLISECOND), 3);
+
+        ifd0.putAscii(TAG_DATE_TIME, dateTime);
+        exif.putAscii(TAG_DATE_TIME_ORIGINAL, dateTime);
+        exif.putAscii(TAG_DATE_TIME_DIGITIZED, dateTime);
+        exif.putAscii(TAG_OFFSET_TIME, offset);
+        exif.putAscii(TAG_OFFSET_TIME_ORIGINAL, offset);
+        exif.putAscii(TAG_SUB_SEC_TIME_ORIGINAL, text.toString());
+    }
+
+    private void putLocation(Ifd gps) {
+        gps.put(TAG_GPS_VERSION, TYPE_BYTE, 4, new byte[]{2, 3, 0, 0});
+        gps.putAscii(TAG_GPS_LATITUDE_REF, mLatitude < 0 ? "S" : "N");
+        gps.putDegrees(TAG_GPS_LATITUDE, Math.abs(mLatitude));
+        gps.putAscii(TAG_GPS_LONGITUDE_REF, mLongitude < 0 ? "W" : "E");
+        gps.putDegrees(TAG_GPS_LONGITUDE, Math.abs(mLongitude));
+        if (!Double.isNaN(mAltitude)) {
+            gps.put(TAG_GPS_ALTITUDE_REF, TYPE_BYTE, 1, new byte[]{(byte) (mAltitude < 0 ? 1 : 0)});
+            gps.putRational(TAG_GPS_ALTITUDE, Math.round(Math.abs(mAltitude) * 100), 100);
+        }
+        if (mLocationTimeMillis != UNSET) {
+            Calendar utc = new GregorianCalendar(TimeZone.getTimeZone("UTC"));
+            utc.setTimeInMillis(mLocationTimeMillis);
+            gps.putRationals(TAG_GPS_TIME_STAMP, new long[]{
+                    utc.get(Calendar.HOUR_OF_DAY), 1,
+                    utc.get(Calendar.MINUTE), 1,
+                    utc.get(Calendar.SECOND) * 1000L + utc.get(Calendar.MILLISECOND), 1000});
+            StringBuilder date = new StringBuilder(10);
+            appendPadded(date, utc.get(Calendar.YEAR), 4).append(':');
+            appendPadded(date, utc.get(Calendar.MONTH) + 1, 2).append(':');
+            appendPadded(date, utc.get(Calendar.DAY_OF_MONTH), 2);
+            gps.putAscii(TAG_GPS_DATE_STAMP, date.toString());
+        }
+    }
+
+    /**
+     * @param degrees clockwise rotation that makes the image upright
+     * @return the matching {@code ThumbnailSizing.EXIF_ORIENTATION_*} value
+     */
+    public static int degreesToExifOrientation(int degrees) {
+        switch (degrees) {
+            case 0:
+                return ThumbnailSizing.EXIF_ORIENTATION_NORMAL;
+            case 90:
+                return ThumbnailSizing.EXIF_ORIENTATION_ROTATE_90;
+            case 180:
+                return ThumbnailSizing.EXIF_ORIENTATION_ROTATE_180;
+            case 270:
+                return ThumbnailSizing.EXIF_ORIENTATION_ROTATE_270;
+            default:
+                throw new IllegalArgumentException("not a right angle: " + degrees);
+        }
+    }
+
+    private static StringBuilder appendPadded(StringBuilder out, int value, int digits) {
+        for (int limit = 10; digits > 1; digits--, limit *= 10) {
+            if (value < limit) {
+                out.append('0');
+            }
+        }
+        return out.append(value);
+    }
+
+    /**
+     * One image file directory; entries are kept sorted by tag as TIFF requires.
+     */
+    private static class Ifd {
+        private final Map<Integer, Entry> mEntries = new TreeMap<>();
+
+        void put(int tag, int type, int count, byte[] value) {
+            mEntries.put(tag, new Entry(tag, type, count, value));
+        }
+
+        void putAscii(int tag, String value) {
+            byte[] chars = value.getBytes(ASCII);
+            byte[] terminated = new byte[chars.length + 1];
+            System.arraycopy(chars, 0, terminated, 0, chars.length);
+            put(tag, TYPE_ASCII, terminated.length, terminated);
+        }
+
+        void putShort(int tag, int value) {
+            put(tag, TYPE_SHORT, 1, ByteBuffer.allocate(2).order(ByteOrder.LITTLE_ENDIAN)
+                    .putShort((short) value).array());
+        }
+
+        void putLong(int tag, long value) {
+            put(tag, TYPE_LONG, 1, ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt((int) value).array());
+        }
+
+        void putRational(int tag, long numerator, long denominator) {
+            putRationals(tag, new long[]{numerator, denominator});
+        }
+
+        /**
+         * @param fractions numerator, denominator pairs
+         */
+        void putRationals(int tag, long[] fractions) {
+            ByteBuffer value = ByteBuffer.allocate(4 * fractions.length).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < fractions.length; i += 2) {
+                long numerator = fractions[i];
+                long denominator = fractions[i + 1];
+                long gcd = gcd(numerator, denominator);
+                if (gcd > 1) {
+                    numerator /= gcd;
+                    denominator /= gcd;
+                }
+                // keep both within an unsigned 32 bit value, losing precision rather than overflowing
+                while (numerator > 0xFFFFFFFFL || denominator > 0xFFFFFFFFL) {
+                    numerator >>= 1;
+                    denominator >>= 1;
+                }
+                value.putInt((int) numerator).putInt((int) Math.max(denominator, 1));
+            }
+            put(tag, TYPE_RATIONAL, fractions.length / 2, value.array());
+        }
+
+        /**
+         * Write a coordinate as degrees, minutes and seconds with millisecond of arc precision.
+         */
+        void putDegrees(int tag, double degrees) {
+            long millis = Math.round(degrees * 3600000);
+            putRationals(tag, new long[]{
+                    millis / 3600000, 1,
+                    millis / 60000 % 60, 1,
+                    millis % 60000, 1000});
+        }
+
+        /**
+         * @return bytes taken by the directory and the values that do not fit into its entries
+         */
+        int size() {
+            int size = 2 + 12 * mEntries.size() + 4;
+            for (Entry entry : mEntries.values()) {
+                if (entry.value.length > 4) {
+                    size += entry.value.length + (entry.value.length & 1);
+                }
+            }
+            return size;
+        }
+
+        /**
+         * @param offset     position of the directory relative to the TIFF header, {@code tiff} starts there
+         * @param nextOffset position of the next directory, 0 if this is the last one
+         */
+        void write(ByteBuffer tiff, int offset, int nextOffset) {
+            int data = offset + 2 + 12 * mEntries.size() + 4;
+            tiff.position(offset);
+            tiff.putShort((short) mEntries.size());
+            for (Entry entry : mEntries.values()) {
+                tiff.putShort((short) entry.tag).putShort((short) entry.type).putInt(entry.count);
+                if (entry.value.length <= 4) {
+                    tiff.put(entry.value);
+                    for (int i = entry.value.length; i < 4; i++) {
+                        tiff.put((byte) 0);
+                    }
+                } else {
+                    tiff.putInt(data);
+                    int entryEnd = tiff.position();
+                    tiff.position(data);
+                    tiff.put(entry.value);
+                    // values start on a word boundary
+                    data += entry.value.length + (entry.value.length & 1);
+                    tiff.position(entryEnd);
+                }
+            }
+            tiff.putInt(nextOffset);
+        }
+
+        private static long gcd(long a, long b) {
+            while (b != 0) {
+                long t = a % b;
+                a = b;
+                b = t;
+            }
+            return a;
+        }
+    }
+
+    private static class Entry {
+        final int tag;
+        final int type;
+        final int count;
+        final byte[] value;
+
+        Entry(int tag, int type, int count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.uberv.android.camera2;
+
+/**
+ * Per-frame processing plugged into a {@link LatestFrameProcessor}.
+ * <p>
+ * Runs on the processor's thread, one frame at a time. The frame is only valid during the call and is reused for
+ * later frames, so an analyzer has to copy whatever it wants to keep, and should not allocate per frame.
+ */
+public interface FrameAnalyzer {
+
+    void analyze(YuvFrame frame);
+}
@@ -0,0 +1,173 @@
+package com.uberv.android.camera2;
+
+/**
+ * Fixed-size ring of the most recent frames with their capture timestamps, used for zero shutter lag capture.
+ * <p>
+ * Adding to a full ring evicts (releases) the oldest frame. The slot arrays are allocated once and reused, so
+ * keeping the ring filled at preview frame rate does not allocate. Frames are indexed from 0 (oldest) to
+ * {@link #size()} - 1 (newest). Not thread safe.
+ *
+ * @param <T> frame type, e.g. a camera {@code Image}
+ */
+public class FrameRingBuffer<T> {
+
+    /**
+     * Gives an evicted or discarded frame back to its producer.
+     */
+    public interface Releaser<T> {
+        void release(T frame);
+    }
+
+    private final Object[] mFrames;
+    private final long[] mTimestamps;
+    private final float[] mScores;
+    private final Releaser<T> mReleaser;
+    private int mHead;
+    private int mSize;
+    private long mEvictions;
+
+    // scores reported before their frame arrived, matched by timestamp on add()
+    private final long[] mPendingScoreTimestamps;
+    private final float[] mPendingScores;
+    private int mNextPendingScore;
+
+    public FrameRingBuffer(int capacity, Releaser<T> releaser) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mFrames = new Object[capacity];
+        mTimestamps = new long[capacity];
+        mScores = new float[capacity];
+        mReleaser = releaser;
+        mPendingScoreTimestamps = new long[capacity];
+        mPendingScores = new float[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mPendingScoreTimestamps[i] = Long.MIN_VALUE;
+        }
+    }
+
+    public int capacity() {
+        return mFrames.length;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * @return number of frames released because the ring was full
+     */
+    public long getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * Append the newest frame, evicting the oldest one if the ring is full.
+     */
+    public void add(T frame, long timestampNanos) {
+        if (mSize == mFrames.length) {
+            T oldest = removeAt(0);
+            mEvictions++;
+            mReleaser.release(oldest);
+        }
+        int slot = physical(mSize);
+        mFrames[slot] = frame;
+        mTimestamps[slot] = timestampNanos;
+        mScores[slot] = takePendingScore(timestampNanos);
+        mSize++;
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return mTimestamps[physical(index)];
+    }
+
+    /**
+     * @return quality score of the frame, 0 unless set through {@link #setScore(long, float)}
+     */
+    public float getScore(int index) {
+        checkIndex(index);
+        return mScores[physical(index)];
+    }
+
+    /**
+     * Attach a quality score (e.g. derived from the AF state of its capture result) to the frame with the given
+     * timestamp. If the frame has not arrived yet the score is kept until it does.
+     */
+    public void setScore(long timestampNanos, float score) {
+        for (int i = 0; i < mSize; i++) {
+            int slot = physical(i);
+            if (mTimestamps[slot] == timestampNanos) {
+                mScores[slot] = score;
+                return;
+            }
+        }
+        mPendingScoreTimestamps[mNextPendingScore] = timestampNanos;
+        mPendingScores[mNextPendingScore] = score;
+        mNextPendingScore = (mNextPendingScore + 1) % mPendingScores.length;
+    }
+
+    /**
+     * Remove a frame from the ring; the caller becomes responsible for releasing it.
+     */
+    public T take(int index) {
+        checkIndex(index);
+        return removeAt(index);
+    }
+
+    /**
+     * Release every frame in the ring.
+     */
+    public void clear() {
+        while (mSize > 0) {
+            mReleaser.release(removeAt(0));
+        }
+        for (int i = 0; i < mPendingScoreTimestamps.length; i++) {
+            mPendingScoreTimestamps[i] = Long.MIN_VALUE;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T removeAt(int index) {
+        int slot = physical(index);
+        T frame = (T) mFrames[slot];
+        if (index == 0) {
+            // evicting the oldest frame just moves the head
+            mFrames[slot] = null;
+            mHead = (mHead + 1) % mFrames.length;
+            mSize--;
+            return frame;
+        }
+        // close the gap by shifting the newer frames down one slot
+        for (int i = index; i < mSize - 1; i++) {
+            int to = physical(i);
+            int from = physical(i + 1);
+            mFrames[to] = mFrames[from];
+            mTimestamps[to] = mTimestamps[from];
+            mScores[to] = mScores[from];
+        }
+        mFrames[physical(mSize - 1)] = null;
+        mSize--;
+        return frame;
+    }
+
+    private float takePendingScore(long timestampNanos) {
+        for (int i = 0; i < mPendingScoreTimestamps.length; i++) {
+            if (mPendingScoreTimestamps[i] == timestampNanos) {
+                mPendingScoreTimestamps[i] = Long.MIN_VALUE;
+                return mPendingScores[i];
+            }
+        }
+        return 0;
+    }
+
+    private int physical(int index) {
+        return (mHead + index) % mFrames.length;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+    }
+}
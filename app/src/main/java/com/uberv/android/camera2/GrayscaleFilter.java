@@ -0,0 +1,19 @@
+package com.uberv.android.camera2;
+
+/**
+ * Replaces every pixel by its luma (BT.601 weights), keeping alpha.
+ */
+public class GrayscaleFilter implements PixelFilter {
+
+    @Override
+    public void apply(int[] src, int[] dst, int width, int height, int left, int top, int right, int bottom) {
+        for (int y = top; y < bottom; y++) {
+            int row = y * width;
+            for (int i = row + left; i < row + right; i++) {
+                int argb = src[i];
+                int luma = (77 * ((argb >> 16) & 0xff) + 150 * ((argb >> 8) & 0xff) + 29 * (argb & 0xff)) >> 8;
+                dst[i] = (argb & 0xff000000) | (luma << 16) | (luma << 8) | luma;
+            }
+        }
+    }
+}
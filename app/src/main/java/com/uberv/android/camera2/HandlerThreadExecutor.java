@@ -0,0 +1,132 @@
+package com.uberv.android.camera2;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An {@link java.util.concurrent.ExecutorService} backed by a {@link HandlerThread}, for lanes whose thread also
+ * has to receive camera framework callbacks through {@link #getHandler()}.
+ * <p>
+ * Tasks given to {@link #execute(Runnable)} are metered by whoever wraps this executor. Callbacks posted to
+ * {@link #getHandler()} skip that wrapper, so once {@link #setMeter(MeteredExecutor)} is called the handler counts
+ * them into the same {@link MeteredExecutor}; their wait time has the looper's millisecond resolution.
+ * <p>
+ * {@link #shutdown()} lets the messages already queued run and then quits the looper; callbacks the framework
+ * posts after that are dropped, so close the camera first.
+ */
+public class HandlerThreadExecutor extends AbstractExecutorService {
+    private final HandlerThread mThread;
+    private final MeteredHandler mHandler;
+    // same looper, so tasks and callbacks keep their order, but not metered twice
+    private final Handler mTaskHandler;
+    private volatile boolean mShutdown;
+
+    public HandlerThreadExecutor(String name) {
+        mThread = new HandlerThread(name);
+        mThread.start();
+        mHandler = new MeteredHandler(mThread.getLooper());
+        mTaskHandler = new Handler(mThread.getLooper());
+    }
+
+    /**
+     * Count callbacks posted to {@link #getHandler()} into {@code meter}. Call before handing the handler out.
+     */
+    public void setMeter(MeteredExecutor meter) {
+        mHandler.mMeter = meter;
+    }
+
+    /**
+     * @return handler to pass to camera APIs that deliver their callbacks on this lane
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (mShutdown || !mTaskHandler.post(task)) {
+            throw new RejectedExecutionException(mThread.getName() + " has been shut down");
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        mShutdown = true;
+        mThread.quitSafely();
+    }
+
+    /**
+     * Messages cannot be taken back out of a looper, so this is the same as {@link #shutdown()}.
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        shutdown();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mShutdown && !mThread.isAlive();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        mThread.join(Math.max(1, unit.toMillis(timeout)));
+        return !mThread.isAlive();
+    }
+
+    private static final class MeteredHandler extends Handler {
+        private volatile MeteredExecutor mMeter;
+
+        MeteredHandler(Looper looper) {
+            super(looper);
+        }
+
+        @Override
+        public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+            MeteredExecutor meter = mMeter;
+            if (meter == null) {
+                return super.sendMessageAtTime(msg, uptimeMillis);
+            }
+            meter.onExternalQueued();
+            boolean sent = super.sendMessageAtTime(msg, uptimeMillis);
+            if (!sent) {
+                meter.onExternalRejected();
+            }
+            return sent;
+        }
+
+        @Override
+        public void dispatchMessage(Message msg) {
+            MeteredExecutor meter = mMeter;
+            if (meter == null) {
+                super.dispatchMessage(msg);
+                return;
+            }
+            // a delayed message waits from when it was due
+            long waitNanos = Math.max(0, SystemClock.uptimeMillis() - msg.getWhen()) * 1000000L;
+            long startedAt = System.nanoTime();
+            boolean failed = true;
+            try {
+                super.dispatchMessage(msg);
+                failed = false;
+            } finally {
+                meter.onExternalRun(waitNanos, System.nanoTime() - startedAt, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Strategy for persisting encoded image bytes to a file.
+ */
+public interface ImageFileWriter {
+
+    /**
+     * Write all remaining bytes of {@code data} to {@code target}, replacing any previous content.
+     *
+     * @return number of bytes written
+     */
+    long write(ByteBuffer data, File target) throws IOException;
+
+    /**
+     * Write the remaining bytes of all buffers, one after the other, to {@code target}, replacing any previous
+     * content.
+     *
+     * @return number of bytes written
+     */
+    long write(ByteBuffer[] data, File target) throws IOException;
+}
@@ -0,0 +1,273 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persists captured images on a dedicated I/O executor with at most {@code capacity} images in flight.
+ * <p>
+ * Every in-flight image pins one buffer of its producer (e.g. an {@code ImageReader} slot), so the pipeline
+ * never queues more than it was sized for: {@link #offer(EncodedImage, File)} fails fast instead and the
+ * capture side is told through {@link Listener#onBackPressureChanged(boolean)}. Images that come with an Exif
+ * segment get it spliced in while they are written, the image data itself is never copied for it.
+ */
+public class ImageWritePipeline {
+
+    public interface Listener {
+
+        /**
+         * Called on the I/O thread once the file has been written and the image closed. Only the image's own
+         * fields may be used, its buffer is no longer valid.
+         *
+         * @param latencyNanos time from {@link #offer(EncodedImage, File)} until the write completed
+         */
+        void onImageWritten(EncodedImage image, File file, long latencyNanos);
+
+        /**
+         * Called on the I/O thread if the file could not be written. The image has already been closed.
+         */
+        void onImageWriteFailed(EncodedImage image, File file, IOException e);
+
+        /**
+         * Called when the pipeline becomes full ({@code true}) or accepts images again ({@code false}).
+         */
+        void onBackPressureChanged(boolean full);
+    }
+
+    private final int mCapacity;
+    private final Semaphore mSlots;
+    private final ExecutorService mIoExecutor;
+    private final ImageFileWriter mWriter;
+    private final Clock mClock;
+    private final Listener mListener;
+    private final Stats mStats = new Stats();
+    private boolean mFull;
+
+    public ImageWritePipeline(int capacity, ExecutorService ioExecutor, ImageFileWriter writer, Clock clock,
+                              Listener listener) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+        mSlots = new Semaphore(capacity);
+        mIoExecutor = ioExecutor;
+        mWriter = writer;
+        mClock = clock;
+        mListener = listener;
+    }
+
+    /**
+     * Queue an image to be written to {@code target}. On success the pipeline owns the image and will close it;
+     * otherwise the caller keeps ownership and is expected to drop (close) it.
+     *
+     * @return false if all slots are in use or the pipeline has been shut down
+     */
+    public boolean offer(final EncodedImage image, final File target) {
+        if (!mSlots.tryAcquire()) {
+            mStats.mRejected.incrementAndGet();
+            updateBackPressure();
+            return false;
+        }
+        final long queuedAt = mClock.nanoTime();
+        mStats.onSubmitted(queuedAt);
+        try {
+            mIoExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(image, target, queuedAt);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            mSlots.release();
+            mStats.mSubmitted.decrementAndGet();
+            mStats.mRejected.incrementAndGet();
+            return false;
+        }
+        updateBackPressure();
+        return true;
+    }
+
+    private void write(EncodedImage image, File target, long queuedAt) {
+        long bytes = 0;
+        IOException failure = null;
+        try {
+            ByteBuffer[] spliced = splice(image);
+            bytes = spliced == null
+                    ? mWriter.write(image.getBuffer(), target)
+                    : mWriter.write(spliced, target);
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            // a bug must not leak the slot or go unreported
+            failure = new IOException("unable to write " + target.getName(), e);
+        } finally {
+            image.close();
+            mSlots.release();
+        }
+        long now = mClock.nanoTime();
+        if (failure == null) {
+            mStats.onWritten(bytes, now - queuedAt, now);
+        } else {
+            mStats.mFailed.incrementAndGet();
+        }
+        updateBackPressure();
+        if (mListener != null) {
+            if (failure == null) {
+                mListener.onImageWritten(image, target, now - queuedAt);
+            } else {
+                mListener.onImageWriteFailed(image, target, failure);
+            }
+        }
+    }
+
+    /**
+     * @return the image with its Exif segment spliced in, null to write it as encoded
+     */
+    private static ByteBuffer[] splice(EncodedImage image) {
+        try {
+            ByteBuffer exif = image.getExifSegment();
+            return exif == null ? null : JpegExifSplicer.splice(image.getBuffer(), exif);
+        } catch (RuntimeException e) {
+            // broken metadata is not worth losing the picture for
+            return null;
+        }
+    }
+
+    private void updateBackPressure() {
+        // notify under the lock so that listeners never observe full/not-full edges out of order
+        synchronized (this) {
+            boolean full = mSlots.availablePermits() == 0;
+            if (full == mFull) {
+                return;
+            }
+            mFull = full;
+            if (mListener != null) {
+                mListener.onBackPressureChanged(full);
+            }
+        }
+    }
+
+    /**
+     * @return true if the next {@link #offer(EncodedImage, File)} would be rejected
+     */
+    public boolean isFull() {
+        return mSlots.availablePermits() == 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return number of images accepted but not yet written
+     */
+    public int getInFlight() {
+        return mCapacity - mSlots.availablePermits();
+    }
+
+    public Stats getStats() {
+        return mStats;
+    }
+
+    /**
+     * Stop accepting images and wait for the ones already queued to be written.
+     *
+     * @return true if all pending writes finished within the timeout
+     */
+    public boolean shutdown(long timeout, TimeUnit unit) throws InterruptedException {
+        mIoExecutor.shutdown();
+        return mIoExecutor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Throughput and latency counters, safe to read from any thread.
+     */
+    public static class Stats {
+        private final AtomicLong mSubmitted = new AtomicLong();
+        private final AtomicLong mWritten = new AtomicLong();
+        private final AtomicLong mFailed = new AtomicLong();
+        private final AtomicLong mRejected = new AtomicLong();
+        private final AtomicLong mBytesWritten = new AtomicLong();
+        private final AtomicLong mTotalLatencyNanos = new AtomicLong();
+        private final AtomicLong mMaxLatencyNanos = new AtomicLong();
+        private final AtomicLong mFirstSubmitNanos = new AtomicLong(Long.MIN_VALUE);
+        private final AtomicLong mLastWriteNanos = new AtomicLong(Long.MIN_VALUE);
+
+        void onSubmitted(long now) {
+            mSubmitted.incrementAndGet();
+            mFirstSubmitNanos.compareAndSet(Long.MIN_VALUE, now);
+        }
+
+        void onWritten(long bytes, long latencyNanos, long now) {
+            mWritten.incrementAndGet();
+            mBytesWritten.addAndGet(bytes);
+            mTotalLatencyNanos.addAndGet(latencyNanos);
+            long max;
+            do {
+                max = mMaxLatencyNanos.get();
+            } while (latencyNanos > max && !mMaxLatencyNanos.compareAndSet(max, latencyNanos));
+            mLastWriteNanos.set(now);
+        }
+
+        public long getSubmitted() {
+            return mSubmitted.get();
+        }
+
+        public long getWritten() {
+            return mWritten.get();
+        }
+
+        public long getFailed() {
+            return mFailed.get();
+        }
+
+        /**
+         * @return number of images refused because the pipeline was full
+         */
+        public long getRejected() {
+            return mRejected.get();
+        }
+
+        public long getBytesWritten() {
+            return mBytesWritten.get();
+        }
+
+        public long getMeanLatencyNanos() {
+            long written = mWritten.get();
+            return written == 0 ? 0 : mTotalLatencyNanos.get() / written;
+        }
+
+        public long getMaxLatencyNanos() {
+            return mMaxLatencyNanos.get();
+        }
+
+        /**
+         * @return bytes written per second between the first submission and the latest completed write
+         */
+        public double getThroughputBytesPerSecond() {
+            long first = mFirstSubmitNanos.get();
+            long last = mLastWriteNanos.get();
+            if (first == Long.MIN_VALUE || last == Long.MIN_VALUE || last <= first) {
+                return 0;
+            }
+            return mBytesWritten.get() * 1e9 / (last - first);
+        }
+
+        @Override
+        public String toString() {
+            return "written=" + getWritten() + "/" + getSubmitted()
+                    + " failed=" + getFailed()
+                    + " rejected=" + getRejected()
+                    + " bytes=" + getBytesWritten()
+                    + " meanLatencyMs=" + getMeanLatencyNanos() / 1000000
+                    + " maxLatencyMs=" + getMaxLatencyNanos() / 1000000
+                    + " throughputMBps=" + String.format("%.2f", getThroughputBytesPerSecond() / (1024 * 1024));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the place of the Exif segment in a JPEG stream and splits the stream around it without copying.
+ * <p>
+ * Only the marker segments in front of the image data are looked at: the scan stops at the first marker that is
+ * neither an APPn nor a comment, so the cost does not depend on the size of the image.
+ */
+public final class JpegExifSplicer {
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+    private static final int MARKER_APP15 = 0xEF;
+    private static final int MARKER_COM = 0xFE;
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    private static final int TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
+
+    private JpegExifSplicer() {
+    }
+
+    /**
+     * Split {@code jpeg} so that writing the returned buffers in order yields the same image with
+     * {@code exifSegment} as its Exif segment. An Exif segment already in the image (e.g. the one the camera HAL
+     * inserts) is left out. The buffers are views of {@code jpeg} and {@code exifSegment}; neither is modified.
+     * <p>
+     * Data that does not start with an SOI marker is not a JPEG and is returned as the only buffer, unchanged.
+     *
+     * @param exifSegment a complete APP1 segment, marker included, e.g. from {@link ExifWriter#buildSegment()}
+     */
+    public static ByteBuffer[] splice(ByteBuffer jpeg, ByteBuffer exifSegment) {
+        int start = jpeg.position();
+        int limit = jpeg.limit();
+        if (limit - start < 2 || (jpeg.get(start) & 0xFF) != 0xFF || (jpeg.get(start + 1) & 0xFF) != MARKER_SOI) {
+            return new ByteBuffer[]{jpeg.duplicate()};
+        }
+        // Exif goes right after SOI, or after a JFIF APP0 which has to come first
+        int insertAt = start + 2;
+        int existing = -1;
+        int existingEnd = -1;
+        int offset = start + 2;
+        while (offset + 4 <= limit && (jpeg.get(offset) & 0xFF) == 0xFF) {
+            int marker = jpeg.get(offset + 1) & 0xFF;
+            if (marker < MARKER_APP0 || (marker > MARKER_APP15 && marker != MARKER_COM)) {
+                break;
+            }
+            int end = offset + 2 + segmentLength(jpeg, offset);
+            if (end <= offset + 2 || end > limit) {
+                // malformed, leave the rest of the stream alone
+                break;
+            }
+            if (marker == MARKER_APP0 && offset == start + 2) {
+                insertAt = end;
+            } else if (marker == MARKER_APP1 && existing < 0 && isExif(jpeg, offset)) {
+                existing = offset;
+                existingEnd = end;
+            }
+            offset = end;
+        }
+
+        List<ByteBuffer> parts = new ArrayList<>(4);
+        addView(parts, jpeg, start, insertAt);
+        parts.add(exifSegment.duplicate());
+        if (existing < 0) {
+            addView(parts, jpeg, insertAt, limit);
+        } else {
+            addView(parts, jpeg, insertAt, existing);
+            addView(parts, jpeg, existingEnd, limit);
+        }
+        return parts.toArray(new ByteBuffer[parts.size()]);
+    }
+
+    /**
+     * @return view of the JPEG thumbnail embedded in the image's Exif segment, or null if there is none
+     */
+    public static ByteBuffer findThumbnail(ByteBuffer jpeg) {
+        int start = jpeg.position();
+        int limit = jpeg.limit();
+        if (limit - start < 2 || (jpeg.get(start) & 0xFF) != 0xFF || (jpeg.get(start + 1) & 0xFF) != MARKER_SOI) {
+            return null;
+        }
+        int offset = start + 2;
+        while (offset + 4 <= limit && (jpeg.get(offset) & 0xFF) == 0xFF) {
+            int marker = jpeg.get(offset + 1) & 0xFF;
+            if (marker < MARKER_APP0 || (marker > MARKER_APP15 && marker != MARKER_COM)) {
+                return null;
+            }
+            int end = offset + 2 + segmentLength(jpeg, offset);
+            if (end <= offset + 2 || end > limit) {
+                return null;
+            }
+            if (marker == MARKER_APP1 && isExif(jpeg, offset)) {
+                return findThumbnail(jpeg, offset + 4 + EXIF_HEADER.length, end);
+            }
+            offset = end;
+        }
+        return null;
+    }
+
+    private static ByteBuffer findThumbnail(ByteBuffer jpeg, int tiff, int end) {
+        if (end - tiff < 8) {
+            return null;
+        }
+        ByteBuffer in = jpeg.duplicate();
+        if (in.get(tiff) == 'I' && in.get(tiff + 1) == 'I') {
+            in.order(ByteOrder.LITTLE_ENDIAN);
+        } else if (in.get(tiff) == 'M' && in.get(tiff + 1) == 'M') {
+            in.order(ByteOrder.BIG_ENDIAN);
+        } else {
+            return null;
+        }
+        int size = end - tiff;
+        long ifd0 = in.getInt(tiff + 4) & 0xFFFFFFFFL;
+        if (ifd0 < 8 || ifd0 + 2 > size) {
+            return null;
+        }
+        int entries0 = in.getShort(tiff + (int) ifd0) & 0xFFFF;
+        long next = ifd0 + 2 + 12L * entries0;
+        if (next + 4 > size) {
+            return null;
+        }
+        long ifd1 = in.getInt(tiff + (int) next) & 0xFFFFFFFFL;
+        if (ifd1 < 8 || ifd1 + 2 > size) {
+            return null;
+        }
+        int entries1 = in.getShort(tiff + (int) ifd1) & 0xFFFF;
+        if (ifd1 + 2 + 12L * entries1 > size) {
+            return null;
+        }
+        long thumbnailOffset = -1;
+        long thumbnailLength = -1;
+        for (int i = 0; i < entries1; i++) {
+            int entry = tiff + (int) ifd1 + 2 + 12 * i;
+            int tag = in.getShort(entry) & 0xFFFF;
+            if (tag == TAG_JPEG_INTERCHANGE_FORMAT) {
+                thumbnailOffset = in.getInt(entry + 8) & 0xFFFFFFFFL;
+            } else if (tag == TAG_JPEG_INTERCHANGE_FORMAT_LENGTH) {
+                thumbnailLength = in.getInt(entry + 8) & 0xFFFFFFFFL;
+            }
+        }
+        if (thumbnailOffset < 8 || thumbnailLength <= 0 || thumbnailOffset + thumbnailLength > size) {
+            return null;
+        }
+        ByteBuffer thumbnail = jpeg.duplicate();
+        thumbnail.limit(tiff + (int) (thumbnailOffset + thumbnailLength));
+        thumbnail.position(tiff + (int) thumbnailOffset);
+        return thumbnail.slice();
+    }
+
+    private static int segmentLength(ByteBuffer jpeg, int marker) {
+        return ((jpeg.get(marker + 2) & 0xFF) << 8) | (jpeg.get(marker + 3) & 0xFF);
+    }
+
+    private static boolean isExif(ByteBuffer jpeg, int marker) {
+        int header = marker + 4;
+        if (segmentLength(jpeg, marker) < 2 + EXIF_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < EXIF_HEADER.length; i++) {
+            if (jpeg.get(header + i) != EXIF_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void addView(List<ByteBuffer> parts, ByteBuffer jpeg, int from, int to) {
+        if (to <= from) {
+            return;
+        }
+        ByteBuffer view = jpeg.duplicate();
+        view.limit(to);
+        view.position(from);
+        parts.add(view);
+    }
+}
@@ -0,0 +1,96 @@
+package com.uberv.android.camera2;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket latency histogram. Recording never allocates, so it is safe on camera callback paths.
+ * <p>
+ * Values are bucketed in microseconds with 8 linear sub-buckets per power of two, which keeps the relative error of
+ * any reported percentile below 12.5% from 1 µs up to about 4.5 minutes.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^28 µs ≈ 268 s, anything above lands in the last bucket
+    private static final int MAX_EXPONENT = 28;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    public void recordNanos(long nanos) {
+        mCounts.incrementAndGet(bucketIndex(Math.max(0, nanos / 1000)));
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return upper bound, in nanoseconds, of the bucket holding the given percentile; 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile) {
+        long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return bucketUpperBoundMicros(i) * 1000;
+            }
+        }
+        return bucketUpperBoundMicros(BUCKET_COUNT - 1) * 1000;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    static int bucketIndex(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros) - SUB_BUCKET_BITS;
+        if (exponent > MAX_EXPONENT - SUB_BUCKET_BITS) {
+            return BUCKET_COUNT - 1;
+        }
+        int subBucket = (int) (micros >>> exponent) - SUB_BUCKETS;
+        return (exponent + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return largest value, in microseconds, that falls into bucket {@code index}
+     */
+    static long bucketUpperBoundMicros(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS - 1;
+        long subBucket = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << exponent) - 1;
+    }
+
+    /**
+     * Append "n=.. p50=.. p95=.. p99=.." with percentiles in milliseconds.
+     */
+    public void appendSummary(StringBuilder out) {
+        out.append("n=").append(getCount());
+        appendPercentile(out, " p50=", 50);
+        appendPercentile(out, " p95=", 95);
+        appendPercentile(out, " p99=", 99);
+    }
+
+    private void appendPercentile(StringBuilder out, String label, double percentile) {
+        long micros = getPercentileNanos(percentile) / 1000;
+        out.append(label).append(micros / 1000).append('.').append(micros % 1000 / 100).append("ms");
+    }
+}
@@ -0,0 +1,178 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+/**
+ * Feeds camera frames to {@link FrameAnalyzer}s on a worker, always with the most recent frame.
+ * <p>
+ * Frames are copied into one of three reusable {@link YuvFrame}s: one being analyzed, one waiting, and one the
+ * producer is filling. A new frame replaces the waiting one, so analyzers that are slower than the camera see
+ * fresh frames instead of a growing backlog, and the producer (which can close its {@code Image} right after
+ * {@link #offer}) is never blocked. Once the buffers have reached the frame size nothing is allocated per frame.
+ * <p>
+ * {@link #offer} must be called from one thread at a time; analyzers can be added and removed from any thread.
+ */
+public class LatestFrameProcessor {
+    private static final int FRAMES = 3;
+
+    private final Executor mExecutor;
+    private final Clock mClock;
+    private final Object mLock = new Object();
+    // guarded by mLock
+    private final YuvFrame[] mFreeFrames = new YuvFrame[FRAMES];
+    private int mFreeCount;
+    private YuvFrame mPendingFrame;
+    private boolean mScheduled;
+    private boolean mShutdown;
+    private long mOffered;
+    private long mProcessed;
+    private long mDropped;
+    // replaced on change so that the worker can iterate without locking or allocating
+    private volatile FrameAnalyzer[] mAnalyzers = new FrameAnalyzer[0];
+    private final LatencyHistogram mAnalysisTime = new LatencyHistogram();
+
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    public LatestFrameProcessor(Executor executor, Clock clock) {
+        mExecutor = executor;
+        mClock = clock;
+        for (int i = 0; i < FRAMES; i++) {
+            mFreeFrames[mFreeCount++] = new YuvFrame();
+        }
+    }
+
+    public synchronized void addAnalyzer(FrameAnalyzer analyzer) {
+        FrameAnalyzer[] analyzers = new FrameAnalyzer[mAnalyzers.length + 1];
+        System.arraycopy(mAnalyzers, 0, analyzers, 0, mAnalyzers.length);
+        analyzers[mAnalyzers.length] = analyzer;
+        mAnalyzers = analyzers;
+    }
+
+    public synchronized void removeAnalyzer(FrameAnalyzer analyzer) {
+        FrameAnalyzer[] current = mAnalyzers;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == analyzer) {
+                FrameAnalyzer[] analyzers = new FrameAnalyzer[current.length - 1];
+                System.arraycopy(current, 0, analyzers, 0, i);
+                System.arraycopy(current, i + 1, analyzers, i, current.length - i - 1);
+                mAnalyzers = analyzers;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Copy a frame and schedule it for analysis, replacing the one still waiting (if any). The planes are only
+     * read during the call. See {@link YuvFrame#copyFrom} for the parameters.
+     *
+     * @return false if the processor has been shut down
+     */
+    public boolean offer(int width, int height, long timestampNanos, ByteBuffer y, int yRowStride,
+                         ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+        YuvFrame frame;
+        synchronized (mLock) {
+            if (mShutdown) {
+                return false;
+            }
+            mOffered++;
+            // the worker holds at most one frame and at most one is waiting, so one is always free
+            frame = mFreeFrames[--mFreeCount];
+            mFreeFrames[mFreeCount] = null;
+        }
+        frame.copyFrom(width, height, timestampNanos, y, yRowStride, u, v, uvRowStride, uvPixelStride);
+        boolean schedule;
+        synchronized (mLock) {
+            if (mPendingFrame != null) {
+                // a frame became pending while we copied, ours is newer
+                release(mPendingFrame);
+                mDropped++;
+            }
+            mPendingFrame = frame;
+            schedule = !mScheduled;
+            mScheduled = true;
+        }
+        if (schedule) {
+            mExecutor.execute(mDrain);
+        }
+        return true;
+    }
+
+    private void drain() {
+        while (true) {
+            YuvFrame frame;
+            synchronized (mLock) {
+                frame = mPendingFrame;
+                mPendingFrame = null;
+                if (frame == null) {
+                    mScheduled = false;
+                    return;
+                }
+            }
+            long start = mClock.nanoTime();
+            FrameAnalyzer[] analyzers = mAnalyzers;
+            for (int i = 0; i < analyzers.length; i++) {
+                analyzers[i].analyze(frame);
+            }
+            mAnalysisTime.recordNanos(mClock.nanoTime() - start);
+            synchronized (mLock) {
+                mProcessed++;
+                release(frame);
+            }
+        }
+    }
+
+    private void release(YuvFrame frame) {
+        mFreeFrames[mFreeCount++] = frame;
+    }
+
+    /**
+     * Refuse further frames; a frame already being analyzed finishes on the executor.
+     */
+    public void shutdown() {
+        synchronized (mLock) {
+            mShutdown = true;
+        }
+    }
+
+    public long getOffered() {
+        synchronized (mLock) {
+            return mOffered;
+        }
+    }
+
+    public long getProcessed() {
+        synchronized (mLock) {
+            return mProcessed;
+        }
+    }
+
+    /**
+     * @return frames replaced by a newer one before any analyzer saw them
+     */
+    public long getDropped() {
+        synchronized (mLock) {
+            return mDropped;
+        }
+    }
+
+    /**
+     * @return time all analyzers together took per frame
+     */
+    public LatencyHistogram getAnalysisTime() {
+        return mAnalysisTime;
+    }
+
+    public String dump() {
+        StringBuilder out = new StringBuilder("frame analysis: ");
+        out.append(getProcessed()).append('/').append(getOffered()).append(" frames, ")
+                .append(getDropped()).append(" dropped, time ");
+        mAnalysisTime.appendSummary(out);
+        return out.toString();
+    }
+}
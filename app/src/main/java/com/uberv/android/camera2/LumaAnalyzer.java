@@ -0,0 +1,70 @@
+package com.uberv.android.camera2;
+
+/**
+ * Measures brightness of the analysis stream: mean luma and the share of clipped (under- or overexposed) pixels,
+ * sampled on a grid so that it costs the same at any resolution.
+ */
+public class LumaAnalyzer implements FrameAnalyzer {
+    static final int DARK = 16;
+    static final int BRIGHT = 239;
+
+    private final int mSamplesPerAxis;
+    private volatile float mMeanLuma;
+    private volatile float mClippedFraction;
+    private volatile long mFrames;
+
+    /**
+     * @param samplesPerAxis grid resolution, {@code samplesPerAxis²} pixels are read per frame
+     */
+    public LumaAnalyzer(int samplesPerAxis) {
+        if (samplesPerAxis < 1) {
+            throw new IllegalArgumentException("samplesPerAxis must be positive: " + samplesPerAxis);
+        }
+        mSamplesPerAxis = samplesPerAxis;
+    }
+
+    @Override
+    public void analyze(YuvFrame frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int stepX = Math.max(1, width / mSamplesPerAxis);
+        int stepY = Math.max(1, height / mSamplesPerAxis);
+        long sum = 0;
+        int clipped = 0;
+        int count = 0;
+        for (int y = stepY / 2; y < height; y += stepY) {
+            for (int x = stepX / 2; x < width; x += stepX) {
+                int luma = frame.getLuma(x, y);
+                sum += luma;
+                if (luma <= DARK || luma >= BRIGHT) {
+                    clipped++;
+                }
+                count++;
+            }
+        }
+        if (count == 0) {
+            return;
+        }
+        mMeanLuma = (float) sum / count;
+        mClippedFraction = (float) clipped / count;
+        mFrames++;
+    }
+
+    /**
+     * @return mean luma of the latest analyzed frame, 0..255
+     */
+    public float getMeanLuma() {
+        return mMeanLuma;
+    }
+
+    /**
+     * @return share of sampled pixels of the latest frame that are nearly black or white
+     */
+    public float getClippedFraction() {
+        return mClippedFraction;
+    }
+
+    public long getFrames() {
+        return mFrames;
+    }
+}
@@ -10,27 +10,30 @@ import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Color;
 import android.graphics.ImageFormat;
+import android.graphics.Point;
 import android.graphics.SurfaceTexture;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCaptureSession;
 import android.hardware.camera2.CameraCharacteristics;
 import android.hardware.camera2.CameraDevice;
 import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
 import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.CamcorderProfile;
 import android.media.Image;
 import android.media.ImageReader;
+import android.media.MediaCodec;
 import android.media.MediaRecorder;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Build;
 import android.os.Environment;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.design.widget.Snackbar;
@@ -38,29 +41,46 @@ import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
-import android.util.SparseIntArray;
 import android.view.Gravity;
 import android.view.Surface;
 import android.view.TextureView;
 import android.view.View;
 import android.widget.Chronometer;
+import android.widget.CompoundButton;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
+import android.widget.ImageView;
+import android.widget.LinearLayout;
 import android.widget.Toast;
+import android.widget.ToggleButton;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
+import java.io.FileDescriptor;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainActivity extends AppCompatActivity {
     public static final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -70,11 +90,77 @@ public class MainActivity extends AppCompatActivity {
     // represents this app's folder name
     private static final String VIDEO_IMAGE_FOLDER_NAME = "Camera2VideoImage";
     private static final int PERMISSION_REQUEST_WRITE_EXTERNAL = 1;
-    // camera capture states
-    public static final int STATE_PREVIEW = 0;
-    public static final int STATE_WAIT_LOCK = 1;
-
-    private int mCaptureState = STATE_PREVIEW;
+    // number of captured images that may wait for disk at the same time
+    private static final int IMAGE_WRITE_SLOTS = 4;
+    // stills that may wait for their capture result, and how long they wait at most
+    private static final int RESULT_WAIT_SLOTS = 2;
+    // results usually come first, a burst may run several frames ahead of JPEG encoding
+    private static final int PENDING_RESULTS = 16;
+    private static final long RESULT_WAIT_MAX_AGE_NS = 1000 * 1000000L;
+    // how long onPause waits for queued images to reach the disk
+    private static final long IMAGE_WRITE_DRAIN_TIMEOUT_MS = 2000;
+    // idle direct buffers kept around for copies that cannot be avoided
+    private static final long DIRECT_BUFFER_POOL_BYTES = 1024 * 1024;
+    // number of stills taken by a long press on the capture button
+    private static final int BURST_SHOTS = 10;
+    // recent preview-resolution frames kept for zero shutter lag capture
+    private static final int ZSL_FRAMES = 4;
+    // frames this close to the press compete on sharpness rather than timing
+    private static final long ZSL_TOLERANCE_NS = 100 * 1000000L;
+    // pixels per second the recorder is asked to encode at most, what hardware encoders of this API level manage
+    private static final long VIDEO_MAX_PIXEL_RATE = 3840L * 2160 * 30;
+    // analysis frames are small, brightness and similar statistics don't need more
+    private static final int ANALYSIS_MAX_WIDTH = 640;
+    private static final int ANALYSIS_SAMPLES_PER_AXIS = 32;
+    // keep the recorder prepared and its surface in the preview session so that recording starts instantly
+    private static final boolean PREWARM_RECORDER = true;
+    // record through MediaCodec and MediaMuxer instead of MediaRecorder, for encoder latency and drop statistics
+    private static final boolean USE_CODEC_RECORDER = false;
+    // encoded video waiting for the muxer, about two seconds at the highest bitrates
+    private static final int CODEC_QUEUE_SAMPLES = 60;
+    private static final long CODEC_QUEUE_BYTES = 16 * 1024 * 1024;
+    // a sample dropped from a full queue costs the video up to the next key frame
+    private static final int CODEC_KEY_FRAME_INTERVAL_S = 1;
+    // long recordings are split into files of at most this size and duration
+    private static final long SEGMENT_MAX_BYTES = 1024L * 1024 * 1024;
+    private static final long SEGMENT_MAX_DURATION_MS = 10 * 60 * 1000;
+    // MediaRecorder.setNextOutputFile(File), API 26
+    private static final Method SET_NEXT_OUTPUT_FILE = findSetNextOutputFile();
+    // storage throughput probes: a few MiB in chunks like the image writer's, redone when older than the max age
+    private static final int STORAGE_PROBE_BYTES = 4 * 1024 * 1024;
+    private static final int STORAGE_PROBE_CHUNK_BYTES = 256 * 1024;
+    private static final double STORAGE_PROBE_SMOOTHING = 0.3;
+    private static final long STORAGE_PROBE_MAX_AGE_NS = 10 * 60 * 1000000000L;
+    // seconds between free space checks while recording
+    private static final int STORAGE_CHECK_INTERVAL_S = 5;
+    // JPEG size estimate before the first still has been written
+    private static final double JPEG_BYTES_PER_PIXEL = 0.35;
+    // captures shown in the strip at the bottom of the screen
+    private static final int RECENT_CAPTURES = 12;
+    // thumbnail cache size as a fraction of the heap
+    private static final int THUMBNAIL_CACHE_HEAP_DIVISOR = 32;
+
+    // preview -> AF lock -> AE precapture -> capture -> unlock, only touched on the control lane
+    private CaptureStateMachine mCaptureStateMachine;
+    // per-stage shutter lag, dump with "adb shell dumpsys activity com.uberv.android.camera2/.MainActivity"
+    private final ShutterLagMetrics mShutterLagMetrics = new ShutterLagMetrics(Clock.SYSTEM);
+    // shot started by the latest button press
+    private volatile int mCurrentShot = ShutterLagMetrics.NO_SHOT;
+
+    // startup steps, see createStartup()
+    private static final String STEP_CAMERA_INFO = "cameraInfo";
+    private static final String STEP_OPEN_CAMERA = "openCamera";
+    private static final String STEP_IMAGE_READERS = "imageReaders";
+    private static final String STEP_MEDIA_RECORDER = "mediaRecorder";
+    private static final String STEP_SURFACE = "surface";
+    private static final String STEP_SESSION = "session";
+    private static final String STEP_FIRST_FRAME = "firstFrame";
+    // one per onResume, cancelled in onPause
+    private volatile StartupOrchestrator mStartup;
+    private volatile boolean mAwaitingFirstFrame = false;
+    // onResume until the first preview frame reaches the TextureView
+    private final LatencyHistogram mTimeToFirstFrame = new LatencyHistogram();
+    private CameraInfo mCamera;
 
     private TextureView mTextureView;
     private TextureView.SurfaceTextureListener mSurfaceTextureListener = new TextureView.SurfaceTextureListener() {
@@ -82,9 +168,7 @@ public class MainActivity extends AppCompatActivity {
         public void onSurfaceTextureAvailable(SurfaceTexture surfaceTexture, int width, int height) {
             // TextureView is ready to use
             Log.d(LOG_TAG, "onSurfaceTextureAvailable");
-
-            setupCamera(width, height);
-            connectCamera();
+            mStartup.complete(STEP_SURFACE);
         }
 
         @Override
@@ -99,7 +183,10 @@ public class MainActivity extends AppCompatActivity {
 
         @Override
         public void onSurfaceTextureUpdated(SurfaceTexture surfaceTexture) {
-
+            if (mAwaitingFirstFrame) {
+                mAwaitingFirstFrame = false;
+                mStartup.complete(STEP_FIRST_FRAME);
+            }
         }
     };
 
@@ -110,20 +197,13 @@ public class MainActivity extends AppCompatActivity {
         @Override
         public void onOpened(CameraDevice camera) {
             Log.d(LOG_TAG, "connected to camera");
-            mCameraDevice = camera;
-            if (mIsRecording) {
-                // marshmallow permission check onPause shit
-                try {
-                    createVideoFileName();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                startRecording();
-                mMediaRecorder.start();
-            } else {
-                // start the preview
-                startPreview();
+            if (mStartup.isCancelled()) {
+                // paused while the camera was opening
+                camera.close();
+                return;
             }
+            mCameraDevice = camera;
+            mStartup.complete(STEP_OPEN_CAMERA);
         }
 
         @Override
@@ -136,122 +216,550 @@ public class MainActivity extends AppCompatActivity {
         public void onError(CameraDevice camera, int i) {
             camera.close();
             mCameraDevice = null;
+            if (mStartup.isStarted(STEP_OPEN_CAMERA)) {
+                mStartup.fail(STEP_OPEN_CAMERA, new IOException("camera error " + i));
+            }
         }
     };
     private CaptureRequest.Builder mCaptureRequestBuilder;
+    // still capture request for the current session, built once and reused by every shot
+    private CaptureRequest.Builder mStillCaptureRequestBuilder;
+    private boolean mBurstRequested = false;
+    private volatile BurstScheduler mBurstScheduler;
     private CameraCaptureSession mPreviewCaptureSession;
     private CameraCaptureSession.CaptureCallback mPreviewCaptureCallback = new CameraCaptureSession.CaptureCallback() {
 
         private void process(CaptureResult captureResult) {
-            switch (mCaptureState) {
-                case STATE_PREVIEW:
-                    // Do nothing
-                    break;
-                case STATE_WAIT_LOCK:
-                    // we have order to capture image
-                    Integer afState = captureResult.get(CaptureResult.CONTROL_AF_STATE);
-                    if (afState == CaptureRequest.CONTROL_AF_STATE_FOCUSED_LOCKED  // focus locked successfully
-                            || afState == CaptureRequest.CONTROL_AF_STATE_NOT_FOCUSED_LOCKED) // no autofocus supported
-                    {
-                        Toast.makeText(MainActivity.this, "AF Locked!", Toast.LENGTH_SHORT).show();
-                        // focus configured, start image capture
-                        startStillCaptureRequest();
-                        // we sent request to capture image => reset state
-                        mCaptureState = STATE_PREVIEW;
-                    }
-                    break;
+            if (mCaptureStateMachine.getState() == CaptureStateMachine.State.PREVIEW) {
+                return;
             }
+            Integer afTrigger = captureResult.get(CaptureResult.CONTROL_AF_TRIGGER);
+            mCaptureStateMachine.onCaptureResult(captureResult.get(CaptureResult.CONTROL_AF_STATE),
+                    captureResult.get(CaptureResult.CONTROL_AE_STATE),
+                    captureResult.get(CaptureResult.CONTROL_AF_MODE),
+                    afTrigger != null && afTrigger == CaptureResult.CONTROL_AF_TRIGGER_START);
         }
 
         @Override
         public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
-            Log.d(LOG_TAG, "onCaptureCompleted()");
             super.onCaptureCompleted(session, request, result);
+            if (mZslEnabled) {
+                scoreZslFrame(result);
+            }
             process(result);
         }
     };
+    private final CaptureStateMachine.Actions mCaptureActions = new CaptureStateMachine.Actions() {
+        @Override
+        public void lockFocus() {
+            MainActivity.this.lockFocus();
+        }
+
+        @Override
+        public void runPrecaptureSequence() {
+            MainActivity.this.runPrecaptureSequence();
+        }
+
+        @Override
+        public void captureStill() {
+            if (mBurstRequested) {
+                // the whole burst reuses this single AF lock
+                mBurstRequested = false;
+                startBurst();
+            } else {
+                startStillCaptureRequest();
+            }
+        }
+
+        @Override
+        public void unlockFocus() {
+            MainActivity.this.unlockFocus();
+        }
+    };
     private MediaRecorder mMediaRecorder;
+    // only with USE_CODEC_RECORDER, created with mMediaRecorder
+    private CodecRecorder mCodecRecorder;
+    private final RecorderWarmup mRecorderWarmup = new RecorderWarmup(new RecorderWarmup.Recorder() {
+        @Override
+        public void prepare(File output) throws IOException {
+            mVideoFileName = output.getAbsolutePath();
+            if (mCodecRecorder != null) {
+                setupCodecRecorder(output);
+            } else {
+                setupMediaRecorder();
+            }
+        }
+
+        @Override
+        public void start() {
+            if (mCodecRecorder != null) {
+                mCodecRecorder.start();
+            } else {
+                mMediaRecorder.start();
+            }
+        }
+
+        @Override
+        public void stop() {
+            if (mCodecRecorder != null) {
+                mCodecRecorder.stop();
+            } else {
+                mMediaRecorder.stop();
+            }
+        }
+
+        @Override
+        public void reset() {
+            if (mCodecRecorder != null) {
+                mCodecRecorder.reset();
+            } else {
+                mMediaRecorder.reset();
+            }
+        }
+    }, Clock.SYSTEM);
+    private final RecordingSegmenter mSegmenter = new RecordingSegmenter(SEGMENT_MAX_BYTES, SEGMENT_MAX_DURATION_MS,
+            SET_NEXT_OUTPUT_FILE != null, new RecordingSegmenter.Output() {
+        @Override
+        public boolean setNextOutputFile(File file) throws IOException {
+            if (mCodecRecorder != null) {
+                // the codec recorder has no size limit to roll over at
+                return false;
+            }
+            try {
+                SET_NEXT_OUTPUT_FILE.invoke(mMediaRecorder, file);
+                return true;
+            } catch (IllegalAccessException e) {
+                return false;
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                Log.w(LOG_TAG, "unable to queue next video segment", e.getCause());
+                return false;
+            }
+        }
+
+        @Override
+        public void restart(File file) throws IOException {
+            // the recorder stopped itself at the limit
+            try {
+                mRecorderWarmup.stop();
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "segment ended without video", e);
+            }
+            if (mPersistentRecorderSurface != null) {
+                // same surface, the session keeps feeding it
+                mRecorderWarmup.prepare(file);
+                mRecorderWarmup.start();
+            } else {
+                // new recorder surface, new session
+                mVideoFileName = file.getAbsolutePath();
+                startRecording(SystemClock.elapsedRealtimeNanos());
+            }
+        }
+    }, new RecordingSegmenter.FileSource() {
+        @Override
+        public File nextFile() {
+            return mVideoFileNamer.next(System.currentTimeMillis());
+        }
+    }, new RecordingSegmenter.Listener() {
+        @Override
+        public void onSegmentFinished(SegmentManifest.Segment segment) {
+            Log.d(LOG_TAG, "video segment finished: " + segment);
+            addRecentCapture(segment.getFile().getAbsolutePath(), true);
+            indexCapture(segment.getFile());
+        }
+    }, Clock.SYSTEM);
+    private final MediaRecorder.OnInfoListener mRecorderInfoListener = new MediaRecorder.OnInfoListener() {
+        @Override
+        public void onInfo(MediaRecorder recorder, int what, int extra) {
+            try {
+                mSegmenter.onInfo(what);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "video segment rollover failed, " + mSegmenter, e);
+            }
+        }
+    };
+    // API 23+: recorder input that outlives MediaRecorder.reset(), so the session survives a recording
+    private Surface mPersistentRecorderSurface;
+    // true if the current preview session has the prepared recorder as an output
+    private boolean mSessionPrewarmed = false;
+    private CaptureRequest.Builder mPreviewRequestBuilder;
+    // bitrate and frame rate of the next recording, chosen for mVideoSize
+    private VideoProfileSelector.VideoProfile mVideoProfile;
+    private Surface mPreviewSurface;
     private Chronometer mChronometer;
+    // characteristics of every camera, read from the on-disk cache (or the camera service) off the main thread
+    private Future<List<CameraInfo>> mCameraInfo;
     private String mCameraId;
     private Size mPreviewSize;
     private Size mVideoSize;
     private Size mImageSize;
+    // preview and still sizes of the recording session, shrunk from the above where the hardware level needs it
+    private Size mRecordingPreviewSize;
+    private Size mRecordingImageSize;
+    // session configurations the camera's hardware level guarantees
+    private StreamCombinationPlanner mStreamPlanner;
+    // false if the hardware level doesn't guarantee the still reader next to the recorder
+    private boolean mStillsWhileRecording = true;
     private ImageReader mImageReader;
+    // stills while recording, only if mRecordingImageSize differs from mImageSize
+    private ImageReader mRecordingImageReader;
+    // still reader of the current session
+    private ImageReader mSessionImageReader;
     private final ImageReader.OnImageAvailableListener mOnImageAvailableListener = new ImageReader.OnImageAvailableListener() {
         @Override
         public void onImageAvailable(ImageReader imageReader) {
             Log.d(LOG_TAG, "mOnImageAvailableListener.onImageAvailable()");
-            mBackgroundHandler.post(new ImageSaver(imageReader.acquireLatestImage()));
+            Image image = imageReader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            PendingImage pendingImage = mPendingImages.get(image.getTimestamp());
+            if (pendingImage != null) {
+                mShutterLagMetrics.mark(pendingImage.shot, ShutterLagMetrics.Stage.IMAGE_AVAILABLE);
+            }
+            // saved once its capture result is in, see mCaptureResultListener
+            mCaptureCorrelator.offerImage(image.getTimestamp(), image);
         }
     };
 
-    private class ImageSaver implements Runnable {
+    private final CaptureResultCorrelator.Listener<Image, CaptureMetadata> mCaptureResultListener =
+            new CaptureResultCorrelator.Listener<Image, CaptureMetadata>() {
+                @Override
+                public void onMatched(long timestampNanos, Image image, CaptureMetadata result) {
+                    saveImage(image, result);
+                }
 
-        private final Image image;
+                @Override
+                public void onImageOrphaned(long timestampNanos, Image image) {
+                    Log.w(LOG_TAG, "no capture result for image at " + timestampNanos + ", saving it without");
+                    saveImage(image, null);
+                }
+
+                @Override
+                public void onResultOrphaned(long timestampNanos, CaptureMetadata result) {
+                    Log.w(LOG_TAG, "no image for capture result " + result);
+                }
+            };
+    // still images and their capture results, matched by sensor timestamp
+    private final CaptureResultCorrelator<Image, CaptureMetadata> mCaptureCorrelator = new CaptureResultCorrelator<>(
+            RESULT_WAIT_SLOTS, PENDING_RESULTS, RESULT_WAIT_MAX_AGE_NS, mCaptureResultListener);
+
+    /**
+     * Queue a still image for writing under the name reserved when its capture started.
+     *
+     * @param metadata null if the capture result never arrived
+     */
+    private void saveImage(Image image, CaptureMetadata metadata) {
+        // the image carries the sensor timestamp its capture was started with
+        PendingImage pendingImage = mPendingImages.remove(image.getTimestamp());
+        if (pendingImage == null) {
+            // onCaptureStarted() has not been seen, the image is still worth keeping
+            long now = System.currentTimeMillis();
+            pendingImage = new PendingImage(createImageFileName(now), ShutterLagMetrics.NO_SHOT, now);
+        }
+        File imageFile = pendingImage.file;
+        BurstScheduler burstScheduler = mBurstScheduler;
+        CameraImage cameraImage = new CameraImage(image, pendingImage.shot, metadata, pendingImage.wallClockMillis,
+                mTotalRotation);
+        boolean queued = mImageWritePipeline.offer(cameraImage, imageFile);
+        if (!queued) {
+            Log.w(LOG_TAG, "image write queue is full, dropping " + imageFile);
+            image.close();
+        }
+        if (burstScheduler != null) {
+            notifyBurstShot(burstScheduler, queued);
+        }
+    }
+
+    /**
+     * Images arrive on the results lane; the burst submits requests and completes the capture state machine, which
+     * belong to the control lane.
+     */
+    private void notifyBurstShot(final BurstScheduler burstScheduler, final boolean queued) {
+        runOnLane(CameraLanes.Lane.CONTROL, new Runnable() {
+            @Override
+            public void run() {
+                if (queued) {
+                    burstScheduler.onShotCompleted();
+                } else {
+                    burstScheduler.onShotFailed();
+                }
+            }
+        });
+    }
+
+    private static CaptureMetadata toCaptureMetadata(TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        CaptureMetadata.Builder builder = new CaptureMetadata.Builder(timestamp != null ? timestamp : 0)
+                .setFrameNumber(result.getFrameNumber());
+        Long exposureTime = result.get(CaptureResult.SENSOR_EXPOSURE_TIME);
+        if (exposureTime != null) {
+            builder.setExposureTimeNanos(exposureTime);
+        }
+        Integer sensitivity = result.get(CaptureResult.SENSOR_SENSITIVITY);
+        if (sensitivity != null) {
+            builder.setSensitivity(sensitivity);
+        }
+        Float focusDistance = result.get(CaptureResult.LENS_FOCUS_DISTANCE);
+        if (focusDistance != null) {
+            builder.setFocusDistanceDiopters(focusDistance);
+        }
+        Float aperture = result.get(CaptureResult.LENS_APERTURE);
+        if (aperture != null) {
+            builder.setAperture(aperture);
+        }
+        Float focalLength = result.get(CaptureResult.LENS_FOCAL_LENGTH);
+        if (focalLength != null) {
+            builder.setFocalLength(focalLength);
+        }
+        Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+        if (afState != null) {
+            builder.setAfState(afState);
+        }
+        Integer aeState = result.get(CaptureResult.CONTROL_AE_STATE);
+        if (aeState != null) {
+            builder.setAeState(aeState);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Hand the result of a still capture to the correlator, which pairs it with its image.
+     */
+    private void onStillCaptureCompleted(TotalCaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (timestamp != null) {
+            mCaptureCorrelator.offerResult(timestamp, toCaptureMetadata(result));
+        }
+    }
+
+    /**
+     * Adapts a JPEG {@link Image} from the {@link ImageReader} to the write pipeline.
+     */
+    private static class CameraImage implements EncodedImage {
 
-        public ImageSaver(Image image) {
+        private final Image image;
+        private final int shot;
+        // null if unknown
+        private final CaptureMetadata metadata;
+        private final long wallClockMillis;
+        private final int rotationDegrees;
+
+        /**
+         * @param rotationDegrees clockwise rotation that makes the image upright, written to its Exif orientation
+         */
+        public CameraImage(Image image, int shot, CaptureMetadata metadata, long wallClockMillis,
+                           int rotationDegrees) {
             this.image = image;
+            this.shot = shot;
+            this.metadata = metadata;
+            this.wallClockMillis = wallClockMillis;
+            this.rotationDegrees = rotationDegrees;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() {
+            return image.getPlanes()[0].getBuffer();
+        }
+
+        @Override
+        public ByteBuffer getExifSegment() {
+            ExifWriter exif = new ExifWriter()
+                    .setMake(Build.MANUFACTURER)
+                    .setModel(Build.MODEL)
+                    .setOrientationDegrees(rotationDegrees)
+                    .setDateTime(wallClockMillis, TimeZone.getDefault());
+            if (metadata != null) {
+                exif.setCaptureMetadata(metadata);
+            }
+            // keep the thumbnail the HAL rendered, the gallery strip reads it instead of decoding the image
+            ByteBuffer thumbnail = JpegExifSplicer.findThumbnail(getBuffer());
+            if (thumbnail != null) {
+                exif.setThumbnail(thumbnail);
+            }
+            return exif.buildSegment();
         }
 
         @Override
-        public void run() {
-            Log.d(LOG_TAG, "ImageSaver.run()");
-            ByteBuffer byteBuffer = image.getPlanes()[0].getBuffer();
-            byte[] bytes = new byte[byteBuffer.remaining()];
-            byteBuffer.get(bytes);
-            // TODO create a bitmap
+        public void close() {
+            image.close();
+        }
+    }
+
+    // zero shutter lag: the repeating request also fills mZslImageReader, the latest frames wait in mZslRing
+    private volatile boolean mZslEnabled = false;
+    private ToggleButton mZslToggleButton;
+    private ImageReader mZslImageReader;
+    // true if image timestamps share the SystemClock.elapsedRealtimeNanos() time base
+    private boolean mSensorTimestampRealtime = false;
+    // only touched on the control lane
+    private final FrameRingBuffer<Image> mZslRing = new FrameRingBuffer<>(ZSL_FRAMES,
+            new FrameRingBuffer.Releaser<Image>() {
+                @Override
+                public void release(Image frame) {
+                    frame.close();
+                }
+            });
+    private final ZslFrameSelector mZslFrameSelector = new ZslFrameSelector(ZSL_TOLERANCE_NS, true);
+    private final ImageReader.OnImageAvailableListener mOnZslImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader imageReader) {
+            Image image = imageReader.acquireNextImage();
+            if (image == null) {
+                return;
+            }
+            if (!mZslEnabled) {
+                image.close();
+                return;
+            }
+            mZslRing.add(image, image.getTimestamp());
+        }
+    };
 
-            FileOutputStream fos = null;
+    // frame analysis: an optional YUV_420_888 output of the preview session, analyzed on its own thread
+    private volatile boolean mAnalysisEnabled = false;
+    private ToggleButton mAnalysisToggleButton;
+    private ImageReader mAnalysisImageReader;
+    private volatile LatestFrameProcessor mFrameProcessor;
+    private final LumaAnalyzer mLumaAnalyzer = new LumaAnalyzer(ANALYSIS_SAMPLES_PER_AXIS);
+    private final ImageReader.OnImageAvailableListener mOnAnalysisImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader imageReader) {
+            // older frames are worthless for analysis
+            Image image = imageReader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
             try {
-                fos = new FileOutputStream(mImageFileName);
-                fos.write(bytes);
-                // FIXME for debug purposes:
-                // attelu apstrade
-//                for(int i =0;i<image.getWidth();i++){
-//                    bytes[i]= 3;
-//                }
-                Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-                Log.d(LOG_TAG,"attelu apstrade done");
-            } catch (FileNotFoundException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
+                LatestFrameProcessor frameProcessor = mFrameProcessor;
+                if (mAnalysisEnabled && frameProcessor != null) {
+                    // the planes are copied, so the reader gets its buffer back right away
+                    Image.Plane[] planes = image.getPlanes();
+                    frameProcessor.offer(image.getWidth(), image.getHeight(), image.getTimestamp(),
+                            planes[0].getBuffer(), planes[0].getRowStride(),
+                            planes[1].getBuffer(), planes[2].getBuffer(),
+                            planes[1].getRowStride(), planes[1].getPixelStride());
+                }
             } finally {
                 image.close();
+            }
+        }
+    };
 
-                if (fos != null) {
-                    try {
-                        fos.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+    private WriteRateGovernor mWriteRateGovernor;
+    private StorageThroughputProbe mStorageProbe;
+    // the probe's estimate across runs of the app, loaded once per process
+    private StorageThroughputCache mStorageThroughputCache;
+    private final AtomicBoolean mStorageEstimateLoaded = new AtomicBoolean();
+    private final WriteRateGovernor.Listener mStorageLevelListener = new WriteRateGovernor.Listener() {
+        @Override
+        public void onStorageLevelChanged(final WriteRateGovernor.Level level, final long usableBytes,
+                                          final long secondsLeft) {
+            Log.w(LOG_TAG, "storage " + level + ": " + usableBytes / (1024 * 1024) + " MiB free, "
+                    + secondsLeft + " s left");
+            if (level == WriteRateGovernor.Level.OK) {
+                return;
+            }
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    String message = usableBytes / (1024 * 1024) + " MB of storage left";
+                    if (secondsLeft >= 0) {
+                        message += ", " + secondsLeft / 60 + " min of video";
+                    }
+                    if (level == WriteRateGovernor.Level.CRITICAL && mIsRecording) {
+                        // finish the file while there is room for it
+                        mRecordImageButton.performClick();
+                        message = "Storage full, recording stopped";
                     }
+                    Snackbar.make(mRootLayout, message, Snackbar.LENGTH_LONG).show();
                 }
-                Log.d(LOG_TAG,"image saved to "+mImageFileName);
-
-                showTakenImage();
+            });
+        }
+    };
+    private final DirectBufferPool mDirectBufferPool = new DirectBufferPool(DIRECT_BUFFER_POOL_BYTES);
+    private ImageWritePipeline mImageWritePipeline;
+    private volatile boolean mImageWriteQueueFull = false;
+    private final ImageWritePipeline.Listener mImageWriteListener = new ImageWritePipeline.Listener() {
+        @Override
+        public void onImageWritten(EncodedImage image, final File file, long latencyNanos) {
+            CameraImage cameraImage = (CameraImage) image;
+            mShutterLagMetrics.mark(cameraImage.shot, ShutterLagMetrics.Stage.FILE_WRITTEN);
+            Log.d(LOG_TAG, "image saved to " + file + " in " + latencyNanos / 1000000 + " ms, " + cameraImage.metadata);
+            indexCapture(file);
+            mWriteRateGovernor.checkStills();
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    showTakenImage(file.getAbsolutePath());
+                }
+            });
+            final BurstScheduler burstScheduler = mBurstScheduler;
+            if (burstScheduler != null) {
+                // a slot is free again, the burst may submit more requests from the control lane
+                runOnLane(CameraLanes.Lane.CONTROL, new Runnable() {
+                    @Override
+                    public void run() {
+                        burstScheduler.onWriteSlotFreed();
+                    }
+                });
             }
         }
-    }
 
-    private HandlerThread mBackgroundHandlerThread;
-    private Handler mBackgroundHandler;
+        @Override
+        public void onImageWriteFailed(EncodedImage image, File file, IOException e) {
+            Log.e(LOG_TAG, "unable to save image to " + file, e);
+        }
+
+        @Override
+        public void onBackPressureChanged(boolean full) {
+            Log.d(LOG_TAG, "image write queue " + (full ? "full" : "available"));
+            mImageWriteQueueFull = full;
+        }
+    };
+
+    // one thread per kind of work, created in onResume and drained in onPause
+    private volatile CameraLanes mLanes;
+    // camera device, session and capture callbacks; the capture state machine lives here
+    private Handler mControlHandler;
+    // image reader callbacks
+    private Handler mResultsHandler;
     private ImageButton mRecordImageButton;
     private ImageButton mCaptureImageButton;
+    private LinearLayout mRecentCapturesStrip;
+    private final RecentCaptures mRecentCaptures = new RecentCaptures(RECENT_CAPTURES);
+    private ExecutorService mThumbnailExecutor;
+    private ThumbnailLoader mThumbnailLoader;
+    // captures on disk, only touched on the media index executor
+    private MediaIndex mMediaIndex;
+    private ExecutorService mMediaIndexExecutor;
+    private final MediaIndex.Prober mMediaFileProber = new MediaFileProber();
     private File mVideoFolder;
     private String mVideoFileName;
     private File mImageFolder;
-    private String mImageFileName;
-    private boolean mIsRecording = false;
-    // maps device rotation codes to degrees
-    private static SparseIntArray ORIENTATIONS = new SparseIntArray();
+    private CaptureFileNamer mVideoFileNamer;
+    private CaptureFileNamer mImageFileNamer;
+    // stills that have started capturing but whose image has not arrived yet, by sensor timestamp so that each
+    // image gets the name of its own capture even if another capture failed
+    private final Map<Long, PendingImage> mPendingImages = new ConcurrentHashMap<>();
 
-    static {
-        ORIENTATIONS.append(Surface.ROTATION_0, 0);
-        ORIENTATIONS.append(Surface.ROTATION_90, 90);
-        ORIENTATIONS.append(Surface.ROTATION_180, 180);
-        ORIENTATIONS.append(Surface.ROTATION_270, 270);
+    /**
+     * Where a still that is being captured will be saved, and which shot it belongs to.
+     */
+    private static class PendingImage {
+        final File file;
+        final int shot;
+        final long wallClockMillis;
+
+        PendingImage(File file, int shot, long wallClockMillis) {
+            this.file = file;
+            this.shot = shot;
+            this.wallClockMillis = wallClockMillis;
+        }
     }
-
+    private boolean mIsRecording = false;
     private int mTotalRotation;
 
 
@@ -260,27 +768,70 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        createVideoFolder();
-        createImageFolder();
+        // start reading camera characteristics now so that it overlaps with inflating the UI
+        FutureTask<List<CameraInfo>> cameraInfoTask = new FutureTask<>(new Callable<List<CameraInfo>>() {
+            @Override
+            public List<CameraInfo> call() throws Exception {
+                return loadCameraInfo();
+            }
+        });
+        mCameraInfo = cameraInfoTask;
+        new Thread(cameraInfoTask, "camera2-info").start();
 
-        mMediaRecorder = new MediaRecorder();
+        mCaptureStateMachine = new CaptureStateMachine(mCaptureActions, Clock.SYSTEM);
+        mCaptureStateMachine.setTransitionListener(new CaptureStateMachine.TransitionListener() {
+            @Override
+            public void onTransition(CaptureStateMachine.State from, CaptureStateMachine.State to,
+                                     long durationNanos, boolean timedOut) {
+                Log.d(LOG_TAG, "capture state " + from + " -> " + to + " after " + durationNanos / 1000000 + " ms"
+                        + (timedOut ? " (timed out)" : ""));
+                if (from == CaptureStateMachine.State.WAITING_LOCK) {
+                    mShutterLagMetrics.mark(mCurrentShot, ShutterLagMetrics.Stage.AF_LOCKED);
+                }
+            }
+        });
 
         mRootLayout = findViewById(R.id.activity_main);
         mChronometer = (Chronometer) findViewById(R.id.chronometer);
+        mChronometer.setOnChronometerTickListener(new Chronometer.OnChronometerTickListener() {
+            @Override
+            public void onChronometerTick(Chronometer chronometer) {
+                long seconds = (SystemClock.elapsedRealtime() - chronometer.getBase()) / 1000;
+                if (mIsRecording && seconds % STORAGE_CHECK_INTERVAL_S == 0) {
+                    mWriteRateGovernor.checkRecording(mVideoProfile.getBitRate());
+                }
+            }
+        });
         mTextureView = (TextureView) findViewById(R.id.textureView);
+        mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
         mRecordImageButton = (ImageButton) findViewById(R.id.videoOnlineImageButton);
         mRecordImageButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                long pressNanos = SystemClock.elapsedRealtimeNanos();
                 if (mIsRecording) {
                     // stop recording
                     mIsRecording = false;
                     mRecordImageButton.setImageResource(R.mipmap.btn_video_online);
+                    if (mSessionPrewarmed) {
+                        // stop feeding the recorder before stopping it
+                        resumePreviewRequest();
+                    }
                     stopRecording();
-                    startPreview();
+                    if (mSessionPrewarmed && mPersistentRecorderSurface != null) {
+                        // same surface, only the recorder has to be prepared again
+                        prewarmRecorder();
+                    } else {
+                        startPreview();
+                    }
+                } else if (mSessionPrewarmed && mRecorderWarmup.getState() == RecorderWarmup.State.READY) {
+                    startPrewarmedRecording(pressNanos);
                 } else {
                     checkWriteStoragePermission();
-                    startRecording();
+                    if (mIsRecording) {
+                        // otherwise we are waiting for the storage permission
+                        startRecording(pressNanos);
+                    }
                 }
             }
         });
@@ -288,7 +839,84 @@ public class MainActivity extends AppCompatActivity {
         mCaptureImageButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                lockFocus();
+                if (mBurstScheduler != null) {
+                    return;
+                }
+                if (mImageWriteQueueFull) {
+                    // every reader slot is waiting for the disk, a new capture would have nowhere to go
+                    Toast.makeText(MainActivity.this, "Still saving previous images", Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                int shot = mShutterLagMetrics.beginShot();
+                if (mZslEnabled && !mIsRecording) {
+                    takeZslPicture(shot, SystemClock.elapsedRealtimeNanos());
+                } else {
+                    takePicture(false, shot);
+                }
+            }
+        });
+        mCaptureImageButton.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View view) {
+                if (mBurstScheduler != null || mImageWriteQueueFull) {
+                    return true;
+                }
+                takePicture(true, mShutterLagMetrics.beginShot());
+                return true;
+            }
+        });
+        mRecentCapturesStrip = (LinearLayout) findViewById(R.id.recentCapturesStrip);
+        mVideoFolder = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES),
+                VIDEO_IMAGE_FOLDER_NAME);
+        mImageFolder = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES),
+                VIDEO_IMAGE_FOLDER_NAME);
+        // one namer per folder for the lifetime of the app, names stay unique across pause/resume
+        mVideoFileNamer = new CaptureFileNamer(mVideoFolder, "VIDEO_", ".mp4");
+        mImageFileNamer = new CaptureFileNamer(mImageFolder, "IMAGE_", ".jpg");
+        // both folders are on the primary shared storage volume, one probe measures it for both
+        mStorageProbe = new StorageThroughputProbe(mVideoFolder, STORAGE_PROBE_BYTES,
+                STORAGE_PROBE_CHUNK_BYTES, STORAGE_PROBE_SMOOTHING, Clock.SYSTEM);
+        mWriteRateGovernor = new WriteRateGovernor(mStorageProbe, mStorageProbe, mStorageLevelListener);
+        mStorageThroughputCache = new StorageThroughputCache(new File(getFilesDir(), "storage_throughput"));
+        openMediaIndex();
+        mThumbnailExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "camera2-thumbnail");
+            }
+        });
+        int thumbnailSize = getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        ThumbnailCache<Bitmap> thumbnailCache = new ThumbnailCache<>(
+                Runtime.getRuntime().maxMemory() / THUMBNAIL_CACHE_HEAP_DIVISOR,
+                new ThumbnailCache.Weigher<Bitmap>() {
+                    @Override
+                    public long weigh(Bitmap bitmap) {
+                        return bitmap.getAllocationByteCount();
+                    }
+                }, ThumbnailCache.<Bitmap>leastRecentlyUsed());
+        mThumbnailLoader = new ThumbnailLoader(thumbnailCache, mThumbnailExecutor, thumbnailSize, thumbnailSize);
+        mZslToggleButton = (ToggleButton) findViewById(R.id.zslToggleButton);
+        mZslToggleButton.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (isChecked && mAnalysisEnabled) {
+                    // one extra stream at a time, the session is rebuilt once below
+                    mAnalysisEnabled = false;
+                    mAnalysisToggleButton.setChecked(false);
+                }
+                setZslEnabled(isChecked);
+            }
+        });
+        mAnalysisToggleButton = (ToggleButton) findViewById(R.id.analysisToggleButton);
+        mAnalysisToggleButton.setOnCheckedChangeListener(new CompoundButton.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                if (isChecked && mZslEnabled) {
+                    mZslEnabled = false;
+                    clearZslRing();
+                    mZslToggleButton.setChecked(false);
+                }
+                setAnalysisEnabled(isChecked);
             }
         });
     }
@@ -299,22 +927,230 @@ public class MainActivity extends AppCompatActivity {
 
         startBackgroundThread();
 
-        if (mTextureView.isAvailable()) {
-            setupCamera(mTextureView.getWidth(), mTextureView.getHeight());
-            connectCamera();
-        } else {
-            // TextureView is still initializing. We will wait for listener's callbacks
-            mTextureView.setSurfaceTextureListener(mSurfaceTextureListener);
+        mStartup = createStartup();
+        mStartup.start();
+    }
+
+    /**
+     * Camera startup as a dependency graph: the camera is opened as soon as its id is known, readers and recorder
+     * are prepared meanwhile, and everything is joined into a session once the TextureView surface is available.
+     * <pre>
+     * cameraInfo -+-> openCamera ------------------+
+     *             +-> imageReaders -+--------------+
+     *                               +-> mediaRecorder -+-> session -> firstFrame
+     * surface -----------------------------------------+
+     * </pre>
+     */
+    private StartupOrchestrator createStartup() {
+        StartupOrchestrator startup = new StartupOrchestrator(Clock.SYSTEM, new StartupOrchestrator.Listener() {
+            @Override
+            public void onStepCompleted(String step, long sinceStartNanos) {
+                Log.d(LOG_TAG, "startup step " + step + " done after " + sinceStartNanos / 1000000 + " ms");
+            }
+
+            @Override
+            public void onStartupCompleted(long totalNanos) {
+                mTimeToFirstFrame.recordNanos(totalNanos);
+                Log.d(LOG_TAG, "time to first frame: " + totalNanos / 1000000 + " ms");
+                probeStorage();
+            }
+
+            @Override
+            public void onStartupFailed(String step, Exception e) {
+                Log.e(LOG_TAG, "startup failed at " + step, e);
+            }
+        });
+        startup.addStep(STEP_CAMERA_INFO, new StartupOrchestrator.Step() {
+            @Override
+            public void start(final StartupOrchestrator startup) {
+                runOnLane(CameraLanes.Lane.CONTROL, new Runnable() {
+                    @Override
+                    public void run() {
+                        if (selectCamera()) {
+                            startup.complete(STEP_CAMERA_INFO);
+                        } else {
+                            startup.fail(STEP_CAMERA_INFO, new IOException("no back facing camera"));
+                        }
+                    }
+                });
+            }
+        });
+        startup.addStep(STEP_OPEN_CAMERA, new StartupOrchestrator.Step() {
+            @Override
+            public void start(StartupOrchestrator startup) {
+                // may have to ask for the camera permission
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        connectCamera();
+                    }
+                });
+            }
+        }, STEP_CAMERA_INFO);
+        startup.addStep(STEP_IMAGE_READERS, new StartupOrchestrator.Step() {
+            @Override
+            public void start(StartupOrchestrator startup) {
+                // the preview fills the window, its size is known before the TextureView is laid out
+                Point windowSize = new Point();
+                getWindowManager().getDefaultDisplay().getRealSize(windowSize);
+                setupCamera(windowSize.x, windowSize.y);
+                startup.complete(STEP_IMAGE_READERS);
+            }
+        }, STEP_CAMERA_INFO);
+        startup.addStep(STEP_MEDIA_RECORDER, new StartupOrchestrator.Step() {
+            @Override
+            public void start(final StartupOrchestrator startup) {
+                AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        createVideoFolder();
+                        createImageFolder();
+                        // the video profile below is capped by it
+                        loadStorageEstimate();
+                        mWriteRateGovernor.checkStills();
+                        if (mMediaRecorder == null) {
+                            mMediaRecorder = new MediaRecorder();
+                            // no looper on this thread, so info arrives on the main thread
+                            mMediaRecorder.setOnInfoListener(mRecorderInfoListener);
+                        }
+                        if (USE_CODEC_RECORDER && mCodecRecorder == null) {
+                            mCodecRecorder = new CodecRecorder(CODEC_QUEUE_SAMPLES, CODEC_QUEUE_BYTES,
+                                    new DirectBufferPool(CODEC_QUEUE_BYTES), new Clock() {
+                                @Override
+                                public long nanoTime() {
+                                    // encoder input times are the camera's sensor timestamps
+                                    return mSensorTimestampRealtime ? SystemClock.elapsedRealtimeNanos()
+                                            : System.nanoTime();
+                                }
+                            });
+                        }
+                        mVideoProfile = selectVideoProfile();
+                        Log.d(LOG_TAG, "video profile: " + mVideoProfile);
+                        if (mPersistentRecorderSurface == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                            mPersistentRecorderSurface = MediaCodec.createPersistentInputSurface();
+                        }
+                        if (!startup.isCancelled() && !mIsRecording && !mZslEnabled && !mAnalysisEnabled) {
+                            prewarmRecorder();
+                        }
+                        startup.complete(STEP_MEDIA_RECORDER);
+                    }
+                });
+            }
+        }, STEP_IMAGE_READERS);
+        startup.addStep(STEP_SURFACE, new StartupOrchestrator.Step() {
+            @Override
+            public void start(StartupOrchestrator startup) {
+                // otherwise the TextureView is still initializing, mSurfaceTextureListener completes the step
+                if (mTextureView.isAvailable()) {
+                    startup.complete(STEP_SURFACE);
+                }
+            }
+        });
+        startup.addStep(STEP_SESSION, new StartupOrchestrator.Step() {
+            @Override
+            public void start(final StartupOrchestrator startup) {
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (startup.isCancelled()) {
+                            return;
+                        }
+                        if (mIsRecording) {
+                            // marshmallow permission check onPause shit
+                            createVideoFileName();
+                            startRecording(SystemClock.elapsedRealtimeNanos());
+                        } else {
+                            // start the preview
+                            startPreview();
+                        }
+                        startup.complete(STEP_SESSION);
+                    }
+                });
+            }
+        }, STEP_OPEN_CAMERA, STEP_IMAGE_READERS, STEP_MEDIA_RECORDER, STEP_SURFACE);
+        startup.addStep(STEP_FIRST_FRAME, new StartupOrchestrator.Step() {
+            @Override
+            public void start(StartupOrchestrator startup) {
+                mAwaitingFirstFrame = true;
+            }
+        }, STEP_SESSION);
+        return startup;
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mMediaRecorder != null) {
+            mMediaRecorder.release();
+            mMediaRecorder = null;
         }
+        mCodecRecorder = null;
+        if (mPersistentRecorderSurface != null) {
+            mPersistentRecorderSurface.release();
+            mPersistentRecorderSurface = null;
+        }
+        mThumbnailExecutor.shutdown();
+        Log.d(LOG_TAG, "thumbnail cache: " + mThumbnailLoader.getCache());
+        mMediaIndexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Log.d(LOG_TAG, mMediaIndex.toString());
+                mMediaIndex.close();
+            }
+        });
+        mMediaIndexExecutor.shutdown();
+        super.onDestroy();
     }
 
     @Override
     protected void onPause() {
+        mAwaitingFirstFrame = false;
+        mStartup.cancel();
         closeCamera();
         stopBackgroundThread();
+        closeImageReaders();
         super.onPause();
     }
 
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        writer.print(prefix);
+        writer.print(mShutterLagMetrics.dump());
+        StringBuilder timeToFirstFrame = new StringBuilder("time to first frame: ");
+        mTimeToFirstFrame.appendSummary(timeToFirstFrame);
+        writer.print(prefix);
+        writer.println(timeToFirstFrame);
+        writer.print(prefix);
+        writer.println(mRecorderWarmup.dump());
+        CodecRecorder codecRecorder = mCodecRecorder;
+        if (codecRecorder != null) {
+            writer.print(prefix);
+            writer.println(codecRecorder.dump());
+        }
+        writer.print(prefix);
+        writer.println(mSegmenter);
+        writer.print(prefix);
+        writer.println(mWriteRateGovernor);
+        LatestFrameProcessor frameProcessor = mFrameProcessor;
+        if (frameProcessor != null) {
+            writer.print(prefix);
+            writer.println(frameProcessor.dump() + ", mean luma " + mLumaAnalyzer.getMeanLuma()
+                    + ", clipped " + mLumaAnalyzer.getClippedFraction());
+        }
+        ImageWritePipeline imageWritePipeline = mImageWritePipeline;
+        if (imageWritePipeline != null) {
+            writer.print(prefix);
+            writer.println("image writes: " + imageWritePipeline.getStats());
+        }
+        CameraLanes lanes = mLanes;
+        if (lanes != null) {
+            writer.print(prefix);
+            writer.print(lanes.dump());
+        }
+        writer.print(prefix);
+        writer.println("thumbnail cache: " + mThumbnailLoader.getCache());
+    }
+
     @Override
     public void onWindowFocusChanged(boolean hasFocus) {
         super.onWindowFocusChanged(hasFocus);
@@ -349,73 +1185,214 @@ public class MainActivity extends AppCompatActivity {
                 // permission granted
                 mIsRecording = true;
                 mRecordImageButton.setImageResource(R.mipmap.btn_video_busy);
-                try {
-                    createVideoFileName();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                createVideoFileName();
             } else {
                 Toast.makeText(this, "App need to save videos", Toast.LENGTH_SHORT).show();
             }
         }
     }
 
-    private void setupCamera(int width, int height) {
-        Log.d(LOG_TAG_SETUP_CAMERA, "setup start");
+    /**
+     * Characteristics of all cameras, from the cache if it was written by this build, otherwise queried from the
+     * camera service and cached for the next start.
+     */
+    private List<CameraInfo> loadCameraInfo() throws CameraAccessException {
+        long start = SystemClock.elapsedRealtime();
+        CameraInfoCache cache = new CameraInfoCache(new File(getCacheDir(), "camera_info"));
+        List<CameraInfo> cameras = cache.load(Build.FINGERPRINT);
+        if (cameras != null) {
+            Log.d(LOG_TAG_SETUP_CAMERA, "camera info cache hit in " + (SystemClock.elapsedRealtime() - start) + " ms");
+            return cameras;
+        }
         CameraManager manager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
-        // get list of cameras on a given device
+        cameras = new ArrayList<>();
+        for (String cameraId : manager.getCameraIdList()) {
+            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
+            // camera's output stream configurations (resolutions, formats, etc)
+            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+            cameras.add(new CameraInfo.Builder(cameraId)
+                    .setLensFacing(characteristics.get(CameraCharacteristics.LENS_FACING))
+                    .setSensorOrientation(characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION))
+                    .setHardwareLevel(characteristics.get(CameraCharacteristics.INFO_SUPPORTED_HARDWARE_LEVEL))
+                    .setTimestampRealtime(Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                            && characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE)
+                            == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME)
+                    .setFpsRanges(packRanges(characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES)))
+                    .setHighSpeedVideoConfigs(packHighSpeedVideoConfigs(map))
+                    .setOutputSizes(CameraInfo.OUTPUT_SURFACE_TEXTURE, packSizes(map.getOutputSizes(SurfaceTexture.class)))
+                    .setOutputSizes(CameraInfo.OUTPUT_MEDIA_RECORDER, packSizes(map.getOutputSizes(MediaRecorder.class)))
+                    .setOutputSizes(ImageFormat.JPEG, packSizes(map.getOutputSizes(ImageFormat.JPEG)))
+                    .setOutputSizes(ImageFormat.YUV_420_888, packSizes(map.getOutputSizes(ImageFormat.YUV_420_888)))
+                    .build());
+        }
+        try {
+            cache.save(Build.FINGERPRINT, cameras);
+        } catch (IOException e) {
+            Log.w(LOG_TAG_SETUP_CAMERA, "unable to cache camera info", e);
+        }
+        Log.d(LOG_TAG_SETUP_CAMERA, "camera info queried in " + (SystemClock.elapsedRealtime() - start) + " ms");
+        return cameras;
+    }
+
+    private List<CameraInfo> getCameraInfo() {
         try {
-            for (String cameraId : manager.getCameraIdList()) {
-                Log.d(LOG_TAG_SETUP_CAMERA, "inspecting camera: " + cameraId);
-
-                // inspect camera characteristics for the given camera
-                CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-                // skip front-facing camera
-                if (characteristics.get(CameraCharacteristics.LENS_FACING) == CameraCharacteristics.LENS_FACING_FRONT) {
-                    Log.d(LOG_TAG_SETUP_CAMERA, "camera " + cameraId + " is front facing -> skipping");
-                    continue;
-                }
-                Log.d(LOG_TAG_SETUP_CAMERA, "camera: " + cameraId + " is facing back -> OK");
-
-                // camera's output stream configurations (resolutions, formats, etc)
-                StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-                Log.d(LOG_TAG_SETUP_CAMERA, "stream configuration map: " + map.toString());
-
-                // configure orientation, width and height for preview and camera output
-                // TODO не понятно
-                int deviceOrientation = getWindowManager().getDefaultDisplay().getRotation();
-                Log.d(LOG_TAG_SETUP_CAMERA, "device orientation: " + ORIENTATIONS.get(deviceOrientation));
-                mTotalRotation = sensorToDeviceRotation(characteristics, deviceOrientation);
-                boolean swapRotation = mTotalRotation == 90 || mTotalRotation == 270; // we are in portrait mode => swap width and height
-                // 90+90=180 => no need to swap, 0+90=90 => camera in landscape, device in portrait => swap
-                int rotatedWidth = width;
-                int rotatedHeight = height;
-                // force enter landscape mode if not already (since camera preview resolution is in landscape mode)
-                // in other words MAKE DEVICE ORIENTATION TO MATCH CAMERA PREVIEW ORIENTATION
-                if (swapRotation) {
-                    Log.d(LOG_TAG_SETUP_CAMERA, "swapping rotation width and height");
-                    rotatedWidth = height;
-                    rotatedHeight = width;
-                }
-                // choose surface preview size to be closest to the camera preview size while maintaining aspect ratio
-                mPreviewSize = chooseOptimalSize(map.getOutputSizes(SurfaceTexture.class), rotatedWidth, rotatedHeight);
-                mVideoSize = chooseOptimalSize(map.getOutputSizes(MediaRecorder.class), rotatedWidth, rotatedHeight);
-                mImageSize = chooseOptimalSize(map.getOutputSizes(ImageFormat.JPEG), rotatedWidth, rotatedHeight);
-                Log.d(LOG_TAG_SETUP_CAMERA, "preview size: " + mPreviewSize.toString());
-
-                // setup image reader
-                mImageReader = ImageReader.newInstance(mImageSize.getWidth(), mImageSize.getHeight(), ImageFormat.JPEG, 1);
-                mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mBackgroundHandler);
-
-                // get first rear-facing camera
-                mCameraId = cameraId;
+            return mCameraInfo.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(LOG_TAG_SETUP_CAMERA, "unable to read camera characteristics", e.getCause());
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Pick the first rear-facing camera.
+     *
+     * @return false if there is none
+     */
+    private boolean selectCamera() {
+        for (CameraInfo camera : getCameraInfo()) {
+            String cameraId = camera.getId();
+            Log.d(LOG_TAG_SETUP_CAMERA, "inspecting camera: " + cameraId);
+
+            // skip front-facing camera
+            if (camera.getLensFacing() == CameraCharacteristics.LENS_FACING_FRONT) {
+                Log.d(LOG_TAG_SETUP_CAMERA, "camera " + cameraId + " is front facing -> skipping");
+                continue;
             }
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+            Log.d(LOG_TAG_SETUP_CAMERA, "camera: " + cameraId + " is facing back -> OK");
+            mCamera = camera;
+            mCameraId = cameraId;
+            mSensorTimestampRealtime = camera.isTimestampRealtime();
+            return true;
+        }
+        return false;
+    }
+
+    private void setupCamera(int width, int height) {
+        Log.d(LOG_TAG_SETUP_CAMERA, "setup start");
+        CameraInfo camera = mCamera;
+        // configure orientation, width and height for preview and camera output
+        // TODO не понятно
+        int deviceOrientation = CameraOrientation.displayRotationToDegrees(
+                getWindowManager().getDefaultDisplay().getRotation());
+        Log.d(LOG_TAG_SETUP_CAMERA, "device orientation: " + deviceOrientation);
+        mTotalRotation = CameraOrientation.sensorToDeviceRotation(camera.getSensorOrientation(), deviceOrientation);
+        boolean swapRotation = mTotalRotation == 90 || mTotalRotation == 270; // we are in portrait mode => swap width and height
+        // 90+90=180 => no need to swap, 0+90=90 => camera in landscape, device in portrait => swap
+        int rotatedWidth = width;
+        int rotatedHeight = height;
+        // force enter landscape mode if not already (since camera preview resolution is in landscape mode)
+        // in other words MAKE DEVICE ORIENTATION TO MATCH CAMERA PREVIEW ORIENTATION
+        if (swapRotation) {
+            Log.d(LOG_TAG_SETUP_CAMERA, "swapping rotation width and height");
+            rotatedWidth = height;
+            rotatedHeight = width;
+        }
+        // choose preview, video and still sizes that cover the view and share one aspect ratio, preferring the
+        // view's own
+        SizeIndex[] indexes = {
+                camera.getSizeIndex(CameraInfo.OUTPUT_SURFACE_TEXTURE),
+                camera.getSizeIndex(CameraInfo.OUTPUT_MEDIA_RECORDER),
+                camera.getSizeIndex(ImageFormat.JPEG)
+        };
+        SizeIndex.Query[] queries = {
+                new SizeIndex.Query(rotatedWidth, rotatedHeight),
+                new SizeIndex.Query(rotatedWidth, rotatedHeight)
+                        .setMaxPixelRate(VIDEO_MAX_PIXEL_RATE, VideoProfileSelector.DEFAULT_FRAME_RATE),
+                new SizeIndex.Query(rotatedWidth, rotatedHeight)
+        };
+        int[] chosen = SizeIndex.selectConsistent(indexes, queries);
+        mPreviewSize = toSize(indexes[0], chosen[0]);
+        mVideoSize = toSize(indexes[1], chosen[1]);
+        mImageSize = toSize(indexes[2], chosen[2]);
+        planRecordingSession(indexes);
+        Log.d(LOG_TAG_SETUP_CAMERA, "preview size: " + mPreviewSize.toString());
+
+        // setup image reader
+        // images waiting for their result or for disk, plus one so the reader can deliver a frame while all of
+        // those are busy
+        mImageReader = ImageReader.newInstance(mImageSize.getWidth(), mImageSize.getHeight(), ImageFormat.JPEG,
+                IMAGE_WRITE_SLOTS + RESULT_WAIT_SLOTS + 1);
+        mImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mResultsHandler);
+        if (mStillsWhileRecording && !mRecordingImageSize.equals(mImageSize)) {
+            mRecordingImageReader = ImageReader.newInstance(mRecordingImageSize.getWidth(),
+                    mRecordingImageSize.getHeight(), ImageFormat.JPEG, IMAGE_WRITE_SLOTS + RESULT_WAIT_SLOTS + 1);
+            mRecordingImageReader.setOnImageAvailableListener(mOnImageAvailableListener, mResultsHandler);
         }
+        // zsl frames: the ring, the one being acquired and the ones waiting in the write queue
+        mZslImageReader = ImageReader.newInstance(mPreviewSize.getWidth(), mPreviewSize.getHeight(),
+                ImageFormat.JPEG, ZSL_FRAMES + IMAGE_WRITE_SLOTS + 1);
+        // the zsl ring is scored from preview results, so its frames arrive on the same lane
+        mZslImageReader.setOnImageAvailableListener(mOnZslImageAvailableListener, mControlHandler);
+        // at most ANALYSIS_MAX_WIDTH wide in the preview's aspect ratio
+        int analysisHeight = Math.max(1, ANALYSIS_MAX_WIDTH * mPreviewSize.getHeight() / mPreviewSize.getWidth());
+        SizeIndex analysisSizes = camera.getSizeIndex(ImageFormat.YUV_420_888);
+        Size analysisSize = toSize(analysisSizes, analysisSizes.select(
+                new SizeIndex.Query(ANALYSIS_MAX_WIDTH, analysisHeight)
+                        .setAspectRatio(mPreviewSize.getWidth(), mPreviewSize.getHeight())
+                        .setMaxArea((long) ANALYSIS_MAX_WIDTH * analysisHeight)));
+        // two images: acquireLatestImage() needs a spare to discard into
+        mAnalysisImageReader = ImageReader.newInstance(analysisSize.getWidth(), analysisSize.getHeight(),
+                ImageFormat.YUV_420_888, 2);
+        mAnalysisImageReader.setOnImageAvailableListener(mOnAnalysisImageAvailableListener, mResultsHandler);
         Log.d(LOG_TAG_SETUP_CAMERA, "setup end");
     }
 
+    /**
+     * Shrink the sizes chosen for preview, video and stills until the recording session is a combination the
+     * hardware level guarantees, dropping the still output if even that is not enough. Only the recording session
+     * uses the shrunk preview and still sizes; the preview session keeps the chosen ones.
+     */
+    private void planRecordingSession(SizeIndex[] indexes) {
+        Point screen = new Point();
+        getWindowManager().getDefaultDisplay().getRealSize(screen);
+        SizeIndex recorderSizes = indexes[1];
+        long recordArea = recorderSizes.size() == 0 ? 0 : (long) recorderSizes.getWidth(recorderSizes.size() - 1)
+                * recorderSizes.getHeight(recorderSizes.size() - 1);
+        mStreamPlanner = new StreamCombinationPlanner(mCamera.getHardwareLevel(), (long) screen.x * screen.y,
+                recordArea);
+        Size[] sizes = {mPreviewSize, mVideoSize, mImageSize};
+        StreamCombinationPlanner.Format[] formats = {StreamCombinationPlanner.Format.PRIV,
+                StreamCombinationPlanner.Format.PRIV, StreamCombinationPlanner.Format.JPEG};
+        List<StreamCombinationPlanner.Stream> streams = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            streams.add(new StreamCombinationPlanner.Stream(formats[i], StreamCombinationPlanner.Stream.withFallbacks(
+                    mStreamPlanner, indexes[i], sizes[i].getWidth(), sizes[i].getHeight())));
+        }
+        // stills while recording are the first thing to go
+        streams.get(2).setOptional(true);
+        String level = StreamCombinationPlanner.levelName(mStreamPlanner.getHardwareLevel());
+        StreamCombinationPlanner.Plan plan = mStreamPlanner.plan(streams);
+        if (plan == null) {
+            Log.w(LOG_TAG_SETUP_CAMERA, "no guaranteed recording session at level " + level + ", trying as chosen");
+            mRecordingPreviewSize = mPreviewSize;
+            mRecordingImageSize = mImageSize;
+            mStillsWhileRecording = true;
+            return;
+        }
+        if (!plan.isComplete()) {
+            Log.d(LOG_TAG_SETUP_CAMERA, "recording session at level " + level + " planned as " + plan);
+        }
+        mRecordingPreviewSize = new Size(plan.getWidth(0), plan.getHeight(0));
+        mVideoSize = new Size(plan.getWidth(1), plan.getHeight(1));
+        mRecordingImageSize = new Size(plan.getWidth(2), plan.getHeight(2));
+        mStillsWhileRecording = plan.isIncluded(2);
+    }
+
+    /**
+     * @return true if the hardware level guarantees the preview session with one more output next to the preview
+     * and the still reader
+     */
+    private boolean isGuaranteedPreviewOutput(StreamCombinationPlanner.Format format, int width, int height) {
+        return mStreamPlanner.isGuaranteed(Arrays.asList(
+                new StreamCombinationPlanner.Stream(StreamCombinationPlanner.Format.PRIV,
+                        mPreviewSize.getWidth(), mPreviewSize.getHeight()),
+                new StreamCombinationPlanner.Stream(StreamCombinationPlanner.Format.JPEG,
+                        mImageSize.getWidth(), mImageSize.getHeight()),
+                new StreamCombinationPlanner.Stream(format, width, height)));
+    }
+
     private void connectCamera() {
         Log.d(LOG_TAG, "connecting camera");
         CameraManager cameraManager = (CameraManager) getSystemService(Context.CAMERA_SERVICE);
@@ -425,7 +1402,7 @@ public class MainActivity extends AppCompatActivity {
                 // check camera permission
                 if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
                     // permission granted
-                    cameraManager.openCamera(mCameraId, mCameraDeviceStateCallback, mBackgroundHandler);
+                    cameraManager.openCamera(mCameraId, mCameraDeviceStateCallback, mControlHandler);
                 } else {
                     // ask for camera permission
                     if (shouldShowRequestPermissionRationale(Manifest.permission.CAMERA)) {
@@ -437,7 +1414,7 @@ public class MainActivity extends AppCompatActivity {
                     requestPermissions(new String[]{Manifest.permission.CAMERA}, PERMISSION_REQUEST_CAMERA);
                 }
             } else {
-                cameraManager.openCamera(mCameraId, mCameraDeviceStateCallback, mBackgroundHandler);
+                cameraManager.openCamera(mCameraId, mCameraDeviceStateCallback, mControlHandler);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -445,20 +1422,33 @@ public class MainActivity extends AppCompatActivity {
 
     }
 
-    private void startRecording() {
+    /**
+     * Cold path: prepare the recorder and replace the preview session with a recording session.
+     */
+    private void startRecording(final long pressNanos) {
         Log.d(LOG_TAG, "starting recording");
         try {
-            setupMediaRecorder();
+            // the prepared file (if any) is not the one just named
+            mRecorderWarmup.discard();
+            mRecorderWarmup.prepare(new File(mVideoFileName));
+            mSessionPrewarmed = false;
             SurfaceTexture surfaceTextre = mTextureView.getSurfaceTexture();
-            surfaceTextre.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+            surfaceTextre.setDefaultBufferSize(mRecordingPreviewSize.getWidth(), mRecordingPreviewSize.getHeight());
             Surface previewSurface = new Surface(surfaceTextre);
-            Surface recordSurface = mMediaRecorder.getSurface();
+            Surface recordSurface = getRecorderSurface();
             // create capture builder request
             mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            mStillCaptureRequestBuilder = null;
             mCaptureRequestBuilder.addTarget(previewSurface);
             // also add record surface
             mCaptureRequestBuilder.addTarget(recordSurface);
-            mCameraDevice.createCaptureSession(Arrays.asList(previewSurface, recordSurface, mImageReader.getSurface()),
+            setRecordFrameRate(mCaptureRequestBuilder);
+            List<Surface> outputs = new ArrayList<>(Arrays.asList(previewSurface, recordSurface));
+            mSessionImageReader = mRecordingImageReader != null ? mRecordingImageReader : mImageReader;
+            if (mStillsWhileRecording) {
+                outputs.add(mSessionImageReader.getSurface());
+            }
+            mCameraDevice.createCaptureSession(outputs,
                     new CameraCaptureSession.StateCallback() {
                         @Override
                         public void onConfigured(CameraCaptureSession session) {
@@ -470,34 +1460,190 @@ public class MainActivity extends AppCompatActivity {
                             try {
                                 // loop a recording request
                                 session.setRepeatingRequest(mCaptureRequestBuilder.build(),
-                                        null, // callback
-                                        null); // null because mediarecorder has it's own thread
+                                        mPreviewCaptureCallback, // drives stills taken while recording
+                                        mControlHandler); // control lane
+                                // the cold path includes configuring this session
+                                mRecorderWarmup.recordStartLatency(pressNanos);
                             } catch (CameraAccessException e) {
                                 e.printStackTrace();
                             }
                         }
 
-                        @Override
-                        public void onConfigureFailed(CameraCaptureSession session) {
-                            Log.d(LOG_TAG, "unable to setup camera recording session");
-                        }
-                    },
-                    null);
-            mMediaRecorder.start();
-            mChronometer.setBase(SystemClock.elapsedRealtime());
-            mChronometer.setVisibility(View.VISIBLE);
-            mChronometer.start();
+                        @Override
+                        public void onConfigureFailed(CameraCaptureSession session) {
+                            Log.d(LOG_TAG, "unable to setup camera recording session");
+                        }
+                    },
+                    null);
+            // a segment restart comes through here as well, it continues the recording
+            boolean continued = mSegmenter.isRecording();
+            mRecorderWarmup.start();
+            mSegmenter.onStarted(mRecorderWarmup.getOutput());
+            if (!continued) {
+                mChronometer.setBase(SystemClock.elapsedRealtime());
+                mChronometer.setVisibility(View.VISIBLE);
+                mChronometer.start();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+
+    }
+
+    /**
+     * Warm path: the recorder is prepared and already a session output, only the repeating request changes.
+     */
+    private void startPrewarmedRecording(long pressNanos) {
+        Log.d(LOG_TAG, "starting prewarmed recording");
+        try {
+            CaptureRequest.Builder recordRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            recordRequestBuilder.addTarget(mPreviewSurface);
+            recordRequestBuilder.addTarget(getRecorderSurface());
+            setRecordFrameRate(recordRequestBuilder);
+            // start the encoder first so that it is waiting for the very first frame
+            mRecorderWarmup.start();
+            mSegmenter.onStarted(mRecorderWarmup.getOutput());
+            mCaptureRequestBuilder = recordRequestBuilder;
+            mStillCaptureRequestBuilder = null;
+            mPreviewCaptureSession.setRepeatingRequest(mCaptureRequestBuilder.build(),
+                    mPreviewCaptureCallback, mControlHandler);
+            mRecorderWarmup.recordStartLatency(pressNanos);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+            return;
+        }
+        mIsRecording = true;
+        mRecordImageButton.setImageResource(R.mipmap.btn_video_busy);
+        mChronometer.setBase(SystemClock.elapsedRealtime());
+        mChronometer.setVisibility(View.VISIBLE);
+        mChronometer.start();
+        Log.d(LOG_TAG, mRecorderWarmup.dump());
+    }
+
+    /**
+     * Go back to the plain preview request of a prewarmed session.
+     */
+    private void resumePreviewRequest() {
+        mCaptureRequestBuilder = mPreviewRequestBuilder;
+        mStillCaptureRequestBuilder = null;
+        try {
+            mPreviewCaptureSession.setRepeatingRequest(mCaptureRequestBuilder.build(),
+                    mPreviewCaptureCallback, mControlHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Start from the estimate a previous run of the app measured, if any. Blocks on I/O.
+     */
+    private void loadStorageEstimate() {
+        if (mStorageEstimateLoaded.compareAndSet(false, true)
+                && mStorageThroughputCache.load(mStorageProbe, System.currentTimeMillis())) {
+            Log.d(LOG_TAG, "cached storage estimate: " + mStorageProbe);
+        }
+    }
+
+    /**
+     * Measure the storage once the preview runs; the probe writes and syncs several MiB, too slow for startup.
+     */
+    private void probeStorage() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadStorageEstimate();
+                try {
+                    if (!mWriteRateGovernor.probeIfStale(STORAGE_PROBE_MAX_AGE_NS)) {
+                        return;
+                    }
+                    Log.d(LOG_TAG, mWriteRateGovernor.toString());
+                } catch (IOException e) {
+                    // no storage permission yet, or no storage
+                    Log.w(LOG_TAG, "unable to probe storage", e);
+                    return;
+                }
+                try {
+                    mStorageThroughputCache.save(mStorageProbe, System.currentTimeMillis());
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "unable to save storage throughput", e);
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        onStorageProbed();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Cap the next recording's bitrate by the new storage estimate.
+     */
+    private void onStorageProbed() {
+        if (mCameraDevice == null || mIsRecording || mVideoProfile == null) {
+            // paused, or the profile is in use; the next startup selects it again
+            return;
+        }
+        VideoProfileSelector.VideoProfile profile = selectVideoProfile();
+        if (profile.getBitRate() == mVideoProfile.getBitRate()) {
+            return;
+        }
+        mVideoProfile = profile;
+        Log.d(LOG_TAG, "video profile after storage probe: " + mVideoProfile);
+        if (mPersistentRecorderSurface != null && mRecorderWarmup.getState() == RecorderWarmup.State.READY) {
+            // the session keeps the persistent surface, so the prepared recorder can be prepared again
+            mRecorderWarmup.discard();
+            prewarmRecorder();
+        }
+    }
+
+    /**
+     * Prepare the recorder for the next video if it is not already, so that it can join the preview session.
+     */
+    private void prewarmRecorder() {
+        if (!PREWARM_RECORDER || mRecorderWarmup.getState() != RecorderWarmup.State.COLD) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.WRITE_EXTERNAL_STORAGE)
+                != PackageManager.PERMISSION_GRANTED) {
+            // the first recording asks for the permission and takes the cold path
+            return;
+        }
+        try {
+            mRecorderWarmup.prepare(createVideoFileName());
         } catch (IOException e) {
-            e.printStackTrace();
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
+            Log.w(LOG_TAG, "unable to prepare recorder", e);
         }
+    }
 
+    private Surface getRecorderSurface() {
+        if (mPersistentRecorderSurface != null) {
+            return mPersistentRecorderSurface;
+        }
+        return mCodecRecorder != null ? mCodecRecorder.getInputSurface() : mMediaRecorder.getSurface();
     }
 
     private void stopRecording() {
-        mMediaRecorder.stop();
-        mMediaRecorder.reset();
+        // the recorder may have rolled over to later segments since mVideoFileName was named
+        File current = mSegmenter.getCurrentFile();
+        final String videoFileName = current != null ? current.getAbsolutePath() : mVideoFileName;
+        boolean recorded = false;
+        try {
+            mRecorderWarmup.stop();
+            recorded = true;
+            addRecentCapture(videoFileName, true);
+            indexCapture(new File(videoFileName));
+        } catch (RuntimeException e) {
+            // stopped before any frame was encoded
+            Log.w(LOG_TAG, "no video recorded", e);
+            new File(videoFileName).delete();
+        }
+        finishSegments(recorded);
+        Log.d(LOG_TAG, mRecorderWarmup.dump());
         mChronometer.stop();
         mChronometer.setVisibility(View.INVISIBLE);
 
@@ -505,10 +1651,7 @@ public class MainActivity extends AppCompatActivity {
         fileInfoSnackbar.setAction("Open", new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                Intent intent = new Intent();
-                intent.setAction(Intent.ACTION_VIEW);
-                intent.setDataAndType(Uri.parse(mVideoFileName), "video/mp4");
-                startActivity(intent);
+                openCapture(videoFileName, true);
             }
         });
         View view = fileInfoSnackbar.getView();
@@ -518,15 +1661,25 @@ public class MainActivity extends AppCompatActivity {
         fileInfoSnackbar.show();
     }
 
-    private void showTakenImage(){
+    private void finishSegments(boolean recorded) {
+        try {
+            mSegmenter.onStopped(recorded);
+            if (mSegmenter.getSegments().size() > 1) {
+                Log.d(LOG_TAG, "recorded " + mSegmenter.getSegments().size() + " segments with "
+                        + mSegmenter.getRestarts() + " restarts, see " + mSegmenter.getManifest().getFile());
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "unable to finish segment manifest", e);
+        }
+    }
+
+    private void showTakenImage(final String imageFileName) {
+        addRecentCapture(imageFileName, false);
         Snackbar fileInfoSnackbar = Snackbar.make(mRootLayout, "Image captured!", Snackbar.LENGTH_LONG);
         fileInfoSnackbar.setAction("Open", new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                Intent intent = new Intent();
-                intent.setAction(Intent.ACTION_VIEW);
-                intent.setDataAndType(Uri.parse(mImageFileName), "image/*");
-                startActivity(intent);
+                openCapture(imageFileName, false);
             }
         });
         View view = fileInfoSnackbar.getView();
@@ -536,21 +1689,184 @@ public class MainActivity extends AppCompatActivity {
         fileInfoSnackbar.show();
     }
 
+    private void openCapture(String fileName, boolean video) {
+        Intent intent = new Intent();
+        intent.setAction(Intent.ACTION_VIEW);
+        intent.setDataAndType(Uri.parse(fileName), video ? "video/mp4" : "image/*");
+        startActivity(intent);
+    }
+
+    /**
+     * Load the media index and catch it up with files added or deleted while the app was not running, then show
+     * the newest captures in the strip.
+     */
+    private void openMediaIndex() {
+        mMediaIndexExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "camera2-media-index");
+            }
+        });
+        mMediaIndex = new MediaIndex(new File(getFilesDir(), "media_index"));
+        mMediaIndexExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mMediaIndex.open();
+                    int changes = mMediaIndex.scan(mImageFolder, mMediaFileProber);
+                    changes += mMediaIndex.scan(mVideoFolder, mMediaFileProber);
+                    Log.d(LOG_TAG, mMediaIndex + ", " + changes + " changes since last run");
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "media index unavailable", e);
+                    return;
+                }
+                final List<MediaIndex.Entry> newest = mMediaIndex.page(0, RECENT_CAPTURES);
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mRecentCaptures.size() > 0 || isDestroyed()) {
+                            // a capture was made meanwhile, the strip is already in use
+                            return;
+                        }
+                        for (int i = newest.size() - 1; i >= 0; i--) {
+                            mRecentCaptures.add(newest.get(i).getPath(), newest.get(i).isVideo());
+                        }
+                        updateRecentCapturesStrip();
+                    }
+                });
+            }
+        });
+    }
+
+    private void indexCapture(final File file) {
+        try {
+            mMediaIndexExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        MediaIndex.Entry entry = mMediaFileProber.probe(file);
+                        if (entry != null) {
+                            mMediaIndex.put(entry);
+                        }
+                    } catch (IOException | IllegalStateException e) {
+                        // not open; the next scan picks the file up
+                        Log.w(LOG_TAG, "unable to index " + file, e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.w(LOG_TAG, "not indexing " + file + ", shutting down");
+        }
+    }
+
+    private void addRecentCapture(String fileName, boolean video) {
+        mRecentCaptures.add(fileName, video);
+        updateRecentCapturesStrip();
+    }
+
+    /**
+     * Show the recent captures, newest first. Thumbnail views are reused and filled asynchronously; a view that
+     * was given another capture in the meantime ignores the late thumbnail.
+     */
+    private void updateRecentCapturesStrip() {
+        List<RecentCaptures.Capture> captures = mRecentCaptures.snapshot();
+        int thumbnailSize = getResources().getDimensionPixelSize(R.dimen.thumbnail_size);
+        for (int i = 0; i < captures.size(); i++) {
+            final RecentCaptures.Capture capture = captures.get(i);
+            final ImageView thumbnailView;
+            if (i < mRecentCapturesStrip.getChildCount()) {
+                thumbnailView = (ImageView) mRecentCapturesStrip.getChildAt(i);
+            } else {
+                thumbnailView = new ImageView(this);
+                thumbnailView.setScaleType(ImageView.ScaleType.CENTER_CROP);
+                thumbnailView.setContentDescription(getString(R.string.thumbnail_description));
+                LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(thumbnailSize, thumbnailSize);
+                params.setMarginEnd(thumbnailSize / 8);
+                mRecentCapturesStrip.addView(thumbnailView, params);
+            }
+            if (capture.getPath().equals(thumbnailView.getTag())) {
+                continue;
+            }
+            thumbnailView.setTag(capture.getPath());
+            thumbnailView.setImageDrawable(null);
+            thumbnailView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    openCapture(capture.getPath(), capture.isVideo());
+                }
+            });
+            mThumbnailLoader.load(capture.getPath(), capture.isVideo(), new ThumbnailLoader.Callback() {
+                @Override
+                public void onThumbnailLoaded(String path, Bitmap thumbnail) {
+                    if (thumbnail != null && path.equals(thumbnailView.getTag())) {
+                        thumbnailView.setImageBitmap(thumbnail);
+                    }
+                }
+            });
+        }
+        while (mRecentCapturesStrip.getChildCount() > captures.size()) {
+            mRecentCapturesStrip.removeViewAt(mRecentCapturesStrip.getChildCount() - 1);
+        }
+    }
+
     private void startPreview() {
         Log.d(LOG_TAG, "starting preview");
 
         SurfaceTexture surfaceTextre = mTextureView.getSurfaceTexture();
         surfaceTextre.setDefaultBufferSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
         Surface previewSurface = new Surface(surfaceTextre);
+        mPreviewSurface = previewSurface;
+        mSessionImageReader = mImageReader;
 
         try {
             // initialize capture request builder (preview request)
             mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            mPreviewRequestBuilder = mCaptureRequestBuilder;
+            mStillCaptureRequestBuilder = null;
             // set output
             mCaptureRequestBuilder.addTarget(previewSurface);
+            List<Surface> outputs = new ArrayList<>(Arrays.asList(previewSurface, mImageReader.getSurface()));
+            mSessionPrewarmed = false;
+            // an output the hardware level doesn't guarantee in this session, left out if configuring fails
+            Surface bestEffortOutput = null;
+            if (mZslEnabled) {
+                // every preview frame also becomes a candidate still
+                mCaptureRequestBuilder.addTarget(mZslImageReader.getSurface());
+                // the pixels stay in sensor orientation, the Exif orientation tag rotates them
+                mCaptureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, 0);
+                outputs.add(mZslImageReader.getSurface());
+                if (!isGuaranteedPreviewOutput(StreamCombinationPlanner.Format.JPEG,
+                        mZslImageReader.getWidth(), mZslImageReader.getHeight())) {
+                    bestEffortOutput = mZslImageReader.getSurface();
+                }
+            } else if (mAnalysisEnabled) {
+                mCaptureRequestBuilder.addTarget(mAnalysisImageReader.getSurface());
+                outputs.add(mAnalysisImageReader.getSurface());
+                if (!isGuaranteedPreviewOutput(StreamCombinationPlanner.Format.YUV,
+                        mAnalysisImageReader.getWidth(), mAnalysisImageReader.getHeight())) {
+                    bestEffortOutput = mAnalysisImageReader.getSurface();
+                }
+            } else if (isGuaranteedPreviewOutput(StreamCombinationPlanner.Format.PRIV,
+                    mVideoSize.getWidth(), mVideoSize.getHeight())) {
+                // prewarming only saves time, it is not worth a session the camera may refuse
+                prewarmRecorder();
+                if (mRecorderWarmup.getState() == RecorderWarmup.State.READY) {
+                    // configured now but only targeted once recording starts
+                    outputs.add(getRecorderSurface());
+                    mSessionPrewarmed = true;
+                }
+            }
+            if (!mSessionPrewarmed) {
+                // no room for the recorder in this session, don't keep an empty file around
+                mRecorderWarmup.discard();
+            }
 
-            mCameraDevice.createCaptureSession(Arrays.asList(previewSurface, mImageReader.getSurface()),
+            final List<Surface> sessionOutputs = outputs;
+            final Surface droppableOutput = bestEffortOutput;
+            mCameraDevice.createCaptureSession(outputs,
                     new CameraCaptureSession.StateCallback() {
+                        private Surface mBestEffortOutput = droppableOutput;
+
                         @Override
                         public void onConfigured(CameraCaptureSession session) {
                             Log.d(LOG_TAG, "Camera preview configured");
@@ -559,8 +1875,8 @@ public class MainActivity extends AppCompatActivity {
                             try {
                                 // loop a preview request
                                 mPreviewCaptureSession.setRepeatingRequest(mCaptureRequestBuilder.build(),
-                                        null, // callback
-                                        mBackgroundHandler); // worker thread handler
+                                        mPreviewCaptureCallback, // feeds the capture state machine
+                                        mControlHandler); // control lane
                             } catch (CameraAccessException e) {
                                 e.printStackTrace();
                             }
@@ -568,6 +1884,19 @@ public class MainActivity extends AppCompatActivity {
 
                         @Override
                         public void onConfigureFailed(CameraCaptureSession session) {
+                            if (mBestEffortOutput != null) {
+                                // zsl falls back to regular captures, analysis just gets no frames
+                                Log.w(LOG_TAG, "preview session refused, retrying without the unguaranteed output");
+                                mCaptureRequestBuilder.removeTarget(mBestEffortOutput);
+                                sessionOutputs.remove(mBestEffortOutput);
+                                mBestEffortOutput = null;
+                                try {
+                                    mCameraDevice.createCaptureSession(sessionOutputs, this, null);
+                                } catch (CameraAccessException e) {
+                                    e.printStackTrace();
+                                }
+                                return;
+                            }
                             Log.d(LOG_TAG, "Unable to setup camera preview");
                         }
                     },
@@ -577,118 +1906,354 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    private CaptureRequest.Builder getStillCaptureRequestBuilder() throws CameraAccessException {
+        if (mStillCaptureRequestBuilder == null) {
+            mStillCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
+            mStillCaptureRequestBuilder.addTarget(mSessionImageReader.getSurface());
+            // the pixels stay in sensor orientation, the Exif orientation tag we write rotates them; some HALs
+            // only tag the image instead of rotating it, and that tag would be lost when the segment is replaced
+            mStillCaptureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, 0);
+        }
+        return mStillCaptureRequestBuilder;
+    }
+
     private void startStillCaptureRequest() {
         Log.d(LOG_TAG,"startStillCaptureRequest()");
         try {
-            mCaptureRequestBuilder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_STILL_CAPTURE);
-            mCaptureRequestBuilder.addTarget(mImageReader.getSurface());
-
-            // fix probable orientation issues
-            mCaptureRequestBuilder.set(CaptureRequest.JPEG_ORIENTATION, mTotalRotation);
-
             CameraCaptureSession.CaptureCallback stillCaptureCallback = new CameraCaptureSession.CaptureCallback() {
                 @Override
                 public void onCaptureStarted(CameraCaptureSession session, CaptureRequest request, long timestamp, long frameNumber) {
                     super.onCaptureStarted(session, request, timestamp, frameNumber);
                     Log.d(LOG_TAG, "stillCaptureCallback.onCaptureStarted()");
+                    queueImageFile(timestamp);
+                }
 
-                    try {
-                        createImageFileName();
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+                @Override
+                public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request, TotalCaptureResult result) {
+                    super.onCaptureCompleted(session, request, result);
+                    onStillCaptureCompleted(result);
+                    mCaptureStateMachine.onCaptureCompleted();
+                }
+
+                @Override
+                public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request, CaptureFailure failure) {
+                    super.onCaptureFailed(session, request, failure);
+                    Log.w(LOG_TAG, "still capture failed, reason " + failure.getReason());
+                    mCaptureStateMachine.onCaptureCompleted();
                 }
             };
 
-            mPreviewCaptureSession.capture(mCaptureRequestBuilder.build(), stillCaptureCallback, null);
+            mPreviewCaptureSession.capture(getStillCaptureRequestBuilder().build(), stillCaptureCallback, null);
             // handler is null since startStillCaptureRequest() gets called in mPreviewCaptureSessionCallback,
-            // which already runs on the background thread
+            // which already runs on the control lane
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Take up to {@link #BURST_SHOTS} stills, as many as the storage can absorb, while the AF lock from
+     * {@link #lockFocus()} is held.
+     */
+    private void startBurst() {
+        Log.d(LOG_TAG, "startBurst()");
+        long stillBytes = estimateStillBytes();
+        int shots = mWriteRateGovernor.capBurstShots(BURST_SHOTS, stillBytes);
+        Log.d(LOG_TAG, "burst of " + shots + " shots, storage sustains "
+                + String.format("%.1f", mWriteRateGovernor.getSustainableShotsPerSecond(stillBytes)) + " shots/s");
+        if (shots == 0) {
+            mCaptureStateMachine.onCaptureCompleted();
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    Toast.makeText(MainActivity.this, "Not enough storage for a burst", Toast.LENGTH_SHORT).show();
+                }
+            });
+            return;
+        }
+        final CaptureRequest stillRequest;
+        try {
+            stillRequest = getStillCaptureRequestBuilder().build();
         } catch (CameraAccessException e) {
             e.printStackTrace();
+            mCaptureStateMachine.onCaptureCompleted();
+            return;
+        }
+        final CameraCaptureSession.CaptureCallback burstCaptureCallback = new CameraCaptureSession.CaptureCallback() {
+            // sensor timestamps of the shots started and not yet finished, by frame number; a failure only
+            // carries the frame number. Only touched on the control lane.
+            private final Map<Long, Long> mStartedShots = new HashMap<>();
+
+            @Override
+            public void onCaptureStarted(CameraCaptureSession session, CaptureRequest request, long timestamp, long frameNumber) {
+                super.onCaptureStarted(session, request, timestamp, frameNumber);
+                mStartedShots.put(frameNumber, timestamp);
+                queueImageFile(timestamp);
+            }
+
+            @Override
+            public void onCaptureCompleted(CameraCaptureSession session, CaptureRequest request,
+                                           TotalCaptureResult result) {
+                super.onCaptureCompleted(session, request, result);
+                mStartedShots.remove(result.getFrameNumber());
+                onStillCaptureCompleted(result);
+            }
+
+            @Override
+            public void onCaptureFailed(CameraCaptureSession session, CaptureRequest request, CaptureFailure failure) {
+                super.onCaptureFailed(session, request, failure);
+                Log.w(LOG_TAG, "burst shot failed, reason " + failure.getReason());
+                Long timestamp = mStartedShots.remove(failure.getFrameNumber());
+                if (failure.wasImageCaptured()) {
+                    // the image still arrives and completes the shot through saveImage()
+                    return;
+                }
+                if (timestamp != null) {
+                    mPendingImages.remove(timestamp);
+                }
+                BurstScheduler burstScheduler = mBurstScheduler;
+                if (burstScheduler != null) {
+                    burstScheduler.onShotFailed();
+                }
+            }
+        };
+        mBurstScheduler = new BurstScheduler(shots, IMAGE_WRITE_SLOTS,
+                new BurstScheduler.Session() {
+                    @Override
+                    public void submit(int count) throws CameraAccessException {
+                        mPreviewCaptureSession.captureBurst(Collections.nCopies(count, stillRequest),
+                                burstCaptureCallback, mControlHandler);
+                    }
+                },
+                new BurstScheduler.WriteCapacity() {
+                    @Override
+                    public int getFreeSlots() {
+                        return mImageWritePipeline.getCapacity() - mImageWritePipeline.getInFlight();
+                    }
+                },
+                Clock.SYSTEM,
+                new BurstScheduler.Listener() {
+                    @Override
+                    public void onBurstFinished(final int captured, int failed, final double shotsPerSecond) {
+                        Log.d(LOG_TAG, "burst finished: " + captured + " captured, " + failed + " failed, "
+                                + String.format("%.1f", shotsPerSecond) + " shots/s");
+                        mBurstScheduler = null;
+                        mCaptureStateMachine.onCaptureCompleted();
+                        runOnUiThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Toast.makeText(MainActivity.this, String.format("%d shots at %.1f shots/s",
+                                        captured, shotsPerSecond), Toast.LENGTH_SHORT).show();
+                            }
+                        });
+                    }
+                });
+        mBurstScheduler.start();
+    }
+
+    /**
+     * @return mean size of the stills written so far, or a guess from the still size before the first one
+     */
+    private long estimateStillBytes() {
+        ImageWritePipeline.Stats stats = mImageWritePipeline.getStats();
+        if (stats.getWritten() > 0) {
+            return stats.getBytesWritten() / stats.getWritten();
         }
+        return (long) (mImageSize.getWidth() * mImageSize.getHeight() * JPEG_BYTES_PER_PIXEL);
+    }
+
+    private void queueImageFile(long sensorTimestamp) {
+        int shot = mCurrentShot;
+        mShutterLagMetrics.mark(shot, ShutterLagMetrics.Stage.CAPTURE_STARTED);
+        long now = System.currentTimeMillis();
+        mPendingImages.put(sensorTimestamp, new PendingImage(createImageFileName(now), shot, now));
     }
 
     private void closeCamera() {
         Log.d(LOG_TAG, "closing camera...");
+        // an unfinished burst dies with the session, its pending images will never arrive
+        mBurstScheduler = null;
+        mBurstRequested = false;
+        // images still waiting for their result are saved without it
+        mCaptureCorrelator.clear();
+        mPendingImages.clear();
+        resetCaptureStateMachine();
+        clearZslRing();
+        mRecorderWarmup.discard();
+        if (mRecorderWarmup.getState() == RecorderWarmup.State.RECORDING) {
+            // the session goes away with the camera, finish this file; onResume starts a new one
+            boolean recorded = false;
+            try {
+                mRecorderWarmup.stop();
+                recorded = true;
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "no video recorded", e);
+            }
+            finishSegments(recorded);
+        }
+        mSessionPrewarmed = false;
         if (mCameraDevice != null) {
             mCameraDevice.close();
             mCameraDevice = null;
         }
     }
 
+    /**
+     * Release the readers setupCamera() made. Only once the camera is closed and the lanes have drained: images
+     * still being written or analyzed belong to them.
+     */
+    private void closeImageReaders() {
+        if (mImageReader != null) {
+            mImageReader.close();
+            mImageReader = null;
+        }
+        if (mZslImageReader != null) {
+            mZslImageReader.close();
+            mZslImageReader = null;
+        }
+        if (mAnalysisImageReader != null) {
+            mAnalysisImageReader.close();
+            mAnalysisImageReader = null;
+        }
+        if (mRecordingImageReader != null) {
+            mRecordingImageReader.close();
+            mRecordingImageReader = null;
+        }
+        mSessionImageReader = null;
+    }
+
     private void startBackgroundThread() {
-        Log.d(LOG_TAG, "starting background thread");
-        mBackgroundHandlerThread = new HandlerThread("camera2");
-        mBackgroundHandlerThread.start();
-        mBackgroundHandler = new Handler(mBackgroundHandlerThread.getLooper());
+        Log.d(LOG_TAG, "starting camera lanes");
+        HandlerThreadExecutor control = new HandlerThreadExecutor("camera2-control");
+        HandlerThreadExecutor results = new HandlerThreadExecutor("camera2-results");
+        CameraLanes lanes = new CameraLanes(Clock.SYSTEM, control, results,
+                CameraLanes.newSingleThreadExecutor("camera2-image-io"),
+                CameraLanes.newSingleThreadExecutor("camera2-processing"));
+        // framework callbacks count towards the lanes they arrive on
+        control.setMeter(lanes.get(CameraLanes.Lane.CONTROL));
+        results.setMeter(lanes.get(CameraLanes.Lane.RESULTS));
+        mControlHandler = control.getHandler();
+        mResultsHandler = results.getHandler();
+
+        // disk writes get their own lane so they never delay capture callbacks
+        // JPEG planes are direct buffers, the channel writer persists them without a heap copy
+        mImageWritePipeline = new ImageWritePipeline(IMAGE_WRITE_SLOTS, lanes.get(CameraLanes.Lane.IMAGE_IO),
+                new ChannelImageFileWriter(mDirectBufferPool), Clock.SYSTEM, mImageWriteListener);
+        mImageWriteQueueFull = false;
+
+        LatestFrameProcessor frameProcessor = new LatestFrameProcessor(lanes.get(CameraLanes.Lane.PROCESSING),
+                Clock.SYSTEM);
+        frameProcessor.addAnalyzer(mLumaAnalyzer);
+        mFrameProcessor = frameProcessor;
+        mLanes = lanes;
     }
 
     private void stopBackgroundThread() {
-        Log.d(LOG_TAG, "stopping background thread");
-        mBackgroundHandlerThread.quitSafely();
+        Log.d(LOG_TAG, "stopping camera lanes");
+        CameraLanes lanes = mLanes;
+        mLanes = null;
+        mFrameProcessor.shutdown();
         try {
-            mBackgroundHandlerThread.join();
-            mBackgroundHandlerThread = null;
-            mBackgroundHandler = null;
+            // callbacks still queued run first, then images that are already queued reach the disk
+            if (!lanes.shutdown(IMAGE_WRITE_DRAIN_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.w(LOG_TAG, "timed out waiting for camera lanes to drain");
+            }
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
+        Log.d(LOG_TAG, "image writes: " + mImageWritePipeline.getStats());
+        for (CaptureStateMachine.State state : CaptureStateMachine.State.values()) {
+            Log.d(LOG_TAG, "capture state " + state + ": " + mCaptureStateMachine.getStats(state));
+        }
+        Log.d(LOG_TAG, mShutterLagMetrics.dump());
+        Log.d(LOG_TAG, mFrameProcessor.dump());
+        Log.d(LOG_TAG, lanes.dump());
+        mFrameProcessor = null;
+        mControlHandler = null;
+        mResultsHandler = null;
     }
 
-    // FIXME что и зачем
-    private static int sensorToDeviceRotation(CameraCharacteristics characteristics, int deviceOrientation) {
-        // get camera sensor rotation
-        int sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
-        // decode orientation code to degrees
-        deviceOrientation = ORIENTATIONS.get(deviceOrientation);
-        int finalRotation = (sensorOrientation + deviceOrientation + 360) % 360;
-        return finalRotation;
+    /**
+     * Run {@code task} on one of the camera lanes.
+     *
+     * @return false if the lanes are shut down (the activity is paused) and the task was dropped
+     */
+    private boolean runOnLane(CameraLanes.Lane lane, Runnable task) {
+        CameraLanes lanes = mLanes;
+        if (lanes == null) {
+            return false;
+        }
+        try {
+            lanes.get(lane).execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
     }
 
-    private static Size chooseOptimalSize(Size[] choices, int width, int height) {
-        List<Size> bigEnough = new ArrayList<>();
-        // big enough and matches aspect ratio
-        List<Size> matchesAspectRatio = new ArrayList<>();
-        float aspectRatio = height / (float) width;
-        for (Size option : choices) {
-            if (option.getWidth() >= width && option.getHeight() >= height)  // size is equal to or bigger than required
-            {
-                bigEnough.add(option);
-                // check if it also matches aspect ratio
-                if (option.getHeight() == option.getWidth() * aspectRatio) {
-                    matchesAspectRatio.add(option);
-                }
-            }
+    /**
+     * @param index selected from {@code sizes}; when nothing was selectable, the smallest size stands in
+     */
+    private static Size toSize(SizeIndex sizes, int index) {
+        if (index < 0) {
+            index = 0;
         }
-        // first check ones that are big enough and matches the aspect ratio
-        if (matchesAspectRatio.size() > 0) {
-            return Collections.min(matchesAspectRatio, new CompareSizeByArea());
-        } else if (bigEnough.size() > 0) {
-            // none of the big enoug matches aspect ratio
-            // => return the smallest from the bigEnough
-            return Collections.min(bigEnough, new CompareSizeByArea());
-        } else {
-            // return default
-            return choices[0];
+        return new Size(sizes.getWidth(index), sizes.getHeight(index));
+    }
+
+    private static Method findSetNextOutputFile() {
+        if (Build.VERSION.SDK_INT < 26) {
+            return null;
+        }
+        try {
+            return MediaRecorder.class.getMethod("setNextOutputFile", File.class);
+        } catch (NoSuchMethodException e) {
+            return null;
         }
     }
 
-    private static class CompareSizeByArea implements Comparator<Size> {
-        @Override
-        public int compare(Size lhs, Size rhs) {
-            // compare by sizes
-            long lhsArea = (long) lhs.getHeight() * lhs.getWidth();
-            long rhsArea = (long) rhs.getHeight() * rhs.getWidth();
-            return Long.signum(lhsArea - rhsArea);
+    private static int[] packSizes(Size[] sizes) {
+        if (sizes == null) {
+            return new int[0];
+        }
+        int[] packed = new int[sizes.length * 2];
+        for (int i = 0; i < sizes.length; i++) {
+            packed[2 * i] = sizes[i].getWidth();
+            packed[2 * i + 1] = sizes[i].getHeight();
+        }
+        return packed;
+    }
+
+    private static int[] packRanges(Range<Integer>[] ranges) {
+        if (ranges == null) {
+            return new int[0];
+        }
+        int[] packed = new int[ranges.length * 2];
+        for (int i = 0; i < ranges.length; i++) {
+            packed[2 * i] = ranges[i].getLower();
+            packed[2 * i + 1] = ranges[i].getUpper();
         }
+        return packed;
+    }
+
+    private static int[] packHighSpeedVideoConfigs(StreamConfigurationMap map) {
+        List<Integer> packed = new ArrayList<>();
+        for (Size size : map.getHighSpeedVideoSizes()) {
+            for (Range<Integer> range : map.getHighSpeedVideoFpsRangesFor(size)) {
+                packed.addAll(Arrays.asList(size.getWidth(), size.getHeight(), range.getLower(), range.getUpper()));
+            }
+        }
+        int[] configs = new int[packed.size()];
+        for (int i = 0; i < configs.length; i++) {
+            configs[i] = packed.get(i);
+        }
+        return configs;
     }
 
     /**
      * Create a new video folder on external storage for this application (if it was not previously created)
      */
     private void createVideoFolder() {
-        File moviesDirectory = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES);
-        mVideoFolder = new File(moviesDirectory, VIDEO_IMAGE_FOLDER_NAME);
         // check if that folder already exists (previously created)
         if (!mVideoFolder.exists()) {
             // create that folder
@@ -697,8 +2262,6 @@ public class MainActivity extends AppCompatActivity {
     }
 
     private void createImageFolder() {
-        File moviesDirectory = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_PICTURES);
-        mImageFolder = new File(moviesDirectory, VIDEO_IMAGE_FOLDER_NAME);
         // check if that folder already exists (previously created)
         if (!mImageFolder.exists()) {
             // create that folder
@@ -706,22 +2269,17 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private File createVideoFileName() throws IOException {
-        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-        String prepend = "VIDEO_" + timestamp + "_";
-        File videoFile = File.createTempFile(prepend, "mp4", mVideoFolder);
+    private File createVideoFileName() {
+        File videoFile = mVideoFileNamer.next(System.currentTimeMillis());
         // FIXME maybe move this assignment somewhere else?
         mVideoFileName = videoFile.getAbsolutePath();
         Log.d(LOG_TAG, "video file name: " + mVideoFileName);
         return videoFile;
     }
 
-    private File createImageFileName() throws IOException {
-        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date());
-        String prepend = "IMAGE_" + timestamp + "_";
-        File imageFile = File.createTempFile(prepend, "jpg", mImageFolder);
-        mImageFileName = imageFile.getAbsolutePath();
-        Log.d(LOG_TAG, "image file name: " + mImageFileName);
+    private File createImageFileName(long wallClockMillis) {
+        File imageFile = mImageFileNamer.next(wallClockMillis);
+        Log.d(LOG_TAG, "image file name: " + imageFile);
         return imageFile;
     }
 
@@ -732,11 +2290,7 @@ public class MainActivity extends AppCompatActivity {
 
                 mIsRecording = true;
                 mRecordImageButton.setImageResource(R.mipmap.btn_video_busy);
-                try {
-                    createVideoFileName();
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
+                createVideoFileName();
 //                startRecording();
             } else {
                 // ask for permission
@@ -748,12 +2302,40 @@ public class MainActivity extends AppCompatActivity {
         } else {
             mIsRecording = true;
             mRecordImageButton.setImageResource(R.mipmap.btn_video_busy);
-            try {
-                createVideoFileName();
-            } catch (IOException e) {
-                e.printStackTrace();
+            createVideoFileName();
+        }
+    }
+
+    /**
+     * Bitrate and frame rate for mVideoSize from the camcorder profiles, the camera's frame rates and the probed
+     * storage throughput.
+     */
+    private VideoProfileSelector.VideoProfile selectVideoProfile() {
+        List<VideoProfileSelector.EncoderProfile> encoderProfiles = new ArrayList<>();
+        try {
+            int cameraId = Integer.parseInt(mCameraId);
+            int[] qualities = {CamcorderProfile.QUALITY_QVGA, CamcorderProfile.QUALITY_480P,
+                    CamcorderProfile.QUALITY_720P, CamcorderProfile.QUALITY_1080P, CamcorderProfile.QUALITY_2160P};
+            for (int quality : qualities) {
+                if (CamcorderProfile.hasProfile(cameraId, quality)) {
+                    CamcorderProfile profile = CamcorderProfile.get(cameraId, quality);
+                    encoderProfiles.add(new VideoProfileSelector.EncoderProfile(profile.videoFrameWidth,
+                            profile.videoFrameHeight, profile.videoFrameRate, profile.videoBitRate));
+                }
             }
+        } catch (NumberFormatException e) {
+            // camcorder profiles are only indexed for numeric camera ids, use the built-in table
         }
+        // only high speed sessions can go above the regular rates, and recording uses a regular session
+        // until the storage has been probed the bitrate is not capped by it
+        return new VideoProfileSelector(encoderProfiles).select(mVideoSize.getWidth(), mVideoSize.getHeight(),
+                VideoProfileSelector.DEFAULT_FRAME_RATE, mCamera.getFpsRanges(), new int[0],
+                mWriteRateGovernor.getVideoBytesPerSecond());
+    }
+
+    private void setRecordFrameRate(CaptureRequest.Builder builder) {
+        builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                new Range<>(mVideoProfile.getMinFrameRate(), mVideoProfile.getFrameRate()));
     }
 
     /**
@@ -762,23 +2344,193 @@ public class MainActivity extends AppCompatActivity {
     private void setupMediaRecorder() throws IOException {
         Log.d(LOG_TAG, "setting up media recorder");
         mMediaRecorder.setVideoSource(MediaRecorder.VideoSource.SURFACE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && mPersistentRecorderSurface != null) {
+            mMediaRecorder.setInputSurface(mPersistentRecorderSurface);
+        }
         mMediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
         mMediaRecorder.setOutputFile(mVideoFileName);
-        mMediaRecorder.setVideoEncodingBitRate(1000000);
-        mMediaRecorder.setVideoFrameRate(30);
+        mMediaRecorder.setVideoEncodingBitRate(mVideoProfile.getBitRate());
+        mMediaRecorder.setVideoFrameRate(mVideoProfile.getFrameRate());
         mMediaRecorder.setVideoSize(mVideoSize.getWidth(), mVideoSize.getHeight());
         mMediaRecorder.setVideoEncoder(MediaRecorder.VideoEncoder.H264);
         mMediaRecorder.setOrientationHint(mTotalRotation);
+        // 0 leaves a limit off; the segmenter rolls over to a new file at them
+        mMediaRecorder.setMaxFileSize(mSegmenter.getRecorderMaxFileSize(mVideoProfile.getBitRate()));
+        mMediaRecorder.setMaxDuration((int) mSegmenter.getRecorderMaxDurationMillis());
         mMediaRecorder.prepare();
     }
 
+    private void setupCodecRecorder(File output) throws IOException {
+        Log.d(LOG_TAG, "setting up codec recorder");
+        mCodecRecorder.configure(mVideoSize.getWidth(), mVideoSize.getHeight(), mVideoProfile.getBitRate(),
+                mVideoProfile.getFrameRate(), CODEC_KEY_FRAME_INTERVAL_S, mTotalRotation, mPersistentRecorderSurface);
+        mCodecRecorder.prepare(output);
+    }
+
+    private void setAnalysisEnabled(boolean enabled) {
+        if (enabled == mAnalysisEnabled) {
+            return;
+        }
+        mAnalysisEnabled = enabled;
+        if (mCameraDevice != null && !mIsRecording) {
+            // the analysis reader is an extra session output, so the session has to be rebuilt
+            startPreview();
+        }
+    }
+
+    private void setZslEnabled(boolean enabled) {
+        if (enabled == mZslEnabled) {
+            return;
+        }
+        mZslEnabled = enabled;
+        if (!enabled) {
+            clearZslRing();
+        }
+        if (mCameraDevice != null && !mIsRecording) {
+            // the zsl reader is an extra session output, so the session has to be rebuilt
+            startPreview();
+        }
+    }
+
+    /**
+     * Abandon a capture in progress. The machine and its transition listener belong to the control lane; this runs
+     * after the callbacks already queued there.
+     */
+    private void resetCaptureStateMachine() {
+        Runnable reset = new Runnable() {
+            @Override
+            public void run() {
+                mCaptureStateMachine.reset();
+            }
+        };
+        if (!runOnLane(CameraLanes.Lane.CONTROL, reset)) {
+            // no lanes, nothing else touches the machine
+            reset.run();
+        }
+    }
+
+    private void clearZslRing() {
+        runOnLane(CameraLanes.Lane.CONTROL, new Runnable() {
+            @Override
+            public void run() {
+                mZslRing.clear();
+            }
+        });
+    }
+
+    /**
+     * Rate a preview frame for zsl selection: frames taken while the lens was settled and in focus win.
+     */
+    private void scoreZslFrame(CaptureResult result) {
+        Long timestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+        if (timestamp == null) {
+            return;
+        }
+        Integer afState = result.get(CaptureResult.CONTROL_AF_STATE);
+        Integer lensState = result.get(CaptureResult.LENS_STATE);
+        float score = 0;
+        if (afState != null && (afState == CaptureResult.CONTROL_AF_STATE_PASSIVE_FOCUSED
+                || afState == CaptureResult.CONTROL_AF_STATE_FOCUSED_LOCKED)) {
+            score += 1;
+        }
+        if (lensState != null && lensState == CaptureResult.LENS_STATE_STATIONARY) {
+            score += 1;
+        }
+        mZslRing.setScore(timestamp, score);
+    }
+
+    /**
+     * Save the buffered preview frame closest to the press instead of issuing a new capture.
+     */
+    private void takeZslPicture(final int shot, final long pressNanos) {
+        runOnLane(CameraLanes.Lane.CONTROL, new Runnable() {
+            @Override
+            public void run() {
+                // without a shared time base the newest frame is the best guess
+                int index = mZslFrameSelector.select(mZslRing, mSensorTimestampRealtime ? pressNanos : Long.MAX_VALUE);
+                if (index < 0) {
+                    Log.d(LOG_TAG, "no zsl frame buffered, falling back to a regular capture");
+                    takePicture(false, shot);
+                    return;
+                }
+                Image image = mZslRing.take(index);
+                mShutterLagMetrics.mark(shot, ShutterLagMetrics.Stage.IMAGE_AVAILABLE);
+                long now = System.currentTimeMillis();
+                File imageFile = createImageFileName(now);
+                CameraImage cameraImage = new CameraImage(image, shot, null, now, mTotalRotation);
+                if (!mImageWritePipeline.offer(cameraImage, imageFile)) {
+                    Log.w(LOG_TAG, "image write queue is full, dropping zsl frame");
+                    image.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Start a still (or burst) capture sequence on the control lane.
+     */
+    private void takePicture(final boolean burst, final int shot) {
+        if (mPreviewCaptureSession == null) {
+            return;
+        }
+        if (mIsRecording && !mStillsWhileRecording) {
+            Log.d(LOG_TAG, "the recording session has no still output at this hardware level");
+            return;
+        }
+        runOnLane(CameraLanes.Lane.CONTROL, new Runnable() {
+            @Override
+            public void run() {
+                mCurrentShot = shot;
+                if (mCaptureStateMachine.takePicture()) {
+                    mBurstRequested = burst;
+                } else {
+                    Log.d(LOG_TAG, "capture already in progress");
+                }
+            }
+        });
+    }
+
     private void lockFocus() {
-        mCaptureState = STATE_WAIT_LOCK;
+        mShutterLagMetrics.mark(mCurrentShot, ShutterLagMetrics.Stage.LOCK_FOCUS);
         // trigger autofocus
         mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_START);
         try {
             // send an image capture request
-            mPreviewCaptureSession.capture(mCaptureRequestBuilder.build(), mPreviewCaptureCallback, mBackgroundHandler);
+            mPreviewCaptureSession.capture(mCaptureRequestBuilder.build(), mPreviewCaptureCallback, mControlHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        } finally {
+            // the trigger must only be sent once, not with every following request
+            mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+        }
+    }
+
+    /**
+     * Ask the AE routine to meter (and decide on flash) for the upcoming still.
+     */
+    private void runPrecaptureSequence() {
+        mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_START);
+        try {
+            mPreviewCaptureSession.capture(mCaptureRequestBuilder.build(), mPreviewCaptureCallback, mControlHandler);
+        } catch (CameraAccessException e) {
+            e.printStackTrace();
+        } finally {
+            mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER,
+                    CaptureRequest.CONTROL_AE_PRECAPTURE_TRIGGER_IDLE);
+        }
+    }
+
+    /**
+     * Release the AF lock taken by {@link #lockFocus()} and resume the normal preview.
+     */
+    private void unlockFocus() {
+        mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_CANCEL);
+        try {
+            mPreviewCaptureSession.capture(mCaptureRequestBuilder.build(), null, mControlHandler);
+            mCaptureRequestBuilder.set(CaptureRequest.CONTROL_AF_TRIGGER, CaptureRequest.CONTROL_AF_TRIGGER_IDLE);
+            mPreviewCaptureSession.setRepeatingRequest(mCaptureRequestBuilder.build(), mPreviewCaptureCallback,
+                    mControlHandler);
         } catch (CameraAccessException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,64 @@
+package com.uberv.android.camera2;
+
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Probes the app's own captures for the {@link MediaIndex}: JPEG dimensions come from a bounds-only decode, video
+ * dimensions and duration from the container metadata. Neither decodes any pixels.
+ */
+public class MediaFileProber implements MediaIndex.Prober {
+
+    @Override
+    public MediaIndex.Entry probe(File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith("jpg")) {
+            return probeImage(file);
+        }
+        if (name.endsWith("mp4")) {
+            return probeVideo(file);
+        }
+        return null;
+    }
+
+    private static MediaIndex.Entry probeImage(File file) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getAbsolutePath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            // empty or still being written
+            return null;
+        }
+        return MediaIndex.Entry.image(file, options.outWidth, options.outHeight);
+    }
+
+    private static MediaIndex.Entry probeVideo(File file) {
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(file.getAbsolutePath());
+            return MediaIndex.Entry.video(file,
+                    parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH)),
+                    parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT)),
+                    parseInt(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION)));
+        } catch (RuntimeException e) {
+            // not a playable video, e.g. a recording that was never stopped
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
+
+    private static int parseInt(String value) {
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package com.uberv.android.camera2;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * On-disk index of captured photos and videos, so that the app can list them without scanning its folders.
+ * <p>
+ * The index is an append-only log: every {@link #put(Entry)} and {@link #remove(String)} appends one checksummed
+ * record, and {@link #open()} replays the log into memory. A record torn by a crash is detected by its checksum and
+ * cut off, losing at most that record. Once the log holds more dead records (removed or replaced entries) than live
+ * ones it is compacted: rewritten with only the live entries and atomically swapped in.
+ * <p>
+ * Entries are kept sorted by timestamp, so {@link #page(int, int)} costs O(page) regardless of the number of
+ * captures. Thread safe.
+ */
+public class MediaIndex {
+    private static final int MAGIC = 0x4d494458; // "MIDX"
+    static final int VERSION = 1;
+    private static final int HEADER_LENGTH = 8;
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    // a path plus a few numbers; guards against allocating garbage lengths from a corrupt file
+    private static final int MAX_RECORD_LENGTH = 1 << 12;
+    // don't bother compacting small logs
+    private static final int MIN_DEAD_RECORDS_TO_COMPACT = 64;
+
+    /**
+     * Reads what the index needs to know about a media file.
+     */
+    public interface Prober {
+
+        /**
+         * @return the entry for {@code file}, or null if it is not a photo or video
+         */
+        Entry probe(File file) throws IOException;
+    }
+
+    public static final class Entry {
+        private final String mPath;
+        private final long mTimestampMillis;
+        private final long mSizeBytes;
+        private final int mWidth;
+        private final int mHeight;
+        private final long mDurationMillis;
+        private final boolean mVideo;
+
+        public Entry(String path, long timestampMillis, long sizeBytes, int width, int height, long durationMillis,
+                     boolean video) {
+            if (path == null) {
+                throw new NullPointerException("path must not be null");
+            }
+            mPath = path;
+            mTimestampMillis = timestampMillis;
+            mSizeBytes = sizeBytes;
+            mWidth = width;
+            mHeight = height;
+            mDurationMillis = durationMillis;
+            mVideo = video;
+        }
+
+        public static Entry image(File file, int width, int height) {
+            return new Entry(file.getAbsolutePath(), file.lastModified(), file.length(), width, height, 0, false);
+        }
+
+        public static Entry video(File file, int width, int height, long durationMillis) {
+            return new Entry(file.getAbsolutePath(), file.lastModified(), file.length(), width, height,
+                    durationMillis, true);
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        /**
+         * @return last modification time of the file when it was indexed
+         */
+        public long getTimestampMillis() {
+            return mTimestampMillis;
+        }
+
+        public long getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * @return 0 for photos
+         */
+        public long getDurationMillis() {
+            return mDurationMillis;
+        }
+
+        public boolean isVideo() {
+            return mVideo;
+        }
+
+        /**
+         * @return true if {@code file} still looks like the file this entry was made from
+         */
+        public boolean matches(File file) {
+            return file.length() == mSizeBytes && file.lastModified() == mTimestampMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) o;
+            return mPath.equals(other.mPath) && mTimestampMillis == other.mTimestampMillis
+                    && mSizeBytes == other.mSizeBytes && mWidth == other.mWidth && mHeight == other.mHeight
+                    && mDurationMillis == other.mDurationMillis && mVideo == other.mVideo;
+        }
+
+        @Override
+        public int hashCode() {
+            return mPath.hashCode() * 31 + (int) (mTimestampMillis ^ (mTimestampMillis >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return mPath + " " + mWidth + "x" + mHeight + " " + mSizeBytes + " bytes"
+                    + (mVideo ? " " + mDurationMillis + " ms" : "");
+        }
+    }
+
+    // oldest first, ties broken by path so that every entry has exactly one position
+    private static final Comparator<Entry> BY_TIMESTAMP = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry lhs, Entry rhs) {
+            if (lhs.mTimestampMillis != rhs.mTimestampMillis) {
+                return lhs.mTimestampMillis < rhs.mTimestampMillis ? -1 : 1;
+            }
+            return lhs.mPath.compareTo(rhs.mPath);
+        }
+    };
+
+    private final File mFile;
+    private final List<Entry> mEntries = new ArrayList<>();
+    private final Map<String, Entry> mByPath = new HashMap<>();
+    private FileOutputStream mLog;
+    private int mLogRecords;
+    private long mTruncatedBytes;
+    private int mCompactions;
+
+    public MediaIndex(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Load the index, creating an empty one if there is none or it was written by another format version.
+     */
+    public synchronized void open() throws IOException {
+        if (mLog != null) {
+            throw new IllegalStateException("already open");
+        }
+        mEntries.clear();
+        mByPath.clear();
+        mLogRecords = 0;
+        long validLength = replay();
+        if (validLength < HEADER_LENGTH) {
+            rewrite(Collections.<Entry>emptyList());
+        } else if (validLength < mFile.length()) {
+            mTruncatedBytes += mFile.length() - validLength;
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            try {
+                file.setLength(validLength);
+            } finally {
+                file.close();
+            }
+        }
+        mLog = new FileOutputStream(mFile, true);
+    }
+
+    /**
+     * @return length of the valid prefix of the log, 0 if the header is not ours
+     */
+    private long replay() throws IOException {
+        if (!mFile.isFile()) {
+            return 0;
+        }
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            long length = file.length();
+            if (length < HEADER_LENGTH || file.readInt() != MAGIC || file.readInt() != VERSION) {
+                return 0;
+            }
+            long valid = HEADER_LENGTH;
+            CRC32 crc = new CRC32();
+            while (length - valid >= 8) {
+                int recordLength = file.readInt();
+                if (recordLength <= 0 || recordLength > MAX_RECORD_LENGTH || length - valid - 8 < recordLength) {
+                    break;
+                }
+                byte[] record = new byte[recordLength];
+                file.readFully(record);
+                crc.reset();
+                crc.update(record, 0, recordLength);
+                if (file.readInt() != (int) crc.getValue()) {
+                    break;
+                }
+                try {
+                    apply(new DataInputStream(new ByteArrayInputStream(record)));
+                } catch (IOException e) {
+                    // checksum matched but the content did not parse, not a record we wrote
+                    break;
+                }
+                mLogRecords++;
+                valid += 8 + recordLength;
+            }
+            return valid;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void apply(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        if (type == RECORD_PUT) {
+            putInMemory(new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readInt(), in.readInt(),
+                    in.readLong(), in.readBoolean()));
+        } else if (type == RECORD_REMOVE) {
+            removeInMemory(in.readUTF());
+        } else {
+            throw new IOException("unknown record type " + type);
+        }
+    }
+
+    /**
+     * Add an entry, replacing any entry with the same path.
+     */
+    public synchronized void put(Entry entry) throws IOException {
+        checkOpen();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_PUT);
+        writeEntry(out, entry);
+        append(bytes.toByteArray());
+        putInMemory(entry);
+        compactIfNeeded();
+    }
+
+    /**
+     * @return false if there was no entry for {@code path}
+     */
+    public synchronized boolean remove(String path) throws IOException {
+        checkOpen();
+        if (!mByPath.containsKey(path)) {
+            return false;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(RECORD_REMOVE);
+        out.writeUTF(path);
+        append(bytes.toByteArray());
+        removeInMemory(path);
+        compactIfNeeded();
+        return true;
+    }
+
+    private static void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+        out.writeUTF(entry.mPath);
+        out.writeLong(entry.mTimestampMillis);
+        out.writeLong(entry.mSizeBytes);
+        out.writeInt(entry.mWidth);
+        out.writeInt(entry.mHeight);
+        out.writeLong(entry.mDurationMillis);
+        out.writeBoolean(entry.mVideo);
+    }
+
+    private void append(byte[] record) throws IOException {
+        mLog.write(frame(record));
+        mLogRecords++;
+    }
+
+    /**
+     * @return the record with its length in front and its checksum behind, written in one go so that a crash
+     * leaves at most one torn record at the end of the log
+     */
+    private static byte[] frame(byte[] record) throws IOException {
+        if (record.length > MAX_RECORD_LENGTH) {
+            throw new IOException("record too long: " + record.length);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, record.length);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.length + 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(record.length);
+        out.write(record);
+        out.writeInt((int) crc.getValue());
+        return bytes.toByteArray();
+    }
+
+    private void putInMemory(Entry entry) {
+        removeInMemory(entry.mPath);
+        int index = Collections.binarySearch(mEntries, entry, BY_TIMESTAMP);
+        // not found, the path was just removed
+        mEntries.add(-index - 1, entry);
+        mByPath.put(entry.mPath, entry);
+    }
+
+    private void removeInMemory(String path) {
+        Entry entry = mByPath.remove(path);
+        if (entry != null) {
+            mEntries.remove(Collections.binarySearch(mEntries, entry, BY_TIMESTAMP));
+        }
+    }
+
+    private void compactIfNeeded() throws IOException {
+        int dead = mLogRecords - mEntries.size();
+        if (dead >= MIN_DEAD_RECORDS_TO_COMPACT && dead > mEntries.size()) {
+            compact();
+        }
+    }
+
+    /**
+     * Rewrite the log with only the live entries.
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+        mLog.close();
+        mLog = null;
+        try {
+            rewrite(mEntries);
+            mCompactions++;
+        } finally {
+            mLog = new FileOutputStream(mFile, true);
+        }
+    }
+
+    /**
+     * Replace the log atomically: readers either see the previous file or the complete new one.
+     */
+    private void rewrite(List<Entry> entries) throws IOException {
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(mFile.getName(), ".tmp", parent);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_LENGTH);
+            DataOutputStream headerOut = new DataOutputStream(header);
+            headerOut.writeInt(MAGIC);
+            headerOut.writeInt(VERSION);
+            out.write(header.toByteArray());
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+            DataOutputStream record = new DataOutputStream(bytes);
+            for (Entry entry : entries) {
+                bytes.reset();
+                record.writeByte(RECORD_PUT);
+                writeEntry(record, entry);
+                out.write(frame(bytes.toByteArray()));
+            }
+            out.getFD().sync();
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("unable to replace " + mFile);
+            }
+            mLogRecords = entries.size();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Bring the entries under {@code directory} up to date with its files: files that are new or changed since
+     * they were indexed are probed and put, entries whose file is gone are removed. Unchanged files are not
+     * probed, so scanning a folder the app has been indexing all along only costs the directory listing.
+     *
+     * @return number of entries added, replaced or removed
+     */
+    public synchronized int scan(File directory, Prober prober) throws IOException {
+        checkOpen();
+        int changes = 0;
+        String prefix = directory.getAbsolutePath() + File.separator;
+        for (Entry entry : new ArrayList<>(mEntries)) {
+            if (entry.mPath.startsWith(prefix) && entry.mPath.indexOf(File.separatorChar, prefix.length()) < 0
+                    && !new File(entry.mPath).isFile()) {
+                remove(entry.mPath);
+                changes++;
+            }
+        }
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return changes;
+        }
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            Entry indexed = mByPath.get(file.getAbsolutePath());
+            if (indexed != null && indexed.matches(file)) {
+                continue;
+            }
+            Entry probed = prober.probe(file);
+            if (probed != null) {
+                put(probed);
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    public synchronized Entry get(String path) {
+        return mByPath.get(path);
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @param offset number of newer entries to skip
+     * @return up to {@code limit} entries, newest first
+     */
+    public synchronized List<Entry> page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("offset " + offset + ", limit " + limit);
+        }
+        int from = mEntries.size() - 1 - offset;
+        int to = Math.max(-1, from - limit);
+        List<Entry> page = new ArrayList<>(Math.max(0, from - to));
+        for (int i = from; i > to; i--) {
+            page.add(mEntries.get(i));
+        }
+        return page;
+    }
+
+    /**
+     * @return number of records in the log, live and dead
+     */
+    public synchronized int getLogRecords() {
+        return mLogRecords;
+    }
+
+    public synchronized int getCompactions() {
+        return mCompactions;
+    }
+
+    /**
+     * @return bytes cut off the end of the log because they did not form a valid record
+     */
+    public synchronized long getTruncatedBytes() {
+        return mTruncatedBytes;
+    }
+
+    public synchronized void close() {
+        if (mLog != null) {
+            try {
+                mLog.close();
+            } catch (IOException e) {
+                // every record was written in one call already
+            }
+            mLog = null;
+        }
+    }
+
+    private void checkOpen() {
+        if (mLog == null) {
+            throw new IllegalStateException("not open");
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "media index: " + mEntries.size() + " entries, " + mLogRecords + " records, "
+                + mCompactions + " compactions, " + mTruncatedBytes + " bytes truncated";
+    }
+}
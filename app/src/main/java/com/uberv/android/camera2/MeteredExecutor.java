@@ -0,0 +1,186 @@
+package com.uberv.android.camera2;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs tasks on a delegate executor and keeps track of how deep its queue gets, how long tasks wait in it and how
+ * long they run.
+ * <p>
+ * Latencies go into {@link LatencyHistogram}s, so metering adds one small wrapper object per task and no locks.
+ * Work that reaches the delegate's thread some other way, like framework callbacks posted to a lane's
+ * {@code Handler}, is counted through {@link #onExternalQueued()} and {@link #onExternalRun(long, long, boolean)}.
+ * Shutting down the metered executor shuts down the delegate. Thread safe.
+ */
+public class MeteredExecutor extends AbstractExecutorService {
+    private final String mName;
+    private final ExecutorService mDelegate;
+    private final Clock mClock;
+    // submitted but not started yet
+    private final AtomicInteger mQueued = new AtomicInteger();
+    private final AtomicInteger mMaxQueued = new AtomicInteger();
+    private final AtomicLong mCompleted = new AtomicLong();
+    private final AtomicLong mFailed = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final LatencyHistogram mWaitTime = new LatencyHistogram();
+    private final LatencyHistogram mRunTime = new LatencyHistogram();
+
+    public MeteredExecutor(String name, ExecutorService delegate, Clock clock) {
+        mName = name;
+        mDelegate = delegate;
+        mClock = clock;
+    }
+
+    @Override
+    public void execute(final Runnable task) {
+        final long queuedAt = mClock.nanoTime();
+        onExternalQueued();
+        try {
+            mDelegate.execute(new Runnable() {
+                @Override
+                public void run() {
+                    long startedAt = mClock.nanoTime();
+                    boolean failed = true;
+                    try {
+                        task.run();
+                        failed = false;
+                    } finally {
+                        onExternalRun(startedAt - queuedAt, mClock.nanoTime() - startedAt, failed);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            onExternalRejected();
+            throw e;
+        }
+    }
+
+    /**
+     * A task was queued on the delegate's thread without going through {@link #execute(Runnable)}.
+     */
+    public void onExternalQueued() {
+        int queued = mQueued.incrementAndGet();
+        int max;
+        do {
+            max = mMaxQueued.get();
+        } while (queued > max && !mMaxQueued.compareAndSet(max, queued));
+    }
+
+    /**
+     * A task counted by {@link #onExternalQueued()} could not be queued after all.
+     */
+    public void onExternalRejected() {
+        mQueued.decrementAndGet();
+        mRejected.incrementAndGet();
+    }
+
+    /**
+     * A task counted by {@link #onExternalQueued()} has run.
+     *
+     * @param waitNanos time from queueing until it started
+     * @param failed    true if it threw
+     */
+    public void onExternalRun(long waitNanos, long runNanos, boolean failed) {
+        mQueued.decrementAndGet();
+        mWaitTime.recordNanos(waitNanos);
+        mRunTime.recordNanos(runNanos);
+        if (failed) {
+            mFailed.incrementAndGet();
+        } else {
+            mCompleted.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        mDelegate.shutdown();
+    }
+
+    /**
+     * @return the wrappers of the tasks that never started; they still run the original tasks
+     */
+    @Override
+    public List<Runnable> shutdownNow() {
+        List<Runnable> pending = mDelegate.shutdownNow();
+        mQueued.addAndGet(-pending.size());
+        return pending;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mDelegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mDelegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return mDelegate.awaitTermination(timeout, unit);
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return number of tasks submitted but not started yet
+     */
+    public int getQueueDepth() {
+        return mQueued.get();
+    }
+
+    public int getMaxQueueDepth() {
+        return mMaxQueued.get();
+    }
+
+    public long getCompleted() {
+        return mCompleted.get();
+    }
+
+    /**
+     * @return number of tasks that threw
+     */
+    public long getFailed() {
+        return mFailed.get();
+    }
+
+    /**
+     * @return number of tasks the delegate refused, e.g. after shutdown
+     */
+    public long getRejected() {
+        return mRejected.get();
+    }
+
+    /**
+     * @return time from submission until a task started
+     */
+    public LatencyHistogram getWaitTime() {
+        return mWaitTime;
+    }
+
+    public LatencyHistogram getRunTime() {
+        return mRunTime;
+    }
+
+    /**
+     * @return one line with the counters and the wait and run time percentiles
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder(mName);
+        out.append(": queued=").append(getQueueDepth()).append(" max=").append(getMaxQueueDepth())
+                .append(" completed=").append(getCompleted()).append(" failed=").append(getFailed())
+                .append(" rejected=").append(getRejected()).append(" | wait: ");
+        mWaitTime.appendSummary(out);
+        out.append(" | run: ");
+        mRunTime.appendSummary(out);
+        return out.toString();
+    }
+}
@@ -0,0 +1,15 @@
+package com.uberv.android.camera2;
+
+/**
+ * Image filter over packed ARGB pixels ({@code int[]}, row after row), applied one tile at a time by
+ * {@link TileProcessor}.
+ */
+public interface PixelFilter {
+
+    /**
+     * Filter the pixels in columns {@code [left, right)} of rows {@code [top, bottom)}. The whole source image is
+     * readable, so filters may look at neighbours across the tile border; only the tile may be written in
+     * {@code dst}. Called concurrently for different tiles.
+     */
+    void apply(int[] src, int[] dst, int width, int height, int left, int top, int right, int bottom);
+}
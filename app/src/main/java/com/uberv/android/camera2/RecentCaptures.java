@@ -0,0 +1,83 @@
+package com.uberv.android.camera2;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * The most recently captured photos and videos, newest first, at most {@code capacity} of them. Thread safe.
+ */
+public class RecentCaptures {
+
+    public static final class Capture {
+        private final String mPath;
+        private final boolean mVideo;
+
+        Capture(String path, boolean video) {
+            mPath = path;
+            mVideo = video;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        public boolean isVideo() {
+            return mVideo;
+        }
+    }
+
+    private final int mCapacity;
+    private final LinkedList<Capture> mCaptures = new LinkedList<>();
+
+    public RecentCaptures(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        }
+        mCapacity = capacity;
+    }
+
+    /**
+     * Add a capture as the newest one, dropping the oldest if full.
+     *
+     * @return the capture that was dropped, or null
+     */
+    public synchronized Capture add(String path, boolean video) {
+        removeInternal(path);
+        mCaptures.addFirst(new Capture(path, video));
+        return mCaptures.size() > mCapacity ? mCaptures.removeLast() : null;
+    }
+
+    /**
+     * @return false if {@code path} was not among the recent captures
+     */
+    public synchronized boolean remove(String path) {
+        return removeInternal(path);
+    }
+
+    private boolean removeInternal(String path) {
+        for (Iterator<Capture> it = mCaptures.iterator(); it.hasNext(); ) {
+            if (it.next().mPath.equals(path)) {
+                it.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return copy of the captures, newest first
+     */
+    public synchronized List<Capture> snapshot() {
+        return new ArrayList<>(mCaptures);
+    }
+
+    public synchronized int size() {
+        return mCaptures.size();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+}
@@ -0,0 +1,171 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Keeps a video recorder prepared ahead of time so that pressing record only has to start it.
+ * <p>
+ * The recorder moves {@link State#COLD} → {@link State#READY} ({@link #prepare(File)}) →
+ * {@link State#RECORDING} ({@link #start()}) and back to {@link State#COLD} when stopped or discarded.
+ * Record-start latency, from the button press until the camera feeds the running recorder
+ * ({@link #recordStartLatency(long)}), is recorded as "warm" if the recorder was prepared before the press and as
+ * "cold" if it had to be prepared after it, so both paths can be compared.
+ * <p>
+ * Not thread safe; calls have to be serialized by the caller.
+ */
+public class RecorderWarmup {
+
+    public enum State {
+        COLD,
+        READY,
+        RECORDING
+    }
+
+    /**
+     * The recorder being driven, e.g. a {@code MediaRecorder}.
+     */
+    public interface Recorder {
+
+        /**
+         * Configure the recorder to write to {@code output} and prepare it.
+         */
+        void prepare(File output) throws IOException;
+
+        void start();
+
+        void stop();
+
+        /**
+         * Return to the unconfigured state, also after a failed {@link #prepare(File)}.
+         */
+        void reset();
+    }
+
+    private final Recorder mRecorder;
+    private final Clock mClock;
+    private final LatencyHistogram mWarmStartLatency = new LatencyHistogram();
+    private final LatencyHistogram mColdStartLatency = new LatencyHistogram();
+    private State mState = State.COLD;
+    private File mOutput;
+    private long mPreparedNanos;
+
+    public RecorderWarmup(Recorder recorder, Clock clock) {
+        mRecorder = recorder;
+        mClock = clock;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * @return file the recorder is prepared for or recording into, null if {@link State#COLD}
+     */
+    public File getOutput() {
+        return mOutput;
+    }
+
+    /**
+     * Prepare the recorder for {@code output}. On failure the recorder is reset and stays {@link State#COLD}.
+     */
+    public void prepare(File output) throws IOException {
+        if (mState != State.COLD) {
+            throw new IllegalStateException("prepare in state " + mState);
+        }
+        try {
+            mRecorder.prepare(output);
+        } catch (IOException | RuntimeException e) {
+            mRecorder.reset();
+            throw e;
+        }
+        mOutput = output;
+        mPreparedNanos = mClock.nanoTime();
+        mState = State.READY;
+    }
+
+    /**
+     * Start recording into the prepared file.
+     */
+    public void start() {
+        if (mState != State.READY) {
+            throw new IllegalStateException("start in state " + mState);
+        }
+        mRecorder.start();
+        mState = State.RECORDING;
+    }
+
+    /**
+     * The repeating request targeting the recorder is in place; count the time since the press. Ignored if the
+     * recording has already stopped.
+     *
+     * @param pressNanos when the record button was pressed, on the same clock
+     */
+    public void recordStartLatency(long pressNanos) {
+        if (mState != State.RECORDING) {
+            return;
+        }
+        long latency = mClock.nanoTime() - pressNanos;
+        if (mPreparedNanos <= pressNanos) {
+            mWarmStartLatency.recordNanos(latency);
+        } else {
+            mColdStartLatency.recordNanos(latency);
+        }
+    }
+
+    /**
+     * Stop recording and reset the recorder.
+     *
+     * @return the recorded file
+     */
+    public File stop() {
+        if (mState != State.RECORDING) {
+            throw new IllegalStateException("stop in state " + mState);
+        }
+        File output = mOutput;
+        try {
+            mRecorder.stop();
+        } finally {
+            // stop() throws if nothing was recorded, the recorder has to be reset either way
+            mRecorder.reset();
+            mState = State.COLD;
+            mOutput = null;
+        }
+        return output;
+    }
+
+    /**
+     * Drop a prepared recorder that will not be used, deleting its (still empty) output file.
+     */
+    public void discard() {
+        if (mState != State.READY) {
+            return;
+        }
+        mRecorder.reset();
+        mOutput.delete();
+        mOutput = null;
+        mState = State.COLD;
+    }
+
+    /**
+     * @return latency of starts on a recorder prepared before the press
+     */
+    public LatencyHistogram getWarmStartLatency() {
+        return mWarmStartLatency;
+    }
+
+    /**
+     * @return latency of starts that had to prepare the recorder (and usually rebuild the session) first
+     */
+    public LatencyHistogram getColdStartLatency() {
+        return mColdStartLatency;
+    }
+
+    public String dump() {
+        StringBuilder out = new StringBuilder("record start: warm ");
+        mWarmStartLatency.appendSummary(out);
+        out.append(" | cold ");
+        mColdStartLatency.appendSummary(out);
+        return out.toString();
+    }
+}
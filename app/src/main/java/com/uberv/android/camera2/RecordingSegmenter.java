@@ -0,0 +1,271 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits a long recording into files of bounded size and duration, so that a crash loses at most the segment being
+ * written and no file grows past what the storage (or the user) can handle.
+ * <p>
+ * Where the recorder can switch files by itself ({@code MediaRecorder.setNextOutputFile()}, API 26) the next file
+ * is queued as soon as a segment starts and the recorder moves on without dropping a frame. It only does that at
+ * its file size limit, so the duration limit is turned into a size limit at the recording's bitrate. Otherwise the
+ * recorder stops at either limit and {@link Output#restart(File)} starts it again on a new file, losing the frames
+ * in between.
+ * <p>
+ * Finished segments are appended to a {@link SegmentManifest} named after the first one; a recording that never
+ * rolls over gets no manifest. Drive it from the recorder's info listener; not thread safe.
+ */
+public class RecordingSegmenter {
+    // MediaRecorder.MEDIA_RECORDER_INFO_* values, the last two are API 26
+    public static final int INFO_MAX_DURATION_REACHED = 800;
+    public static final int INFO_MAX_FILESIZE_REACHED = 801;
+    public static final int INFO_MAX_FILESIZE_APPROACHING = 802;
+    public static final int INFO_NEXT_OUTPUT_FILE_STARTED = 803;
+
+    /**
+     * The recorder the segments are written by.
+     */
+    public interface Output {
+
+        /**
+         * Have the recorder continue in {@code file} once the current file reaches its size limit.
+         *
+         * @return false if the recorder can't, the segmenter then restarts it at the limit instead
+         */
+        boolean setNextOutputFile(File file) throws IOException;
+
+        /**
+         * The recorder stopped at a limit: start it again, writing to {@code file}.
+         */
+        void restart(File file) throws IOException;
+    }
+
+    public interface Listener {
+
+        /**
+         * A segment other than the last one of the recording is complete.
+         */
+        void onSegmentFinished(SegmentManifest.Segment segment);
+    }
+
+    public interface FileSource {
+
+        /**
+         * @return a new, unused file for the next segment
+         */
+        File nextFile();
+    }
+
+    private final long mMaxBytes;
+    private final long mMaxDurationMillis;
+    private final boolean mSeamlessSupported;
+    private final Output mOutput;
+    private final FileSource mFiles;
+    private final Listener mListener;
+    private final Clock mClock;
+    private final List<SegmentManifest.Segment> mSegments = new ArrayList<>();
+    private SegmentManifest mManifest;
+    private File mCurrent;
+    private long mCurrentStartNanos;
+    // queued with setNextOutputFile, null if none
+    private File mNext;
+    private boolean mSeamless;
+    private int mRestarts;
+
+    /**
+     * @param maxBytes          segment size limit, 0 for none
+     * @param maxDurationMillis segment duration limit, 0 for none
+     * @param seamlessSupported true if {@link Output#setNextOutputFile(File)} may work on this device
+     */
+    public RecordingSegmenter(long maxBytes, long maxDurationMillis, boolean seamlessSupported, Output output,
+                              FileSource files, Listener listener, Clock clock) {
+        mMaxBytes = maxBytes;
+        mMaxDurationMillis = maxDurationMillis;
+        mSeamlessSupported = seamlessSupported;
+        mOutput = output;
+        mFiles = files;
+        mListener = listener;
+        mClock = clock;
+    }
+
+    /**
+     * @param bitRate of the recording, audio included, in bits per second
+     * @return file size limit to configure the recorder with, 0 for none
+     */
+    public long getRecorderMaxFileSize(int bitRate) {
+        if (!mSeamlessSupported || mMaxDurationMillis <= 0 || bitRate <= 0) {
+            return mMaxBytes;
+        }
+        long durationBytes = bitRate / 8 * mMaxDurationMillis / 1000;
+        return mMaxBytes > 0 ? Math.min(mMaxBytes, durationBytes) : durationBytes;
+    }
+
+    /**
+     * @return duration limit to configure the recorder with, 0 for none; a recorder that switches files seamlessly
+     * gets none since it would stop at it
+     */
+    public long getRecorderMaxDurationMillis() {
+        return mSeamlessSupported ? 0 : mMaxDurationMillis;
+    }
+
+    /**
+     * The recorder started writing {@code file}. Calling it again for the current file does nothing, so a restart
+     * may go through the same code as a fresh start.
+     */
+    public void onStarted(File file) {
+        if (file.equals(mCurrent)) {
+            return;
+        }
+        mSegments.clear();
+        mManifest = SegmentManifest.forFirstSegment(file);
+        mCurrent = file;
+        mCurrentStartNanos = mClock.nanoTime();
+        mNext = null;
+        mSeamless = mSeamlessSupported;
+        mRestarts = 0;
+        queueNext();
+    }
+
+    /**
+     * @param what    {@code MediaRecorder.OnInfoListener} code
+     * @return true if {@code what} was about segmenting
+     * @throws IOException if the recorder could not be restarted or the manifest not written; the segmenter has
+     *                     moved on to the next segment either way
+     */
+    public boolean onInfo(int what) throws IOException {
+        if (mCurrent == null) {
+            return false;
+        }
+        switch (what) {
+            case INFO_NEXT_OUTPUT_FILE_STARTED:
+                if (mNext == null) {
+                    return false;
+                }
+                File next = mNext;
+                mNext = null;
+                try {
+                    finish(next);
+                } finally {
+                    queueNext();
+                }
+                return true;
+            case INFO_MAX_FILESIZE_APPROACHING:
+                queueNext();
+                return true;
+            case INFO_MAX_DURATION_REACHED:
+            case INFO_MAX_FILESIZE_REACHED:
+                if (mNext != null && what == INFO_MAX_FILESIZE_REACHED) {
+                    // the recorder moves on to the queued file by itself
+                    return true;
+                }
+                File restarted = mNext != null ? mNext : mFiles.nextFile();
+                mNext = null;
+                mRestarts++;
+                try {
+                    finish(restarted);
+                } finally {
+                    mOutput.restart(restarted);
+                }
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The recording stopped; the last segment is left to the caller like an unsegmented recording.
+     *
+     * @param recorded false if the last segment holds no video and was deleted
+     * @return the last segment, null if nothing was being recorded
+     */
+    public SegmentManifest.Segment onStopped(boolean recorded) throws IOException {
+        if (mCurrent == null) {
+            return null;
+        }
+        if (mNext != null && mNext.length() == 0) {
+            // queued but never written to
+            mNext.delete();
+        }
+        SegmentManifest.Segment last = segment(mCurrent);
+        boolean rolledOver = !mSegments.isEmpty();
+        mCurrent = null;
+        mNext = null;
+        if (recorded && rolledOver) {
+            mSegments.add(last);
+            mManifest.append(last);
+        }
+        return last;
+    }
+
+    public boolean isRecording() {
+        return mCurrent != null;
+    }
+
+    /**
+     * @return file being written, null if not recording
+     */
+    public File getCurrentFile() {
+        return mCurrent;
+    }
+
+    /**
+     * @return the finished segments of the current (or last) recording, in order
+     */
+    public List<SegmentManifest.Segment> getSegments() {
+        return Collections.unmodifiableList(mSegments);
+    }
+
+    /**
+     * @return manifest of the current (or last) recording, null before the first one
+     */
+    public SegmentManifest getManifest() {
+        return mManifest;
+    }
+
+    /**
+     * @return number of rollovers that stopped and restarted the recorder, i.e. gaps in the recording
+     */
+    public int getRestarts() {
+        return mRestarts;
+    }
+
+    private void queueNext() {
+        if (!mSeamless || mNext != null || mCurrent == null) {
+            return;
+        }
+        File next = mFiles.nextFile();
+        try {
+            if (mOutput.setNextOutputFile(next)) {
+                mNext = next;
+                return;
+            }
+        } catch (IOException e) {
+            // fall through, restart at the limit
+        }
+        mSeamless = false;
+    }
+
+    // closes the current segment and makes next the current one
+    private void finish(File next) throws IOException {
+        SegmentManifest.Segment finished = segment(mCurrent);
+        mSegments.add(finished);
+        mCurrent = next;
+        mCurrentStartNanos = mClock.nanoTime();
+        mListener.onSegmentFinished(finished);
+        mManifest.append(finished);
+    }
+
+    private SegmentManifest.Segment segment(File file) {
+        return new SegmentManifest.Segment(file, (mClock.nanoTime() - mCurrentStartNanos) / 1000000L, file.length());
+    }
+
+    @Override
+    public String toString() {
+        return "RecordingSegmenter{segments=" + mSegments.size() + ", restarts=" + mRestarts + ", current="
+                + mCurrent + ", next=" + mNext + "}";
+    }
+}
@@ -0,0 +1,219 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Feeds encoded samples to a muxer in an order it accepts.
+ * <p>
+ * A muxer has to know every track's format before it starts and takes no samples before that, so samples are
+ * held until the last format arrives. Nothing before a track's first key frame can be decoded, so those samples
+ * are skipped, as are codec config samples, which the formats already carry. Tracks are interleaved by
+ * presentation time: a sample is written once every other unfinished track has a later one waiting, or once more
+ * than {@code maxHeldSamples} are waiting, so a track that falls silent cannot stall the others. Times are put on
+ * the file's base by a {@link TimestampRebaser}.
+ * <p>
+ * Written and skipped sample buffers go back to the pool, if there is one. Not thread safe, drive it from the
+ * muxer thread; the counters may be read from anywhere.
+ *
+ * @param <F> the muxer's track format type
+ */
+public class SampleMuxer<F> {
+
+    /**
+     * The container writer, e.g. a {@code MediaMuxer}.
+     */
+    public interface Muxer<F> {
+
+        /**
+         * @return the muxer's index for the new track
+         */
+        int addTrack(F format);
+
+        void start();
+
+        void writeSampleData(int trackIndex, ByteBuffer data, long presentationTimeUs, int flags);
+
+        void stop();
+    }
+
+    private final Muxer<F> mMuxer;
+    private final int mMaxHeldSamples;
+    private final DirectBufferPool mPool;
+    private final TimestampRebaser mRebaser = new TimestampRebaser();
+    private final int[] mTrackIndexes;
+    private final ArrayDeque<EncodedSampleQueue.Sample>[] mHeld;
+    private final boolean[] mKeyFrameSeen;
+    private final boolean[] mEnded;
+    private int mTracksAdded;
+    private int mHeldSamples;
+    private boolean mStarted;
+    private boolean mStopped;
+    private volatile long mWrittenSamples;
+    private volatile long mWrittenBytes;
+    private volatile long mSkippedSamples;
+
+    /**
+     * @param pool where sample buffers are returned once written or skipped, null to leave them to the GC
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public SampleMuxer(Muxer<F> muxer, int trackCount, int maxHeldSamples, DirectBufferPool pool) {
+        if (trackCount < 1) {
+            throw new IllegalArgumentException("no tracks");
+        }
+        mMuxer = muxer;
+        mMaxHeldSamples = maxHeldSamples;
+        mPool = pool;
+        mTrackIndexes = new int[trackCount];
+        mHeld = new ArrayDeque[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            mTrackIndexes[i] = -1;
+            mHeld[i] = new ArrayDeque<>();
+        }
+        mKeyFrameSeen = new boolean[trackCount];
+        mEnded = new boolean[trackCount];
+    }
+
+    /**
+     * Set a track's format, the encoder reports it before its first sample. The muxer starts with the last one.
+     */
+    public void addTrack(int track, F format) {
+        if (mTrackIndexes[track] >= 0) {
+            throw new IllegalStateException("track " + track + " already added");
+        }
+        mTrackIndexes[track] = mMuxer.addTrack(format);
+        if (++mTracksAdded == mTrackIndexes.length) {
+            mMuxer.start();
+            mStarted = true;
+            drain();
+        }
+    }
+
+    /**
+     * Take a sample from the encoder; an end of stream marker finishes its track.
+     */
+    public void write(EncodedSampleQueue.Sample sample) {
+        if (mStopped) {
+            throw new IllegalStateException("muxer stopped");
+        }
+        int track = sample.getTrack();
+        if (sample.isEndOfStream()) {
+            mEnded[track] = true;
+        } else if (mEnded[track] || (sample.getFlags() & EncodedSampleQueue.FLAG_CODEC_CONFIG) != 0
+                || (!mKeyFrameSeen[track] && !sample.isKeyFrame())) {
+            skip(sample);
+            return;
+        } else {
+            mKeyFrameSeen[track] = true;
+            mHeld[track].add(sample);
+            mHeldSamples++;
+        }
+        drain();
+    }
+
+    /**
+     * Write whatever is still held and stop the muxer.
+     *
+     * @throws IllegalStateException if not a single sample was written, the file is then unusable
+     */
+    public void finish() {
+        if (mStopped) {
+            return;
+        }
+        for (int i = 0; i < mEnded.length; i++) {
+            mEnded[i] = true;
+        }
+        drain();
+        mStopped = true;
+        // never started, e.g. stopped before the encoder produced anything
+        for (ArrayDeque<EncodedSampleQueue.Sample> held : mHeld) {
+            while (!held.isEmpty()) {
+                skip(held.poll());
+            }
+        }
+        mHeldSamples = 0;
+        if (mStarted) {
+            mMuxer.stop();
+        }
+        if (mWrittenSamples == 0) {
+            throw new IllegalStateException("no samples written");
+        }
+    }
+
+    private void drain() {
+        if (!mStarted) {
+            return;
+        }
+        while (true) {
+            int next = -1;
+            boolean waiting = false;
+            for (int track = 0; track < mHeld.length; track++) {
+                EncodedSampleQueue.Sample head = mHeld[track].peek();
+                if (head == null) {
+                    // an unfinished track may still come up with an earlier sample
+                    waiting |= !mEnded[track];
+                } else if (next < 0
+                        || head.getPresentationTimeUs() < mHeld[next].peek().getPresentationTimeUs()) {
+                    next = track;
+                }
+            }
+            if (next < 0 || (waiting && mHeldSamples <= mMaxHeldSamples)) {
+                return;
+            }
+            EncodedSampleQueue.Sample sample = mHeld[next].poll();
+            mHeldSamples--;
+            long presentationTimeUs = mRebaser.rebase(sample.getPresentationTimeUs());
+            mMuxer.writeSampleData(mTrackIndexes[next], sample.getData(), presentationTimeUs,
+                    sample.getFlags() & ~EncodedSampleQueue.FLAG_END_OF_STREAM);
+            mWrittenSamples++;
+            mWrittenBytes += sample.getSize();
+            recycle(sample);
+        }
+    }
+
+    private void skip(EncodedSampleQueue.Sample sample) {
+        if (!sample.isEndOfStream()) {
+            mSkippedSamples++;
+        }
+        recycle(sample);
+    }
+
+    private void recycle(EncodedSampleQueue.Sample sample) {
+        if (mPool != null && sample.getData() != null) {
+            mPool.release(sample.getData());
+        }
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    public long getWrittenSamples() {
+        return mWrittenSamples;
+    }
+
+    /**
+     * @return sample bytes handed to the muxer, container overhead not included
+     */
+    public long getWrittenBytes() {
+        return mWrittenBytes;
+    }
+
+    /**
+     * @return samples that could not be written: before a key frame, codec config, or after the end of stream
+     */
+    public long getSkippedSamples() {
+        return mSkippedSamples;
+    }
+
+    public TimestampRebaser getRebaser() {
+        return mRebaser;
+    }
+
+    @Override
+    public String toString() {
+        return "SampleMuxer{written " + mWrittenSamples + " samples, " + mWrittenBytes + " bytes, skipped "
+                + mSkippedSamples + ", held " + mHeldSamples + ", time corrections " + mRebaser.getCorrections()
+                + "}";
+    }
+}
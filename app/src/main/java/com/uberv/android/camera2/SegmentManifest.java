@@ -0,0 +1,158 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The files a segmented recording was written to, in recording order, kept next to them as
+ * {@code <first segment>.segments}.
+ * <p>
+ * One text line per finished segment, {@code <file name>\t<duration ms>\t<bytes>}, appended and synced as soon as
+ * the segment is closed, so after a crash the manifest lists every segment that was complete. A line torn by the
+ * crash has no newline yet; it is skipped when reading and cut off by the next append. Not thread safe.
+ */
+public class SegmentManifest {
+    static final String EXTENSION = ".segments";
+    private static final String HEADER = "# segments v1";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final class Segment {
+        private final File mFile;
+        private final long mDurationMillis;
+        private final long mSizeBytes;
+
+        public Segment(File file, long durationMillis, long sizeBytes) {
+            mFile = file;
+            mDurationMillis = durationMillis;
+            mSizeBytes = sizeBytes;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public long getDurationMillis() {
+            return mDurationMillis;
+        }
+
+        public long getSizeBytes() {
+            return mSizeBytes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Segment)) {
+                return false;
+            }
+            Segment other = (Segment) o;
+            return mFile.equals(other.mFile) && mDurationMillis == other.mDurationMillis
+                    && mSizeBytes == other.mSizeBytes;
+        }
+
+        @Override
+        public int hashCode() {
+            return mFile.hashCode() * 31 + (int) mSizeBytes;
+        }
+
+        @Override
+        public String toString() {
+            return mFile.getName() + " (" + mDurationMillis + " ms, " + mSizeBytes + " bytes)";
+        }
+    }
+
+    private final File mFile;
+
+    public SegmentManifest(File file) {
+        mFile = file;
+    }
+
+    /**
+     * @return the manifest of the recording whose first segment is {@code firstSegment}
+     */
+    public static SegmentManifest forFirstSegment(File firstSegment) {
+        String name = firstSegment.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new SegmentManifest(new File(firstSegment.getParentFile(), base + EXTENSION));
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Append a finished segment. Segments are expected in the manifest's directory; only their names are stored.
+     */
+    public void append(Segment segment) throws IOException {
+        String line = segment.getFile().getName() + '\t' + segment.getDurationMillis() + '\t'
+                + segment.getSizeBytes() + '\n';
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            String content = readFully(file);
+            int end = content.lastIndexOf('\n') + 1;
+            // drop a torn line, its byte length may differ from its char length
+            file.setLength(content.substring(0, end).getBytes(UTF_8).length);
+            file.seek(file.length());
+            file.write(((end == 0 ? HEADER + '\n' : "") + line).getBytes(UTF_8));
+            file.getFD().sync();
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * @return the segments in recording order, empty if there is no manifest
+     */
+    public List<Segment> read() throws IOException {
+        if (!mFile.isFile()) {
+            return Collections.emptyList();
+        }
+        String content;
+        RandomAccessFile file = new RandomAccessFile(mFile, "r");
+        try {
+            content = readFully(file);
+        } finally {
+            file.close();
+        }
+        List<Segment> segments = new ArrayList<>();
+        int start = 0;
+        int end;
+        // only lines that made it to their newline
+        while ((end = content.indexOf('\n', start)) >= 0) {
+            Segment segment = parse(content.substring(start, end));
+            if (segment != null) {
+                segments.add(segment);
+            }
+            start = end + 1;
+        }
+        return segments;
+    }
+
+    private static String readFully(RandomAccessFile file) throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        file.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    private Segment parse(String line) {
+        if (line.startsWith("#")) {
+            return null;
+        }
+        String[] fields = line.split("\t");
+        if (fields.length != 3 || fields[0].isEmpty()) {
+            return null;
+        }
+        try {
+            return new Segment(new File(mFile.getParentFile(), fields[0]), Long.parseLong(fields[1]),
+                    Long.parseLong(fields[2]));
+        } catch (NumberFormatException e) {
+            // not a line we wrote
+            return null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.uberv.android.camera2;
+
+/**
+ * Timestamps every stage of a shot, from the button press until the file is on disk, and aggregates the
+ * latencies into {@link LatencyHistogram}s.
+ * <p>
+ * A shot is identified by the sequence number returned from {@link #beginShot()}; stages may be marked from any
+ * thread and only the first mark of a stage counts (a burst reports the lag of its first image). When
+ * {@link Stage#FILE_WRITTEN} is marked the shot is folded into the histograms. Only the {@link #SLOTS} most recent
+ * shots are tracked, older unfinished ones are silently dropped. Nothing here allocates after construction.
+ */
+public class ShutterLagMetrics {
+
+    public enum Stage {
+        BUTTON_PRESSED,
+        LOCK_FOCUS,
+        AF_LOCKED,
+        CAPTURE_STARTED,
+        IMAGE_AVAILABLE,
+        FILE_WRITTEN
+    }
+
+    /**
+     * Stands for "no shot"; never returned by {@link #beginShot()}, marks against it are ignored.
+     */
+    public static final int NO_SHOT = -1;
+
+    static final int SLOTS = 16;
+    private static final Stage[] STAGES = Stage.values();
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final Clock mClock;
+    // [slot][stage] -> timestamp
+    private final long[][] mStageNanos = new long[SLOTS][STAGES.length];
+    private final int[] mSlotShot = new int[SLOTS];
+    private final LatencyHistogram[] mSincePress = new LatencyHistogram[STAGES.length];
+    private final LatencyHistogram[] mSincePrevious = new LatencyHistogram[STAGES.length];
+    private int mNextShot;
+    private long mCompletedShots;
+    private long mDroppedShots;
+
+    public ShutterLagMetrics(Clock clock) {
+        mClock = clock;
+        for (int i = 0; i < STAGES.length; i++) {
+            mSincePress[i] = new LatencyHistogram();
+            mSincePrevious[i] = new LatencyHistogram();
+        }
+        for (int slot = 0; slot < SLOTS; slot++) {
+            clearSlot(slot, NO_SHOT);
+        }
+    }
+
+    /**
+     * Start tracking a new shot and mark {@link Stage#BUTTON_PRESSED} now.
+     *
+     * @return sequence number of the shot
+     */
+    public synchronized int beginShot() {
+        int shot = mNextShot;
+        mNextShot = (mNextShot + 1) & Integer.MAX_VALUE;
+        int slot = shot % SLOTS;
+        if (mSlotShot[slot] != NO_SHOT) {
+            mDroppedShots++;
+        }
+        clearSlot(slot, shot);
+        mStageNanos[slot][Stage.BUTTON_PRESSED.ordinal()] = mClock.nanoTime();
+        return shot;
+    }
+
+    /**
+     * Mark {@code stage} of {@code shot} as reached now. Ignored if the stage was already marked or the shot is no
+     * longer tracked.
+     */
+    public void mark(int shot, Stage stage) {
+        mark(shot, stage, mClock.nanoTime());
+    }
+
+    public synchronized void mark(int shot, Stage stage, long nanos) {
+        if (shot < 0) {
+            return;
+        }
+        int slot = shot % SLOTS;
+        if (mSlotShot[slot] != shot || mStageNanos[slot][stage.ordinal()] != UNSET) {
+            return;
+        }
+        mStageNanos[slot][stage.ordinal()] = nanos;
+        if (stage == Stage.FILE_WRITTEN) {
+            complete(slot);
+        }
+    }
+
+    private void complete(int slot) {
+        long[] stamps = mStageNanos[slot];
+        long press = stamps[Stage.BUTTON_PRESSED.ordinal()];
+        long previous = press;
+        for (int i = 1; i < STAGES.length; i++) {
+            long stamp = stamps[i];
+            if (stamp == UNSET) {
+                // stage skipped, e.g. no AF lock on a zero shutter lag shot
+                continue;
+            }
+            mSincePress[i].recordNanos(stamp - press);
+            mSincePrevious[i].recordNanos(stamp - previous);
+            previous = stamp;
+        }
+        mCompletedShots++;
+        clearSlot(slot, NO_SHOT);
+    }
+
+    private void clearSlot(int slot, int shot) {
+        mSlotShot[slot] = shot;
+        for (int i = 0; i < STAGES.length; i++) {
+            mStageNanos[slot][i] = UNSET;
+        }
+    }
+
+    /**
+     * @return latency from the button press until {@code stage}
+     */
+    public LatencyHistogram getSincePress(Stage stage) {
+        return mSincePress[stage.ordinal()];
+    }
+
+    /**
+     * @return latency from the previous marked stage until {@code stage}
+     */
+    public LatencyHistogram getSincePrevious(Stage stage) {
+        return mSincePrevious[stage.ordinal()];
+    }
+
+    public synchronized long getCompletedShots() {
+        return mCompletedShots;
+    }
+
+    /**
+     * @return shots that were evicted before their file was written
+     */
+    public synchronized long getDroppedShots() {
+        return mDroppedShots;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < STAGES.length; i++) {
+            mSincePress[i].reset();
+            mSincePrevious[i].reset();
+        }
+        for (int slot = 0; slot < SLOTS; slot++) {
+            clearSlot(slot, NO_SHOT);
+        }
+        mCompletedShots = 0;
+        mDroppedShots = 0;
+    }
+
+    /**
+     * @return one line per stage with p50/p95/p99 since the press and since the previous stage
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append("shutter lag: ").append(getCompletedShots()).append(" shots, ")
+                .append(getDroppedShots()).append(" dropped\n");
+        for (int i = 1; i < STAGES.length; i++) {
+            out.append("  ").append(STAGES[i]).append(" since press: ");
+            mSincePress[i].appendSummary(out);
+            out.append(" | since previous: ");
+            mSincePrevious[i].appendSummary(out);
+            out.append('\n');
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,256 @@
+package com.uberv.android.camera2;
+
+/**
+ * The output sizes of one camera output, sorted by area once so that choosing a size is a scan over primitive
+ * arrays that neither allocates nor depends on the order the camera lists its sizes in.
+ * <p>
+ * A {@link Query} describes the size wanted; every size gets a score and the lowest score wins. Sizes over the
+ * query's area or pixel rate budget are never chosen. Among the others, a size off the wanted aspect ratio by more
+ * than the tolerance is penalized most, one that does not cover the target less, and the remaining score is the
+ * aspect error plus the (log) area wasted beyond the target. Equal scores go to the smaller size.
+ * <p>
+ * {@link #selectConsistent(SizeIndex[], Query[])} chooses sizes for several outputs at once so that they share one
+ * aspect ratio, e.g. preview, video and still sizes. Immutable and thread safe.
+ */
+public class SizeIndex {
+    // ln of the aspect ratios, so 0.01 is about 1%
+    public static final double DEFAULT_ASPECT_TOLERANCE = 0.01;
+
+    // larger than any undersize score, which is larger than any area waste score (log2 of a long at most)
+    static final double OUTSIDE_TOLERANCE_PENALTY = 1000;
+    static final double UNDERSIZE_PENALTY = 100;
+    static final double ASPECT_WEIGHT = 10;
+    private static final double LN_2 = Math.log(2);
+
+    private final int[] mWidths;
+    private final int[] mHeights;
+    private final long[] mAreas;
+    private final double[] mLogAspects;
+
+    /**
+     * @param sizes packed {@code [w0, h0, w1, h1, ...]}, e.g. from {@link CameraInfo#getOutputSizes(int)}; duplicates
+     *              and empty sizes are dropped
+     */
+    public SizeIndex(int[] sizes) {
+        int count = sizes.length / 2;
+        int[] widths = new int[count];
+        int[] heights = new int[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            int width = sizes[2 * i];
+            int height = sizes[2 * i + 1];
+            if (width <= 0 || height <= 0) {
+                continue;
+            }
+            // insertion sort by area, then width; lists are a few dozen sizes at most
+            int at = size;
+            while (at > 0 && compare(width, height, widths[at - 1], heights[at - 1]) < 0) {
+                at--;
+            }
+            if (at > 0 && widths[at - 1] == width && heights[at - 1] == height) {
+                continue;
+            }
+            System.arraycopy(widths, at, widths, at + 1, size - at);
+            System.arraycopy(heights, at, heights, at + 1, size - at);
+            widths[at] = width;
+            heights[at] = height;
+            size++;
+        }
+        mWidths = new int[size];
+        mHeights = new int[size];
+        mAreas = new long[size];
+        mLogAspects = new double[size];
+        for (int i = 0; i < size; i++) {
+            mWidths[i] = widths[i];
+            mHeights[i] = heights[i];
+            mAreas[i] = (long) widths[i] * heights[i];
+            mLogAspects[i] = Math.log(widths[i] / (double) heights[i]);
+        }
+    }
+
+    public int size() {
+        return mWidths.length;
+    }
+
+    /**
+     * @param index 0 for the smallest size up to {@link #size()} - 1 for the largest
+     */
+    public int getWidth(int index) {
+        return mWidths[index];
+    }
+
+    public int getHeight(int index) {
+        return mHeights[index];
+    }
+
+    /**
+     * @return index of the best size for {@code query}, -1 if every size is over its budget
+     */
+    public int select(Query query) {
+        int best = -1;
+        double bestScore = Double.POSITIVE_INFINITY;
+        for (int i = 0; i < mWidths.length; i++) {
+            double score = score(i, query);
+            // strictly lower, so that equal scores keep the smaller size
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return score of size {@code index} for {@code query}, lower is better; infinite if it is over budget
+     */
+    public double score(int index, Query query) {
+        long area = mAreas[index];
+        if (area > query.mMaxArea || query.mFrameRate > 0 && area * query.mFrameRate > query.mMaxPixelRate) {
+            return Double.POSITIVE_INFINITY;
+        }
+        double aspectError = Math.abs(mLogAspects[index] - query.mLogAspect);
+        double score = ASPECT_WEIGHT * aspectError;
+        if (aspectError > query.mAspectTolerance) {
+            score += OUTSIDE_TOLERANCE_PENALTY;
+        }
+        int width = mWidths[index];
+        int height = mHeights[index];
+        if (width >= query.mWidth && height >= query.mHeight) {
+            score += log2(area / ((double) query.mWidth * query.mHeight));
+        } else {
+            double missing = Math.max(1, query.mWidth / (double) width) * Math.max(1, query.mHeight / (double) height);
+            score += UNDERSIZE_PENALTY + 2 * log2(missing);
+        }
+        return score;
+    }
+
+    /**
+     * Choose a size from each index such that all of them have the same aspect ratio. Every aspect ratio offered by
+     * any of the indexes is tried with the queries' aspect ratios replaced by it; the one with the lowest total score
+     * wins, where being off the first query's own aspect ratio (e.g. that of the preview view) counts as well.
+     *
+     * @param queries one per index
+     * @return chosen index per index, -1 where every size is over budget; null if there is no size at all
+     */
+    public static int[] selectConsistent(SizeIndex[] indexes, Query[] queries) {
+        if (indexes.length != queries.length) {
+            throw new IllegalArgumentException(indexes.length + " indexes but " + queries.length + " queries");
+        }
+        if (indexes.length == 0) {
+            return new int[0];
+        }
+        int[] best = null;
+        double bestScore = Double.POSITIVE_INFINITY;
+        double wantedLogAspect = queries[0].mLogAspect;
+        Query[] candidates = new Query[queries.length];
+        for (SizeIndex aspectSource : indexes) {
+            for (int a = 0; a < aspectSource.size(); a++) {
+                int aspectWidth = aspectSource.mWidths[a];
+                int aspectHeight = aspectSource.mHeights[a];
+                double total = ASPECT_WEIGHT * Math.abs(aspectSource.mLogAspects[a] - wantedLogAspect);
+                int[] chosen = new int[indexes.length];
+                for (int q = 0; q < queries.length && total < bestScore; q++) {
+                    candidates[q] = queries[q].withAspectRatio(aspectWidth, aspectHeight);
+                    chosen[q] = indexes[q].select(candidates[q]);
+                    if (chosen[q] >= 0) {
+                        total += indexes[q].score(chosen[q], candidates[q]);
+                    }
+                }
+                if (total < bestScore) {
+                    best = chosen;
+                    bestScore = total;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) / LN_2;
+    }
+
+    private static int compare(int lhsWidth, int lhsHeight, int rhsWidth, int rhsHeight) {
+        long lhsArea = (long) lhsWidth * lhsHeight;
+        long rhsArea = (long) rhsWidth * rhsHeight;
+        if (lhsArea != rhsArea) {
+            return lhsArea < rhsArea ? -1 : 1;
+        }
+        return lhsWidth < rhsWidth ? -1 : lhsWidth == rhsWidth ? 0 : 1;
+    }
+
+    /**
+     * What a size is chosen for: a target size it should cover, the aspect ratio it should have and the budgets it
+     * must stay within.
+     */
+    public static class Query {
+        private final int mWidth;
+        private final int mHeight;
+        private int mAspectWidth;
+        private int mAspectHeight;
+        private double mLogAspect;
+        private double mAspectTolerance = DEFAULT_ASPECT_TOLERANCE;
+        private long mMaxArea = Long.MAX_VALUE;
+        private long mMaxPixelRate = Long.MAX_VALUE;
+        private int mFrameRate;
+
+        /**
+         * @param width  target width the size should cover; also sets the wanted aspect ratio
+         * @param height target height
+         */
+        public Query(int width, int height) {
+            if (width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("not a size: " + width + "x" + height);
+            }
+            mWidth = width;
+            mHeight = height;
+            setAspectRatio(width, height);
+        }
+
+        public Query setAspectRatio(int aspectWidth, int aspectHeight) {
+            if (aspectWidth <= 0 || aspectHeight <= 0) {
+                throw new IllegalArgumentException("not an aspect ratio: " + aspectWidth + ":" + aspectHeight);
+            }
+            mAspectWidth = aspectWidth;
+            mAspectHeight = aspectHeight;
+            mLogAspect = Math.log(aspectWidth / (double) aspectHeight);
+            return this;
+        }
+
+        /**
+         * @param tolerance largest accepted difference of the natural logs of the aspect ratios
+         */
+        public Query setAspectTolerance(double tolerance) {
+            mAspectTolerance = tolerance;
+            return this;
+        }
+
+        public Query setMaxArea(long maxArea) {
+            mMaxArea = maxArea;
+            return this;
+        }
+
+        /**
+         * Limit the size to what a consumer can process at {@code frameRate}, e.g. an encoder or a CPU analyzer.
+         */
+        public Query setMaxPixelRate(long pixelsPerSecond, int frameRate) {
+            mMaxPixelRate = pixelsPerSecond;
+            mFrameRate = frameRate;
+            return this;
+        }
+
+        Query withAspectRatio(int aspectWidth, int aspectHeight) {
+            Query copy = new Query(mWidth, mHeight)
+                    .setAspectTolerance(mAspectTolerance)
+                    .setMaxArea(mMaxArea)
+                    .setMaxPixelRate(mMaxPixelRate, mFrameRate);
+            return copy.setAspectRatio(aspectWidth, aspectHeight);
+        }
+
+        @Override
+        public String toString() {
+            return "Query{" + mWidth + "x" + mHeight + ", aspect " + mAspectWidth + ":" + mAspectHeight
+                    + " ±" + mAspectTolerance + ", maxArea=" + mMaxArea + ", maxPixelRate=" + mMaxPixelRate + "@"
+                    + mFrameRate + "fps}";
+        }
+    }
+}
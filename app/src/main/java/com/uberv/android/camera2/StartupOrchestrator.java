@@ -0,0 +1,223 @@
+package com.uberv.android.camera2;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the asynchronous steps of camera startup as a dependency graph: a step starts as soon as all of its
+ * dependencies have completed, so independent work (opening the camera, creating readers, waiting for the preview
+ * surface) overlaps instead of running one after another.
+ * <p>
+ * A step is started through {@link Step#start(StartupOrchestrator)} on whichever thread completed its last
+ * dependency and reports back with {@link #complete(String)} or {@link #fail(String, Exception)} from any thread.
+ * Completion times are measured from {@link #start()}; once every step has completed the listener is told the
+ * total, e.g. the time to the first preview frame when that is the last step.
+ */
+public class StartupOrchestrator {
+
+    public interface Step {
+
+        /**
+         * Begin the step; it must eventually call {@link #complete(String)} or {@link #fail(String, Exception)}.
+         */
+        void start(StartupOrchestrator orchestrator);
+    }
+
+    public interface Listener {
+
+        void onStepCompleted(String step, long sinceStartNanos);
+
+        void onStartupCompleted(long totalNanos);
+
+        /**
+         * Called once; steps that depend on {@code step} are never started.
+         */
+        void onStartupFailed(String step, Exception e);
+    }
+
+    private static final long NOT_COMPLETED = -1;
+
+    private final Clock mClock;
+    private final Listener mListener;
+    private final Map<String, Node> mNodes = new LinkedHashMap<>();
+    private long mStartNanos;
+    private int mRemaining;
+    private boolean mStarted;
+    private boolean mStopped;
+    private boolean mCancelled;
+
+    public StartupOrchestrator(Clock clock, Listener listener) {
+        mClock = clock;
+        mListener = listener;
+    }
+
+    /**
+     * @param dependencies names of steps, added earlier, that must complete before this one starts
+     */
+    public synchronized void addStep(String name, Step step, String... dependencies) {
+        if (mStarted) {
+            throw new IllegalStateException("already started");
+        }
+        if (mNodes.containsKey(name)) {
+            throw new IllegalArgumentException("duplicate step " + name);
+        }
+        Node node = new Node(step, dependencies.length);
+        for (String dependency : dependencies) {
+            Node parent = mNodes.get(dependency);
+            if (parent == null) {
+                throw new IllegalArgumentException(name + " depends on unknown step " + dependency);
+            }
+            parent.mDependents.add(node);
+        }
+        mNodes.put(name, node);
+    }
+
+    /**
+     * Start every step without dependencies.
+     */
+    public void start() {
+        List<Node> ready = new ArrayList<>();
+        synchronized (this) {
+            if (mStarted) {
+                throw new IllegalStateException("already started");
+            }
+            mStarted = true;
+            mStartNanos = mClock.nanoTime();
+            mRemaining = mNodes.size();
+            for (Node node : mNodes.values()) {
+                if (node.mPendingDependencies == 0) {
+                    node.mStarted = true;
+                    ready.add(node);
+                }
+            }
+        }
+        startAll(ready);
+    }
+
+    /**
+     * Mark a started step as done and start the steps that were only waiting for it. Ignored if the step already
+     * completed or the orchestrator was cancelled.
+     */
+    public void complete(String name) {
+        List<Node> ready = new ArrayList<>();
+        long total = NOT_COMPLETED;
+        long sinceStart;
+        synchronized (this) {
+            Node node = getStartedNode(name);
+            if (mStopped || node.mCompletedNanos != NOT_COMPLETED) {
+                return;
+            }
+            sinceStart = mClock.nanoTime() - mStartNanos;
+            node.mCompletedNanos = sinceStart;
+            for (Node dependent : node.mDependents) {
+                if (--dependent.mPendingDependencies == 0) {
+                    dependent.mStarted = true;
+                    ready.add(dependent);
+                }
+            }
+            if (--mRemaining == 0) {
+                mStopped = true;
+                total = sinceStart;
+            }
+        }
+        if (mListener != null) {
+            mListener.onStepCompleted(name, sinceStart);
+            if (total != NOT_COMPLETED) {
+                mListener.onStartupCompleted(total);
+            }
+        }
+        startAll(ready);
+    }
+
+    /**
+     * Abort startup because a step could not complete. Ignored once startup finished or was cancelled.
+     */
+    public void fail(String name, Exception e) {
+        synchronized (this) {
+            getStartedNode(name);
+            if (mStopped) {
+                return;
+            }
+            mStopped = true;
+        }
+        if (mListener != null) {
+            mListener.onStartupFailed(name, e);
+        }
+    }
+
+    /**
+     * Stop starting steps; late completions of steps already running are ignored.
+     */
+    public synchronized void cancel() {
+        mStopped = true;
+        mCancelled = true;
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public synchronized boolean isStarted(String name) {
+        return getNode(name).mStarted;
+    }
+
+    public synchronized boolean isCompleted(String name) {
+        return getNode(name).mCompletedNanos != NOT_COMPLETED;
+    }
+
+    /**
+     * @return true once every step completed
+     */
+    public synchronized boolean isFinished() {
+        return mStarted && mRemaining == 0;
+    }
+
+    /**
+     * @return time from {@link #start()} until the step completed, -1 if it has not
+     */
+    public synchronized long getCompletedNanos(String name) {
+        return getNode(name).mCompletedNanos;
+    }
+
+    private void startAll(List<Node> ready) {
+        for (Node node : ready) {
+            synchronized (this) {
+                if (mStopped) {
+                    return;
+                }
+            }
+            node.mStep.start(this);
+        }
+    }
+
+    private Node getNode(String name) {
+        Node node = mNodes.get(name);
+        if (node == null) {
+            throw new IllegalArgumentException("unknown step " + name);
+        }
+        return node;
+    }
+
+    private Node getStartedNode(String name) {
+        Node node = getNode(name);
+        if (!node.mStarted) {
+            throw new IllegalStateException(name + " has not been started");
+        }
+        return node;
+    }
+
+    private static class Node {
+        final Step mStep;
+        final List<Node> mDependents = new ArrayList<>();
+        int mPendingDependencies;
+        boolean mStarted;
+        long mCompletedNanos = NOT_COMPLETED;
+
+        Node(Step step, int dependencies) {
+            mStep = step;
+            mPendingDependencies = dependencies;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.uberv.android.camera2;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Persists the estimate of a {@link StorageThroughputProbe} so that the next run of the app starts from it and only
+ * probes again once it is stale.
+ * <p>
+ * The estimate is stored with the wall clock time of its latest measurement, the probe's own clock does not survive
+ * the process. A cache for another directory, by another format version, from the future or that cannot be parsed
+ * is treated as missing.
+ */
+public class StorageThroughputCache {
+    private static final int MAGIC = 0x53545054; // "STPT"
+    static final int VERSION = 1;
+    private static final long MAX_AGE_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+    private final File mFile;
+
+    public StorageThroughputCache(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Hand the cached estimate for the probe's directory to {@code probe}.
+     *
+     * @param nowMillis wall clock time
+     * @return false if there is no valid cache for the directory
+     */
+    public boolean load(StorageThroughputProbe probe, long nowMillis) {
+        if (!mFile.isFile()) {
+            return false;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            return read(in, probe, nowMillis);
+        } catch (IOException | RuntimeException e) {
+            // corrupt or truncated, e.g. the process died while writing
+            return false;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Write the probe's estimate atomically: readers either see the previous file or the complete new one. A probe
+     * without an estimate is not written.
+     *
+     * @param nowMillis wall clock time
+     */
+    public void save(StorageThroughputProbe probe, long nowMillis) throws IOException {
+        long ageNanos = probe.getAgeNanos();
+        if (ageNanos < 0) {
+            return;
+        }
+        File parent = mFile.getAbsoluteFile().getParentFile();
+        File tmp = File.createTempFile(mFile.getName(), ".tmp", parent);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(probe.getDir().getAbsolutePath());
+            out.writeLong(nowMillis - ageNanos / 1000000);
+            out.writeLong(probe.getBytesPerSecond());
+            out.writeLong(probe.getLastBytesPerSecond());
+            out.writeLong(probe.getSlowestBytesPerSecond());
+            out.writeInt(probe.getSamples());
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                throw new IOException("unable to replace " + mFile);
+            }
+        } finally {
+            closeQuietly(out);
+            tmp.delete();
+        }
+    }
+
+    public void invalidate() {
+        mFile.delete();
+    }
+
+    private static boolean read(DataInputStream in, StorageThroughputProbe probe, long nowMillis)
+            throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION
+                || !probe.getDir().getAbsolutePath().equals(in.readUTF())) {
+            return false;
+        }
+        long sampleMillis = in.readLong();
+        long bytesPerSecond = in.readLong();
+        long lastBytesPerSecond = in.readLong();
+        long slowestBytesPerSecond = in.readLong();
+        int samples = in.readInt();
+        if (sampleMillis > nowMillis || bytesPerSecond <= 0 || samples <= 0 || in.read() != -1) {
+            // the wall clock was set back, or this is not a file we wrote
+            return false;
+        }
+        // a year is as stale as it gets, and keeps the nanoseconds from overflowing
+        long ageMillis = Math.min(nowMillis - sampleMillis, MAX_AGE_MILLIS);
+        probe.restore(bytesPerSecond, lastBytesPerSecond, slowestBytesPerSecond, samples, ageMillis * 1000000L);
+        return true;
+    }
+
+    private static void closeQuietly(java.io.Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+}
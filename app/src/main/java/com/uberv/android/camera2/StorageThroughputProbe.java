@@ -0,0 +1,186 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Measures how fast a directory's storage takes sustained sequential writes, and tracks that over time.
+ * <p>
+ * A probe writes {@code probeBytes} to a hidden file in the directory, syncs it to the device and deletes it; the
+ * sync is timed too, otherwise the page cache would report memory speed. The data is a non-repeating pattern so
+ * that compressing or deduplicating storage can't shortcut it. Measurements are smoothed with an exponentially
+ * weighted moving average, so one slow probe (or a card that slows down as it fills) moves the estimate without
+ * replacing it. Thread safe, but a probe blocks on I/O: run it off the camera lanes' critical paths.
+ */
+public class StorageThroughputProbe {
+    static final String PROBE_FILE_NAME = ".write-probe";
+    // block size of flash translation layers and deduplicating file systems
+    static final int BLOCK_BYTES = 4096;
+
+    private final File mDir;
+    private final int mProbeBytes;
+    private final int mChunkBytes;
+    private final double mSmoothing;
+    private final Clock mClock;
+    // one probe file at a time, without blocking readers of the estimate
+    private final Object mProbeLock = new Object();
+    private double mBytesPerSecond;
+    private long mLastBytesPerSecond;
+    private long mSlowestBytesPerSecond;
+    private long mLastSampleNanos;
+    private int mSamples;
+
+    /**
+     * @param probeBytes bytes written per probe, large enough to get past write caches
+     * @param chunkBytes bytes per write call, what a real writer would use
+     * @param smoothing  weight of a new measurement in the average, (0, 1]
+     */
+    public StorageThroughputProbe(File dir, int probeBytes, int chunkBytes, double smoothing, Clock clock) {
+        if (probeBytes < 1 || chunkBytes < 1 || smoothing <= 0 || smoothing > 1) {
+            throw new IllegalArgumentException("invalid probe parameters: " + probeBytes + ", " + chunkBytes + ", "
+                    + smoothing);
+        }
+        mDir = dir;
+        mProbeBytes = probeBytes;
+        mChunkBytes = chunkBytes;
+        mSmoothing = smoothing;
+        mClock = clock;
+    }
+
+    public File getDir() {
+        return mDir;
+    }
+
+    /**
+     * Write, sync and delete a probe file, and add the result to the estimate.
+     *
+     * @return the measured bytes per second
+     */
+    public long probe() throws IOException {
+        synchronized (mProbeLock) {
+            return record(mProbeBytes, writeProbeFile());
+        }
+    }
+
+    private long writeProbeFile() throws IOException {
+        File file = new File(mDir, PROBE_FILE_NAME);
+        ByteBuffer chunk = ByteBuffer.allocateDirect(mChunkBytes);
+        for (int i = 0; chunk.hasRemaining(); i++) {
+            // multiplicative hash, does not compress
+            chunk.put((byte) (i * 0x9E3779B1 >>> 24 ^ i));
+        }
+        long elapsed;
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            FileChannel channel = out.getChannel();
+            long start = mClock.nanoTime();
+            for (int written = 0; written < mProbeBytes; ) {
+                stamp(chunk, written);
+                chunk.limit(Math.min(mChunkBytes, mProbeBytes - written));
+                while (chunk.hasRemaining()) {
+                    written += channel.write(chunk);
+                }
+            }
+            out.getFD().sync();
+            elapsed = mClock.nanoTime() - start;
+        } finally {
+            out.close();
+            file.delete();
+        }
+        return elapsed;
+    }
+
+    /**
+     * Write {@code fileOffset} plus the block's position into the start of every block of {@code chunk}, so that
+     * no two blocks of the probe file are alike. Clears the chunk.
+     */
+    static void stamp(ByteBuffer chunk, long fileOffset) {
+        chunk.clear();
+        for (int at = 0; at + 8 <= chunk.capacity(); at += BLOCK_BYTES) {
+            chunk.putLong(at, fileOffset + at);
+        }
+    }
+
+    /**
+     * Add a measurement taken elsewhere, e.g. a large write whose duration is known.
+     *
+     * @return the measured bytes per second, 0 if the measurement was unusable
+     */
+    public synchronized long record(long bytes, long nanos) {
+        if (bytes <= 0 || nanos <= 0) {
+            return 0;
+        }
+        long bytesPerSecond = (long) (bytes * 1e9 / nanos);
+        mBytesPerSecond = mSamples == 0 ? bytesPerSecond
+                : mSmoothing * bytesPerSecond + (1 - mSmoothing) * mBytesPerSecond;
+        mLastBytesPerSecond = bytesPerSecond;
+        mSlowestBytesPerSecond = mSamples == 0 ? bytesPerSecond : Math.min(mSlowestBytesPerSecond, bytesPerSecond);
+        mLastSampleNanos = mClock.nanoTime();
+        mSamples++;
+        return bytesPerSecond;
+    }
+
+    /**
+     * Take over an estimate measured earlier, e.g. by a previous run of the app.
+     *
+     * @param ageNanos how long ago its latest measurement was taken
+     */
+    synchronized void restore(double bytesPerSecond, long lastBytesPerSecond, long slowestBytesPerSecond,
+                              int samples, long ageNanos) {
+        mBytesPerSecond = bytesPerSecond;
+        mLastBytesPerSecond = lastBytesPerSecond;
+        mSlowestBytesPerSecond = slowestBytesPerSecond;
+        mSamples = samples;
+        mLastSampleNanos = mClock.nanoTime() - ageNanos;
+    }
+
+    /**
+     * @return time since the latest measurement, -1 if there is none
+     */
+    public synchronized long getAgeNanos() {
+        return mSamples == 0 ? -1 : mClock.nanoTime() - mLastSampleNanos;
+    }
+
+    /**
+     * @return true if there is no measurement yet or the latest one is older than {@code maxAgeNanos}
+     */
+    public synchronized boolean isStale(long maxAgeNanos) {
+        return mSamples == 0 || mClock.nanoTime() - mLastSampleNanos > maxAgeNanos;
+    }
+
+    /**
+     * @return smoothed sustained write throughput, 0 if unknown
+     */
+    public synchronized long getBytesPerSecond() {
+        return (long) mBytesPerSecond;
+    }
+
+    public synchronized long getLastBytesPerSecond() {
+        return mLastBytesPerSecond;
+    }
+
+    public synchronized long getSlowestBytesPerSecond() {
+        return mSlowestBytesPerSecond;
+    }
+
+    public synchronized int getSamples() {
+        return mSamples;
+    }
+
+    /**
+     * @return bytes this app may still write to the directory's storage
+     */
+    public long getUsableBytes() {
+        return mDir.getUsableSpace();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "StorageThroughputProbe{" + mDir.getName() + ": " + (long) mBytesPerSecond / 1024 + " KiB/s over "
+                + mSamples + " samples, last " + mLastBytesPerSecond / 1024 + ", slowest "
+                + mSlowestBytesPerSecond / 1024 + "}";
+    }
+}
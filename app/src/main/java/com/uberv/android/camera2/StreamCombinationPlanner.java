@@ -0,0 +1,427 @@
+package com.uberv.android.camera2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fits the outputs of a capture session into the stream combinations that the camera's hardware level guarantees
+ * (the tables of {@code CameraDevice.createCaptureSession()}), so that a session is not configured with a
+ * combination the device may reject.
+ * <p>
+ * Each {@link Stream} has a format, the size it wants and smaller sizes it can fall back to. Streams can be
+ * optional; earlier optional streams are more important than later ones. {@link #plan(List)} keeps as many (and as
+ * important) streams as any guaranteed combination allows and, among those configurations, picks the one with the
+ * most pixels per frame.
+ * <p>
+ * Sizes are put into the tables' size classes by area: VGA is 640x480, PREVIEW the smaller of the screen and 1080p,
+ * RECORD the largest recording size and MAXIMUM anything the output supports. A configuration may use fewer
+ * streams than a table row, and RAW rows are left out since the app has no RAW output.
+ */
+public class StreamCombinationPlanner {
+    // CameraMetadata.INFO_SUPPORTED_HARDWARE_LEVEL_* values
+    public static final int LEVEL_LIMITED = 0;
+    public static final int LEVEL_FULL = 1;
+    public static final int LEVEL_LEGACY = 2;
+    public static final int LEVEL_3 = 3;
+    // API 28; guarantees the LIMITED combinations
+    public static final int LEVEL_EXTERNAL = 4;
+
+    public enum Format {
+        // an output the framework describes by class: SurfaceTexture, MediaRecorder, MediaCodec
+        PRIV,
+        YUV,
+        JPEG
+    }
+
+    enum SizeClass {
+        VGA,
+        PREVIEW,
+        RECORD,
+        MAXIMUM
+    }
+
+    private static final long VGA_AREA = 640 * 480;
+    private static final long PREVIEW_MAX_AREA = 1920 * 1080;
+
+    // "FORMAT CLASS" per stream, one row per combination
+    private static final String[][] LEGACY_TABLE = {
+            {"PRIV MAXIMUM"},
+            {"JPEG MAXIMUM"},
+            {"YUV MAXIMUM"},
+            {"PRIV PREVIEW", "JPEG MAXIMUM"},
+            {"YUV PREVIEW", "JPEG MAXIMUM"},
+            {"PRIV PREVIEW", "PRIV PREVIEW"},
+            {"PRIV PREVIEW", "YUV PREVIEW"},
+            {"PRIV PREVIEW", "YUV PREVIEW", "JPEG MAXIMUM"},
+    };
+    private static final String[][] LIMITED_TABLE = {
+            {"PRIV PREVIEW", "PRIV RECORD"},
+            {"PRIV PREVIEW", "YUV RECORD"},
+            {"YUV PREVIEW", "YUV RECORD"},
+            {"PRIV PREVIEW", "PRIV RECORD", "JPEG RECORD"},
+            {"PRIV PREVIEW", "YUV RECORD", "JPEG RECORD"},
+            {"YUV PREVIEW", "YUV PREVIEW", "JPEG MAXIMUM"},
+    };
+    private static final String[][] FULL_TABLE = {
+            {"PRIV PREVIEW", "PRIV MAXIMUM"},
+            {"PRIV PREVIEW", "YUV MAXIMUM"},
+            {"YUV PREVIEW", "YUV MAXIMUM"},
+            {"PRIV PREVIEW", "PRIV PREVIEW", "JPEG MAXIMUM"},
+            {"YUV VGA", "PRIV PREVIEW", "YUV MAXIMUM"},
+            {"YUV VGA", "YUV PREVIEW", "YUV MAXIMUM"},
+    };
+
+    private final int mHardwareLevel;
+    private final Format[][] mFormats;
+    private final SizeClass[][] mClasses;
+    private final long mPreviewArea;
+    private final long mRecordArea;
+
+    /**
+     * @param hardwareLevel raw {@code INFO_SUPPORTED_HARDWARE_LEVEL}; unknown levels get the LEGACY guarantees
+     * @param screenArea    pixels of the display, PREVIEW is this or 1080p, whichever is smaller
+     * @param recordArea    pixels of the largest recording size
+     */
+    public StreamCombinationPlanner(int hardwareLevel, long screenArea, long recordArea) {
+        mHardwareLevel = hardwareLevel;
+        mPreviewArea = Math.min(screenArea, PREVIEW_MAX_AREA);
+        mRecordArea = recordArea;
+        List<String[]> rows = new ArrayList<>();
+        int rank = rank(hardwareLevel);
+        addRows(rows, LEGACY_TABLE);
+        if (rank >= rank(LEVEL_LIMITED)) {
+            addRows(rows, LIMITED_TABLE);
+        }
+        if (rank >= rank(LEVEL_FULL)) {
+            addRows(rows, FULL_TABLE);
+        }
+        mFormats = new Format[rows.size()][];
+        mClasses = new SizeClass[rows.size()][];
+        for (int i = 0; i < rows.size(); i++) {
+            String[] row = rows.get(i);
+            mFormats[i] = new Format[row.length];
+            mClasses[i] = new SizeClass[row.length];
+            for (int j = 0; j < row.length; j++) {
+                int space = row[j].indexOf(' ');
+                mFormats[i][j] = Format.valueOf(row[j].substring(0, space));
+                mClasses[i][j] = SizeClass.valueOf(row[j].substring(space + 1));
+            }
+        }
+    }
+
+    public int getHardwareLevel() {
+        return mHardwareLevel;
+    }
+
+    /**
+     * @return the configuration with the most important streams and, among those, the most pixels per frame; null
+     * if not even the required streams at their smallest sizes fit a guaranteed combination
+     */
+    public Plan plan(List<Stream> streams) {
+        int count = streams.size();
+        int[] chosen = new int[count];
+        // bit per optional stream, the first optional one in the highest bit, so that counting down tries the sets
+        // of optional streams from the most to the least important
+        int optionalCount = 0;
+        for (Stream stream : streams) {
+            if (stream.mOptional) {
+                optionalCount++;
+            }
+        }
+        for (int kept = (1 << optionalCount) - 1; kept >= 0; kept--) {
+            boolean[] included = new boolean[count];
+            int bit = optionalCount;
+            for (int i = 0; i < count; i++) {
+                included[i] = !streams.get(i).mOptional || (kept & (1 << --bit)) != 0;
+            }
+            Plan plan = planSizes(streams, included, chosen, 0, null);
+            if (plan != null) {
+                return plan;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the streams at their wanted sizes are a guaranteed combination
+     */
+    public boolean isGuaranteed(List<Stream> streams) {
+        Format[] formats = new Format[streams.size()];
+        long[] areas = new long[streams.size()];
+        for (int i = 0; i < formats.length; i++) {
+            formats[i] = streams.get(i).mFormat;
+            areas[i] = (long) streams.get(i).mWidths[0] * streams.get(i).mHeights[0];
+        }
+        return isGuaranteed(formats, areas);
+    }
+
+    // tries every combination of candidate sizes of the included streams, keeping the one with the most pixels
+    private Plan planSizes(List<Stream> streams, boolean[] included, int[] chosen, int stream, Plan best) {
+        if (stream == streams.size()) {
+            long pixels = 0;
+            int used = 0;
+            for (int i = 0; i < included.length; i++) {
+                if (included[i]) {
+                    used++;
+                }
+            }
+            Format[] usedFormats = new Format[used];
+            long[] areas = new long[used];
+            int at = 0;
+            for (int i = 0; i < included.length; i++) {
+                if (included[i]) {
+                    Stream s = streams.get(i);
+                    usedFormats[at] = s.mFormat;
+                    areas[at] = (long) s.mWidths[chosen[i]] * s.mHeights[chosen[i]];
+                    pixels += areas[at];
+                    at++;
+                }
+            }
+            // strictly more, so that equal totals keep the earlier (wanted) sizes
+            if (isGuaranteed(usedFormats, areas) && (best == null || pixels > best.mPixels)) {
+                return new Plan(streams, included, chosen, pixels);
+            }
+            return best;
+        }
+        if (!included[stream]) {
+            chosen[stream] = 0;
+            return planSizes(streams, included, chosen, stream + 1, best);
+        }
+        for (int i = 0; i < streams.get(stream).mWidths.length; i++) {
+            chosen[stream] = i;
+            best = planSizes(streams, included, chosen, stream + 1, best);
+        }
+        return best;
+    }
+
+    private boolean isGuaranteed(Format[] formats, long[] areas) {
+        if (formats.length == 0) {
+            return true;
+        }
+        for (int row = 0; row < mFormats.length; row++) {
+            if (mFormats[row].length >= formats.length
+                    && assign(formats, areas, 0, mFormats[row], mClasses[row], new boolean[mFormats[row].length])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // matches every stream to a distinct table entry of its format whose size class it fits in
+    private boolean assign(Format[] formats, long[] areas, int stream, Format[] rowFormats, SizeClass[] rowClasses,
+                           boolean[] taken) {
+        if (stream == formats.length) {
+            return true;
+        }
+        for (int entry = 0; entry < rowFormats.length; entry++) {
+            if (!taken[entry] && rowFormats[entry] == formats[stream] && areas[stream] <= bound(rowClasses[entry])) {
+                taken[entry] = true;
+                if (assign(formats, areas, stream + 1, rowFormats, rowClasses, taken)) {
+                    return true;
+                }
+                taken[entry] = false;
+            }
+        }
+        return false;
+    }
+
+    private long bound(SizeClass sizeClass) {
+        switch (sizeClass) {
+            case VGA:
+                return VGA_AREA;
+            case PREVIEW:
+                return mPreviewArea;
+            case RECORD:
+                return mRecordArea;
+            default:
+                return Long.MAX_VALUE;
+        }
+    }
+
+    private static void addRows(List<String[]> rows, String[][] table) {
+        for (String[] row : table) {
+            rows.add(row);
+        }
+    }
+
+    private static int rank(int hardwareLevel) {
+        switch (hardwareLevel) {
+            case LEVEL_LIMITED:
+            case LEVEL_EXTERNAL:
+                return 1;
+            case LEVEL_FULL:
+                return 2;
+            case LEVEL_3:
+                return 3;
+            default:
+                return 0;
+        }
+    }
+
+    public static String levelName(int hardwareLevel) {
+        switch (hardwareLevel) {
+            case LEVEL_LIMITED:
+                return "LIMITED";
+            case LEVEL_FULL:
+                return "FULL";
+            case LEVEL_LEGACY:
+                return "LEGACY";
+            case LEVEL_3:
+                return "LEVEL_3";
+            case LEVEL_EXTERNAL:
+                return "EXTERNAL";
+            default:
+                return "UNKNOWN(" + hardwareLevel + ")";
+        }
+    }
+
+    /**
+     * One session output: its format, the size it wants and the sizes it may shrink to.
+     */
+    public static class Stream {
+        private final Format mFormat;
+        private final int[] mWidths;
+        private final int[] mHeights;
+        private boolean mOptional;
+
+        /**
+         * A stream whose size is fixed, e.g. an {@code ImageReader} that already exists.
+         */
+        public Stream(Format format, int width, int height) {
+            this(format, new int[]{width, height});
+        }
+
+        /**
+         * @param sizes packed width/height pairs, the wanted size first and then the fallbacks in order of preference
+         */
+        public Stream(Format format, int[] sizes) {
+            if (sizes.length < 2 || sizes.length % 2 != 0) {
+                throw new IllegalArgumentException("sizes must be at least one width/height pair");
+            }
+            mFormat = format;
+            mWidths = new int[sizes.length / 2];
+            mHeights = new int[sizes.length / 2];
+            for (int i = 0; i < mWidths.length; i++) {
+                mWidths[i] = sizes[2 * i];
+                mHeights[i] = sizes[2 * i + 1];
+            }
+        }
+
+        /**
+         * @param optional true if the session can do without this stream
+         */
+        public Stream setOptional(boolean optional) {
+            mOptional = optional;
+            return this;
+        }
+
+        public Format getFormat() {
+            return mFormat;
+        }
+
+        /**
+         * @return {@code width x height} followed by the largest size of {@code sizes} with the same aspect ratio
+         * under each of the planner's size class bounds that is smaller than the wanted size
+         */
+        public static int[] withFallbacks(StreamCombinationPlanner planner, SizeIndex sizes, int width, int height) {
+            List<Integer> packed = new ArrayList<>();
+            packed.add(width);
+            packed.add(height);
+            long area = (long) width * height;
+            long[] bounds = {planner.mRecordArea, planner.mPreviewArea, VGA_AREA};
+            for (long bound : bounds) {
+                if (bound >= area) {
+                    continue;
+                }
+                int index = sizes.select(new SizeIndex.Query(width, height).setMaxArea(bound));
+                if (index < 0) {
+                    continue;
+                }
+                int fallbackWidth = sizes.getWidth(index);
+                int fallbackHeight = sizes.getHeight(index);
+                if (!contains(packed, fallbackWidth, fallbackHeight)) {
+                    packed.add(fallbackWidth);
+                    packed.add(fallbackHeight);
+                }
+            }
+            int[] result = new int[packed.size()];
+            for (int i = 0; i < result.length; i++) {
+                result[i] = packed.get(i);
+            }
+            return result;
+        }
+
+        private static boolean contains(List<Integer> packed, int width, int height) {
+            for (int i = 0; i < packed.size(); i += 2) {
+                if (packed.get(i) == width && packed.get(i + 1) == height) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * The streams to configure and their sizes, indexed like the planned {@link Stream} list.
+     */
+    public static class Plan {
+        private final boolean[] mIncluded;
+        private final int[] mWidths;
+        private final int[] mHeights;
+        private final boolean mComplete;
+        private final long mPixels;
+
+        Plan(List<Stream> streams, boolean[] included, int[] chosen, long pixels) {
+            mIncluded = included.clone();
+            mWidths = new int[streams.size()];
+            mHeights = new int[streams.size()];
+            boolean complete = true;
+            for (int i = 0; i < mWidths.length; i++) {
+                Stream stream = streams.get(i);
+                mWidths[i] = stream.mWidths[chosen[i]];
+                mHeights[i] = stream.mHeights[chosen[i]];
+                complete &= included[i] && chosen[i] == 0;
+            }
+            mComplete = complete;
+            mPixels = pixels;
+        }
+
+        public boolean isIncluded(int stream) {
+            return mIncluded[stream];
+        }
+
+        public int getWidth(int stream) {
+            return mWidths[stream];
+        }
+
+        public int getHeight(int stream) {
+            return mHeights[stream];
+        }
+
+        /**
+         * @return true if every stream is kept at the size it wants
+         */
+        public boolean isComplete() {
+            return mComplete;
+        }
+
+        /**
+         * @return pixels per frame of all included streams
+         */
+        public long getPixels() {
+            return mPixels;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder("Plan{");
+            for (int i = 0; i < mWidths.length; i++) {
+                if (i > 0) {
+                    out.append(", ");
+                }
+                out.append(mIncluded[i] ? mWidths[i] + "x" + mHeights[i] : "dropped");
+            }
+            return out.append('}').toString();
+        }
+    }
+}
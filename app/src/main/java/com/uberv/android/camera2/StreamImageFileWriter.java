@@ -0,0 +1,39 @@
+package com.uberv.android.camera2;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Copies the image into a heap array and writes it with a {@link FileOutputStream}.
+ */
+public class StreamImageFileWriter implements ImageFileWriter {
+
+    @Override
+    public long write(ByteBuffer data, File target) throws IOException {
+        return write(new ByteBuffer[]{data}, target);
+    }
+
+    @Override
+    public long write(ByteBuffer[] data, File target) throws IOException {
+        int size = 0;
+        for (ByteBuffer buffer : data) {
+            size += buffer.remaining();
+        }
+        byte[] bytes = new byte[size];
+        int offset = 0;
+        for (ByteBuffer buffer : data) {
+            int n = buffer.remaining();
+            buffer.get(bytes, offset, n);
+            offset += n;
+        }
+        FileOutputStream fos = new FileOutputStream(target);
+        try {
+            fos.write(bytes);
+        } finally {
+            fos.close();
+        }
+        return bytes.length;
+    }
+}
@@ -0,0 +1,267 @@
+package com.uberv.android.camera2;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of thumbnails keyed by the path of the file they were decoded from, bounded by the total weight (e.g.
+ * bytes) of its values. When the bound is exceeded the {@link EvictionPolicy} picks entries to drop, least
+ * recently used first by default. Evicted values are handed to the {@link EvictionListener}, if any; they may still
+ * be on screen, so the cache itself never recycles them. Thread safe.
+ *
+ * @param <V> thumbnail type, e.g. a {@code Bitmap}
+ */
+public class ThumbnailCache<V> {
+
+    /**
+     * Measures a value; the weight of an entry is taken when it is put and must not be negative.
+     */
+    public interface Weigher<V> {
+        long weigh(V value);
+    }
+
+    /**
+     * Chooses the entry to evict when the cache is over its bound.
+     */
+    public interface EvictionPolicy<V> {
+
+        /**
+         * @param entries every cached entry, from least to most recently used; never empty
+         * @return the entry to evict
+         */
+        Entry<V> selectVictim(Iterable<Entry<V>> entries);
+    }
+
+    public interface EvictionListener<V> {
+
+        /**
+         * Called after {@code value} was evicted or replaced, with the cache lock held; must not call back into
+         * the cache.
+         */
+        void onEvicted(String path, V value);
+    }
+
+    public static final class Entry<V> {
+        private final String mPath;
+        private final V mValue;
+        private final long mWeight;
+
+        Entry(String path, V value, long weight) {
+            mPath = path;
+            mValue = value;
+            mWeight = weight;
+        }
+
+        public String getPath() {
+            return mPath;
+        }
+
+        public V getValue() {
+            return mValue;
+        }
+
+        public long getWeight() {
+            return mWeight;
+        }
+    }
+
+    private static final Weigher<Object> ONE = new Weigher<Object>() {
+        @Override
+        public long weigh(Object value) {
+            return 1;
+        }
+    };
+
+    private static final EvictionPolicy<Object> LEAST_RECENTLY_USED = new EvictionPolicy<Object>() {
+        @Override
+        public Entry<Object> selectVictim(Iterable<Entry<Object>> entries) {
+            return entries.iterator().next();
+        }
+    };
+
+    private static final EvictionPolicy<Object> HEAVIEST = new EvictionPolicy<Object>() {
+        @Override
+        public Entry<Object> selectVictim(Iterable<Entry<Object>> entries) {
+            Entry<Object> heaviest = null;
+            for (Entry<Object> entry : entries) {
+                // strictly heavier, so ties go to the least recently used
+                if (heaviest == null || entry.getWeight() > heaviest.getWeight()) {
+                    heaviest = entry;
+                }
+            }
+            return heaviest;
+        }
+    };
+
+    /**
+     * Evicts the least recently used entry; O(1).
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> EvictionPolicy<V> leastRecentlyUsed() {
+        return (EvictionPolicy<V>) (EvictionPolicy<?>) LEAST_RECENTLY_USED;
+    }
+
+    /**
+     * Evicts the heaviest entry, keeping as many thumbnails as possible; O(n) per eviction.
+     */
+    @SuppressWarnings("unchecked")
+    public static <V> EvictionPolicy<V> heaviest() {
+        return (EvictionPolicy<V>) (EvictionPolicy<?>) HEAVIEST;
+    }
+
+    private final long mMaxWeight;
+    private final Weigher<? super V> mWeigher;
+    private final EvictionPolicy<V> mPolicy;
+    private EvictionListener<? super V> mEvictionListener;
+    // access order: every get() moves the entry to the young end
+    private final LinkedHashMap<String, Entry<V>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Iterable<Entry<V>> mEntryView = new Iterable<Entry<V>>() {
+        @Override
+        public Iterator<Entry<V>> iterator() {
+            return mEntries.values().iterator();
+        }
+    };
+    private long mWeight;
+    private long mHits;
+    private long mMisses;
+    private long mEvictions;
+    private long mRejected;
+
+    /**
+     * A cache of at most {@code maxEntries} values, least recently used out first.
+     */
+    public ThumbnailCache(int maxEntries) {
+        this(maxEntries, ONE, ThumbnailCache.<V>leastRecentlyUsed());
+    }
+
+    /**
+     * @param maxWeight bound on the sum of the weights of all cached values
+     */
+    public ThumbnailCache(long maxWeight, Weigher<? super V> weigher, EvictionPolicy<V> policy) {
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("maxWeight must be positive: " + maxWeight);
+        }
+        mMaxWeight = maxWeight;
+        mWeigher = weigher;
+        mPolicy = policy;
+    }
+
+    public synchronized void setEvictionListener(EvictionListener<? super V> listener) {
+        mEvictionListener = listener;
+    }
+
+    /**
+     * @return the thumbnail of {@code path}, or null if it is not cached
+     */
+    public synchronized V get(String path) {
+        Entry<V> entry = mEntries.get(path);
+        if (entry == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        return entry.mValue;
+    }
+
+    /**
+     * Cache a thumbnail, evicting others until the cache is within its bound again.
+     *
+     * @return false if the thumbnail alone is heavier than the bound and was not cached. A policy other than least
+     * recently used may also choose the new thumbnail itself for eviction.
+     */
+    public synchronized boolean put(String path, V thumbnail) {
+        if (path == null || thumbnail == null) {
+            throw new NullPointerException("path and thumbnail must not be null");
+        }
+        long weight = mWeigher.weigh(thumbnail);
+        if (weight < 0) {
+            throw new IllegalArgumentException("negative weight " + weight + " for " + path);
+        }
+        if (weight > mMaxWeight) {
+            mRejected++;
+            return false;
+        }
+        Entry<V> previous = mEntries.put(path, new Entry<>(path, thumbnail, weight));
+        mWeight += weight;
+        if (previous != null) {
+            mWeight -= previous.mWeight;
+            if (previous.mValue != thumbnail) {
+                notifyEvicted(previous);
+            }
+        }
+        while (mWeight > mMaxWeight) {
+            Entry<V> victim = mPolicy.selectVictim(mEntryView);
+            if (victim == null || mEntries.remove(victim.mPath) != victim) {
+                throw new IllegalStateException("eviction policy returned an entry that is not cached");
+            }
+            mWeight -= victim.mWeight;
+            mEvictions++;
+            notifyEvicted(victim);
+        }
+        return true;
+    }
+
+    /**
+     * Forget a thumbnail, e.g. because its file was deleted or overwritten. The eviction listener is not called.
+     */
+    public synchronized V remove(String path) {
+        Entry<V> entry = mEntries.remove(path);
+        if (entry == null) {
+            return null;
+        }
+        mWeight -= entry.mWeight;
+        return entry.mValue;
+    }
+
+    public synchronized void clear() {
+        mEntries.clear();
+        mWeight = 0;
+    }
+
+    private void notifyEvicted(Entry<V> entry) {
+        if (mEvictionListener != null) {
+            mEvictionListener.onEvicted(entry.mPath, entry.mValue);
+        }
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * @return sum of the weights of the cached values
+     */
+    public synchronized long getWeight() {
+        return mWeight;
+    }
+
+    public long getMaxWeight() {
+        return mMaxWeight;
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    /**
+     * @return number of values refused because they were heavier than the whole cache
+     */
+    public synchronized long getRejected() {
+        return mRejected;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "thumbnails=" + mEntries.size() + " weight=" + mWeight + "/" + mMaxWeight
+                + " hits=" + mHits + " misses=" + mMisses + " evictions=" + mEvictions + " rejected=" + mRejected;
+    }
+}
@@ -0,0 +1,176 @@
+package com.uberv.android.camera2;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.media.ThumbnailUtils;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Produces small thumbnails of captured JPEG files without decoding them at full size.
+ * <p>
+ * The thumbnail embedded in the EXIF data is used when it is large enough; otherwise the file is decoded twice,
+ * once for its bounds only and once subsampled by {@link ThumbnailSizing#computeSampleSize(int, int, int, int)}, so
+ * a 12 MP shot never costs more than a few hundred kilobytes of bitmap. Results are kept in a
+ * {@link ThumbnailCache} keyed by path. Video thumbnails are taken from a frame of the video by the platform.
+ * <p>
+ * {@link #load(String, boolean, Callback)} must be called on the main thread; concurrent requests for the same file
+ * share one decode.
+ */
+public class ThumbnailLoader {
+    private static final String LOG_TAG = ThumbnailLoader.class.getSimpleName();
+
+    public interface Callback {
+
+        /**
+         * Called on the main thread.
+         *
+         * @param thumbnail null if the file could not be decoded
+         */
+        void onThumbnailLoaded(String path, Bitmap thumbnail);
+    }
+
+    private final ThumbnailCache<Bitmap> mCache;
+    private final Executor mExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final int mWidth;
+    private final int mHeight;
+    // callbacks waiting for a decode in progress, main thread only
+    private final Map<String, List<Callback>> mPending = new HashMap<>();
+
+    /**
+     * @param executor decodes run here, off the main thread
+     * @param width    minimum width of the thumbnails, in pixels
+     * @param height   minimum height of the thumbnails, in pixels
+     */
+    public ThumbnailLoader(ThumbnailCache<Bitmap> cache, Executor executor, int width, int height) {
+        mCache = cache;
+        mExecutor = executor;
+        mWidth = width;
+        mHeight = height;
+    }
+
+    /**
+     * Deliver the thumbnail of {@code path} to {@code callback}, right away if it is cached.
+     *
+     * @param video true if {@code path} is a video rather than a JPEG
+     */
+    public void load(final String path, final boolean video, Callback callback) {
+        Bitmap cached = mCache.get(path);
+        if (cached != null) {
+            callback.onThumbnailLoaded(path, cached);
+            return;
+        }
+        List<Callback> waiting = mPending.get(path);
+        if (waiting != null) {
+            waiting.add(callback);
+            return;
+        }
+        waiting = new ArrayList<>();
+        waiting.add(callback);
+        mPending.put(path, waiting);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Bitmap thumbnail = video ? decodeVideo(path) : decode(path);
+                if (thumbnail != null) {
+                    mCache.put(path, thumbnail);
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Callback waitingCallback : mPending.remove(path)) {
+                            waitingCallback.onThumbnailLoaded(path, thumbnail);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    public ThumbnailCache<Bitmap> getCache() {
+        return mCache;
+    }
+
+    private Bitmap decodeVideo(String path) {
+        Bitmap frame = ThumbnailUtils.createVideoThumbnail(path, MediaStore.Images.Thumbnails.MINI_KIND);
+        if (frame == null) {
+            Log.w(LOG_TAG, "cannot decode " + path);
+            return null;
+        }
+        return ThumbnailUtils.extractThumbnail(frame, mWidth, mHeight, ThumbnailUtils.OPTIONS_RECYCLE_INPUT);
+    }
+
+    private Bitmap decode(String path) {
+        long start = System.nanoTime();
+        int degrees = 0;
+        byte[] embedded = null;
+        try {
+            ExifInterface exif = new ExifInterface(path);
+            degrees = ThumbnailSizing.exifOrientationToDegrees(
+                    exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+            embedded = exif.getThumbnail();
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "no exif data in " + path, e);
+        }
+        // the stored pixels are not rotated yet, so a rotated image has to cover the transposed size
+        boolean transposed = degrees % 180 != 0;
+        int requiredWidth = transposed ? mHeight : mWidth;
+        int requiredHeight = transposed ? mWidth : mHeight;
+
+        Bitmap bitmap = null;
+        boolean fromExif = false;
+        if (embedded != null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeByteArray(embedded, 0, embedded.length, options);
+            if (ThumbnailSizing.covers(options.outWidth, options.outHeight, requiredWidth, requiredHeight)) {
+                options.inJustDecodeBounds = false;
+                options.inSampleSize = ThumbnailSizing.computeSampleSize(options.outWidth, options.outHeight,
+                        requiredWidth, requiredHeight);
+                bitmap = BitmapFactory.decodeByteArray(embedded, 0, embedded.length, options);
+                fromExif = bitmap != null;
+            }
+        }
+        if (bitmap == null) {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFile(path, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                Log.w(LOG_TAG, "cannot decode " + path);
+                return null;
+            }
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = ThumbnailSizing.computeSampleSize(options.outWidth, options.outHeight,
+                    requiredWidth, requiredHeight);
+            bitmap = BitmapFactory.decodeFile(path, options);
+            if (bitmap == null) {
+                Log.w(LOG_TAG, "cannot decode " + path);
+                return null;
+            }
+        }
+        if (degrees != 0) {
+            Matrix rotation = new Matrix();
+            rotation.postRotate(degrees);
+            Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), rotation, true);
+            if (rotated != bitmap) {
+                bitmap.recycle();
+            }
+            bitmap = rotated;
+        }
+        Log.d(LOG_TAG, "thumbnail " + bitmap.getWidth() + "x" + bitmap.getHeight() + " of " + path
+                + (fromExif ? " from exif" : " subsampled") + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return bitmap;
+    }
+}
@@ -0,0 +1,58 @@
+package com.uberv.android.camera2;
+
+/**
+ * Sizing math for thumbnails decoded straight from JPEG files.
+ */
+public final class ThumbnailSizing {
+
+    // mirror of ExifInterface.ORIENTATION_* so the math can run without the Android framework
+    public static final int EXIF_ORIENTATION_NORMAL = 1;
+    public static final int EXIF_ORIENTATION_ROTATE_180 = 3;
+    public static final int EXIF_ORIENTATION_ROTATE_90 = 6;
+    public static final int EXIF_ORIENTATION_ROTATE_270 = 8;
+
+    private ThumbnailSizing() {
+    }
+
+    /**
+     * The JPEG decoder only subsamples by powers of two, so this is the largest power of two that still leaves
+     * the decoded image at least {@code requiredWidth} x {@code requiredHeight}.
+     *
+     * @return {@code inSampleSize} for decoding a {@code width} x {@code height} image, 1 if it is already small
+     */
+    public static int computeSampleSize(int width, int height, int requiredWidth, int requiredHeight) {
+        if (requiredWidth <= 0 || requiredHeight <= 0) {
+            throw new IllegalArgumentException("invalid thumbnail size: " + requiredWidth + "x" + requiredHeight);
+        }
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= requiredWidth && height / (sampleSize * 2) >= requiredHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * @return true if a {@code width} x {@code height} image is big enough to be shown as a
+     * {@code requiredWidth} x {@code requiredHeight} thumbnail without upscaling
+     */
+    public static boolean covers(int width, int height, int requiredWidth, int requiredHeight) {
+        return width >= requiredWidth && height >= requiredHeight;
+    }
+
+    /**
+     * @return clockwise rotation that makes an image with the given EXIF orientation upright; mirrored orientations
+     * are treated as unrotated
+     */
+    public static int exifOrientationToDegrees(int orientation) {
+        switch (orientation) {
+            case EXIF_ORIENTATION_ROTATE_90:
+                return 90;
+            case EXIF_ORIENTATION_ROTATE_180:
+                return 180;
+            case EXIF_ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+}
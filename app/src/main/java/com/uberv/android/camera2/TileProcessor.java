@@ -0,0 +1,107 @@
+package com.uberv.android.camera2;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs {@link PixelFilter}s over an ARGB image split into square tiles, with the tiles spread over a
+ * {@link ForkJoinPool} (by default one worker per core).
+ * <p>
+ * Each filter reads one buffer and writes the other, so a chain of filters ping-pongs between the caller's pixel
+ * array and a scratch array of the same size. The caller supplies the scratch array, so no pixel buffers are
+ * allocated per image; the only per-image allocations are the fork-join tasks, about two per tile and filter.
+ */
+public class TileProcessor {
+    public static final int DEFAULT_TILE_SIZE = 128;
+
+    private final ForkJoinPool mPool;
+    private final int mTileSize;
+
+    public TileProcessor() {
+        this(new ForkJoinPool(Runtime.getRuntime().availableProcessors()), DEFAULT_TILE_SIZE);
+    }
+
+    public TileProcessor(ForkJoinPool pool, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        mPool = pool;
+        mTileSize = tileSize;
+    }
+
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+    /**
+     * Apply {@code filters} in order.
+     *
+     * @param pixels  input image, may be overwritten
+     * @param scratch buffer at least as large as {@code pixels}, may be overwritten
+     * @return {@code pixels} or {@code scratch}, whichever holds the result
+     */
+    public int[] process(int[] pixels, int[] scratch, int width, int height, List<PixelFilter> filters) {
+        if (width <= 0 || height <= 0 || pixels.length < width * height || scratch.length < width * height) {
+            throw new IllegalArgumentException("bad image " + width + "x" + height + " for buffers of "
+                    + pixels.length + " and " + scratch.length + " pixels");
+        }
+        int tilesX = (width + mTileSize - 1) / mTileSize;
+        int tilesY = (height + mTileSize - 1) / mTileSize;
+        int[] src = pixels;
+        int[] dst = scratch;
+        for (PixelFilter filter : filters) {
+            mPool.invoke(new TileTask(filter, src, dst, width, height, tilesX, 0, tilesX * tilesY));
+            int[] swap = src;
+            src = dst;
+            dst = swap;
+        }
+        return src;
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /**
+     * Applies a filter to tiles {@code [from, to)}, numbered row after row, halving the range until one tile is
+     * left.
+     */
+    private class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final PixelFilter mFilter;
+        private final int[] mSrc;
+        private final int[] mDst;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mTilesX;
+        private final int mFrom;
+        private final int mTo;
+
+        TileTask(PixelFilter filter, int[] src, int[] dst, int width, int height, int tilesX, int from, int to) {
+            mFilter = filter;
+            mSrc = src;
+            mDst = dst;
+            mWidth = width;
+            mHeight = height;
+            mTilesX = tilesX;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom == 1) {
+                int left = (mFrom % mTilesX) * mTileSize;
+                int top = (mFrom / mTilesX) * mTileSize;
+                mFilter.apply(mSrc, mDst, mWidth, mHeight, left, top,
+                        Math.min(left + mTileSize, mWidth), Math.min(top + mTileSize, mHeight));
+                return;
+            }
+            int middle = (mFrom + mTo) >>> 1;
+            invokeAll(new TileTask(mFilter, mSrc, mDst, mWidth, mHeight, mTilesX, mFrom, middle),
+                    new TileTask(mFilter, mSrc, mDst, mWidth, mHeight, mTilesX, middle, mTo));
+        }
+    }
+}
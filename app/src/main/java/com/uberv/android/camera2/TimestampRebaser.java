@@ -0,0 +1,54 @@
+package com.uberv.android.camera2;
+
+/**
+ * Turns encoder presentation times into file times.
+ * <p>
+ * Frames reach the encoder with the camera's sensor timestamps, which count from boot. A file should start at 0,
+ * with all of its tracks on the same base so that they stay in sync: the earliest sample seen on any track becomes
+ * time 0, and a later sample from before it (e.g. a late sample of another track) is clamped to 0. Times are
+ * otherwise left alone: an encoder that emits B-frames delivers them out of presentation order, and the muxer
+ * orders them itself. Not thread safe.
+ */
+public class TimestampRebaser {
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private long mBaseUs = UNSET;
+    private long mCorrections;
+
+    /**
+     * @return {@code presentationTimeUs} on the file's time base
+     */
+    public long rebase(long presentationTimeUs) {
+        if (mBaseUs == UNSET) {
+            mBaseUs = presentationTimeUs;
+        }
+        long rebased = presentationTimeUs - mBaseUs;
+        if (rebased < 0) {
+            rebased = 0;
+            mCorrections++;
+        }
+        return rebased;
+    }
+
+    /**
+     * @return time 0 on the encoder's time base, {@link Long#MIN_VALUE} before the first sample
+     */
+    public long getBaseUs() {
+        return mBaseUs;
+    }
+
+    /**
+     * @return number of samples from before time 0 whose time had to be moved to it
+     */
+    public long getCorrections() {
+        return mCorrections;
+    }
+
+    /**
+     * Start over for a new file.
+     */
+    public void reset() {
+        mBaseUs = UNSET;
+        mCorrections = 0;
+    }
+}
@@ -0,0 +1,63 @@
+package com.uberv.android.camera2;
+
+/**
+ * Maps each color channel through a 256-entry lookup table.
+ */
+public class ToneCurveFilter implements PixelFilter {
+    private final int[] mCurve;
+
+    /**
+     * @param curve output value (0..255) for every input value
+     */
+    public ToneCurveFilter(int[] curve) {
+        if (curve.length != 256) {
+            throw new IllegalArgumentException("curve needs 256 entries, got " + curve.length);
+        }
+        mCurve = curve.clone();
+        for (int i = 0; i < mCurve.length; i++) {
+            mCurve[i] = Math.max(0, Math.min(255, mCurve[i]));
+        }
+    }
+
+    /**
+     * @param gamma below 1 brightens shadows, above 1 darkens them
+     */
+    public static ToneCurveFilter gamma(double gamma) {
+        int[] curve = new int[256];
+        for (int i = 0; i < curve.length; i++) {
+            curve[i] = (int) Math.round(255 * Math.pow(i / 255.0, gamma));
+        }
+        return new ToneCurveFilter(curve);
+    }
+
+    /**
+     * S-shaped contrast curve around mid gray.
+     *
+     * @param strength 0 leaves the image unchanged, 1 is a strong boost
+     */
+    public static ToneCurveFilter contrast(double strength) {
+        int[] curve = new int[256];
+        for (int i = 0; i < curve.length; i++) {
+            double x = i / 255.0;
+            // blend identity with smoothstep
+            double s = x * x * (3 - 2 * x);
+            curve[i] = (int) Math.round(255 * (x + strength * (s - x)));
+        }
+        return new ToneCurveFilter(curve);
+    }
+
+    @Override
+    public void apply(int[] src, int[] dst, int width, int height, int left, int top, int right, int bottom) {
+        int[] curve = mCurve;
+        for (int y = top; y < bottom; y++) {
+            int row = y * width;
+            for (int i = row + left; i < row + right; i++) {
+                int argb = src[i];
+                dst[i] = (argb & 0xff000000)
+                        | (curve[(argb >> 16) & 0xff] << 16)
+                        | (curve[(argb >> 8) & 0xff] << 8)
+                        | curve[argb & 0xff];
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.uberv.android.camera2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the frame rate and bitrate of a recording from its resolution, the device's encoder profiles
+ * ({@code CamcorderProfile}), the frame rates the camera supports and how fast storage can take the data.
+ * <p>
+ * The bitrate comes from the encoder profile closest in size, scaled to the actual pixel and frame rate. Without
+ * profiles it falls back to a bits-per-pixel table. It is then capped to a share of the storage throughput.
+ * Constrained high speed configurations are only chosen when the requested frame rate is above what a regular
+ * session can deliver.
+ */
+public class VideoProfileSelector {
+    public static final int DEFAULT_FRAME_RATE = 30;
+    static final int MIN_BIT_RATE = 256 * 1000;
+    // a recording may use half of what storage sustains, the rest is left for stills and the muxer
+    static final double STORAGE_BUDGET = 0.5;
+
+    // H.264 bits per pixel per frame by resolution, encoders need fewer bits per pixel at higher resolutions
+    private static final int[] TIER_MAX_PIXELS = {
+            320 * 240, 720 * 480, 1280 * 720, 1920 * 1080, Integer.MAX_VALUE};
+    private static final double[] TIER_BITS_PER_PIXEL = {
+            0.20, 0.15, 0.12, 0.10, 0.08};
+
+    /**
+     * Encoder settings the vendor tuned for one resolution, e.g. from {@code CamcorderProfile.get()}.
+     */
+    public static class EncoderProfile {
+        final int mWidth;
+        final int mHeight;
+        final int mFrameRate;
+        final int mBitRate;
+
+        public EncoderProfile(int width, int height, int frameRate, int bitRate) {
+            mWidth = width;
+            mHeight = height;
+            mFrameRate = frameRate;
+            mBitRate = bitRate;
+        }
+
+        long getPixels() {
+            return (long) mWidth * mHeight;
+        }
+    }
+
+    public static class VideoProfile {
+        private final int mWidth;
+        private final int mHeight;
+        private final int mMinFrameRate;
+        private final int mFrameRate;
+        private final int mBitRate;
+        private final boolean mHighSpeed;
+        private final boolean mStorageLimited;
+
+        VideoProfile(int width, int height, int minFrameRate, int frameRate, int bitRate, boolean highSpeed,
+                     boolean storageLimited) {
+            mWidth = width;
+            mHeight = height;
+            mMinFrameRate = minFrameRate;
+            mFrameRate = frameRate;
+            mBitRate = bitRate;
+            mHighSpeed = highSpeed;
+            mStorageLimited = storageLimited;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        /**
+         * @return lower bound of the supported fps range to request, equal to {@link #getFrameRate()} if the
+         * camera has a fixed range for it
+         */
+        public int getMinFrameRate() {
+            return mMinFrameRate;
+        }
+
+        public int getFrameRate() {
+            return mFrameRate;
+        }
+
+        public int getBitRate() {
+            return mBitRate;
+        }
+
+        /**
+         * @return true if the frame rate needs a constrained high speed session
+         */
+        public boolean isHighSpeed() {
+            return mHighSpeed;
+        }
+
+        /**
+         * @return true if the bitrate was lowered to what storage can sustain
+         */
+        public boolean isStorageLimited() {
+            return mStorageLimited;
+        }
+
+        @Override
+        public String toString() {
+            return mWidth + "x" + mHeight + "@" + mFrameRate + (mHighSpeed ? " (high speed)" : "")
+                    + " " + mBitRate / 1000 + " kbps" + (mStorageLimited ? " (storage limited)" : "");
+        }
+    }
+
+    private final List<EncoderProfile> mEncoderProfiles;
+
+    public VideoProfileSelector(List<EncoderProfile> encoderProfiles) {
+        mEncoderProfiles = new ArrayList<>(encoderProfiles);
+    }
+
+    /**
+     * @param targetFrameRate        desired frame rate, 0 for {@link #DEFAULT_FRAME_RATE}
+     * @param fpsRanges              AE target fps ranges as packed min/max pairs
+     * @param highSpeedConfigs       constrained high speed configurations as packed w/h/minFps/maxFps quadruples
+     * @param storageBytesPerSecond  measured write throughput, 0 if unknown
+     */
+    public VideoProfile select(int width, int height, int targetFrameRate, int[] fpsRanges, int[] highSpeedConfigs,
+                               double storageBytesPerSecond) {
+        int target = targetFrameRate > 0 ? targetFrameRate : DEFAULT_FRAME_RATE;
+        int frameRate = selectFrameRate(fpsRanges, target);
+        int minFrameRate = rangeMin(fpsRanges, 0, 2, frameRate);
+        boolean highSpeed = false;
+        if (frameRate < target) {
+            int highSpeedRate = selectHighSpeedFrameRate(highSpeedConfigs, width, height, target);
+            if (highSpeedRate > frameRate) {
+                frameRate = highSpeedRate;
+                minFrameRate = rangeMin(highSpeedConfigs, 2, 4, frameRate);
+                highSpeed = true;
+            }
+        }
+
+        double bitRate = estimateBitRate(width, height, frameRate);
+        boolean storageLimited = false;
+        if (storageBytesPerSecond > 0) {
+            double budget = storageBytesPerSecond * 8 * STORAGE_BUDGET;
+            if (bitRate > budget) {
+                bitRate = budget;
+                storageLimited = true;
+            }
+        }
+        int clamped = (int) Math.max(MIN_BIT_RATE, Math.min(Integer.MAX_VALUE, bitRate));
+        return new VideoProfile(width, height, minFrameRate, frameRate, clamped, highSpeed, storageLimited);
+    }
+
+    /**
+     * @return the largest lower bound of the ranges in {@code packed} whose upper bound is {@code max}, i.e. the
+     * narrowest such range; {@code max} itself if there is none
+     */
+    private static int rangeMin(int[] packed, int offset, int stride, int max) {
+        int min = -1;
+        for (int i = offset; i + 1 < packed.length; i += stride) {
+            if (packed[i + 1] == max) {
+                min = Math.max(min, packed[i]);
+            }
+        }
+        return min < 0 ? max : min;
+    }
+
+    /**
+     * @return the highest upper bound not above {@code target}, or the lowest one if all are above it. A fixed range
+     * is only preferred at that rate, which {@link #rangeMin} takes care of; a lower fixed rate is no better than
+     * a variable range that reaches the target
+     */
+    static int selectFrameRate(int[] fpsRanges, int target) {
+        int best = 0;
+        int lowest = Integer.MAX_VALUE;
+        for (int i = 0; i + 1 < fpsRanges.length; i += 2) {
+            int fps = fpsRanges[i + 1];
+            lowest = Math.min(lowest, fps);
+            if (fps <= target) {
+                best = Math.max(best, fps);
+            }
+        }
+        if (best > 0) {
+            return best;
+        }
+        return lowest == Integer.MAX_VALUE ? DEFAULT_FRAME_RATE : lowest;
+    }
+
+    /**
+     * @return the lowest high speed rate reaching {@code target} for this size, else the highest one, 0 if none
+     */
+    static int selectHighSpeedFrameRate(int[] configs, int width, int height, int target) {
+        int reaching = Integer.MAX_VALUE;
+        int highest = 0;
+        for (int i = 0; i + 3 < configs.length; i += 4) {
+            if (configs[i] != width || configs[i + 1] != height) {
+                continue;
+            }
+            int fps = configs[i + 3];
+            highest = Math.max(highest, fps);
+            if (fps >= target) {
+                reaching = Math.min(reaching, fps);
+            }
+        }
+        return reaching != Integer.MAX_VALUE ? reaching : highest;
+    }
+
+    double estimateBitRate(int width, int height, int frameRate) {
+        long pixels = (long) width * height;
+        EncoderProfile profile = closestProfile(pixels);
+        if (profile != null) {
+            return (double) profile.mBitRate * pixels / profile.getPixels() * frameRate / profile.mFrameRate;
+        }
+        return pixels * frameRate * bitsPerPixel(pixels);
+    }
+
+    static double bitsPerPixel(long pixels) {
+        for (int i = 0; i < TIER_MAX_PIXELS.length; i++) {
+            if (pixels <= TIER_MAX_PIXELS[i]) {
+                return TIER_BITS_PER_PIXEL[i];
+            }
+        }
+        return TIER_BITS_PER_PIXEL[TIER_BITS_PER_PIXEL.length - 1];
+    }
+
+    /**
+     * @return the smallest profile at least as large as {@code pixels}, else the largest one
+     */
+    private EncoderProfile closestProfile(long pixels) {
+        EncoderProfile atLeast = null;
+        EncoderProfile largest = null;
+        for (EncoderProfile profile : mEncoderProfiles) {
+            if (profile.getPixels() <= 0 || profile.mFrameRate <= 0 || profile.mBitRate <= 0) {
+                continue;
+            }
+            if (profile.getPixels() >= pixels && (atLeast == null || profile.getPixels() < atLeast.getPixels())) {
+                atLeast = profile;
+            }
+            if (largest == null || profile.getPixels() > largest.getPixels()) {
+                largest = profile;
+            }
+        }
+        return atLeast != null ? atLeast : largest;
+    }
+}
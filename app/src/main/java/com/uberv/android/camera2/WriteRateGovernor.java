@@ -0,0 +1,153 @@
+package com.uberv.android.camera2;
+
+import java.io.IOException;
+
+/**
+ * Keeps what the camera writes within what its storage can take, from the estimates of a
+ * {@link StorageThroughputProbe} per output directory. Directories on the same volume should share a probe, it is
+ * then only run once.
+ * <p>
+ * Video bitrate is capped by handing {@link #getVideoBytesPerSecond()} to {@link VideoProfileSelector}, which
+ * keeps the recording to a share of it. Bursts are already paced by the image write queue; the governor caps
+ * their length so that a burst is on the disk within {@link #MAX_BURST_DRAIN_SECONDS} and fits the free space.
+ * Free space is checked against thresholds in bytes and, while something is being written, in seconds left at the
+ * current rate; the {@link Listener} hears about every change of {@link Level}. Thread safe.
+ */
+public class WriteRateGovernor {
+    // a burst may back up the write queue for this long at the measured throughput
+    static final long MAX_BURST_DRAIN_SECONDS = 3;
+    static final long LOW_BYTES = 256L * 1024 * 1024;
+    static final long CRITICAL_BYTES = 64L * 1024 * 1024;
+    static final long LOW_SECONDS = 5 * 60;
+    static final long CRITICAL_SECONDS = 30;
+
+    public enum Level {
+        OK,
+        // warn the user
+        LOW,
+        // stop writing while the files can still be finished
+        CRITICAL
+    }
+
+    public interface Listener {
+
+        /**
+         * @param usableBytes free space left
+         * @param secondsLeft at the rate being written, -1 if nothing is being written
+         */
+        void onStorageLevelChanged(Level level, long usableBytes, long secondsLeft);
+    }
+
+    private final StorageThroughputProbe mVideoProbe;
+    private final StorageThroughputProbe mImageProbe;
+    private final Listener mListener;
+    private Level mLevel = Level.OK;
+
+    public WriteRateGovernor(StorageThroughputProbe videoProbe, StorageThroughputProbe imageProbe,
+                             Listener listener) {
+        mVideoProbe = videoProbe;
+        mImageProbe = imageProbe;
+        mListener = listener;
+    }
+
+    /**
+     * Probe the directories whose estimate is missing or older than {@code maxAgeNanos}. Blocks on I/O.
+     *
+     * @return true if any directory was probed
+     */
+    public boolean probeIfStale(long maxAgeNanos) throws IOException {
+        boolean probed = false;
+        if (mVideoProbe.isStale(maxAgeNanos)) {
+            mVideoProbe.probe();
+            probed = true;
+        }
+        if (mImageProbe != mVideoProbe && mImageProbe.isStale(maxAgeNanos)) {
+            mImageProbe.probe();
+            probed = true;
+        }
+        return probed;
+    }
+
+    /**
+     * @return sustained throughput of the video directory, 0 if unknown
+     */
+    public long getVideoBytesPerSecond() {
+        return mVideoProbe.getBytesPerSecond();
+    }
+
+    /**
+     * @param imageBytes expected size of one still
+     * @return stills per second the image directory sustains, 0 if unknown
+     */
+    public double getSustainableShotsPerSecond(long imageBytes) {
+        long bytesPerSecond = mImageProbe.getBytesPerSecond();
+        return bytesPerSecond > 0 && imageBytes > 0 ? (double) bytesPerSecond / imageBytes : 0;
+    }
+
+    /**
+     * @param shots      wanted burst length
+     * @param imageBytes expected size of one still
+     * @return burst length the storage can absorb, at least 1 unless there is no room for a single still
+     */
+    public int capBurstShots(int shots, long imageBytes) {
+        if (imageBytes <= 0) {
+            return shots;
+        }
+        long cap = shots;
+        long bytesPerSecond = mImageProbe.getBytesPerSecond();
+        if (bytesPerSecond > 0) {
+            cap = Math.max(1, bytesPerSecond * MAX_BURST_DRAIN_SECONDS / imageBytes);
+        }
+        long room = Math.max(0, mImageProbe.getUsableBytes() - CRITICAL_BYTES) / imageBytes;
+        return (int) Math.min(shots, Math.min(cap, room));
+    }
+
+    /**
+     * Check the free space of the video directory while recording at {@code bitRate}.
+     */
+    public Level checkRecording(int bitRate) {
+        return check(mVideoProbe.getUsableBytes(), bitRate / 8);
+    }
+
+    /**
+     * Check the free space of the image directory.
+     */
+    public Level checkStills() {
+        return check(mImageProbe.getUsableBytes(), 0);
+    }
+
+    /**
+     * @param writeBytesPerSecond rate the storage is being filled at, 0 if nothing is being written
+     */
+    Level check(long usableBytes, long writeBytesPerSecond) {
+        long secondsLeft = writeBytesPerSecond > 0
+                ? Math.max(0, usableBytes - CRITICAL_BYTES) / writeBytesPerSecond : -1;
+        Level level;
+        if (usableBytes < CRITICAL_BYTES || (secondsLeft >= 0 && secondsLeft < CRITICAL_SECONDS)) {
+            level = Level.CRITICAL;
+        } else if (usableBytes < LOW_BYTES || (secondsLeft >= 0 && secondsLeft < LOW_SECONDS)) {
+            level = Level.LOW;
+        } else {
+            level = Level.OK;
+        }
+        // notify under the lock so that listeners see level changes in order
+        synchronized (this) {
+            if (level != mLevel) {
+                mLevel = level;
+                if (mListener != null) {
+                    mListener.onStorageLevelChanged(level, usableBytes, secondsLeft);
+                }
+            }
+        }
+        return level;
+    }
+
+    public synchronized Level getLevel() {
+        return mLevel;
+    }
+
+    @Override
+    public String toString() {
+        return "WriteRateGovernor{" + getLevel() + ", video " + mVideoProbe + ", images " + mImageProbe + "}";
+    }
+}
@@ -0,0 +1,112 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reusable copy of a {@code YUV_420_888} frame. The planes are copied as they come, including row padding and
+ * interleaved chroma, so copying is three bulk transfers; use the strides (or the pixel accessors) to address
+ * pixels. The backing buffers only grow, after the first frame of a size nothing is allocated.
+ */
+public class YuvFrame {
+    private ByteBuffer mY = ByteBuffer.allocate(0);
+    private ByteBuffer mU = ByteBuffer.allocate(0);
+    private ByteBuffer mV = ByteBuffer.allocate(0);
+    private int mWidth;
+    private int mHeight;
+    private long mTimestampNanos;
+    private int mYRowStride;
+    private int mUvRowStride;
+    private int mUvPixelStride;
+
+    /**
+     * Copy a frame; the sources are read from their position to their limit and left unchanged.
+     *
+     * @param yRowStride    bytes between luma rows, the luma pixel stride is always 1
+     * @param uvRowStride   bytes between chroma rows, shared by both chroma planes
+     * @param uvPixelStride bytes between chroma samples, 2 if U and V are interleaved
+     */
+    public void copyFrom(int width, int height, long timestampNanos, ByteBuffer y, int yRowStride,
+                         ByteBuffer u, ByteBuffer v, int uvRowStride, int uvPixelStride) {
+        mWidth = width;
+        mHeight = height;
+        mTimestampNanos = timestampNanos;
+        mYRowStride = yRowStride;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        mY = copy(y, mY);
+        mU = copy(u, mU);
+        mV = copy(v, mV);
+    }
+
+    private static ByteBuffer copy(ByteBuffer source, ByteBuffer target) {
+        int length = source.remaining();
+        if (target.capacity() < length) {
+            target = ByteBuffer.allocate(length);
+        }
+        target.clear();
+        // duplicate() only to leave the source position alone
+        target.put(source.duplicate());
+        target.flip();
+        return target;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public long getTimestampNanos() {
+        return mTimestampNanos;
+    }
+
+    /**
+     * @return luma plane, position 0, not to be modified
+     */
+    public ByteBuffer getYPlane() {
+        return mY;
+    }
+
+    public ByteBuffer getUPlane() {
+        return mU;
+    }
+
+    public ByteBuffer getVPlane() {
+        return mV;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public int getUvRowStride() {
+        return mUvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return mUvPixelStride;
+    }
+
+    /**
+     * @return luma of pixel (x, y), 0..255
+     */
+    public int getLuma(int x, int y) {
+        return mY.get(y * mYRowStride + x) & 0xff;
+    }
+
+    /**
+     * @return U of the chroma sample covering pixel (x, y), 0..255
+     */
+    public int getU(int x, int y) {
+        return mU.get((y >> 1) * mUvRowStride + (x >> 1) * mUvPixelStride) & 0xff;
+    }
+
+    /**
+     * @return V of the chroma sample covering pixel (x, y), 0..255
+     */
+    public int getV(int x, int y) {
+        return mV.get((y >> 1) * mUvRowStride + (x >> 1) * mUvPixelStride) & 0xff;
+    }
+}
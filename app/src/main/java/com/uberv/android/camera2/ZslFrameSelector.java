@@ -0,0 +1,57 @@
+package com.uberv.android.camera2;
+
+/**
+ * Picks the frame of a {@link FrameRingBuffer} that best matches a shutter press.
+ */
+public class ZslFrameSelector {
+    private final long mToleranceNanos;
+    private final boolean mPreferSharpest;
+
+    /**
+     * @param toleranceNanos  frames further than this from the press are only used if nothing closer exists
+     * @param preferSharpest  among the frames within tolerance pick the best scored one instead of the closest
+     */
+    public ZslFrameSelector(long toleranceNanos, boolean preferSharpest) {
+        mToleranceNanos = toleranceNanos;
+        mPreferSharpest = preferSharpest;
+    }
+
+    /**
+     * @param pressNanos time of the press in the frames' timestamp base; {@link Long#MAX_VALUE} selects the newest
+     * @return index of the chosen frame, -1 if the ring is empty
+     */
+    public int select(FrameRingBuffer<?> ring, long pressNanos) {
+        int size = ring.size();
+        if (size == 0) {
+            return -1;
+        }
+        int closest = 0;
+        long closestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            long distance = distance(ring.getTimestamp(i), pressNanos);
+            // ties go to the newer frame
+            if (distance <= closestDistance) {
+                closest = i;
+                closestDistance = distance;
+            }
+        }
+        if (!mPreferSharpest || closestDistance > mToleranceNanos) {
+            return closest;
+        }
+        int best = closest;
+        float bestScore = ring.getScore(closest);
+        for (int i = 0; i < size; i++) {
+            if (distance(ring.getTimestamp(i), pressNanos) <= mToleranceNanos && ring.getScore(i) > bestScore) {
+                best = i;
+                bestScore = ring.getScore(i);
+            }
+        }
+        return best;
+    }
+
+    private static long distance(long timestamp, long pressNanos) {
+        long distance = timestamp - pressNanos;
+        // guard against overflow when selecting the newest frame with Long.MAX_VALUE
+        return distance < 0 ? (distance == Long.MIN_VALUE ? Long.MAX_VALUE : -distance) : distance;
+    }
+}
@@ -0,0 +1,219 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class BurstSchedulerTest {
+    private FakeSession mSession;
+    private FakeClock mClock;
+    private int mFreeSlots;
+    private List<double[]> mFinished;
+    private BurstScheduler.WriteCapacity mWriteCapacity;
+    private BurstScheduler.Listener mListener;
+
+    @Before
+    public void setUp() {
+        mSession = new FakeSession();
+        mClock = new FakeClock();
+        mFreeSlots = 100;
+        mFinished = new ArrayList<>();
+        mWriteCapacity = new BurstScheduler.WriteCapacity() {
+            @Override
+            public int getFreeSlots() {
+                return mFreeSlots;
+            }
+        };
+        mListener = new BurstScheduler.Listener() {
+            @Override
+            public void onBurstFinished(int captured, int failed, double shotsPerSecond) {
+                mFinished.add(new double[]{captured, failed, shotsPerSecond});
+            }
+        };
+    }
+
+    private BurstScheduler newScheduler(int shots, int maxInFlight) {
+        return new BurstScheduler(shots, maxInFlight, mSession, mWriteCapacity, mClock, mListener);
+    }
+
+    @Test
+    public void keepsAtMostMaxInFlightRequestsAtTheCamera() {
+        BurstScheduler scheduler = newScheduler(10, 3);
+        scheduler.start();
+        assertEquals(3, mSession.total());
+        assertEquals(3, scheduler.getInFlight());
+
+        scheduler.onShotCompleted();
+        assertEquals(4, mSession.total());
+        assertEquals(1, mSession.submissions.get(1).intValue());
+        assertEquals(3, scheduler.getInFlight());
+    }
+
+    @Test
+    public void neverSubmitsMoreThanTheWriteQueueCanTake() {
+        mFreeSlots = 2;
+        BurstScheduler scheduler = newScheduler(10, 5);
+        scheduler.start();
+        assertEquals(2, mSession.total());
+
+        // both images queued, queue is now full: the burst stalls
+        mFreeSlots = 0;
+        scheduler.onShotCompleted();
+        scheduler.onShotCompleted();
+        assertEquals(2, mSession.total());
+        assertEquals(0, scheduler.getInFlight());
+
+        // disk caught up
+        mFreeSlots = 4;
+        scheduler.onWriteSlotFreed();
+        assertEquals(6, mSession.total());
+    }
+
+    @Test
+    public void finishesOnceEveryShotIsAccountedForAndReportsRate() {
+        BurstScheduler scheduler = newScheduler(4, 4);
+        scheduler.start();
+        assertEquals(4, mSession.total());
+
+        for (int i = 0; i < 3; i++) {
+            mClock.advanceMillis(100);
+            scheduler.onShotCompleted();
+        }
+        mClock.advanceMillis(100);
+        scheduler.onShotFailed();
+        assertTrue(scheduler.isFinished());
+        assertEquals(1, mFinished.size());
+        assertEquals(3, mFinished.get(0)[0], 0);
+        assertEquals(1, mFinished.get(0)[1], 0);
+        // three shots captured within 300 ms
+        assertEquals(10.0, mFinished.get(0)[2], 0.001);
+
+        scheduler.onShotCompleted();
+        assertEquals(1, mFinished.size());
+    }
+
+    @Test
+    public void failedSubmissionCountsAsFailedShots() {
+        mSession.fail = true;
+        BurstScheduler scheduler = newScheduler(2, 2);
+        scheduler.start();
+        assertTrue(scheduler.isFinished());
+        assertEquals(0, mFinished.get(0)[0], 0);
+        assertEquals(2, mFinished.get(0)[1], 0);
+    }
+
+    @Test
+    public void cancelStopsFurtherSubmissions() {
+        BurstScheduler scheduler = newScheduler(10, 2);
+        scheduler.start();
+        scheduler.cancel();
+        scheduler.onShotCompleted();
+        scheduler.onWriteSlotFreed();
+        assertEquals(2, mSession.total());
+        assertEquals(1, mFinished.size());
+    }
+
+    @Test
+    public void imagesArrivingOnAnotherLaneAreHandedBackToTheControlLane() throws Exception {
+        final List<Thread> controlThread = new ArrayList<>();
+        final ExecutorService control = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "control");
+                controlThread.add(thread);
+                return thread;
+            }
+        });
+        final ExecutorService results = Executors.newSingleThreadExecutor();
+        final List<String> wrongThread = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch finished = new CountDownLatch(1);
+        final BurstScheduler[] scheduler = new BurstScheduler[1];
+        final Runnable shotCompleted = new Runnable() {
+            @Override
+            public void run() {
+                scheduler[0].onShotCompleted();
+            }
+        };
+        BurstScheduler.Session session = new BurstScheduler.Session() {
+            @Override
+            public void submit(final int count) {
+                if (Thread.currentThread() != controlThread.get(0)) {
+                    wrongThread.add("submit");
+                }
+                // the images come in on the results lane, which posts them back like saveImage() does
+                results.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (int i = 0; i < count; i++) {
+                            control.execute(shotCompleted);
+                        }
+                    }
+                });
+            }
+        };
+        final int[] captured = new int[1];
+        scheduler[0] = new BurstScheduler(50, 3, session, mWriteCapacity, Clock.SYSTEM,
+                new BurstScheduler.Listener() {
+                    @Override
+                    public void onBurstFinished(int count, int failed, double shotsPerSecond) {
+                        if (Thread.currentThread() != controlThread.get(0)) {
+                            wrongThread.add("finish");
+                        }
+                        captured[0] = count;
+                        finished.countDown();
+                    }
+                });
+
+        control.execute(new Runnable() {
+            @Override
+            public void run() {
+                scheduler[0].start();
+            }
+        });
+
+        assertTrue(finished.await(5, TimeUnit.SECONDS));
+        control.shutdown();
+        results.shutdown();
+        assertEquals(50, captured[0]);
+        assertTrue(wrongThread.toString(), wrongThread.isEmpty());
+        assertEquals(0, scheduler[0].getInFlight());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotStartTwice() {
+        BurstScheduler scheduler = newScheduler(1, 1);
+        scheduler.start();
+        scheduler.start();
+    }
+
+    private static class FakeSession implements BurstScheduler.Session {
+        final List<Integer> submissions = new ArrayList<>();
+        boolean fail;
+
+        @Override
+        public void submit(int count) throws Exception {
+            if (fail) {
+                throw new Exception("session closed");
+            }
+            submissions.add(count);
+        }
+
+        int total() {
+            int total = 0;
+            for (int count : submissions) {
+                total += count;
+            }
+            return total;
+        }
+    }
+}
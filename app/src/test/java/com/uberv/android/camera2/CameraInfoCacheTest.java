@@ -0,0 +1,168 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraInfoCacheTest {
+    private static final String FINGERPRINT = "vendor/device/device:7.1.1/NMF26X/1234:user/release-keys";
+    private static final int JPEG = 0x100;
+
+    private File mDir;
+    private File mFile;
+    private CameraInfoCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("camera_info", "");
+        mDir.delete();
+        mDir.mkdir();
+        mFile = new File(mDir, "camera_info");
+        mCache = new CameraInfoCache(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    private static List<CameraInfo> cameras() {
+        return Arrays.asList(
+                new CameraInfo.Builder("0")
+                        .setLensFacing(1)
+                        .setSensorOrientation(90)
+                        .setTimestampRealtime(true)
+                        .setHardwareLevel(StreamCombinationPlanner.LEVEL_FULL)
+                        .setFpsRanges(new int[]{15, 30, 30, 30, 60, 60})
+                        .setHighSpeedVideoConfigs(new int[]{1280, 720, 120, 120, 1280, 720, 30, 120})
+                        .setOutputSizes(CameraInfo.OUTPUT_SURFACE_TEXTURE, new int[]{1920, 1080, 1280, 720})
+                        .setOutputSizes(CameraInfo.OUTPUT_MEDIA_RECORDER, new int[]{1920, 1080})
+                        .setOutputSizes(JPEG, new int[]{4032, 3024, 1920, 1080})
+                        .build(),
+                new CameraInfo.Builder("1")
+                        .setLensFacing(0)
+                        .setSensorOrientation(270)
+                        .setOutputSizes(JPEG, new int[]{2592, 1944})
+                        .build());
+    }
+
+    @Test
+    public void missingFileIsACacheMiss() {
+        assertNull(mCache.load(FINGERPRINT));
+    }
+
+    @Test
+    public void roundTripsEveryCamera() throws IOException {
+        mCache.save(FINGERPRINT, cameras());
+
+        List<CameraInfo> loaded = mCache.load(FINGERPRINT);
+
+        assertEquals(cameras(), loaded);
+        assertTrue(loaded.get(0).isTimestampRealtime());
+        assertEquals(StreamCombinationPlanner.LEVEL_FULL, loaded.get(0).getHardwareLevel());
+        assertEquals(StreamCombinationPlanner.LEVEL_LEGACY, loaded.get(1).getHardwareLevel());
+        assertArrayEquals(new int[]{4032, 3024, 1920, 1080}, loaded.get(0).getOutputSizes(JPEG));
+        assertArrayEquals(new int[0], loaded.get(1).getOutputSizes(CameraInfo.OUTPUT_SURFACE_TEXTURE));
+        assertArrayEquals(new int[]{15, 30, 30, 30, 60, 60}, loaded.get(0).getFpsRanges());
+        assertArrayEquals(new int[]{1280, 720, 120, 120, 1280, 720, 30, 120}, loaded.get(0).getHighSpeedVideoConfigs());
+    }
+
+    @Test
+    public void otherFingerprintInvalidatesTheCache() throws IOException {
+        mCache.save(FINGERPRINT, cameras());
+
+        assertNull(mCache.load(FINGERPRINT + "-ota"));
+    }
+
+    @Test
+    public void truncatedFileIsACacheMiss() throws IOException {
+        mCache.save(FINGERPRINT, cameras());
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 3);
+        file.close();
+
+        assertNull(mCache.load(FINGERPRINT));
+    }
+
+    @Test
+    public void trailingGarbageIsACacheMiss() throws IOException {
+        mCache.save(FINGERPRINT, cameras());
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(file.length());
+        file.write(0);
+        file.close();
+
+        assertNull(mCache.load(FINGERPRINT));
+    }
+
+    @Test
+    public void otherFormatVersionIsACacheMiss() throws IOException {
+        mCache.save(FINGERPRINT, cameras());
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(4);
+        file.writeInt(CameraInfoCache.VERSION + 1);
+        file.close();
+
+        assertNull(mCache.load(FINGERPRINT));
+    }
+
+    @Test
+    public void saveReplacesThePreviousCacheAndLeavesNoTempFiles() throws IOException {
+        mCache.save(FINGERPRINT, cameras());
+        List<CameraInfo> single = cameras().subList(1, 2);
+        mCache.save(FINGERPRINT, single);
+
+        assertEquals(single, mCache.load(FINGERPRINT));
+        assertEquals(1, mDir.listFiles().length);
+    }
+
+    @Test
+    public void invalidateDeletesTheCache() throws IOException {
+        mCache.save(FINGERPRINT, cameras());
+        mCache.invalidate();
+
+        assertNull(mCache.load(FINGERPRINT));
+    }
+
+    @Test
+    public void corruptArrayLengthIsACacheMiss() throws IOException {
+        mCache.save(FINGERPRINT, cameras());
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        // magic, version, fingerprint, camera count, id "0", facing, orientation, realtime flag, hardware level
+        file.seek(4 + 4 + 2 + FINGERPRINT.length() + 4 + 3 + 4 + 4 + 1 + 4);
+        file.writeInt(Integer.MAX_VALUE);
+        file.close();
+
+        assertNull(mCache.load(FINGERPRINT));
+    }
+
+    @Test
+    public void corruptCameraCountIsACacheMiss() throws IOException {
+        for (int count : new int[]{Integer.MAX_VALUE, -1}) {
+            mCache.save(FINGERPRINT, cameras());
+            RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+            // magic, version, fingerprint
+            file.seek(4 + 4 + 2 + FINGERPRINT.length());
+            file.writeInt(count);
+            file.close();
+
+            assertNull(mCache.load(FINGERPRINT));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnpairedSizes() {
+        new CameraInfo.Builder("0").setOutputSizes(JPEG, new int[]{640});
+    }
+}
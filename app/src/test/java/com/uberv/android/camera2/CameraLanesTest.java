@@ -0,0 +1,145 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class CameraLanesTest {
+
+    @Test
+    public void slowWriteDoesNotDelayControl() throws InterruptedException {
+        CameraLanes lanes = newThreadedLanes();
+        final CountDownLatch writeBlocked = new CountDownLatch(1);
+        final CountDownLatch releaseWrite = new CountDownLatch(1);
+        final CountDownLatch controlRan = new CountDownLatch(1);
+        lanes.get(CameraLanes.Lane.IMAGE_IO).execute(new Runnable() {
+            @Override
+            public void run() {
+                writeBlocked.countDown();
+                await(releaseWrite);
+            }
+        });
+        assertTrue(writeBlocked.await(5, TimeUnit.SECONDS));
+
+        lanes.get(CameraLanes.Lane.CONTROL).execute(new Runnable() {
+            @Override
+            public void run() {
+                controlRan.countDown();
+            }
+        });
+
+        assertTrue(controlRan.await(5, TimeUnit.SECONDS));
+        assertEquals(0, lanes.get(CameraLanes.Lane.IMAGE_IO).getCompleted());
+        releaseWrite.countDown();
+        assertTrue(lanes.shutdown(5, TimeUnit.SECONDS));
+        assertEquals(1, lanes.get(CameraLanes.Lane.CONTROL).getCompleted());
+        assertEquals(1, lanes.get(CameraLanes.Lane.IMAGE_IO).getCompleted());
+    }
+
+    @Test
+    public void shutdownDrainsLanesInOrder() throws InterruptedException {
+        final List<String> ran = Collections.synchronizedList(new ArrayList<String>());
+        CameraLanes lanes = new CameraLanes(new FakeClock(), new ManualExecutor(), new ManualExecutor(),
+                new ManualExecutor(), new ManualExecutor());
+        for (final CameraLanes.Lane lane : new CameraLanes.Lane[]{CameraLanes.Lane.PROCESSING,
+                CameraLanes.Lane.IMAGE_IO, CameraLanes.Lane.RESULTS, CameraLanes.Lane.CONTROL}) {
+            lanes.get(lane).execute(new Runnable() {
+                @Override
+                public void run() {
+                    ran.add(lane.name());
+                }
+            });
+        }
+
+        assertTrue(lanes.shutdown(1, TimeUnit.SECONDS));
+
+        assertEquals(4, ran.size());
+        assertEquals("CONTROL", ran.get(0));
+        assertEquals("RESULTS", ran.get(1));
+        assertEquals("IMAGE_IO", ran.get(2));
+        assertEquals("PROCESSING", ran.get(3));
+        for (CameraLanes.Lane lane : CameraLanes.Lane.values()) {
+            assertTrue(lanes.get(lane).isShutdown());
+        }
+    }
+
+    @Test
+    public void pendingWritesFinishBeforeShutdownReturns() throws InterruptedException {
+        CameraLanes lanes = newThreadedLanes();
+        final List<Integer> written = Collections.synchronizedList(new ArrayList<Integer>());
+        for (int i = 0; i < 5; i++) {
+            final int image = i;
+            lanes.get(CameraLanes.Lane.IMAGE_IO).execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                    written.add(image);
+                }
+            });
+        }
+
+        assertTrue(lanes.shutdown(5, TimeUnit.SECONDS));
+
+        assertEquals(5, written.size());
+        assertEquals(5, lanes.get(CameraLanes.Lane.IMAGE_IO).getCompleted());
+    }
+
+    @Test
+    public void reportsTimeoutWhenALaneDoesNotDrain() throws InterruptedException {
+        CameraLanes lanes = newThreadedLanes();
+        final CountDownLatch release = new CountDownLatch(1);
+        lanes.get(CameraLanes.Lane.IMAGE_IO).execute(new Runnable() {
+            @Override
+            public void run() {
+                await(release);
+            }
+        });
+
+        assertFalse(lanes.shutdown(50, TimeUnit.MILLISECONDS));
+        release.countDown();
+        assertTrue(lanes.get(CameraLanes.Lane.IMAGE_IO).awaitTermination(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void dumpsOneLinePerLane() {
+        CameraLanes lanes = new CameraLanes(new FakeClock(), new ManualExecutor(), new ManualExecutor(),
+                new ManualExecutor(), new ManualExecutor());
+        String[] lines = lanes.dump().split("\n");
+
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("control: "));
+        assertTrue(lines[2].startsWith("image_io: "));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void needsOneExecutorPerLane() {
+        new CameraLanes(new FakeClock(), new ManualExecutor());
+    }
+
+    private static CameraLanes newThreadedLanes() {
+        ExecutorService[] executors = new ExecutorService[CameraLanes.Lane.values().length];
+        for (int i = 0; i < executors.length; i++) {
+            executors[i] = CameraLanes.newSingleThreadExecutor("lane-" + i);
+        }
+        return new CameraLanes(Clock.SYSTEM, executors);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
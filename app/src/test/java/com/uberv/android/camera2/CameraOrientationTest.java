@@ -0,0 +1,29 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class CameraOrientationTest {
+
+    @Test
+    public void mapsDisplayRotationToDegrees() {
+        assertEquals(0, CameraOrientation.displayRotationToDegrees(0));
+        assertEquals(90, CameraOrientation.displayRotationToDegrees(1));
+        assertEquals(180, CameraOrientation.displayRotationToDegrees(2));
+        assertEquals(270, CameraOrientation.displayRotationToDegrees(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownDisplayRotation() {
+        CameraOrientation.displayRotationToDegrees(4);
+    }
+
+    @Test
+    public void addsSensorAndDisplayRotation() {
+        assertEquals(90, CameraOrientation.sensorToDeviceRotation(90, 0));
+        assertEquals(180, CameraOrientation.sensorToDeviceRotation(90, 90));
+        assertEquals(0, CameraOrientation.sensorToDeviceRotation(90, 270));
+        assertEquals(180, CameraOrientation.sensorToDeviceRotation(270, 270));
+    }
+}
@@ -0,0 +1,93 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class CaptureFileNamerTest {
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+    // 2017-03-04 05:06:07.089 UTC
+    private static final long MILLIS = 1488603967089L;
+
+    private static CaptureFileNamer namer(TimeZone zone) {
+        return new CaptureFileNamer(new File("/sdcard/Pictures"), "IMAGE_", ".jpg", zone);
+    }
+
+    private static String localTime(long localMillis) {
+        StringBuilder out = new StringBuilder();
+        CaptureFileNamer.appendLocalTime(out, localMillis);
+        return out.toString();
+    }
+
+    @Test
+    public void namesAfterLocalTime() {
+        assertEquals("IMAGE_20170304_050607_089.jpg", namer(UTC).nextName(MILLIS));
+        assertEquals("IMAGE_20170304_070607_089.jpg", namer(TimeZone.getTimeZone("GMT+02:00")).nextName(MILLIS));
+    }
+
+    @Test
+    public void placesFileInDirectory() {
+        File file = namer(UTC).next(MILLIS);
+        assertEquals(new File("/sdcard/Pictures"), file.getParentFile());
+        assertEquals("IMAGE_20170304_050607_089.jpg", file.getName());
+    }
+
+    @Test
+    public void formatsCalendarEdgeCases() {
+        assertEquals("19700101_000000_000", localTime(0));
+        assertEquals("19691231_235959_999", localTime(-1));
+        // leap day and the day after
+        assertEquals("20160229_120000_000", localTime(1456747200000L));
+        assertEquals("20160301_000000_000", localTime(1456790400000L));
+        assertEquals("20000229_000000_000", localTime(951782400000L));
+        assertEquals("21000301_000000_000", localTime(4107542400000L));
+    }
+
+    @Test
+    public void sameMillisecondGetsSuffix() {
+        CaptureFileNamer namer = namer(UTC);
+        assertEquals("IMAGE_20170304_050607_089.jpg", namer.nextName(MILLIS));
+        assertEquals("IMAGE_20170304_050607_089_001.jpg", namer.nextName(MILLIS));
+        assertEquals("IMAGE_20170304_050607_089_002.jpg", namer.nextName(MILLIS));
+        assertEquals("IMAGE_20170304_050607_090.jpg", namer.nextName(MILLIS + 1));
+    }
+
+    @Test
+    public void clockGoingBackKeepsNamesIncreasing() {
+        CaptureFileNamer namer = namer(UTC);
+        String first = namer.nextName(MILLIS);
+        String second = namer.nextName(MILLIS - 60000);
+        assertEquals("IMAGE_20170304_050607_089_001.jpg", second);
+        assertTrue(second.compareTo(first) > 0);
+    }
+
+    @Test
+    public void uniqueAcrossThreads() throws InterruptedException {
+        final CaptureFileNamer namer = namer(UTC);
+        final Set<String> names = new HashSet<>();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 500; i++) {
+                        String name = namer.nextName(MILLIS + i / 100);
+                        synchronized (names) {
+                            names.add(name);
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(2000, names.size());
+    }
+}
@@ -0,0 +1,160 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CaptureResultCorrelatorTest {
+    private static final long MS = 1000000L;
+
+    private final List<String> mEvents = new ArrayList<>();
+    private CaptureResultCorrelator<String, String> mCorrelator;
+
+    @Before
+    public void setUp() {
+        mCorrelator = new CaptureResultCorrelator<>(2, 4, 500 * MS,
+                new CaptureResultCorrelator.Listener<String, String>() {
+                    @Override
+                    public void onMatched(long timestampNanos, String image, String result) {
+                        mEvents.add(image + "+" + result);
+                    }
+
+                    @Override
+                    public void onImageOrphaned(long timestampNanos, String image) {
+                        mEvents.add("orphan " + image);
+                    }
+
+                    @Override
+                    public void onResultOrphaned(long timestampNanos, String result) {
+                        mEvents.add("orphan " + result);
+                    }
+                });
+    }
+
+    @Test
+    public void matchesResultThatArrivesFirst() {
+        mCorrelator.offerResult(100 * MS, "r1");
+        assertTrue(mEvents.isEmpty());
+        mCorrelator.offerImage(100 * MS, "i1");
+
+        assertEquals(1, mEvents.size());
+        assertEquals("i1+r1", mEvents.get(0));
+        assertEquals(0, mCorrelator.getPendingResults());
+    }
+
+    @Test
+    public void matchesImageThatArrivesFirst() {
+        mCorrelator.offerImage(100 * MS, "i1");
+        mCorrelator.offerResult(100 * MS, "r1");
+
+        assertEquals("i1+r1", mEvents.get(0));
+        assertEquals(0, mCorrelator.getPendingImages());
+        assertEquals(1, mCorrelator.getMatched());
+    }
+
+    @Test
+    public void matchesOutOfOrderArrivals() {
+        // a burst: results in order, images interleaved and shuffled
+        mCorrelator.offerResult(100 * MS, "r1");
+        mCorrelator.offerResult(133 * MS, "r2");
+        mCorrelator.offerImage(133 * MS, "i2");
+        mCorrelator.offerResult(166 * MS, "r3");
+        mCorrelator.offerImage(166 * MS, "i3");
+        mCorrelator.offerImage(100 * MS, "i1");
+
+        assertEquals(3, mEvents.size());
+        assertEquals("i2+r2", mEvents.get(0));
+        assertEquals("i3+r3", mEvents.get(1));
+        assertEquals("i1+r1", mEvents.get(2));
+        assertEquals(0, mCorrelator.getOrphanedImages() + mCorrelator.getOrphanedResults());
+    }
+
+    @Test
+    public void evictsOldestImageBeyondCapacity() {
+        mCorrelator.offerImage(100 * MS, "i1");
+        mCorrelator.offerImage(133 * MS, "i2");
+        mCorrelator.offerImage(166 * MS, "i3");
+
+        assertEquals(1, mEvents.size());
+        assertEquals("orphan i1", mEvents.get(0));
+        assertEquals(2, mCorrelator.getPendingImages());
+        // the late result no longer finds its image and waits in vain
+        mCorrelator.offerResult(100 * MS, "r1");
+        assertEquals(1, mCorrelator.getPendingResults());
+    }
+
+    @Test
+    public void resultsHaveTheirOwnCapacity() {
+        for (int i = 0; i < 5; i++) {
+            mCorrelator.offerResult((100 + i) * MS, "r" + i);
+        }
+        assertEquals(1, mEvents.size());
+        assertEquals("orphan r0", mEvents.get(0));
+        assertEquals(4, mCorrelator.getPendingResults());
+    }
+
+    @Test
+    public void evictsByAge() {
+        // the result of this capture never comes, e.g. the capture failed
+        mCorrelator.offerImage(100 * MS, "i1");
+        mCorrelator.offerResult(400 * MS, "r2");
+        assertTrue(mEvents.isEmpty());
+
+        mCorrelator.offerResult(601 * MS, "r3");
+        assertEquals(1, mEvents.size());
+        assertEquals("orphan i1", mEvents.get(0));
+        assertEquals(1, mCorrelator.getOrphanedImages());
+    }
+
+    @Test
+    public void staleArrivalIsOrphanedRightAway() {
+        mCorrelator.offerResult(1000 * MS, "r2");
+        mCorrelator.offerImage(100 * MS, "i1");
+
+        assertEquals(1, mEvents.size());
+        assertEquals("orphan i1", mEvents.get(0));
+    }
+
+    @Test
+    public void duplicateTimestampOrphansTheFirst() {
+        mCorrelator.offerImage(100 * MS, "i1");
+        mCorrelator.offerImage(100 * MS, "i1b");
+        mCorrelator.offerResult(100 * MS, "r1");
+
+        assertEquals(2, mEvents.size());
+        assertEquals("orphan i1", mEvents.get(0));
+        assertEquals("i1b+r1", mEvents.get(1));
+    }
+
+    @Test
+    public void clearOrphansEverything() {
+        mCorrelator.offerImage(100 * MS, "i1");
+        mCorrelator.offerResult(200 * MS, "r2");
+        mCorrelator.clear();
+
+        assertEquals(2, mEvents.size());
+        assertEquals("orphan i1", mEvents.get(0));
+        assertEquals("orphan r2", mEvents.get(1));
+        assertEquals(0, mCorrelator.getPendingImages() + mCorrelator.getPendingResults());
+        // the age limit starts over, an earlier timestamp after a new session is fine
+        mCorrelator.offerImage(50 * MS, "i3");
+        assertEquals(1, mCorrelator.getPendingImages());
+    }
+
+    @Test
+    public void metadataBuilderDefaultsToUnknown() {
+        CaptureMetadata metadata = new CaptureMetadata.Builder(100 * MS)
+                .setExposureTimeNanos(10 * MS)
+                .setSensitivity(400)
+                .build();
+        assertEquals(100 * MS, metadata.getTimestampNanos());
+        assertEquals(10 * MS, metadata.getExposureTimeNanos());
+        assertEquals(400, metadata.getSensitivity());
+        assertEquals(CaptureMetadata.UNKNOWN, metadata.getAfState());
+        assertTrue(Float.isNaN(metadata.getAperture()));
+    }
+}
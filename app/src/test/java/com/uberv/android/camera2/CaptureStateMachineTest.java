@@ -0,0 +1,189 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.uberv.android.camera2.CaptureStateMachine.AE_STATE_CONVERGED;
+import static com.uberv.android.camera2.CaptureStateMachine.AE_STATE_PRECAPTURE;
+import static com.uberv.android.camera2.CaptureStateMachine.AE_STATE_SEARCHING;
+import static com.uberv.android.camera2.CaptureStateMachine.AF_MODE_OFF;
+import static com.uberv.android.camera2.CaptureStateMachine.AF_STATE_ACTIVE_SCAN;
+import static com.uberv.android.camera2.CaptureStateMachine.AF_STATE_FOCUSED_LOCKED;
+import static com.uberv.android.camera2.CaptureStateMachine.AF_STATE_INACTIVE;
+import static com.uberv.android.camera2.CaptureStateMachine.State;
+import static org.junit.Assert.*;
+
+public class CaptureStateMachineTest {
+    // one result per frame at 30 fps
+    private static final long FRAME_MS = 33;
+    // CaptureResult.CONTROL_AF_MODE_AUTO
+    private static final int AF_MODE_AUTO = 1;
+
+    private FakeClock mClock;
+    private List<String> mActions;
+    private CaptureStateMachine mMachine;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mActions = new ArrayList<>();
+        mMachine = new CaptureStateMachine(new CaptureStateMachine.Actions() {
+            @Override
+            public void lockFocus() {
+                mActions.add("lock");
+            }
+
+            @Override
+            public void runPrecaptureSequence() {
+                mActions.add("precapture");
+            }
+
+            @Override
+            public void captureStill() {
+                mActions.add("capture");
+            }
+
+            @Override
+            public void unlockFocus() {
+                mActions.add("unlock");
+            }
+        }, mClock);
+    }
+
+    private void frame(Integer afState, Integer aeState) {
+        mClock.advanceMillis(FRAME_MS);
+        mMachine.onCaptureResult(afState, aeState);
+    }
+
+    @Test
+    public void convergedExposureSkipsPrecapture() {
+        assertTrue(mMachine.takePicture());
+        frame(AF_STATE_ACTIVE_SCAN, AE_STATE_CONVERGED);
+        frame(AF_STATE_ACTIVE_SCAN, AE_STATE_CONVERGED);
+        assertEquals(State.WAITING_LOCK, mMachine.getState());
+        frame(AF_STATE_FOCUSED_LOCKED, AE_STATE_CONVERGED);
+        assertEquals(State.CAPTURING, mMachine.getState());
+
+        mMachine.onCaptureCompleted();
+        assertEquals(State.PREVIEW, mMachine.getState());
+        assertEquals("[lock, capture, unlock]", mActions.toString());
+        assertEquals(3 * FRAME_MS * 1000000L, mMachine.getStats(State.WAITING_LOCK).getLastNanos());
+    }
+
+    @Test
+    public void searchingExposureRunsPrecaptureSequence() {
+        mMachine.takePicture();
+        frame(AF_STATE_FOCUSED_LOCKED, AE_STATE_SEARCHING);
+        assertEquals(State.WAITING_PRECAPTURE, mMachine.getState());
+        frame(AF_STATE_FOCUSED_LOCKED, AE_STATE_SEARCHING);
+        frame(AF_STATE_FOCUSED_LOCKED, AE_STATE_PRECAPTURE);
+        assertEquals(State.WAITING_NON_PRECAPTURE, mMachine.getState());
+        frame(AF_STATE_FOCUSED_LOCKED, AE_STATE_PRECAPTURE);
+        frame(AF_STATE_FOCUSED_LOCKED, AE_STATE_CONVERGED);
+        assertEquals(State.CAPTURING, mMachine.getState());
+        assertEquals("[lock, precapture, capture]", mActions.toString());
+    }
+
+    @Test
+    public void slowLensTimesOutInsteadOfHangingTheShutter() {
+        mMachine.setTimeoutMillis(State.WAITING_LOCK, 300);
+        mMachine.takePicture();
+        for (int i = 0; i < 8; i++) {
+            frame(AF_STATE_ACTIVE_SCAN, AE_STATE_CONVERGED);
+        }
+        assertEquals(State.WAITING_LOCK, mMachine.getState());
+        frame(AF_STATE_ACTIVE_SCAN, AE_STATE_CONVERGED);
+        frame(AF_STATE_ACTIVE_SCAN, AE_STATE_CONVERGED);
+        // 10 frames = 330 ms > 300 ms deadline; exposure had converged, so capture right away
+        assertEquals(State.CAPTURING, mMachine.getState());
+        assertEquals(1, mMachine.getStats(State.WAITING_LOCK).getTimeouts());
+    }
+
+    @Test
+    public void stuckPrecaptureFallsThroughToCapture() {
+        mMachine.takePicture();
+        frame(AF_STATE_FOCUSED_LOCKED, AE_STATE_SEARCHING);
+        mClock.advanceMillis(600);
+        mMachine.checkTimeout();
+        assertEquals(State.CAPTURING, mMachine.getState());
+        assertEquals(1, mMachine.getStats(State.WAITING_PRECAPTURE).getTimeouts());
+    }
+
+    @Test
+    public void lostCaptureUnlocksAfterDeadline() {
+        mMachine.takePicture();
+        frame(null, null);
+        assertEquals(State.CAPTURING, mMachine.getState());
+        mClock.advanceMillis(3001);
+        mMachine.checkTimeout();
+        assertEquals(State.PREVIEW, mMachine.getState());
+        assertEquals("[lock, capture, unlock]", mActions.toString());
+    }
+
+    @Test
+    public void fixedFocusLensCapturesImmediately() {
+        mMachine.takePicture();
+        mClock.advanceMillis(FRAME_MS);
+        mMachine.onCaptureResult(AF_STATE_INACTIVE, null, AF_MODE_OFF, false);
+        assertEquals(State.CAPTURING, mMachine.getState());
+    }
+
+    @Test
+    public void inactiveFocusBeforeTheTriggerResultIsNotALock() {
+        mMachine.takePicture();
+        // preview frames already in flight when the trigger was sent
+        mClock.advanceMillis(FRAME_MS);
+        mMachine.onCaptureResult(AF_STATE_INACTIVE, null, AF_MODE_AUTO, false);
+        frame(AF_STATE_INACTIVE, null);
+        assertEquals(State.WAITING_LOCK, mMachine.getState());
+
+        // the trigger was processed and focus stayed inactive: the lens does not do AF
+        mClock.advanceMillis(FRAME_MS);
+        mMachine.onCaptureResult(AF_STATE_INACTIVE, null, AF_MODE_AUTO, true);
+        assertEquals(State.CAPTURING, mMachine.getState());
+    }
+
+    @Test
+    public void inactiveFocusAfterTheTriggerResultIsALock() {
+        mMachine.takePicture();
+        mClock.advanceMillis(FRAME_MS);
+        mMachine.onCaptureResult(AF_STATE_ACTIVE_SCAN, null, AF_MODE_AUTO, true);
+        assertEquals(State.WAITING_LOCK, mMachine.getState());
+
+        frame(AF_STATE_INACTIVE, null);
+        assertEquals(State.CAPTURING, mMachine.getState());
+        assertEquals(0, mMachine.getStats(State.WAITING_LOCK).getTimeouts());
+    }
+
+    @Test
+    public void rejectsSecondPictureWhileBusyAndIgnoresResultsInPreview() {
+        mMachine.onCaptureResult(AF_STATE_ACTIVE_SCAN, AE_STATE_SEARCHING);
+        assertTrue(mActions.isEmpty());
+        assertTrue(mMachine.takePicture());
+        assertFalse(mMachine.takePicture());
+        mMachine.reset();
+        assertEquals(State.PREVIEW, mMachine.getState());
+        assertTrue(mMachine.takePicture());
+    }
+
+    @Test
+    public void transitionsAreReportedWithDurations() {
+        final List<String> transitions = new ArrayList<>();
+        mMachine.setTransitionListener(new CaptureStateMachine.TransitionListener() {
+            @Override
+            public void onTransition(State from, State to, long durationNanos, boolean timedOut) {
+                transitions.add(from + "->" + to + ":" + durationNanos / 1000000);
+            }
+        });
+        mClock.advanceMillis(500);
+        mMachine.takePicture();
+        frame(AF_STATE_FOCUSED_LOCKED, AE_STATE_CONVERGED);
+        mClock.advanceMillis(100);
+        mMachine.onCaptureCompleted();
+        assertEquals("[PREVIEW->WAITING_LOCK:500, WAITING_LOCK->CAPTURING:33, CAPTURING->PREVIEW:100]",
+                transitions.toString());
+    }
+}
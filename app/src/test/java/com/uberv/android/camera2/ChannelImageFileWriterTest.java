@@ -0,0 +1,93 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ChannelImageFileWriterTest {
+    private File mFile;
+    private DirectBufferPool mPool;
+    private ChannelImageFileWriter mWriter;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("channel", ".jpg");
+        mPool = new DirectBufferPool(1 << 20);
+        mWriter = new ChannelImageFileWriter(mPool);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void writesDirectBufferWithoutTouchingThePool() throws IOException {
+        byte[] expected = randomBytes(3 * 1024 * 1024 + 17);
+        ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+        direct.put(expected).flip();
+
+        assertEquals(expected.length, mWriter.write(direct, mFile));
+
+        assertFalse(direct.hasRemaining());
+        assertArrayEquals(expected, readFile(mFile));
+        assertEquals(0, mPool.getAllocations());
+    }
+
+    @Test
+    public void stagesHeapBufferThroughOnePooledChunk() throws IOException {
+        byte[] expected = randomBytes(1024 * 1024 + 5);
+        assertEquals(expected.length, mWriter.write(ByteBuffer.wrap(expected), mFile));
+        assertArrayEquals(expected, readFile(mFile));
+
+        mWriter.write(ByteBuffer.wrap(expected), mFile);
+        assertEquals(1, mPool.getAllocations());
+        assertEquals(1, mPool.getReuses());
+    }
+
+    @Test
+    public void honoursBufferPositionAndLimit() throws IOException {
+        byte[] bytes = randomBytes(100);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(10).limit(60);
+
+        assertEquals(50, mWriter.write(buffer, mFile));
+
+        byte[] expected = new byte[50];
+        System.arraycopy(bytes, 10, expected, 0, 50);
+        assertArrayEquals(expected, readFile(mFile));
+    }
+
+    @Test
+    public void overwritesExistingFile() throws IOException {
+        mWriter.write(ByteBuffer.wrap(randomBytes(500)), mFile);
+        byte[] expected = randomBytes(20);
+        mWriter.write(ByteBuffer.wrap(expected), mFile);
+        assertArrayEquals(expected, readFile(mFile));
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class DirectBufferPoolTest {
+
+    @Test
+    public void acquireRoundsUpToSizeClass() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        ByteBuffer buffer = pool.acquire(5000);
+        assertTrue(buffer.isDirect());
+        assertEquals(8192, buffer.capacity());
+        assertEquals(5000, buffer.limit());
+        assertEquals(0, buffer.position());
+
+        assertEquals(4096, pool.acquire(1).capacity());
+        assertEquals(4096, pool.acquire(4096).capacity());
+    }
+
+    @Test
+    public void releasedBuffersAreReused() {
+        DirectBufferPool pool = new DirectBufferPool(1 << 20);
+        ByteBuffer first = pool.acquire(100000);
+        first.put((byte) 1);
+        pool.release(first);
+        assertEquals(first.capacity(), pool.getPooledBytes());
+
+        ByteBuffer second = pool.acquire(70000);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(70000, second.limit());
+        assertEquals(1, pool.getAllocations());
+        assertEquals(1, pool.getReuses());
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+    @Test
+    public void poolNeverHoldsMoreThanItsBudget() {
+        DirectBufferPool pool = new DirectBufferPool(64 * 1024);
+        ByteBuffer a = pool.acquire(64 * 1024);
+        ByteBuffer b = pool.acquire(64 * 1024);
+        pool.release(a);
+        pool.release(b);
+        assertEquals(64 * 1024, pool.getPooledBytes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsForeignBuffers() {
+        new DirectBufferPool(1 << 20).release(ByteBuffer.allocate(4096));
+    }
+}
@@ -0,0 +1,109 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class EncodedSampleQueueTest {
+
+    private static EncodedSampleQueue.Sample sample(int track, long pts, int size, boolean keyFrame) {
+        return new EncodedSampleQueue.Sample(track, ByteBuffer.allocate(size), pts,
+                keyFrame ? EncodedSampleQueue.FLAG_KEY_FRAME : 0);
+    }
+
+    @Test
+    public void keepsSamplesInOrder() throws InterruptedException {
+        EncodedSampleQueue queue = new EncodedSampleQueue(4, 1000);
+        assertTrue(queue.offer(sample(0, 1, 10, true)));
+        assertTrue(queue.offer(sample(0, 2, 20, false)));
+
+        assertEquals(2, queue.size());
+        assertEquals(30, queue.getBytes());
+        assertEquals(1, queue.take(0, TimeUnit.MILLISECONDS).getPresentationTimeUs());
+        assertEquals(2, queue.poll().getPresentationTimeUs());
+        assertEquals(0, queue.getBytes());
+        assertEquals(30, queue.getPeakBytes());
+        assertNull(queue.poll());
+        assertNull(queue.take(1, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void dropsUntilNextKeyFrameOnceFull() {
+        EncodedSampleQueue queue = new EncodedSampleQueue(2, 1000);
+        assertTrue(queue.offer(sample(0, 1, 10, true)));
+        assertTrue(queue.offer(sample(0, 2, 10, false)));
+        assertFalse(queue.offer(sample(0, 3, 10, false)));
+        queue.poll();
+        queue.poll();
+
+        // room again, but frame 4 refers to the dropped frame 3
+        assertFalse(queue.offer(sample(0, 4, 10, false)));
+        assertTrue(queue.offer(sample(0, 5, 10, true)));
+        assertTrue(queue.offer(sample(0, 6, 10, false)));
+
+        assertEquals(2, queue.getDroppedSamples());
+        assertEquals(20, queue.getDroppedBytes());
+    }
+
+    @Test
+    public void byteBoundCountsToo() {
+        EncodedSampleQueue queue = new EncodedSampleQueue(10, 100);
+        assertTrue(queue.offer(sample(0, 1, 60, true)));
+        assertFalse(queue.offer(sample(0, 2, 60, true)));
+        assertTrue(queue.offer(sample(0, 3, 40, true)));
+    }
+
+    @Test
+    public void tracksRecoverIndependently() {
+        EncodedSampleQueue queue = new EncodedSampleQueue(1, 1000);
+        assertTrue(queue.offer(sample(0, 1, 10, true)));
+        assertFalse(queue.offer(sample(1, 1, 10, true)));
+        queue.poll();
+
+        assertTrue(queue.offer(sample(0, 2, 10, false)));
+        queue.poll();
+        assertFalse(queue.offer(sample(1, 2, 10, false)));
+    }
+
+    @Test
+    public void endOfStreamIsNeverDropped() {
+        EncodedSampleQueue queue = new EncodedSampleQueue(1, 1000);
+        assertTrue(queue.offer(sample(0, 1, 10, true)));
+        assertTrue(queue.offer(EncodedSampleQueue.Sample.endOfStream(0)));
+
+        assertEquals(2, queue.size());
+        assertTrue(queue.poll().isKeyFrame());
+        assertTrue(queue.poll().isEndOfStream());
+    }
+
+    @Test
+    public void takeWaitsForProducer() throws InterruptedException {
+        final EncodedSampleQueue queue = new EncodedSampleQueue(4, 1000);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100; i++) {
+                    while (!queue.offer(sample(0, i, 10, true))) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        for (int i = 0; i < 100; i++) {
+            EncodedSampleQueue.Sample sample = queue.take(5, TimeUnit.SECONDS);
+            assertNotNull(sample);
+            assertEquals(i, sample.getPresentationTimeUs());
+        }
+        producer.join();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void boundsMustBePositive() {
+        new EncodedSampleQueue(0, 100);
+    }
+}
@@ -0,0 +1,64 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EncoderMetricsTest {
+
+    @Test
+    public void latencyIsMeasuredFromPresentationTime() {
+        FakeClock clock = new FakeClock();
+        clock.now = 1000000000L;
+        EncoderMetrics metrics = new EncoderMetrics(clock, 30);
+
+        // encoded 20 ms after the sensor exposed it
+        metrics.onEncoded(980000);
+
+        assertEquals(1, metrics.getLatency().getCount());
+        long p50 = metrics.getLatency().getPercentileNanos(50);
+        assertTrue(p50 >= 20000000L && p50 < 23000000L);
+    }
+
+    @Test
+    public void latencyOnAnotherTimeBaseIsNotCounted() {
+        FakeClock clock = new FakeClock();
+        clock.now = 100 * 1000000000L;
+        EncoderMetrics metrics = new EncoderMetrics(clock, 30);
+
+        // from the future, and from a minute and a half ago
+        metrics.onEncoded(200 * 1000000L);
+        metrics.onEncoded(5 * 1000000L);
+
+        assertEquals(0, metrics.getLatency().getCount());
+        assertEquals(2, metrics.getEncodedFrames());
+    }
+
+    @Test
+    public void gapsCountAsDroppedFrames() {
+        EncoderMetrics metrics = new EncoderMetrics(new FakeClock(), 30);
+
+        metrics.onEncoded(0);
+        // on time, with jitter
+        metrics.onEncoded(34000);
+        metrics.onEncoded(66000);
+        assertEquals(0, metrics.getDroppedFrames());
+
+        // two frames missing
+        metrics.onEncoded(166000);
+        assertEquals(2, metrics.getDroppedFrames());
+
+        metrics.onDiscarded();
+        assertEquals(3, metrics.getDroppedFrames());
+        assertEquals(4, metrics.getEncodedFrames());
+    }
+
+    @Test
+    public void noFrameRateCountsNoGaps() {
+        EncoderMetrics metrics = new EncoderMetrics(new FakeClock(), 0);
+        metrics.onEncoded(0);
+        metrics.onEncoded(1000000);
+
+        assertEquals(0, metrics.getDroppedFrames());
+    }
+}
@@ -0,0 +1,219 @@
+package com.uberv.android.camera2;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Sample JPEGs and a minimal Exif reader for checking what {@link ExifWriter} and {@link JpegExifSplicer} produce.
+ */
+class ExifSamples {
+    // GPS tags share numbers with IFD0 tags, they are reported shifted by this
+    static final int GPS = 0x10000;
+
+    private ExifSamples() {
+    }
+
+    /**
+     * @return a JFIF encoded image, as {@code ImageIO} writes it (SOI, APP0, tables, image data)
+     */
+    static byte[] jfif(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillRect(0, 0, width / 2, height);
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+
+    /**
+     * @return the image like a camera HAL delivers it: SOI, a big endian Exif segment with a thumbnail, then the
+     * rest of the JFIF stream without its APP0
+     */
+    static byte[] halJpeg(int width, int height, byte[] thumbnail) throws IOException {
+        byte[] jfif = jfif(width, height);
+        int app0End = 4 + (((jfif[4] & 0xFF) << 8) | (jfif[5] & 0xFF));
+        // IFD0 with one entry (Orientation) pointing to IFD1 with the thumbnail
+        ByteBuffer tiff = ByteBuffer.allocate(8 + 18 + 42 + thumbnail.length).order(ByteOrder.BIG_ENDIAN);
+        tiff.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(8);
+        tiff.putShort((short) 1);
+        tiff.putShort((short) 0x0112).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+        tiff.putInt(8 + 18);
+        tiff.putShort((short) 3);
+        tiff.putShort((short) 0x0103).putShort((short) 3).putInt(1).putShort((short) 6).putShort((short) 0);
+        tiff.putShort((short) 0x0201).putShort((short) 4).putInt(1).putInt(8 + 18 + 42);
+        tiff.putShort((short) 0x0202).putShort((short) 4).putInt(1).putInt(thumbnail.length);
+        tiff.putInt(0);
+        tiff.put(thumbnail);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0xFF);
+        out.write(0xD8);
+        out.write(0xFF);
+        out.write(0xE1);
+        int length = 2 + 6 + tiff.capacity();
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        out.write(new byte[]{'E', 'x', 'i', 'f', 0, 0});
+        out.write(tiff.array());
+        out.write(jfif, app0End, jfif.length - app0End);
+        return out.toByteArray();
+    }
+
+    static byte[] concat(ByteBuffer[] parts) {
+        int size = 0;
+        for (ByteBuffer part : parts) {
+            size += part.remaining();
+        }
+        ByteBuffer out = ByteBuffer.allocate(size);
+        for (ByteBuffer part : parts) {
+            out.put(part.duplicate());
+        }
+        return out.array();
+    }
+
+    /**
+     * @return true if the bytes decode as an image of the given size
+     */
+    static boolean decodes(byte[] jpeg, int width, int height) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        return image != null && image.getWidth() == width && image.getHeight() == height;
+    }
+
+    /**
+     * @return number of Exif APP1 segments in the image
+     */
+    static int countExifSegments(byte[] jpeg) {
+        int count = 0;
+        int offset = 2;
+        while (offset + 4 <= jpeg.length && (jpeg[offset] & 0xFF) == 0xFF) {
+            int marker = jpeg[offset + 1] & 0xFF;
+            if (marker == 0xDA) {
+                break;
+            }
+            if (marker == 0xE1 && jpeg[offset + 4] == 'E' && jpeg[offset + 5] == 'x') {
+                count++;
+            }
+            offset += 2 + (((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF));
+        }
+        return count;
+    }
+
+    /**
+     * Read the tags of IFD0, the Exif IFD, the GPS IFD (shifted by {@link #GPS}) and IFD1 of the first Exif
+     * segment. ASCII values become Strings, SHORT and LONG values Longs, RATIONALs long[] of numerator, denominator
+     * pairs and everything else byte[].
+     */
+    static Map<Integer, Object> readTags(byte[] jpeg) {
+        int offset = 2;
+        while ((jpeg[offset + 1] & 0xFF) != 0xE1) {
+            offset += 2 + (((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF));
+        }
+        int length = ((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF);
+        ByteBuffer tiff = ByteBuffer.wrap(jpeg, offset + 10, length - 8).slice();
+        tiff.order(tiff.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        if (tiff.getShort(2) != 42) {
+            throw new AssertionError("not a TIFF header");
+        }
+        Map<Integer, Object> tags = new HashMap<>();
+        int next = readIfd(tiff, tiff.getInt(4), 0, tags);
+        if (tags.containsKey(ExifWriter.TAG_EXIF_IFD)) {
+            readIfd(tiff, (int) (long) (Long) tags.get(ExifWriter.TAG_EXIF_IFD), 0, tags);
+        }
+        if (tags.containsKey(ExifWriter.TAG_GPS_IFD)) {
+            readIfd(tiff, (int) (long) (Long) tags.get(ExifWriter.TAG_GPS_IFD), GPS, tags);
+        }
+        if (next != 0) {
+            readIfd(tiff, next, 0, tags);
+        }
+        return tags;
+    }
+
+    /**
+     * @return bytes of the thumbnail stored in IFD1
+     */
+    static byte[] readThumbnail(byte[] jpeg) {
+        Map<Integer, Object> tags = readTags(jpeg);
+        int offset = 2;
+        while ((jpeg[offset + 1] & 0xFF) != 0xE1) {
+            offset += 2 + (((jpeg[offset + 2] & 0xFF) << 8) | (jpeg[offset + 3] & 0xFF));
+        }
+        int start = offset + 10 + (int) (long) (Long) tags.get(ExifWriter.TAG_JPEG_INTERCHANGE_FORMAT);
+        byte[] thumbnail = new byte[(int) (long) (Long) tags.get(ExifWriter.TAG_JPEG_INTERCHANGE_FORMAT_LENGTH)];
+        System.arraycopy(jpeg, start, thumbnail, 0, thumbnail.length);
+        return thumbnail;
+    }
+
+    private static int readIfd(ByteBuffer tiff, int ifd, int shift, Map<Integer, Object> tags) {
+        int count = tiff.getShort(ifd) & 0xFFFF;
+        int previousTag = -1;
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + 12 * i;
+            int tag = tiff.getShort(entry) & 0xFFFF;
+            if (tag <= previousTag) {
+                throw new AssertionError("tags not in ascending order: " + Integer.toHexString(tag));
+            }
+            previousTag = tag;
+            int type = tiff.getShort(entry + 2);
+            int n = tiff.getInt(entry + 4);
+            int size = n * typeSize(type);
+            int value = size <= 4 ? entry + 8 : tiff.getInt(entry + 8);
+            if (size > 4 && (value & 1) != 0) {
+                throw new AssertionError("value of tag " + Integer.toHexString(tag) + " not word aligned");
+            }
+            Object parsed;
+            if (type == ExifWriter.TYPE_ASCII) {
+                byte[] chars = new byte[n - 1];
+                for (int j = 0; j < chars.length; j++) {
+                    chars[j] = tiff.get(value + j);
+                }
+                if (tiff.get(value + n - 1) != 0) {
+                    throw new AssertionError("ASCII value of tag " + Integer.toHexString(tag) + " not terminated");
+                }
+                parsed = new String(chars);
+            } else if (type == ExifWriter.TYPE_SHORT) {
+                parsed = (long) (tiff.getShort(value) & 0xFFFF);
+            } else if (type == ExifWriter.TYPE_LONG) {
+                parsed = tiff.getInt(value) & 0xFFFFFFFFL;
+            } else if (type == ExifWriter.TYPE_RATIONAL) {
+                long[] fractions = new long[2 * n];
+                for (int j = 0; j < fractions.length; j++) {
+                    fractions[j] = tiff.getInt(value + 4 * j) & 0xFFFFFFFFL;
+                }
+                parsed = fractions;
+            } else {
+                byte[] bytes = new byte[size];
+                for (int j = 0; j < size; j++) {
+                    bytes[j] = tiff.get(value + j);
+                }
+                parsed = bytes;
+            }
+            tags.put(tag + shift, parsed);
+        }
+        return tiff.getInt(ifd + 2 + 12 * count);
+    }
+
+    private static int typeSize(int type) {
+        switch (type) {
+            case ExifWriter.TYPE_SHORT:
+                return 2;
+            case ExifWriter.TYPE_LONG:
+                return 4;
+            case ExifWriter.TYPE_RATIONAL:
+                return 8;
+            default:
+                return 1;
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class ExifWriterTest {
+    private static final long MS = 1000000L;
+    // 2017-03-04 05:06:07.089 UTC
+    private static final long CAPTURE_TIME = 1488603967089L;
+
+    @Test
+    public void writesCaptureTimeInTheGivenZone() throws IOException {
+        ByteBuffer segment = new ExifWriter()
+                .setDateTime(CAPTURE_TIME, TimeZone.getTimeZone("GMT+02:30"))
+                .buildSegment();
+        Map<Integer, Object> tags = ExifSamples.readTags(splice(segment));
+
+        assertEquals("2017:03:04 07:36:07", tags.get(ExifWriter.TAG_DATE_TIME));
+        assertEquals("2017:03:04 07:36:07", tags.get(ExifWriter.TAG_DATE_TIME_ORIGINAL));
+        assertEquals("089", tags.get(ExifWriter.TAG_SUB_SEC_TIME_ORIGINAL));
+        assertEquals("+02:30", tags.get(ExifWriter.TAG_OFFSET_TIME_ORIGINAL));
+        assertArrayEquals("0231".getBytes(), (byte[]) tags.get(ExifWriter.TAG_EXIF_VERSION));
+    }
+
+    @Test
+    public void writesNegativeZoneOffset() throws IOException {
+        ByteBuffer segment = new ExifWriter()
+                .setDateTime(CAPTURE_TIME, TimeZone.getTimeZone("GMT-09:30"))
+                .buildSegment();
+        Map<Integer, Object> tags = ExifSamples.readTags(splice(segment));
+
+        assertEquals("2017:03:03 19:36:07", tags.get(ExifWriter.TAG_DATE_TIME));
+        assertEquals("-09:30", tags.get(ExifWriter.TAG_OFFSET_TIME));
+    }
+
+    @Test
+    public void writesCaptureMetadata() throws IOException {
+        CaptureMetadata metadata = new CaptureMetadata.Builder(100 * MS)
+                .setExposureTimeNanos(10 * MS)
+                .setSensitivity(400)
+                .setAperture(1.8f)
+                .setFocalLength(4.25f)
+                .setFocusDistanceDiopters(2f)
+                .build();
+        ByteBuffer segment = new ExifWriter()
+                .setMake("Acme")
+                .setModel("Phone 1")
+                .setOrientationDegrees(90)
+                .setCaptureMetadata(metadata)
+                .buildSegment();
+        Map<Integer, Object> tags = ExifSamples.readTags(splice(segment));
+
+        assertEquals("Acme", tags.get(ExifWriter.TAG_MAKE));
+        assertEquals("Phone 1", tags.get(ExifWriter.TAG_MODEL));
+        assertEquals((long) ThumbnailSizing.EXIF_ORIENTATION_ROTATE_90, tags.get(ExifWriter.TAG_ORIENTATION));
+        assertArrayEquals(new long[]{1, 100}, (long[]) tags.get(ExifWriter.TAG_EXPOSURE_TIME));
+        assertEquals(400L, tags.get(ExifWriter.TAG_ISO));
+        assertArrayEquals(new long[]{9, 5}, (long[]) tags.get(ExifWriter.TAG_F_NUMBER));
+        assertArrayEquals(new long[]{17, 4}, (long[]) tags.get(ExifWriter.TAG_FOCAL_LENGTH));
+        assertArrayEquals(new long[]{1, 2}, (long[]) tags.get(ExifWriter.TAG_SUBJECT_DISTANCE));
+        assertFalse(tags.containsKey(ExifWriter.TAG_DATE_TIME));
+        assertFalse(tags.containsKey(ExifWriter.TAG_GPS_IFD));
+    }
+
+    @Test
+    public void leavesOutUnknownMetadata() throws IOException {
+        ByteBuffer segment = new ExifWriter()
+                .setCaptureMetadata(new CaptureMetadata.Builder(100 * MS).setSensitivity(100).build())
+                .buildSegment();
+        Map<Integer, Object> tags = ExifSamples.readTags(splice(segment));
+
+        assertEquals(100L, tags.get(ExifWriter.TAG_ISO));
+        assertFalse(tags.containsKey(ExifWriter.TAG_EXPOSURE_TIME));
+        assertFalse(tags.containsKey(ExifWriter.TAG_F_NUMBER));
+        assertFalse(tags.containsKey(ExifWriter.TAG_SUBJECT_DISTANCE));
+        assertFalse(tags.containsKey(ExifWriter.TAG_ORIENTATION));
+    }
+
+    @Test
+    public void writesInfiniteFocusAndClampsIso() throws IOException {
+        ByteBuffer segment = new ExifWriter()
+                .setCaptureMetadata(new CaptureMetadata.Builder(100 * MS)
+                        .setSensitivity(102400)
+                        .setFocusDistanceDiopters(0)
+                        .build())
+                .buildSegment();
+        Map<Integer, Object> tags = ExifSamples.readTags(splice(segment));
+
+        assertEquals(65535L, tags.get(ExifWriter.TAG_ISO));
+        assertArrayEquals(new long[]{0xFFFFFFFFL, 1}, (long[]) tags.get(ExifWriter.TAG_SUBJECT_DISTANCE));
+    }
+
+    @Test
+    public void writesLocation() throws IOException {
+        ByteBuffer segment = new ExifWriter()
+                .setLocation(-33.8568, 151.2153, -12.5, CAPTURE_TIME)
+                .buildSegment();
+        Map<Integer, Object> tags = ExifSamples.readTags(splice(segment));
+
+        assertArrayEquals(new byte[]{2, 3, 0, 0}, (byte[]) tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_VERSION));
+        assertEquals("S", tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_LATITUDE_REF));
+        // 33° 51' 24.48"
+        assertArrayEquals(new long[]{33, 1, 51, 1, 612, 25},
+                (long[]) tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_LATITUDE));
+        assertEquals("E", tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_LONGITUDE_REF));
+        // 151° 12' 55.08"
+        assertArrayEquals(new long[]{151, 1, 12, 1, 1377, 25},
+                (long[]) tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_LONGITUDE));
+        assertArrayEquals(new byte[]{1}, (byte[]) tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_ALTITUDE_REF));
+        assertArrayEquals(new long[]{25, 2}, (long[]) tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_ALTITUDE));
+        assertArrayEquals(new long[]{5, 1, 6, 1, 7089, 1000},
+                (long[]) tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_TIME_STAMP));
+        assertEquals("2017:03:04", tags.get(ExifSamples.GPS + ExifWriter.TAG_GPS_DATE_STAMP));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidLocation() {
+        new ExifWriter().setLocation(91, 0, 0, 0);
+    }
+
+    @Test
+    public void mapsRightAnglesToOrientations() {
+        assertEquals(ThumbnailSizing.EXIF_ORIENTATION_NORMAL, ExifWriter.degreesToExifOrientation(0));
+        assertEquals(ThumbnailSizing.EXIF_ORIENTATION_ROTATE_90, ExifWriter.degreesToExifOrientation(90));
+        assertEquals(ThumbnailSizing.EXIF_ORIENTATION_ROTATE_180, ExifWriter.degreesToExifOrientation(180));
+        assertEquals(ThumbnailSizing.EXIF_ORIENTATION_ROTATE_270, ExifWriter.degreesToExifOrientation(270));
+        for (int degrees = 0; degrees < 360; degrees += 90) {
+            assertEquals(degrees, ThumbnailSizing.exifOrientationToDegrees(
+                    ExifWriter.degreesToExifOrientation(degrees)));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherAngles() {
+        new ExifWriter().setOrientationDegrees(45);
+    }
+
+    @Test
+    public void embedsThumbnail() throws IOException {
+        byte[] thumbnail = ExifSamples.jfif(16, 12);
+        ByteBuffer segment = new ExifWriter()
+                .setOrientationDegrees(270)
+                .setThumbnail(ByteBuffer.wrap(thumbnail))
+                .buildSegment();
+        byte[] jpeg = splice(segment);
+
+        Map<Integer, Object> tags = ExifSamples.readTags(jpeg);
+        assertEquals(6L, tags.get(ExifWriter.TAG_COMPRESSION));
+        assertArrayEquals(thumbnail, ExifSamples.readThumbnail(jpeg));
+        assertTrue(ExifSamples.decodes(ExifSamples.readThumbnail(jpeg), 16, 12));
+    }
+
+    @Test
+    public void dropsThumbnailThatDoesNotFit() throws IOException {
+        ByteBuffer segment = new ExifWriter()
+                .setOrientationDegrees(180)
+                .setThumbnail(ByteBuffer.allocate(ExifWriter.MAX_SEGMENT_LENGTH))
+                .buildSegment();
+
+        assertTrue(segment.remaining() < 1024);
+        Map<Integer, Object> tags = ExifSamples.readTags(splice(segment));
+        assertEquals(3L, tags.get(ExifWriter.TAG_ORIENTATION));
+        assertFalse(tags.containsKey(ExifWriter.TAG_JPEG_INTERCHANGE_FORMAT));
+    }
+
+    @Test
+    public void segmentLengthMatchesItsSize() {
+        ByteBuffer segment = new ExifWriter().setMake("Acme").buildSegment();
+
+        assertEquals(0, segment.position());
+        assertEquals((byte) 0xFF, segment.get(0));
+        assertEquals((byte) 0xE1, segment.get(1));
+        assertEquals(segment.remaining() - 2, ((segment.get(2) & 0xFF) << 8) | (segment.get(3) & 0xFF));
+    }
+
+    private static byte[] splice(ByteBuffer segment) throws IOException {
+        byte[] jpeg = ExifSamples.concat(JpegExifSplicer.splice(ByteBuffer.wrap(ExifSamples.jfif(32, 24)), segment));
+        assertTrue(ExifSamples.decodes(jpeg, 32, 24));
+        return jpeg;
+    }
+}
@@ -0,0 +1,17 @@
+package com.uberv.android.camera2;
+
+/**
+ * Clock that only moves when told to.
+ */
+class FakeClock implements Clock {
+    long now;
+
+    void advanceMillis(long millis) {
+        now += millis * 1000000L;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+}
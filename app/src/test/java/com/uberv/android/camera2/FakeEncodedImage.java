@@ -0,0 +1,48 @@
+package com.uberv.android.camera2;
+
+import java.nio.ByteBuffer;
+
+/**
+ * In-memory stand-in for a camera image.
+ */
+class FakeEncodedImage implements EncodedImage {
+    private final ByteBuffer mBuffer;
+    int closeCount;
+    ByteBuffer exifSegment;
+    // thrown by getExifSegment() if set
+    RuntimeException exifFailure;
+
+    FakeEncodedImage(int size, int seed) {
+        mBuffer = ByteBuffer.allocate(size);
+        for (int i = 0; i < size; i++) {
+            mBuffer.put((byte) (i * 31 + seed));
+        }
+        mBuffer.flip();
+    }
+
+    byte[] expectedBytes() {
+        ByteBuffer copy = mBuffer.duplicate();
+        copy.rewind();
+        byte[] bytes = new byte[copy.remaining()];
+        copy.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    @Override
+    public ByteBuffer getExifSegment() {
+        if (exifFailure != null) {
+            throw exifFailure;
+        }
+        return exifSegment;
+    }
+
+    @Override
+    public void close() {
+        closeCount++;
+    }
+}
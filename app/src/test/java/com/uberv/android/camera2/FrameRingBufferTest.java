@@ -0,0 +1,100 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class FrameRingBufferTest {
+    private List<String> mReleased;
+    private FrameRingBuffer<String> mRing;
+
+    @Before
+    public void setUp() {
+        mReleased = new ArrayList<>();
+        mRing = new FrameRingBuffer<>(3, new FrameRingBuffer.Releaser<String>() {
+            @Override
+            public void release(String frame) {
+                mReleased.add(frame);
+            }
+        });
+    }
+
+    @Test
+    public void evictsOldestWhenFull() {
+        mRing.add("a", 10);
+        mRing.add("b", 20);
+        mRing.add("c", 30);
+        assertTrue(mReleased.isEmpty());
+        mRing.add("d", 40);
+        assertEquals("[a]", mReleased.toString());
+        assertEquals(3, mRing.size());
+        assertEquals(20, mRing.getTimestamp(0));
+        assertEquals(40, mRing.getTimestamp(2));
+        assertEquals(1, mRing.getEvictions());
+    }
+
+    @Test
+    public void wrapsAroundManyTimesKeepingOrder() {
+        for (int i = 0; i < 100; i++) {
+            mRing.add("f" + i, i * 33L);
+        }
+        assertEquals(97, mReleased.size());
+        assertEquals("f96", mReleased.get(96));
+        for (int i = 0; i < 3; i++) {
+            assertEquals((97 + i) * 33L, mRing.getTimestamp(i));
+        }
+    }
+
+    @Test
+    public void takeRemovesFromMiddleAndTransfersOwnership() {
+        mRing.add("a", 10);
+        mRing.add("b", 20);
+        mRing.add("c", 30);
+        mRing.add("d", 40);
+        assertEquals("c", mRing.take(1));
+        assertEquals(2, mRing.size());
+        assertEquals(20, mRing.getTimestamp(0));
+        assertEquals(40, mRing.getTimestamp(1));
+        // taken frames are not released by the ring
+        mRing.clear();
+        assertEquals("[a, b, d]", mReleased.toString());
+        assertEquals(0, mRing.size());
+    }
+
+    @Test
+    public void takeNewestThenRefill() {
+        mRing.add("a", 10);
+        mRing.add("b", 20);
+        assertEquals("b", mRing.take(1));
+        mRing.add("c", 30);
+        mRing.add("d", 40);
+        mRing.add("e", 50);
+        assertEquals("[a]", mReleased.toString());
+        assertEquals(30, mRing.getTimestamp(0));
+    }
+
+    @Test
+    public void scoresFollowTheirFrameEvenWhenReportedEarly() {
+        mRing.setScore(20, 0.5f);
+        mRing.add("a", 10);
+        mRing.add("b", 20);
+        mRing.setScore(10, 1f);
+        assertEquals(1f, mRing.getScore(0), 0);
+        assertEquals(0.5f, mRing.getScore(1), 0);
+        mRing.add("c", 30);
+        assertEquals(0f, mRing.getScore(2), 0);
+        mRing.add("d", 40);
+        // shifted along with the frame
+        assertEquals(0.5f, mRing.getScore(0), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsIndexPastSize() {
+        mRing.add("a", 10);
+        mRing.getTimestamp(1);
+    }
+}
@@ -0,0 +1,223 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ImageWritePipelineTest {
+    private File mDir;
+    private ManualExecutor mExecutor;
+    private FakeClock mClock;
+    private RecordingListener mListener;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("pipeline", "");
+        assertTrue(mDir.delete());
+        assertTrue(mDir.mkdirs());
+        mExecutor = new ManualExecutor();
+        mClock = new FakeClock();
+        mListener = new RecordingListener();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDir.delete();
+    }
+
+    private ImageWritePipeline newPipeline(int capacity) {
+        return new ImageWritePipeline(capacity, mExecutor, new StreamImageFileWriter(), mClock, mListener);
+    }
+
+    @Test
+    public void writesImageOffTheCallingThreadAndClosesIt() throws IOException {
+        ImageWritePipeline pipeline = newPipeline(2);
+        FakeEncodedImage image = new FakeEncodedImage(4096, 7);
+        File target = new File(mDir, "a.jpg");
+
+        assertTrue(pipeline.offer(image, target));
+        assertFalse(target.exists());
+        assertEquals(0, image.closeCount);
+        assertEquals(1, pipeline.getInFlight());
+
+        mClock.advanceMillis(5);
+        mExecutor.runAll();
+
+        assertArrayEquals(image.expectedBytes(), readFile(target));
+        assertEquals(1, image.closeCount);
+        assertEquals(0, pipeline.getInFlight());
+        assertEquals(1, mListener.written.size());
+        assertEquals(Long.valueOf(5000000L), mListener.latencies.get(0));
+    }
+
+    @Test
+    public void rejectsWhenFullAndSignalsBackPressure() {
+        ImageWritePipeline pipeline = newPipeline(2);
+        assertTrue(pipeline.offer(new FakeEncodedImage(16, 1), new File(mDir, "1.jpg")));
+        assertFalse(pipeline.isFull());
+        assertTrue(pipeline.offer(new FakeEncodedImage(16, 2), new File(mDir, "2.jpg")));
+        assertTrue(pipeline.isFull());
+
+        FakeEncodedImage dropped = new FakeEncodedImage(16, 3);
+        assertFalse(pipeline.offer(dropped, new File(mDir, "3.jpg")));
+        // caller keeps ownership of rejected images
+        assertEquals(0, dropped.closeCount);
+        assertEquals(1, pipeline.getStats().getRejected());
+        assertEquals(1, mListener.backPressure.size());
+        assertTrue(mListener.backPressure.get(0));
+
+        mExecutor.runNext();
+        assertFalse(pipeline.isFull());
+        assertEquals(2, mListener.backPressure.size());
+        assertFalse(mListener.backPressure.get(1));
+        assertTrue(pipeline.offer(new FakeEncodedImage(16, 4), new File(mDir, "4.jpg")));
+    }
+
+    @Test
+    public void failedWriteStillReleasesSlotAndImage() {
+        ImageWritePipeline pipeline = new ImageWritePipeline(1, mExecutor, new ImageFileWriter() {
+            @Override
+            public long write(ByteBuffer data, File target) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public long write(ByteBuffer[] data, File target) throws IOException {
+                throw new IOException("disk full");
+            }
+        }, mClock, mListener);
+        FakeEncodedImage image = new FakeEncodedImage(16, 1);
+
+        assertTrue(pipeline.offer(image, new File(mDir, "x.jpg")));
+        mExecutor.runAll();
+
+        assertEquals(1, image.closeCount);
+        assertEquals(1, mListener.failed.size());
+        assertEquals(1, pipeline.getStats().getFailed());
+        assertFalse(pipeline.isFull());
+    }
+
+    @Test
+    public void brokenExifFallsBackToTheImageAsEncoded() throws IOException {
+        ImageWritePipeline pipeline = newPipeline(1);
+        FakeEncodedImage image = new FakeEncodedImage(64, 3);
+        image.exifFailure = new IllegalStateException("no metadata");
+        File target = new File(mDir, "e.jpg");
+
+        assertTrue(pipeline.offer(image, target));
+        mExecutor.runAll();
+
+        assertEquals(1, image.closeCount);
+        assertEquals(1, mListener.written.size());
+        assertEquals(1, pipeline.getStats().getWritten());
+        assertArrayEquals(image.expectedBytes(), readFile(target));
+    }
+
+    @Test
+    public void unexpectedWriterExceptionIsAFailedWrite() {
+        ImageWritePipeline pipeline = new ImageWritePipeline(1, mExecutor, new ImageFileWriter() {
+            @Override
+            public long write(ByteBuffer data, File target) {
+                throw new IllegalArgumentException("bad buffer");
+            }
+
+            @Override
+            public long write(ByteBuffer[] data, File target) {
+                throw new IllegalArgumentException("bad buffer");
+            }
+        }, mClock, mListener);
+        FakeEncodedImage image = new FakeEncodedImage(16, 1);
+
+        assertTrue(pipeline.offer(image, new File(mDir, "y.jpg")));
+        mExecutor.runAll();
+
+        assertEquals(1, image.closeCount);
+        assertEquals(1, mListener.failed.size());
+        assertEquals(1, pipeline.getStats().getFailed());
+        assertFalse(pipeline.isFull());
+    }
+
+    @Test
+    public void statsTrackThroughputAndLatency() {
+        ImageWritePipeline pipeline = newPipeline(4);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(pipeline.offer(new FakeEncodedImage(1000, i), new File(mDir, i + ".jpg")));
+        }
+        for (int i = 0; i < 4; i++) {
+            mClock.advanceMillis(250);
+            mExecutor.runNext();
+        }
+
+        ImageWritePipeline.Stats stats = pipeline.getStats();
+        assertEquals(4, stats.getSubmitted());
+        assertEquals(4, stats.getWritten());
+        assertEquals(4000, stats.getBytesWritten());
+        assertEquals(1000000000L, stats.getMaxLatencyNanos());
+        assertEquals(625000000L, stats.getMeanLatencyNanos());
+        assertEquals(4000.0, stats.getThroughputBytesPerSecond(), 0.001);
+    }
+
+    @Test
+    public void shutdownDrainsPendingWritesAndRejectsNewOnes() throws InterruptedException {
+        ImageWritePipeline pipeline = newPipeline(3);
+        FakeEncodedImage image = new FakeEncodedImage(64, 9);
+        assertTrue(pipeline.offer(image, new File(mDir, "last.jpg")));
+
+        assertTrue(pipeline.shutdown(1, TimeUnit.SECONDS));
+        assertEquals(1, image.closeCount);
+        assertTrue(new File(mDir, "last.jpg").exists());
+
+        assertFalse(pipeline.offer(new FakeEncodedImage(64, 1), new File(mDir, "late.jpg")));
+        assertEquals(0, pipeline.getInFlight());
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static class RecordingListener implements ImageWritePipeline.Listener {
+        final List<File> written = new ArrayList<>();
+        final List<Long> latencies = new ArrayList<>();
+        final List<File> failed = new ArrayList<>();
+        final List<Boolean> backPressure = new ArrayList<>();
+
+        @Override
+        public void onImageWritten(EncodedImage image, File file, long latencyNanos) {
+            written.add(file);
+            latencies.add(latencyNanos);
+        }
+
+        @Override
+        public void onImageWriteFailed(EncodedImage image, File file, IOException e) {
+            failed.add(file);
+        }
+
+        @Override
+        public void onBackPressureChanged(boolean full) {
+            backPressure.add(full);
+        }
+    }
+}
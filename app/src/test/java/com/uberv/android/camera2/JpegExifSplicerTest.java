@@ -0,0 +1,191 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+public class JpegExifSplicerTest {
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("exif", ".jpg");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void insertsAfterJfifHeader() throws IOException {
+        byte[] jfif = ExifSamples.jfif(40, 30);
+        ByteBuffer segment = new ExifWriter().setOrientationDegrees(90).buildSegment();
+
+        ByteBuffer[] parts = JpegExifSplicer.splice(ByteBuffer.wrap(jfif), segment);
+
+        assertEquals(3, parts.length);
+        // SOI + APP0 first, the image data last, both views of the original array
+        assertEquals(2 + 2 + 16, parts[0].remaining());
+        assertSame(jfif, parts[0].array());
+        assertEquals(segment.remaining(), parts[1].remaining());
+        assertEquals(jfif.length - parts[0].remaining(), parts[2].remaining());
+        byte[] jpeg = ExifSamples.concat(parts);
+        assertEquals(1, ExifSamples.countExifSegments(jpeg));
+        assertTrue(ExifSamples.decodes(jpeg, 40, 30));
+    }
+
+    @Test
+    public void replacesExistingExifAndKeepsItsThumbnail() throws IOException {
+        byte[] thumbnail = ExifSamples.jfif(8, 6);
+        byte[] hal = ExifSamples.halJpeg(64, 48, thumbnail);
+
+        ByteBuffer found = JpegExifSplicer.findThumbnail(ByteBuffer.wrap(hal));
+        assertNotNull(found);
+        byte[] foundBytes = new byte[found.remaining()];
+        found.duplicate().get(foundBytes);
+        assertArrayEquals(thumbnail, foundBytes);
+
+        ByteBuffer segment = new ExifWriter()
+                .setDateTime(0, TimeZone.getTimeZone("UTC"))
+                .setThumbnail(found)
+                .buildSegment();
+        byte[] jpeg = ExifSamples.concat(JpegExifSplicer.splice(ByteBuffer.wrap(hal), segment));
+
+        assertEquals(1, ExifSamples.countExifSegments(jpeg));
+        assertTrue(ExifSamples.decodes(jpeg, 64, 48));
+        Map<Integer, Object> tags = ExifSamples.readTags(jpeg);
+        assertEquals("1970:01:01 00:00:00", tags.get(ExifWriter.TAG_DATE_TIME));
+        // the HAL's orientation tag went away with its segment
+        assertFalse(tags.containsKey(ExifWriter.TAG_ORIENTATION));
+        assertArrayEquals(thumbnail, ExifSamples.readThumbnail(jpeg));
+    }
+
+    @Test
+    public void honoursBufferPosition() throws IOException {
+        byte[] jfif = ExifSamples.jfif(20, 10);
+        byte[] padded = new byte[jfif.length + 10];
+        System.arraycopy(jfif, 0, padded, 5, jfif.length);
+        ByteBuffer buffer = ByteBuffer.wrap(padded);
+        buffer.position(5).limit(5 + jfif.length);
+
+        byte[] jpeg = ExifSamples.concat(JpegExifSplicer.splice(buffer, new ExifWriter().buildSegment()));
+
+        assertTrue(ExifSamples.decodes(jpeg, 20, 10));
+        assertEquals(5, buffer.position());
+        assertEquals(5 + jfif.length, buffer.limit());
+    }
+
+    @Test
+    public void leavesNonJpegDataAlone() {
+        byte[] data = {1, 2, 3, 4};
+        ByteBuffer[] parts = JpegExifSplicer.splice(ByteBuffer.wrap(data), new ExifWriter().buildSegment());
+
+        assertEquals(1, parts.length);
+        assertArrayEquals(data, ExifSamples.concat(parts));
+        assertNull(JpegExifSplicer.findThumbnail(ByteBuffer.wrap(data)));
+    }
+
+    @Test
+    public void findsNoThumbnailWithoutExif() throws IOException {
+        assertNull(JpegExifSplicer.findThumbnail(ByteBuffer.wrap(ExifSamples.jfif(20, 10))));
+    }
+
+    @Test
+    public void stopsAtTruncatedSegment() {
+        // SOI, then an APP1 claiming more bytes than there are
+        byte[] data = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE1, 0x10, 0x00, 'E', 'x'};
+        ByteBuffer[] parts = JpegExifSplicer.splice(ByteBuffer.wrap(data), ByteBuffer.wrap(new byte[]{9}));
+
+        byte[] expected = {(byte) 0xFF, (byte) 0xD8, 9, (byte) 0xFF, (byte) 0xE1, 0x10, 0x00, 'E', 'x'};
+        assertArrayEquals(expected, ExifSamples.concat(parts));
+        assertNull(JpegExifSplicer.findThumbnail(ByteBuffer.wrap(data)));
+    }
+
+    @Test
+    public void channelWriterPersistsSplicedImage() throws IOException {
+        byte[] hal = ExifSamples.halJpeg(64, 48, ExifSamples.jfif(8, 6));
+        ByteBuffer direct = ByteBuffer.allocateDirect(hal.length);
+        direct.put(hal).flip();
+        ByteBuffer segment = new ExifWriter().setOrientationDegrees(180).buildSegment();
+        ByteBuffer[] parts = JpegExifSplicer.splice(direct, segment);
+        long expectedSize = 0;
+        for (ByteBuffer part : parts) {
+            expectedSize += part.remaining();
+        }
+
+        ImageFileWriter writer = new ChannelImageFileWriter(new DirectBufferPool(1 << 20));
+        assertEquals(expectedSize, writer.write(parts, mFile));
+
+        byte[] written = readFile(mFile);
+        assertArrayEquals(ExifSamples.concat(JpegExifSplicer.splice(direct, segment)), written);
+        assertTrue(ExifSamples.decodes(written, 64, 48));
+        assertEquals(3L, ExifSamples.readTags(written).get(ExifWriter.TAG_ORIENTATION));
+    }
+
+    @Test
+    public void pipelineSplicesExifSegment() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        ImageWritePipeline pipeline = new ImageWritePipeline(1, executor, new StreamImageFileWriter(),
+                new FakeClock(), null);
+        final ByteBuffer jfif = ByteBuffer.wrap(ExifSamples.jfif(32, 16));
+        final ByteBuffer segment = new ExifWriter().setOrientationDegrees(90).buildSegment();
+        EncodedImage image = new EncodedImage() {
+            @Override
+            public ByteBuffer getBuffer() {
+                return jfif;
+            }
+
+            @Override
+            public ByteBuffer getExifSegment() {
+                return segment;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        assertTrue(pipeline.offer(image, mFile));
+        executor.runAll();
+
+        byte[] written = readFile(mFile);
+        assertEquals(jfif.remaining() + segment.remaining(), written.length);
+        assertTrue(ExifSamples.decodes(written, 32, 16));
+        assertEquals(6L, ExifSamples.readTags(written).get(ExifWriter.TAG_ORIENTATION));
+    }
+
+    @Test
+    public void pipelineWritesNonJpegDataAsItIs() throws IOException {
+        ManualExecutor executor = new ManualExecutor();
+        ImageWritePipeline pipeline = new ImageWritePipeline(1, executor, new StreamImageFileWriter(),
+                new FakeClock(), null);
+        FakeEncodedImage image = new FakeEncodedImage(64, 3);
+        image.exifSegment = new ExifWriter().buildSegment();
+
+        assertTrue(pipeline.offer(image, mFile));
+        executor.runAll();
+
+        assertArrayEquals(image.expectedBytes(), readFile(mFile));
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) raf.length()];
+            raf.readFully(bytes);
+            return bytes;
+        } finally {
+            raf.close();
+        }
+    }
+}
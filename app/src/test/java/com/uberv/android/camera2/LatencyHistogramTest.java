@@ -0,0 +1,65 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreContiguousAndBoundsAreInclusive() {
+        int previous = -1;
+        for (long micros = 0; micros < 1000000; micros++) {
+            int index = LatencyHistogram.bucketIndex(micros);
+            assertTrue(index == previous || index == previous + 1);
+            assertTrue(micros <= LatencyHistogram.bucketUpperBoundMicros(index));
+            if (index > 0) {
+                assertTrue(micros > LatencyHistogram.bucketUpperBoundMicros(index - 1));
+            }
+            previous = index;
+        }
+    }
+
+    @Test
+    public void relativeErrorStaysBelowOneEighth() {
+        for (long micros = 8; micros < 100000000L; micros = micros * 3 / 2 + 1) {
+            long upper = LatencyHistogram.bucketUpperBoundMicros(LatencyHistogram.bucketIndex(micros));
+            assertTrue("error too large at " + micros, (upper - micros) <= micros / 8);
+        }
+    }
+
+    @Test
+    public void percentilesOfUniformDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int ms = 1; ms <= 100; ms++) {
+            histogram.recordNanos(ms * 1000000L);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getPercentileNanos(50) / 1000000.0, 50 / 8.0);
+        assertEquals(95, histogram.getPercentileNanos(95) / 1000000.0, 95 / 8.0);
+        assertEquals(99, histogram.getPercentileNanos(99) / 1000000.0, 99 / 8.0);
+        assertTrue(histogram.getPercentileNanos(99) >= 99000000L);
+    }
+
+    @Test
+    public void emptyHistogramAndHugeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(50));
+        histogram.recordNanos(Long.MAX_VALUE);
+        histogram.recordNanos(-5);
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+        assertTrue(histogram.getPercentileNanos(100) > 200L * 1000000000L);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test
+    public void summaryIsInMilliseconds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(2000000L);
+        StringBuilder out = new StringBuilder();
+        histogram.appendSummary(out);
+        assertEquals("n=1 p50=2.0ms p95=2.0ms p99=2.0ms", out.toString());
+    }
+}
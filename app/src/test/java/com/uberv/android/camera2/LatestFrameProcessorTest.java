@@ -0,0 +1,211 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LatestFrameProcessorTest {
+    private static final int WIDTH = 8;
+    private static final int HEIGHT = 4;
+    // padded rows and interleaved chroma, as most devices deliver YUV_420_888
+    private static final int Y_ROW_STRIDE = 12;
+    private static final int UV_ROW_STRIDE = 12;
+    private static final int UV_PIXEL_STRIDE = 2;
+
+    private ManualExecutor mExecutor;
+    private FakeClock mClock;
+    private LatestFrameProcessor mProcessor;
+    private List<Long> mSeen;
+    private IdentityHashMap<YuvFrame, Boolean> mFrameObjects;
+
+    @Before
+    public void setUp() {
+        mExecutor = new ManualExecutor();
+        mClock = new FakeClock();
+        mProcessor = new LatestFrameProcessor(mExecutor, mClock);
+        mSeen = new ArrayList<>();
+        mFrameObjects = new IdentityHashMap<>();
+        mProcessor.addAnalyzer(new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                mSeen.add(frame.getTimestampNanos());
+                mFrameObjects.put(frame, Boolean.TRUE);
+                mClock.advanceMillis(5);
+            }
+        });
+    }
+
+    /**
+     * Synthetic frame: luma = x + 10 * y + seed, U = 100 + seed, V = 200 + seed; padding bytes are 0xff.
+     */
+    private boolean offer(long timestamp, int seed) {
+        ByteBuffer y = ByteBuffer.allocateDirect(Y_ROW_STRIDE * HEIGHT);
+        for (int row = 0; row < HEIGHT; row++) {
+            for (int col = 0; col < Y_ROW_STRIDE; col++) {
+                y.put((byte) (col < WIDTH ? col + 10 * row + seed : 0xff));
+            }
+        }
+        y.flip();
+        // interleaved chroma: the U plane starts at U, the V plane one byte later, both see every other byte
+        ByteBuffer uv = ByteBuffer.allocateDirect(UV_ROW_STRIDE * HEIGHT / 2);
+        for (int i = 0; i < uv.capacity(); i++) {
+            uv.put((byte) (i % 2 == 0 ? 100 + seed : 200 + seed));
+        }
+        uv.flip();
+        ByteBuffer u = uv.duplicate();
+        u.limit(uv.limit() - 1);
+        ByteBuffer v = uv.duplicate();
+        v.position(1);
+        return mProcessor.offer(WIDTH, HEIGHT, timestamp, y, Y_ROW_STRIDE, u, v, UV_ROW_STRIDE, UV_PIXEL_STRIDE);
+    }
+
+    @Test
+    public void analyzesCopiedPlanesHonouringStrides() {
+        final int[] pixels = new int[4];
+        mProcessor.addAnalyzer(new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                pixels[0] = frame.getLuma(7, 3);
+                pixels[1] = frame.getU(5, 2);
+                pixels[2] = frame.getV(5, 2);
+                pixels[3] = frame.getWidth() * 100 + frame.getHeight();
+            }
+        });
+
+        offer(1, 3);
+        mExecutor.runAll();
+
+        assertArrayEquals(new int[]{7 + 30 + 3, 103, 203, 804}, pixels);
+    }
+
+    @Test
+    public void sourcePlanesAreLeftUntouched() {
+        ByteBuffer y = ByteBuffer.allocate(Y_ROW_STRIDE * HEIGHT);
+        ByteBuffer uv = ByteBuffer.allocate(UV_ROW_STRIDE * HEIGHT / 2);
+
+        mProcessor.offer(WIDTH, HEIGHT, 0, y, Y_ROW_STRIDE, uv, uv, UV_ROW_STRIDE, UV_PIXEL_STRIDE);
+
+        assertEquals(0, y.position());
+        assertEquals(0, uv.position());
+    }
+
+    @Test
+    public void slowAnalyzersOnlySeeTheLatestFrame() {
+        for (int i = 1; i <= 5; i++) {
+            offer(i, i);
+        }
+        assertEquals(1, mExecutor.pending());
+
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList(5L), mSeen);
+        assertEquals(5, mProcessor.getOffered());
+        assertEquals(4, mProcessor.getDropped());
+        assertEquals(1, mProcessor.getProcessed());
+    }
+
+    @Test
+    public void framesOfferedDuringAnalysisAreProcessedNext() {
+        mProcessor.addAnalyzer(new FrameAnalyzer() {
+            private boolean mOfferedMore;
+
+            @Override
+            public void analyze(YuvFrame frame) {
+                if (!mOfferedMore) {
+                    mOfferedMore = true;
+                    // the camera keeps delivering while we analyze
+                    offer(2, 2);
+                    offer(3, 3);
+                }
+            }
+        });
+
+        offer(1, 1);
+        mExecutor.runAll();
+
+        assertEquals(Arrays.asList(1L, 3L), mSeen);
+        assertEquals(1, mProcessor.getDropped());
+    }
+
+    @Test
+    public void reusesThreeFramesForever() {
+        for (int i = 0; i < 100; i++) {
+            offer(i, i);
+            offer(1000 + i, i);
+            mExecutor.runAll();
+        }
+
+        assertEquals(100, mSeen.size());
+        assertTrue(mFrameObjects.size() <= 3);
+    }
+
+    @Test
+    public void removedAnalyzersAreNotCalled() {
+        final int[] calls = new int[1];
+        FrameAnalyzer analyzer = new FrameAnalyzer() {
+            @Override
+            public void analyze(YuvFrame frame) {
+                calls[0]++;
+            }
+        };
+        mProcessor.addAnalyzer(analyzer);
+        offer(1, 1);
+        mExecutor.runAll();
+        mProcessor.removeAnalyzer(analyzer);
+        offer(2, 2);
+        mExecutor.runAll();
+
+        assertEquals(1, calls[0]);
+        assertEquals(2, mSeen.size());
+    }
+
+    @Test
+    public void recordsAnalysisTime() {
+        offer(1, 1);
+        mExecutor.runAll();
+
+        assertEquals(1, mProcessor.getAnalysisTime().getCount());
+        assertTrue(mProcessor.getAnalysisTime().getPercentileNanos(50) >= 4 * 1000000L);
+    }
+
+    @Test
+    public void refusesFramesAfterShutdown() {
+        mProcessor.shutdown();
+
+        assertFalse(offer(1, 1));
+        assertEquals(0, mExecutor.pending());
+    }
+
+    @Test
+    public void lumaAnalyzerMeasuresBrightnessOnAGrid() {
+        LumaAnalyzer luma = new LumaAnalyzer(4);
+        mProcessor.addAnalyzer(luma);
+
+        offer(1, 100);
+        mExecutor.runAll();
+
+        // samples at x = 1, 3, 5, 7 and y = 0, 1, 2, 3: mean of x is 4, of 10 * y is 15
+        assertEquals(100 + 4 + 15, luma.getMeanLuma(), 0.001);
+        assertEquals(0, luma.getClippedFraction(), 0.001);
+        assertEquals(1, luma.getFrames());
+    }
+
+    @Test
+    public void lumaAnalyzerCountsClippedPixels() {
+        LumaAnalyzer luma = new LumaAnalyzer(4);
+        mProcessor.addAnalyzer(luma);
+
+        // seed 0: luma x + 10 * y, the first row samples (1, 3, 5, 7) and 11, 13, 15 of the second are dark
+        offer(1, 0);
+        mExecutor.runAll();
+
+        assertEquals(7 / 16f, luma.getClippedFraction(), 0.001);
+    }
+}
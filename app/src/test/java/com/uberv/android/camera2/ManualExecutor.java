@@ -0,0 +1,71 @@
+package com.uberv.android.camera2;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executor that only runs tasks when the test asks it to.
+ */
+class ManualExecutor extends AbstractExecutorService {
+    private final Queue<Runnable> mTasks = new ArrayDeque<>();
+    private boolean mShutdown;
+
+    int pending() {
+        return mTasks.size();
+    }
+
+    boolean runNext() {
+        Runnable task = mTasks.poll();
+        if (task == null) {
+            return false;
+        }
+        task.run();
+        return true;
+    }
+
+    void runAll() {
+        while (runNext()) {
+            // keep draining
+        }
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        if (mShutdown) {
+            throw new RejectedExecutionException("shut down");
+        }
+        mTasks.add(command);
+    }
+
+    @Override
+    public void shutdown() {
+        mShutdown = true;
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        mShutdown = true;
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return mShutdown;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return mShutdown && mTasks.isEmpty();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        runAll();
+        return true;
+    }
+}
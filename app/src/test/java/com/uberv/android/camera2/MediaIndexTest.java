@@ -0,0 +1,244 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MediaIndexTest {
+    private File mDir;
+    private File mMediaDir;
+    private File mFile;
+    private MediaIndex mIndex;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("media_index", "");
+        mDir.delete();
+        mDir.mkdir();
+        mMediaDir = new File(mDir, "Camera2VideoImage");
+        mMediaDir.mkdir();
+        mFile = new File(mDir, "media_index");
+        mIndex = new MediaIndex(mFile);
+        mIndex.open();
+    }
+
+    @After
+    public void tearDown() {
+        mIndex.close();
+        for (File file : mMediaDir.listFiles()) {
+            file.delete();
+        }
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    private static MediaIndex.Entry image(String path, long timestamp) {
+        return new MediaIndex.Entry(path, timestamp, 1000, 4032, 3024, 0, false);
+    }
+
+    private MediaIndex reopen() throws IOException {
+        mIndex.close();
+        mIndex = new MediaIndex(mFile);
+        mIndex.open();
+        return mIndex;
+    }
+
+    @Test
+    public void pagesNewestFirst() throws IOException {
+        for (int i = 0; i < 10; i++) {
+            // out of order on purpose
+            mIndex.put(image("/img" + i + ".jpg", (i * 7) % 10));
+        }
+        List<MediaIndex.Entry> first = mIndex.page(0, 3);
+        assertEquals(3, first.size());
+        assertEquals(9, first.get(0).getTimestampMillis());
+        assertEquals(8, first.get(1).getTimestampMillis());
+        assertEquals(7, first.get(2).getTimestampMillis());
+        List<MediaIndex.Entry> last = mIndex.page(8, 3);
+        assertEquals(2, last.size());
+        assertEquals(0, last.get(1).getTimestampMillis());
+        assertTrue(mIndex.page(10, 3).isEmpty());
+    }
+
+    @Test
+    public void survivesReopen() throws IOException {
+        MediaIndex.Entry video = new MediaIndex.Entry("/video.mp4", 5, 123456, 1920, 1080, 4200, true);
+        mIndex.put(image("/a.jpg", 1));
+        mIndex.put(video);
+        mIndex.put(image("/b.jpg", 2));
+        mIndex.remove("/a.jpg");
+
+        reopen();
+        assertEquals(2, mIndex.size());
+        assertNull(mIndex.get("/a.jpg"));
+        assertEquals(video, mIndex.get("/video.mp4"));
+        assertEquals(4, mIndex.getLogRecords());
+    }
+
+    @Test
+    public void putReplacesEntryWithSamePath() throws IOException {
+        mIndex.put(image("/a.jpg", 1));
+        mIndex.put(image("/a.jpg", 5));
+
+        assertEquals(1, mIndex.size());
+        assertEquals(5, mIndex.get("/a.jpg").getTimestampMillis());
+        assertEquals(1, mIndex.page(0, 10).size());
+    }
+
+    @Test
+    public void tornRecordIsCutOff() throws IOException {
+        mIndex.put(image("/a.jpg", 1));
+        mIndex.put(image("/b.jpg", 2));
+        mIndex.close();
+        long length = mFile.length();
+        // crash halfway through the last record
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(length - 10);
+        file.close();
+
+        reopen();
+        assertEquals(1, mIndex.size());
+        assertNotNull(mIndex.get("/a.jpg"));
+        assertTrue(mIndex.getTruncatedBytes() > 0);
+        // appending continues after the last good record
+        mIndex.put(image("/c.jpg", 3));
+        reopen();
+        assertEquals(2, mIndex.size());
+        assertNotNull(mIndex.get("/c.jpg"));
+        assertEquals(0, mIndex.getTruncatedBytes());
+    }
+
+    @Test
+    public void corruptRecordStopsReplay() throws IOException {
+        mIndex.put(image("/a.jpg", 1));
+        long firstRecordEnd = mFile.length();
+        mIndex.put(image("/b.jpg", 2));
+        mIndex.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.seek(firstRecordEnd + 8);
+        file.write(0x55);
+        file.close();
+
+        reopen();
+        assertEquals(1, mIndex.size());
+        assertEquals(firstRecordEnd, mFile.length());
+    }
+
+    @Test
+    public void foreignFileStartsEmpty() throws IOException {
+        mIndex.close();
+        FileOutputStream out = new FileOutputStream(mFile);
+        out.write("not an index".getBytes("UTF-8"));
+        out.close();
+
+        reopen();
+        assertEquals(0, mIndex.size());
+        mIndex.put(image("/a.jpg", 1));
+        reopen();
+        assertEquals(1, mIndex.size());
+    }
+
+    @Test
+    public void compactsWhenMostRecordsAreDead() throws IOException {
+        mIndex.put(image("/keep.jpg", 0));
+        for (int i = 0; i < 100; i++) {
+            mIndex.put(image("/a.jpg", i + 1));
+        }
+        assertTrue(mIndex.getCompactions() > 0);
+        assertTrue(mIndex.getLogRecords() < 100);
+
+        reopen();
+        assertEquals(2, mIndex.size());
+        assertEquals(100, mIndex.get("/a.jpg").getTimestampMillis());
+    }
+
+    @Test
+    public void explicitCompactionKeepsEntries() throws IOException {
+        mIndex.put(image("/a.jpg", 1));
+        mIndex.put(image("/b.jpg", 2));
+        mIndex.remove("/a.jpg");
+        long before = mFile.length();
+        mIndex.compact();
+
+        assertTrue(mFile.length() < before);
+        assertEquals(1, mIndex.getLogRecords());
+        mIndex.put(image("/c.jpg", 3));
+        reopen();
+        assertEquals(2, mIndex.size());
+    }
+
+    private File touch(String name, int bytes) throws IOException {
+        File file = new File(mMediaDir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[bytes]);
+        out.close();
+        return file;
+    }
+
+    private static class CountingProber implements MediaIndex.Prober {
+        int mProbes;
+
+        @Override
+        public MediaIndex.Entry probe(File file) {
+            mProbes++;
+            if (file.getName().endsWith("txt")) {
+                return null;
+            }
+            return MediaIndex.Entry.image(file, 640, 480);
+        }
+    }
+
+    @Test
+    public void scanIsIncremental() throws IOException {
+        touch("IMAGE_1.jpg", 10);
+        touch("IMAGE_2.jpg", 20);
+        touch("notes.txt", 5);
+        CountingProber prober = new CountingProber();
+
+        assertEquals(2, mIndex.scan(mMediaDir, prober));
+        assertEquals(3, prober.mProbes);
+        assertEquals(2, mIndex.size());
+
+        // nothing changed: only the file that is not media is probed again
+        prober.mProbes = 0;
+        assertEquals(0, mIndex.scan(mMediaDir, prober));
+        assertEquals(1, prober.mProbes);
+
+        // one deleted, one changed, one new
+        new File(mMediaDir, "IMAGE_1.jpg").delete();
+        File changed = touch("IMAGE_2.jpg", 30);
+        touch("IMAGE_3.jpg", 10);
+        assertEquals(3, mIndex.scan(mMediaDir, prober));
+        assertEquals(2, mIndex.size());
+        assertEquals(30, mIndex.get(changed.getAbsolutePath()).getSizeBytes());
+    }
+
+    @Test
+    public void scanLeavesOtherDirectoriesAlone() throws IOException {
+        mIndex.put(image(new File(mDir, "elsewhere.jpg").getAbsolutePath(), 1));
+        assertEquals(0, mIndex.scan(mMediaDir, new CountingProber()));
+        assertEquals(1, mIndex.size());
+    }
+
+    @Test
+    public void handlesThousandsOfEntries() throws IOException {
+        for (int i = 0; i < 5000; i++) {
+            mIndex.put(image("/img" + i + ".jpg", i));
+        }
+        reopen();
+        assertEquals(5000, mIndex.size());
+        List<MediaIndex.Entry> page = mIndex.page(100, 50);
+        assertEquals(50, page.size());
+        assertEquals(4899, page.get(0).getTimestampMillis());
+    }
+}
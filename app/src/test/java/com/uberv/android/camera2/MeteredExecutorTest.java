@@ -0,0 +1,123 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.junit.Assert.*;
+
+public class MeteredExecutorTest {
+    private ManualExecutor mDelegate;
+    private FakeClock mClock;
+    private MeteredExecutor mExecutor;
+
+    @Before
+    public void setUp() {
+        mDelegate = new ManualExecutor();
+        mClock = new FakeClock();
+        mExecutor = new MeteredExecutor("io", mDelegate, mClock);
+    }
+
+    @Test
+    public void tracksQueueDepth() {
+        mExecutor.execute(sleep(0));
+        mExecutor.execute(sleep(0));
+        mExecutor.execute(sleep(0));
+        assertEquals(3, mExecutor.getQueueDepth());
+
+        mDelegate.runNext();
+        assertEquals(2, mExecutor.getQueueDepth());
+        mExecutor.execute(sleep(0));
+        mDelegate.runAll();
+
+        assertEquals(0, mExecutor.getQueueDepth());
+        assertEquals(3, mExecutor.getMaxQueueDepth());
+        assertEquals(4, mExecutor.getCompleted());
+    }
+
+    @Test
+    public void recordsWaitAndRunTime() {
+        mExecutor.execute(sleep(30));
+        mClock.advanceMillis(5);
+        mDelegate.runAll();
+
+        assertEquals(1, mExecutor.getWaitTime().getCount());
+        assertEquals(5, mExecutor.getWaitTime().getPercentileNanos(50) / 1000000);
+        assertEquals(30, mExecutor.getRunTime().getPercentileNanos(50) / 1000000);
+    }
+
+    @Test
+    public void countsFailedTasks() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                mClock.advanceMillis(2);
+                throw new IllegalStateException("boom");
+            }
+        });
+        try {
+            mDelegate.runNext();
+            fail();
+        } catch (IllegalStateException expected) {
+            // the task's exception reaches the delegate's thread unchanged
+        }
+        assertEquals(1, mExecutor.getFailed());
+        assertEquals(0, mExecutor.getCompleted());
+        assertEquals(1, mExecutor.getRunTime().getCount());
+    }
+
+    @Test
+    public void countsRejectedTasks() {
+        mExecutor.shutdown();
+        assertTrue(mDelegate.isShutdown());
+        try {
+            mExecutor.execute(sleep(0));
+            fail();
+        } catch (RejectedExecutionException expected) {
+            // as the delegate would
+        }
+        assertEquals(1, mExecutor.getRejected());
+        assertEquals(0, mExecutor.getQueueDepth());
+    }
+
+    @Test
+    public void countsWorkQueuedAroundTheExecutor() {
+        mExecutor.execute(sleep(0));
+        mExecutor.onExternalQueued();
+        mExecutor.onExternalQueued();
+        assertEquals(3, mExecutor.getQueueDepth());
+
+        mExecutor.onExternalRun(4000000, 7000000, false);
+        mExecutor.onExternalRun(4000000, 7000000, true);
+        mExecutor.onExternalQueued();
+        mExecutor.onExternalRejected();
+        mDelegate.runAll();
+
+        assertEquals(0, mExecutor.getQueueDepth());
+        assertEquals(3, mExecutor.getMaxQueueDepth());
+        assertEquals(2, mExecutor.getCompleted());
+        assertEquals(1, mExecutor.getFailed());
+        assertEquals(1, mExecutor.getRejected());
+        assertEquals(3, mExecutor.getWaitTime().getCount());
+        assertEquals(7, mExecutor.getRunTime().getPercentileNanos(90) / 1000000);
+    }
+
+    @Test
+    public void dumpNamesTheLane() {
+        mExecutor.execute(sleep(1));
+        mDelegate.runAll();
+        String dump = mExecutor.dump();
+        assertTrue(dump, dump.startsWith("io: queued=0 max=1 completed=1 failed=0 rejected=0 | wait: n=1"));
+        assertTrue(dump, dump.contains("| run: n=1"));
+    }
+
+    private Runnable sleep(final long millis) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mClock.advanceMillis(millis);
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class PixelFilterTest {
+
+    private static int[] apply(PixelFilter filter, int[] src, int width, int height) {
+        int[] dst = new int[src.length];
+        filter.apply(src, dst, width, height, 0, 0, width, height);
+        return dst;
+    }
+
+    private static int[] flat(int argb, int count) {
+        int[] pixels = new int[count];
+        Arrays.fill(pixels, argb);
+        return pixels;
+    }
+
+    @Test
+    public void grayscaleUsesLumaWeightsAndKeepsAlpha() {
+        int[] out = apply(new GrayscaleFilter(), new int[]{0x80ff0000, 0xff00ff00, 0x000000ff, 0xffffffff}, 4, 1);
+
+        assertArrayEquals(new int[]{0x804c4c4c, 0xff959595, 0x001c1c1c, 0xffffffff}, out);
+    }
+
+    @Test
+    public void toneCurvesMapEveryChannel() {
+        int[] identity = new int[256];
+        for (int i = 0; i < identity.length; i++) {
+            identity[i] = i;
+        }
+        int[] pixels = {0xff102030, 0x7f8090a0};
+
+        assertArrayEquals(pixels, apply(new ToneCurveFilter(identity), pixels, 2, 1));
+        assertArrayEquals(pixels, apply(ToneCurveFilter.gamma(1.0), pixels, 2, 1));
+        assertArrayEquals(pixels, apply(ToneCurveFilter.contrast(0), pixels, 2, 1));
+        // brighter shadows, fixed end points
+        assertTrue((apply(ToneCurveFilter.gamma(0.5), new int[]{0xff404040}, 1, 1)[0] & 0xff) > 0x40);
+        assertArrayEquals(new int[]{0xff000000, 0xffffffff},
+                apply(ToneCurveFilter.contrast(1), new int[]{0xff000000, 0xffffffff}, 2, 1));
+    }
+
+    @Test
+    public void contrastDarkensShadowsAndBrightensHighlights() {
+        int[] out = apply(ToneCurveFilter.contrast(1), new int[]{0xff404040, 0xffc0c0c0}, 2, 1);
+
+        assertTrue((out[0] & 0xff) < 0x40);
+        assertTrue((out[1] & 0xff) > 0xc0);
+    }
+
+    @Test
+    public void convolutionsKeepFlatAreas() {
+        int[] gray = flat(0xff808080, 25);
+
+        assertArrayEquals(gray, apply(ConvolutionFilter.sharpen(), gray, 5, 5));
+        assertArrayEquals(gray, apply(ConvolutionFilter.denoise(), gray, 5, 5));
+    }
+
+    @Test
+    public void denoiseSpreadsAnImpulse() {
+        int[] pixels = flat(0xff000000, 9);
+        pixels[4] = 0xffffffff;
+
+        int[] out = apply(ConvolutionFilter.denoise(), pixels, 3, 3);
+
+        // 255 * 4 / 16 in the middle, 255 * 2 / 16 next to it, 255 / 16 diagonally
+        assertEquals(64, out[4] & 0xff);
+        assertEquals(32, out[1] & 0xff);
+        assertEquals(16, out[0] & 0xff);
+    }
+
+    @Test
+    public void sharpenClampsOvershoot() {
+        int[] pixels = flat(0xff000000, 9);
+        pixels[4] = 0xff808080;
+
+        int[] out = apply(ConvolutionFilter.sharpen(), pixels, 3, 3);
+
+        assertEquals(0xffffffff, out[4]);
+        assertEquals(0xff000000, out[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void toneCurveNeeds256Entries() {
+        new ToneCurveFilter(new int[255]);
+    }
+}
@@ -0,0 +1,45 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecentCapturesTest {
+
+    @Test
+    public void newestFirstAndBounded() {
+        RecentCaptures recent = new RecentCaptures(2);
+        assertNull(recent.add("a.jpg", false));
+        assertNull(recent.add("b.mp4", true));
+        RecentCaptures.Capture dropped = recent.add("c.jpg", false);
+
+        assertEquals("a.jpg", dropped.getPath());
+        List<RecentCaptures.Capture> captures = recent.snapshot();
+        assertEquals(2, captures.size());
+        assertEquals("c.jpg", captures.get(0).getPath());
+        assertEquals("b.mp4", captures.get(1).getPath());
+        assertTrue(captures.get(1).isVideo());
+    }
+
+    @Test
+    public void addingAgainMovesToFront() {
+        RecentCaptures recent = new RecentCaptures(3);
+        recent.add("a.jpg", false);
+        recent.add("b.jpg", false);
+        assertNull(recent.add("a.jpg", false));
+
+        assertEquals(2, recent.size());
+        assertEquals("a.jpg", recent.snapshot().get(0).getPath());
+    }
+
+    @Test
+    public void remove() {
+        RecentCaptures recent = new RecentCaptures(3);
+        recent.add("a.jpg", false);
+        assertTrue(recent.remove("a.jpg"));
+        assertFalse(recent.remove("a.jpg"));
+        assertEquals(0, recent.size());
+    }
+}
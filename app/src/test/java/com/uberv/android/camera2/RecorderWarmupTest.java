@@ -0,0 +1,175 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecorderWarmupTest {
+    private FakeClock mClock;
+    private List<String> mCalls;
+    private boolean mFailPrepare;
+    private boolean mFailStop;
+    private File mFile;
+    private RecorderWarmup mWarmup;
+
+    @Before
+    public void setUp() throws IOException {
+        mClock = new FakeClock();
+        mCalls = new ArrayList<>();
+        mFile = File.createTempFile("VIDEO_", ".mp4");
+        mWarmup = new RecorderWarmup(new RecorderWarmup.Recorder() {
+            @Override
+            public void prepare(File output) throws IOException {
+                mCalls.add("prepare " + output.getName());
+                mClock.advanceMillis(150);
+                if (mFailPrepare) {
+                    throw new IOException("no space left");
+                }
+            }
+
+            @Override
+            public void start() {
+                mCalls.add("start");
+                mClock.advanceMillis(20);
+            }
+
+            @Override
+            public void stop() {
+                mCalls.add("stop");
+                if (mFailStop) {
+                    throw new RuntimeException("stop failed");
+                }
+            }
+
+            @Override
+            public void reset() {
+                mCalls.add("reset");
+            }
+        }, mClock);
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void preparedBeforeThePressIsAWarmStart() throws IOException {
+        mWarmup.prepare(mFile);
+        mClock.advanceMillis(1000);
+        long press = mClock.nanoTime();
+
+        mWarmup.start();
+        mWarmup.recordStartLatency(press);
+
+        assertEquals(RecorderWarmup.State.RECORDING, mWarmup.getState());
+        assertEquals(1, mWarmup.getWarmStartLatency().getCount());
+        assertEquals(0, mWarmup.getColdStartLatency().getCount());
+        assertTrue(mWarmup.getWarmStartLatency().getPercentileNanos(50) < 25 * 1000000L);
+    }
+
+    @Test
+    public void preparedAfterThePressIsAColdStart() throws IOException {
+        long press = mClock.nanoTime();
+        mWarmup.prepare(mFile);
+
+        mWarmup.start();
+        mWarmup.recordStartLatency(press);
+
+        assertEquals(0, mWarmup.getWarmStartLatency().getCount());
+        assertEquals(1, mWarmup.getColdStartLatency().getCount());
+        assertTrue(mWarmup.getColdStartLatency().getPercentileNanos(50) >= 170 * 1000000L);
+    }
+
+    @Test
+    public void stopResetsAndReturnsTheFile() throws IOException {
+        mWarmup.prepare(mFile);
+        mWarmup.start();
+
+        assertSame(mFile, mWarmup.stop());
+
+        assertEquals(RecorderWarmup.State.COLD, mWarmup.getState());
+        assertNull(mWarmup.getOutput());
+        assertEquals(Arrays.asList("prepare " + mFile.getName(), "start", "stop", "reset"), mCalls);
+    }
+
+    @Test
+    public void failedStopStillResets() throws IOException {
+        mWarmup.prepare(mFile);
+        mWarmup.start();
+        mFailStop = true;
+        try {
+            mWarmup.stop();
+            fail();
+        } catch (RuntimeException expected) {
+            // reported to the caller
+        }
+        assertEquals(RecorderWarmup.State.COLD, mWarmup.getState());
+        assertEquals("reset", mCalls.get(mCalls.size() - 1));
+    }
+
+    @Test
+    public void failedPrepareStaysCold() {
+        mFailPrepare = true;
+        try {
+            mWarmup.prepare(mFile);
+            fail();
+        } catch (IOException expected) {
+            // reported to the caller
+        }
+        assertEquals(RecorderWarmup.State.COLD, mWarmup.getState());
+        assertEquals("reset", mCalls.get(mCalls.size() - 1));
+    }
+
+    @Test
+    public void discardDeletesTheUnusedFile() throws IOException {
+        mWarmup.prepare(mFile);
+
+        mWarmup.discard();
+
+        assertEquals(RecorderWarmup.State.COLD, mWarmup.getState());
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void discardKeepsARecordingGoing() throws IOException {
+        mWarmup.prepare(mFile);
+        mWarmup.start();
+
+        mWarmup.discard();
+
+        assertEquals(RecorderWarmup.State.RECORDING, mWarmup.getState());
+        assertTrue(mFile.exists());
+    }
+
+    @Test
+    public void latencyAfterTheRecordingStoppedIsIgnored() throws IOException {
+        long press = mClock.nanoTime();
+        mWarmup.prepare(mFile);
+        mWarmup.start();
+        mWarmup.stop();
+
+        mWarmup.recordStartLatency(press);
+
+        assertEquals(0, mWarmup.getColdStartLatency().getCount());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotStartWithoutPreparing() {
+        mWarmup.start();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotPrepareTwice() throws IOException {
+        mWarmup.prepare(mFile);
+        mWarmup.prepare(mFile);
+    }
+}
@@ -0,0 +1,195 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RecordingSegmenterTest {
+    private File mDir;
+    private FakeClock mClock;
+    private List<String> mCalls;
+    private List<SegmentManifest.Segment> mFinished;
+    private int mNextName;
+    private boolean mSeamlessWorks;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("segments", "");
+        mDir.delete();
+        mDir.mkdir();
+        mClock = new FakeClock();
+        mCalls = new ArrayList<>();
+        mFinished = new ArrayList<>();
+        mSeamlessWorks = true;
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    private RecordingSegmenter segmenter(boolean seamlessSupported) {
+        return new RecordingSegmenter(1000, 60 * 1000, seamlessSupported, new RecordingSegmenter.Output() {
+            @Override
+            public boolean setNextOutputFile(File file) throws IOException {
+                mCalls.add("next " + file.getName());
+                return mSeamlessWorks;
+            }
+
+            @Override
+            public void restart(File file) {
+                mCalls.add("restart " + file.getName());
+            }
+        }, new RecordingSegmenter.FileSource() {
+            @Override
+            public File nextFile() {
+                return new File(mDir, "VIDEO_" + ++mNextName + ".mp4");
+            }
+        }, new RecordingSegmenter.Listener() {
+            @Override
+            public void onSegmentFinished(SegmentManifest.Segment segment) {
+                mFinished.add(segment);
+            }
+        }, mClock);
+    }
+
+    private File write(String name, int bytes) throws IOException {
+        File file = new File(mDir, name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[bytes]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void recorderLimitsDependOnSeamlessSupport() {
+        // 8 kbit/s for 60 s is 60000 bytes, more than the size limit
+        assertEquals(1000, segmenter(true).getRecorderMaxFileSize(8000));
+        assertEquals(0, segmenter(true).getRecorderMaxDurationMillis());
+        // 80 bit/s for 60 s is 600 bytes
+        assertEquals(600, segmenter(true).getRecorderMaxFileSize(80));
+        assertEquals(1000, segmenter(false).getRecorderMaxFileSize(80));
+        assertEquals(60 * 1000, segmenter(false).getRecorderMaxDurationMillis());
+    }
+
+    @Test
+    public void seamlessRolloverQueuesNextFileAndWritesManifest() throws IOException {
+        RecordingSegmenter segmenter = segmenter(true);
+        File first = write("VIDEO_0.mp4", 1000);
+
+        segmenter.onStarted(first);
+        assertEquals(Arrays.asList("next VIDEO_1.mp4"), mCalls);
+
+        mClock.advanceMillis(30 * 1000);
+        write("VIDEO_1.mp4", 400);
+        assertTrue(segmenter.onInfo(RecordingSegmenter.INFO_NEXT_OUTPUT_FILE_STARTED));
+
+        assertEquals(Arrays.asList("next VIDEO_1.mp4", "next VIDEO_2.mp4"), mCalls);
+        assertEquals(new File(mDir, "VIDEO_1.mp4"), segmenter.getCurrentFile());
+        assertEquals(Arrays.asList(new SegmentManifest.Segment(first, 30 * 1000, 1000)), mFinished);
+        assertEquals(mFinished, segmenter.getManifest().read());
+
+        mClock.advanceMillis(5000);
+        SegmentManifest.Segment last = segmenter.onStopped(true);
+
+        assertEquals(new SegmentManifest.Segment(new File(mDir, "VIDEO_1.mp4"), 5000, 400), last);
+        assertEquals(2, segmenter.getSegments().size());
+        assertEquals(segmenter.getSegments(), segmenter.getManifest().read());
+        assertEquals(new File(mDir, "VIDEO_0" + SegmentManifest.EXTENSION), segmenter.getManifest().getFile());
+        assertEquals(0, segmenter.getRestarts());
+        assertFalse(segmenter.isRecording());
+    }
+
+    @Test
+    public void fileSizeReachedAfterQueueingIsLeftToTheRecorder() throws IOException {
+        RecordingSegmenter segmenter = segmenter(true);
+        segmenter.onStarted(write("VIDEO_0.mp4", 10));
+
+        assertTrue(segmenter.onInfo(RecordingSegmenter.INFO_MAX_FILESIZE_REACHED));
+
+        assertEquals(Arrays.asList("next VIDEO_1.mp4"), mCalls);
+        assertTrue(mFinished.isEmpty());
+    }
+
+    @Test
+    public void restartsWhenRecorderCannotSwitchFiles() throws IOException {
+        mSeamlessWorks = false;
+        RecordingSegmenter segmenter = segmenter(true);
+        File first = write("VIDEO_0.mp4", 10);
+        segmenter.onStarted(first);
+
+        mClock.advanceMillis(1000);
+        assertTrue(segmenter.onInfo(RecordingSegmenter.INFO_MAX_FILESIZE_REACHED));
+        // a restart goes through the same start code, which must not start a new recording
+        segmenter.onStarted(new File(mDir, "VIDEO_2.mp4"));
+
+        assertEquals(Arrays.asList("next VIDEO_1.mp4", "restart VIDEO_2.mp4"), mCalls);
+        assertEquals(1, segmenter.getRestarts());
+        assertEquals(Arrays.asList(new SegmentManifest.Segment(first, 1000, 10)), segmenter.getManifest().read());
+    }
+
+    @Test
+    public void restartsAtDurationLimitWithoutSeamlessSupport() throws IOException {
+        RecordingSegmenter segmenter = segmenter(false);
+        segmenter.onStarted(write("VIDEO_0.mp4", 10));
+
+        assertTrue(segmenter.onInfo(RecordingSegmenter.INFO_MAX_DURATION_REACHED));
+        assertTrue(segmenter.onInfo(RecordingSegmenter.INFO_MAX_DURATION_REACHED));
+
+        assertEquals(Arrays.asList("restart VIDEO_1.mp4", "restart VIDEO_2.mp4"), mCalls);
+        assertEquals(2, mFinished.size());
+        assertEquals(2, segmenter.getRestarts());
+    }
+
+    @Test
+    public void singleSegmentRecordingHasNoManifest() throws IOException {
+        RecordingSegmenter segmenter = segmenter(true);
+        File first = write("VIDEO_0.mp4", 10);
+        segmenter.onStarted(first);
+        // the recorder opened the queued file
+        write("VIDEO_1.mp4", 0);
+
+        SegmentManifest.Segment last = segmenter.onStopped(true);
+
+        assertEquals(first, last.getFile());
+        assertFalse(segmenter.getManifest().getFile().exists());
+        assertFalse(new File(mDir, "VIDEO_1.mp4").exists());
+        assertTrue(segmenter.getSegments().isEmpty());
+    }
+
+    @Test
+    public void emptyLastSegmentStaysOutOfManifest() throws IOException {
+        RecordingSegmenter segmenter = segmenter(true);
+        segmenter.onStarted(write("VIDEO_0.mp4", 10));
+        assertTrue(segmenter.onInfo(RecordingSegmenter.INFO_NEXT_OUTPUT_FILE_STARTED));
+
+        segmenter.onStopped(false);
+
+        assertEquals(1, segmenter.getManifest().read().size());
+    }
+
+    @Test
+    public void ignoresOtherInfoAndInfoWhileIdle() throws IOException {
+        RecordingSegmenter segmenter = segmenter(true);
+        assertFalse(segmenter.onInfo(RecordingSegmenter.INFO_NEXT_OUTPUT_FILE_STARTED));
+        assertNull(segmenter.onStopped(true));
+
+        segmenter.onStarted(write("VIDEO_0.mp4", 10));
+        assertFalse(segmenter.onInfo(1));
+    }
+}
@@ -0,0 +1,165 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SampleMuxerTest {
+    private List<String> mCalls;
+    private SampleMuxer.Muxer<String> mMuxer;
+    private DirectBufferPool mPool;
+
+    @Before
+    public void setUp() {
+        mCalls = new ArrayList<>();
+        mMuxer = new SampleMuxer.Muxer<String>() {
+            @Override
+            public int addTrack(String format) {
+                mCalls.add("add " + format);
+                // the muxer numbers tracks in the order they are added
+                return format.equals("audio") ? 7 : 3;
+            }
+
+            @Override
+            public void start() {
+                mCalls.add("start");
+            }
+
+            @Override
+            public void writeSampleData(int trackIndex, ByteBuffer data, long presentationTimeUs, int flags) {
+                mCalls.add(trackIndex + "@" + presentationTimeUs + (flags != 0 ? " key" : "") + " " + data.remaining());
+            }
+
+            @Override
+            public void stop() {
+                mCalls.add("stop");
+            }
+        };
+        mPool = new DirectBufferPool(1024 * 1024);
+    }
+
+    private EncodedSampleQueue.Sample sample(int track, long pts, boolean keyFrame) {
+        return new EncodedSampleQueue.Sample(track, mPool.acquire(100), pts,
+                keyFrame ? EncodedSampleQueue.FLAG_KEY_FRAME : 0);
+    }
+
+    @Test
+    public void holdsSamplesUntilStarted() {
+        SampleMuxer<String> muxer = new SampleMuxer<>(mMuxer, 1, 8, mPool);
+        muxer.write(sample(0, 1000, true));
+        assertTrue(mCalls.isEmpty());
+
+        muxer.addTrack(0, "video");
+        muxer.write(sample(0, 2000, false));
+        muxer.write(EncodedSampleQueue.Sample.endOfStream(0));
+        muxer.finish();
+
+        assertEquals(Arrays.asList("add video", "start", "3@0 key 100", "3@1000 100", "stop"), mCalls);
+        assertEquals(2, muxer.getWrittenSamples());
+        assertEquals(200, muxer.getWrittenBytes());
+        // the second sample reused the first one's buffer, and it went back again
+        assertEquals(1, mPool.getAllocations());
+        assertEquals(4096, mPool.getPooledBytes());
+    }
+
+    @Test
+    public void skipsUntilFirstKeyFrameAndConfigSamples() {
+        SampleMuxer<String> muxer = new SampleMuxer<>(mMuxer, 1, 8, mPool);
+        muxer.addTrack(0, "video");
+
+        muxer.write(sample(0, 1000, false));
+        muxer.write(new EncodedSampleQueue.Sample(0, mPool.acquire(20), 1000, EncodedSampleQueue.FLAG_CODEC_CONFIG));
+        muxer.write(sample(0, 2000, true));
+        muxer.write(sample(0, 3000, false));
+
+        assertEquals(Arrays.asList("add video", "start", "3@0 key 100", "3@1000 100"), mCalls);
+        assertEquals(2, muxer.getSkippedSamples());
+        // the first written sample is time 0
+        assertEquals(2000, muxer.getRebaser().getBaseUs());
+    }
+
+    @Test
+    public void interleavesTracksByTime() {
+        SampleMuxer<String> muxer = new SampleMuxer<>(mMuxer, 2, 8, mPool);
+        muxer.addTrack(0, "video");
+        muxer.addTrack(1, "audio");
+
+        muxer.write(sample(0, 0, true));
+        muxer.write(sample(0, 33, false));
+        muxer.write(sample(1, 10, true));
+        muxer.write(sample(1, 40, true));
+        assertEquals(Arrays.asList("add video", "add audio", "start", "3@0 key 100", "7@10 key 100",
+                "3@33 100"), mCalls);
+
+        muxer.write(EncodedSampleQueue.Sample.endOfStream(0));
+        muxer.write(EncodedSampleQueue.Sample.endOfStream(1));
+
+        assertEquals("7@40 key 100", mCalls.get(mCalls.size() - 1));
+    }
+
+    @Test
+    public void silentTrackCannotStallOthersPastTheHoldLimit() {
+        SampleMuxer<String> muxer = new SampleMuxer<>(mMuxer, 2, 2, mPool);
+        muxer.addTrack(0, "video");
+        muxer.addTrack(1, "audio");
+
+        muxer.write(sample(0, 0, true));
+        muxer.write(sample(0, 33, false));
+        assertEquals(3, mCalls.size());
+
+        muxer.write(sample(0, 66, false));
+        assertEquals("3@0 key 100", mCalls.get(3));
+        assertEquals(4, mCalls.size());
+    }
+
+    @Test
+    public void finishWritesHeldSamplesAndStops() {
+        SampleMuxer<String> muxer = new SampleMuxer<>(mMuxer, 2, 8, mPool);
+        muxer.addTrack(0, "video");
+        muxer.addTrack(1, "audio");
+        muxer.write(sample(0, 0, true));
+
+        muxer.finish();
+        muxer.finish();
+
+        assertEquals(Arrays.asList("add video", "add audio", "start", "3@0 key 100", "stop"), mCalls);
+    }
+
+    @Test
+    public void finishWithoutSamplesFails() {
+        SampleMuxer<String> muxer = new SampleMuxer<>(mMuxer, 1, 8, mPool);
+        // the encoder never reported its format
+        muxer.write(sample(0, 0, true));
+        try {
+            muxer.finish();
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(mCalls.isEmpty());
+        assertEquals(4096, mPool.getPooledBytes());
+    }
+
+    @Test
+    public void samplesAfterEndOfStreamAreSkipped() {
+        SampleMuxer<String> muxer = new SampleMuxer<>(mMuxer, 1, 8, mPool);
+        muxer.addTrack(0, "video");
+        muxer.write(EncodedSampleQueue.Sample.endOfStream(0));
+        muxer.write(sample(0, 0, true));
+
+        assertEquals(1, muxer.getSkippedSamples());
+        assertEquals(0, muxer.getWrittenSamples());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void trackCanOnlyBeAddedOnce() {
+        SampleMuxer<String> muxer = new SampleMuxer<>(mMuxer, 2, 8, mPool);
+        muxer.addTrack(0, "video");
+        muxer.addTrack(0, "video");
+    }
+}
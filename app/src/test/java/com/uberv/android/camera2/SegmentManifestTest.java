@@ -0,0 +1,81 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SegmentManifestTest {
+    private File mDir;
+    private SegmentManifest mManifest;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("manifest", "");
+        mDir.delete();
+        mDir.mkdir();
+        mManifest = SegmentManifest.forFirstSegment(new File(mDir, "VIDEO_20170101_120000_000.mp4"));
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    private SegmentManifest.Segment segment(String name, long durationMillis, long sizeBytes) {
+        return new SegmentManifest.Segment(new File(mDir, name), durationMillis, sizeBytes);
+    }
+
+    @Test
+    public void namedAfterFirstSegment() {
+        assertEquals(new File(mDir, "VIDEO_20170101_120000_000.segments"), mManifest.getFile());
+    }
+
+    @Test
+    public void missingManifestIsEmpty() throws IOException {
+        assertTrue(mManifest.read().isEmpty());
+    }
+
+    @Test
+    public void keepsSegmentsInOrder() throws IOException {
+        mManifest.append(segment("a.mp4", 600000, 1 << 30));
+        mManifest.append(segment("b.mp4", 1200, 4096));
+
+        assertEquals(Arrays.asList(segment("a.mp4", 600000, 1 << 30), segment("b.mp4", 1200, 4096)),
+                new SegmentManifest(mManifest.getFile()).read());
+    }
+
+    @Test
+    public void tornLineIsSkippedAndCutOffByNextAppend() throws IOException {
+        mManifest.append(segment("a.mp4", 1000, 100));
+        RandomAccessFile file = new RandomAccessFile(mManifest.getFile(), "rw");
+        file.seek(file.length());
+        // the crash hit halfway through the size
+        file.write("b.mp4\t2000\t12".getBytes("UTF-8"));
+        file.close();
+
+        assertEquals(Arrays.asList(segment("a.mp4", 1000, 100)), mManifest.read());
+
+        mManifest.append(segment("c.mp4", 3000, 300));
+
+        assertEquals(Arrays.asList(segment("a.mp4", 1000, 100), segment("c.mp4", 3000, 300)), mManifest.read());
+    }
+
+    @Test
+    public void skipsLinesItDidNotWrite() throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mManifest.getFile(), "rw");
+        file.write("# segments v1\nnot a segment\nx.mp4\tlong\t1\ny.mp4\t1\t2\n".getBytes("UTF-8"));
+        file.close();
+
+        assertEquals(Arrays.asList(segment("y.mp4", 1, 2)), mManifest.read());
+    }
+}
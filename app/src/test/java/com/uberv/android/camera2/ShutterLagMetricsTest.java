@@ -0,0 +1,96 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.uberv.android.camera2.ShutterLagMetrics.Stage;
+import static org.junit.Assert.*;
+
+public class ShutterLagMetricsTest {
+    private FakeClock mClock;
+    private ShutterLagMetrics mMetrics;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mMetrics = new ShutterLagMetrics(mClock);
+    }
+
+    private void step(int shot, Stage stage, long afterMillis) {
+        mClock.advanceMillis(afterMillis);
+        mMetrics.mark(shot, stage);
+    }
+
+    @Test
+    public void completedShotFeedsEveryStageHistogram() {
+        int shot = mMetrics.beginShot();
+        step(shot, Stage.LOCK_FOCUS, 2);
+        step(shot, Stage.AF_LOCKED, 300);
+        step(shot, Stage.CAPTURE_STARTED, 40);
+        step(shot, Stage.IMAGE_AVAILABLE, 120);
+        assertEquals(0, mMetrics.getCompletedShots());
+        step(shot, Stage.FILE_WRITTEN, 30);
+
+        assertEquals(1, mMetrics.getCompletedShots());
+        assertEquals(300, mMetrics.getSincePrevious(Stage.AF_LOCKED).getPercentileNanos(50) / 1000000.0, 300 / 8.0);
+        assertEquals(492, mMetrics.getSincePress(Stage.FILE_WRITTEN).getPercentileNanos(50) / 1000000.0, 492 / 8.0);
+        assertEquals(1, mMetrics.getSincePress(Stage.CAPTURE_STARTED).getCount());
+    }
+
+    @Test
+    public void onlyFirstMarkOfAStageCounts() {
+        int shot = mMetrics.beginShot();
+        step(shot, Stage.IMAGE_AVAILABLE, 100);
+        // second image of a burst
+        step(shot, Stage.IMAGE_AVAILABLE, 100);
+        step(shot, Stage.FILE_WRITTEN, 10);
+        assertEquals(100, mMetrics.getSincePress(Stage.IMAGE_AVAILABLE).getPercentileNanos(50) / 1000000.0,
+                100 / 8.0);
+        // marks after completion are ignored
+        step(shot, Stage.FILE_WRITTEN, 10);
+        assertEquals(1, mMetrics.getCompletedShots());
+    }
+
+    @Test
+    public void skippedStagesDoNotDistortIntervals() {
+        int shot = mMetrics.beginShot();
+        step(shot, Stage.IMAGE_AVAILABLE, 20);
+        step(shot, Stage.FILE_WRITTEN, 30);
+        assertEquals(0, mMetrics.getSincePress(Stage.AF_LOCKED).getCount());
+        assertEquals(30, mMetrics.getSincePrevious(Stage.FILE_WRITTEN).getPercentileNanos(50) / 1000000.0, 30 / 8.0);
+    }
+
+    @Test
+    public void overlappingShotsAreTrackedIndependently() {
+        int first = mMetrics.beginShot();
+        step(first, Stage.CAPTURE_STARTED, 10);
+        mClock.advanceMillis(5);
+        int second = mMetrics.beginShot();
+        step(second, Stage.CAPTURE_STARTED, 10);
+        step(first, Stage.FILE_WRITTEN, 100);
+        step(second, Stage.FILE_WRITTEN, 100);
+        assertEquals(2, mMetrics.getCompletedShots());
+        assertEquals(2, mMetrics.getSincePress(Stage.FILE_WRITTEN).getCount());
+    }
+
+    @Test
+    public void oldUnfinishedShotsAreEvicted() {
+        int stale = mMetrics.beginShot();
+        for (int i = 0; i < ShutterLagMetrics.SLOTS; i++) {
+            mMetrics.beginShot();
+        }
+        assertEquals(1, mMetrics.getDroppedShots());
+        step(stale, Stage.FILE_WRITTEN, 10);
+        assertEquals(0, mMetrics.getCompletedShots());
+        mMetrics.mark(ShutterLagMetrics.NO_SHOT, Stage.FILE_WRITTEN);
+        assertEquals(0, mMetrics.getCompletedShots());
+    }
+
+    @Test
+    public void dumpListsEveryStageAfterThePress() {
+        String dump = mMetrics.dump();
+        for (Stage stage : Stage.values()) {
+            assertEquals(stage != Stage.BUTTON_PRESSED, dump.contains(stage.name()));
+        }
+    }
+}
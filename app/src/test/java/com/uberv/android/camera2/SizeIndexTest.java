@@ -0,0 +1,344 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SizeIndexTest {
+    private static final int[] SIZES = {
+            4032, 3024,
+            1920, 1080,
+            1440, 1080,
+            1280, 720,
+            640, 480,
+            320, 240,
+    };
+    private static final int[][] ASPECTS = {{4, 3}, {16, 9}, {1, 1}, {3, 2}, {18, 9}, {9, 16}};
+    private static final int RUNS = 500;
+
+    @Test
+    public void sortsByAreaAndDropsDuplicates() {
+        SizeIndex index = new SizeIndex(new int[]{1280, 720, 320, 240, 1280, 720, 0, 10, 720, 1280});
+
+        assertEquals(3, index.size());
+        assertSize(index, 0, 320, 240);
+        assertSize(index, 1, 720, 1280);
+        assertSize(index, 2, 1280, 720);
+    }
+
+    @Test
+    public void prefersSmallestBigEnoughWithSameAspectRatio() {
+        SizeIndex index = new SizeIndex(SIZES);
+
+        assertSize(index, index.select(new SizeIndex.Query(1280, 720)), 1280, 720);
+        assertSize(index, index.select(new SizeIndex.Query(1600, 900)), 1920, 1080);
+    }
+
+    @Test
+    public void fallsBackToClosestAspectThatIsBigEnough() {
+        // nothing is 5:3, 1280x720 is the smallest that covers 1000x600
+        SizeIndex index = new SizeIndex(SIZES);
+        assertSize(index, index.select(new SizeIndex.Query(1000, 600)), 1280, 720);
+    }
+
+    @Test
+    public void fallsBackToLargestWhenNothingIsBigEnough() {
+        SizeIndex index = new SizeIndex(SIZES);
+        assertSize(index, index.select(new SizeIndex.Query(8000, 6000)), 4032, 3024);
+    }
+
+    @Test
+    public void prefersCloserAspectAmongEqualAreas() {
+        SizeIndex index = new SizeIndex(new int[]{1600, 900, 1200, 1200, 900, 1600});
+        assertSize(index, index.select(new SizeIndex.Query(800, 700)), 1200, 1200);
+    }
+
+    @Test
+    public void aspectToleranceAcceptsNearMatches() {
+        // 1088 rows are what some encoders want for 1080p, 0.7% off 16:9
+        SizeIndex index = new SizeIndex(new int[]{1920, 1088, 2560, 1440});
+        assertSize(index, index.select(new SizeIndex.Query(1920, 1080)), 1920, 1088);
+        assertSize(index, index.select(new SizeIndex.Query(1920, 1080).setAspectTolerance(0.001)), 2560, 1440);
+    }
+
+    @Test
+    public void analysisSizeIsLargestMatchUnderBudget() {
+        SizeIndex index = new SizeIndex(SIZES);
+
+        assertSize(index, index.select(new SizeIndex.Query(640, 480).setMaxArea(640 * 480)), 640, 480);
+        assertSize(index, index.select(new SizeIndex.Query(1280, 720).setMaxArea(1280 * 720)), 1280, 720);
+        // nothing 16:9 fits, the largest size that does is as close as it gets
+        assertSize(index, index.select(new SizeIndex.Query(640, 360).setMaxArea(640 * 360)), 320, 240);
+    }
+
+    @Test
+    public void pixelRateBudgetCapsSize() {
+        SizeIndex index = new SizeIndex(SIZES);
+        SizeIndex.Query query = new SizeIndex.Query(1920, 1080).setMaxPixelRate(1280L * 720 * 30, 30);
+
+        assertSize(index, index.select(query), 1280, 720);
+        assertEquals(Double.POSITIVE_INFINITY, index.score(5, query), 0);
+    }
+
+    @Test
+    public void nothingWithinBudget() {
+        SizeIndex index = new SizeIndex(SIZES);
+        assertEquals(-1, index.select(new SizeIndex.Query(320, 240).setMaxArea(100)));
+        assertEquals(-1, new SizeIndex(new int[0]).select(new SizeIndex.Query(320, 240)));
+    }
+
+    @Test
+    public void rejectsInvalidQueries() {
+        try {
+            new SizeIndex.Query(0, 10);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            new SizeIndex.Query(10, 10).setAspectRatio(4, 0);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            SizeIndex.selectConsistent(new SizeIndex[1], new SizeIndex.Query[2]);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void consistentSelectionSharesAspectRatio() {
+        // preview and video on their own would take 1920x1080, but the still output only has 4:3 sizes
+        SizeIndex preview = new SizeIndex(new int[]{1920, 1080, 1440, 1080, 640, 480});
+        SizeIndex video = new SizeIndex(new int[]{1920, 1080, 1440, 1080, 640, 480});
+        SizeIndex still = new SizeIndex(new int[]{4032, 3024, 1440, 1080});
+
+        int[] chosen = selectConsistent(1920, 1080, preview, video, still);
+
+        assertSize(preview, chosen[0], 1440, 1080);
+        assertSize(video, chosen[1], 1440, 1080);
+        assertSize(still, chosen[2], 4032, 3024);
+    }
+
+    @Test
+    public void consistentSelectionPrefersViewAspectRatio() {
+        SizeIndex both = new SizeIndex(new int[]{1920, 1080, 1440, 1080, 4032, 3024, 3840, 2160});
+
+        int[] chosen = selectConsistent(1920, 1080, both, both, both);
+
+        assertSize(both, chosen[0], 1920, 1080);
+        assertSize(both, chosen[1], 1920, 1080);
+        assertSize(both, chosen[2], 1920, 1080);
+    }
+
+    @Test
+    public void consistentSelectionOfNothing() {
+        assertNull(selectConsistent(640, 480, new SizeIndex(new int[0])));
+        assertEquals(0, SizeIndex.selectConsistent(new SizeIndex[0], new SizeIndex.Query[0]).length);
+    }
+
+    @Test
+    public void propertyIndexIsSortedAndComplete() {
+        Random random = new Random(1);
+        for (int run = 0; run < RUNS; run++) {
+            int[] sizes = randomSizes(random);
+            SizeIndex index = new SizeIndex(sizes);
+            for (int i = 1; i < index.size(); i++) {
+                long previous = area(index, i - 1);
+                assertTrue(previous < area(index, i)
+                        || previous == area(index, i) && index.getWidth(i - 1) < index.getWidth(i));
+            }
+            for (int i = 0; i < sizes.length; i += 2) {
+                assertTrue(find(index, sizes[i], sizes[i + 1]) >= 0);
+            }
+        }
+    }
+
+    @Test
+    public void propertySelectionIsBestOfBruteForce() {
+        Random random = new Random(2);
+        for (int run = 0; run < RUNS; run++) {
+            SizeIndex index = new SizeIndex(randomSizes(random));
+            SizeIndex.Query query = randomQuery(random);
+
+            int chosen = index.select(query);
+
+            int expected = -1;
+            for (int i = 0; i < index.size(); i++) {
+                double score = index.score(i, query);
+                if (!Double.isInfinite(score) && (expected < 0 || score < index.score(expected, query))) {
+                    expected = i;
+                }
+            }
+            assertEquals(query.toString(), expected, chosen);
+        }
+    }
+
+    @Test
+    public void propertySelectionStaysWithinBudget() {
+        Random random = new Random(3);
+        for (int run = 0; run < RUNS; run++) {
+            SizeIndex index = new SizeIndex(randomSizes(random));
+            long maxArea = 1 + random.nextInt(4096 * 3072);
+            long maxPixelRate = 30L * (1 + random.nextInt(4096 * 3072));
+            SizeIndex.Query query = randomQuery(random).setMaxArea(maxArea).setMaxPixelRate(maxPixelRate, 30);
+
+            int chosen = index.select(query);
+
+            boolean anyFits = false;
+            for (int i = 0; i < index.size(); i++) {
+                anyFits |= area(index, i) <= maxArea && area(index, i) * 30 <= maxPixelRate;
+            }
+            assertEquals(anyFits, chosen >= 0);
+            if (chosen >= 0) {
+                assertTrue(area(index, chosen) <= maxArea);
+                assertTrue(area(index, chosen) * 30 <= maxPixelRate);
+            }
+        }
+    }
+
+    @Test
+    public void propertyCoveringMatchWinsWhenThereIsOne() {
+        Random random = new Random(4);
+        for (int run = 0; run < RUNS; run++) {
+            SizeIndex index = new SizeIndex(randomSizes(random));
+            int[] aspect = ASPECTS[random.nextInt(ASPECTS.length)];
+            int width = 100 + random.nextInt(4000);
+            int height = Math.max(1, width * aspect[1] / aspect[0]);
+            SizeIndex.Query query = new SizeIndex.Query(width, height);
+
+            boolean anyMatch = false;
+            for (int i = 0; i < index.size(); i++) {
+                anyMatch |= matches(index, i, width, height);
+            }
+            int chosen = index.select(query);
+            if (anyMatch) {
+                assertTrue(query.toString(), matches(index, chosen, width, height));
+            }
+        }
+    }
+
+    @Test
+    public void propertySelectionIgnoresInputOrder() {
+        Random random = new Random(5);
+        for (int run = 0; run < RUNS; run++) {
+            int[] sizes = randomSizes(random);
+            int[] shuffled = sizes.clone();
+            for (int i = shuffled.length / 2 - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                swap(shuffled, 2 * i, 2 * j);
+                swap(shuffled, 2 * i + 1, 2 * j + 1);
+            }
+            SizeIndex index = new SizeIndex(sizes);
+            SizeIndex other = new SizeIndex(shuffled);
+            SizeIndex.Query query = randomQuery(random);
+
+            int chosen = index.select(query);
+            int otherChosen = other.select(query);
+
+            assertEquals(index.getWidth(chosen), other.getWidth(otherChosen));
+            assertEquals(index.getHeight(chosen), other.getHeight(otherChosen));
+        }
+    }
+
+    @Test
+    public void propertyConsistentSelectionSharesAspectRatio() {
+        Random random = new Random(6);
+        for (int run = 0; run < RUNS; run++) {
+            int[] aspect = ASPECTS[random.nextInt(ASPECTS.length)];
+            int targetWidth = 160 + random.nextInt(1920);
+            int targetHeight = 160 + random.nextInt(1920);
+            // every output offers the shared aspect ratio in a size that covers the target
+            int scale = 1 + Math.max(targetWidth / aspect[0], targetHeight / aspect[1]);
+            int[] shared = {aspect[0] * scale, aspect[1] * scale};
+            SizeIndex[] indexes = new SizeIndex[3];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = new SizeIndex(concat(randomSizes(random), shared));
+            }
+
+            int[] chosen = selectConsistent(targetWidth, targetHeight, indexes);
+
+            for (int i = 0; i < indexes.length; i++) {
+                assertTrue(chosen[i] >= 0);
+                assertTrue(indexes[i].getWidth(chosen[i]) >= targetWidth);
+                assertTrue(indexes[i].getHeight(chosen[i]) >= targetHeight);
+                for (int j = 0; j < i; j++) {
+                    double difference = logAspect(indexes[i], chosen[i]) - logAspect(indexes[j], chosen[j]);
+                    assertEquals(0, difference, 2 * SizeIndex.DEFAULT_ASPECT_TOLERANCE);
+                }
+            }
+        }
+    }
+
+    private static int[] selectConsistent(int width, int height, SizeIndex... indexes) {
+        SizeIndex.Query[] queries = new SizeIndex.Query[indexes.length];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new SizeIndex.Query(width, height);
+        }
+        return SizeIndex.selectConsistent(indexes, queries);
+    }
+
+    private static int[] randomSizes(Random random) {
+        int[] sizes = new int[2 * (1 + random.nextInt(40))];
+        for (int i = 0; i < sizes.length; i += 2) {
+            int width = 16 * (10 + random.nextInt(247));
+            sizes[i] = width;
+            if (random.nextInt(4) == 0) {
+                sizes[i + 1] = 16 * (10 + random.nextInt(247));
+            } else {
+                int[] aspect = ASPECTS[random.nextInt(ASPECTS.length)];
+                sizes[i + 1] = Math.max(1, width * aspect[1] / aspect[0]);
+            }
+        }
+        return sizes;
+    }
+
+    private static SizeIndex.Query randomQuery(Random random) {
+        int[] aspect = ASPECTS[random.nextInt(ASPECTS.length)];
+        int width = 100 + random.nextInt(4000);
+        return new SizeIndex.Query(width, Math.max(1, width * aspect[1] / aspect[0]));
+    }
+
+    private static boolean matches(SizeIndex index, int i, int width, int height) {
+        double error = Math.abs(logAspect(index, i) - Math.log(width / (double) height));
+        return error <= SizeIndex.DEFAULT_ASPECT_TOLERANCE && index.getWidth(i) >= width
+                && index.getHeight(i) >= height;
+    }
+
+    private static double logAspect(SizeIndex index, int i) {
+        return Math.log(index.getWidth(i) / (double) index.getHeight(i));
+    }
+
+    private static long area(SizeIndex index, int i) {
+        return (long) index.getWidth(i) * index.getHeight(i);
+    }
+
+    private static int find(SizeIndex index, int width, int height) {
+        for (int i = 0; i < index.size(); i++) {
+            if (index.getWidth(i) == width && index.getHeight(i) == height) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] concat(int[] lhs, int[] rhs) {
+        int[] result = new int[lhs.length + rhs.length];
+        System.arraycopy(lhs, 0, result, 0, lhs.length);
+        System.arraycopy(rhs, 0, result, lhs.length, rhs.length);
+        return result;
+    }
+
+    private static void swap(int[] array, int i, int j) {
+        int tmp = array[i];
+        array[i] = array[j];
+        array[j] = tmp;
+    }
+
+    private static void assertSize(SizeIndex index, int i, int width, int height) {
+        assertTrue("no size selected", i >= 0);
+        assertEquals(width + "x" + height, index.getWidth(i) + "x" + index.getHeight(i));
+    }
+}
@@ -0,0 +1,184 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StartupOrchestratorTest {
+    private FakeClock mClock;
+    private List<String> mStarted;
+    private List<String> mEvents;
+    private StartupOrchestrator mStartup;
+
+    @Before
+    public void setUp() {
+        mClock = new FakeClock();
+        mStarted = new ArrayList<>();
+        mEvents = new ArrayList<>();
+        mStartup = new StartupOrchestrator(mClock, new StartupOrchestrator.Listener() {
+            @Override
+            public void onStepCompleted(String step, long sinceStartNanos) {
+                mEvents.add(step + "@" + sinceStartNanos / 1000000);
+            }
+
+            @Override
+            public void onStartupCompleted(long totalNanos) {
+                mEvents.add("done@" + totalNanos / 1000000);
+            }
+
+            @Override
+            public void onStartupFailed(String step, Exception e) {
+                mEvents.add("failed:" + step);
+            }
+        });
+    }
+
+    /**
+     * Step that only records that it was started; the test completes it later, like a camera callback would.
+     */
+    private StartupOrchestrator.Step asyncStep(final String name) {
+        return new StartupOrchestrator.Step() {
+            @Override
+            public void start(StartupOrchestrator orchestrator) {
+                mStarted.add(name);
+            }
+        };
+    }
+
+    private void addCameraGraph() {
+        mStartup.addStep("info", asyncStep("info"));
+        mStartup.addStep("open", asyncStep("open"), "info");
+        mStartup.addStep("readers", asyncStep("readers"), "info");
+        mStartup.addStep("recorder", asyncStep("recorder"));
+        mStartup.addStep("surface", asyncStep("surface"));
+        mStartup.addStep("session", asyncStep("session"), "open", "readers", "recorder", "surface");
+        mStartup.addStep("frame", asyncStep("frame"), "session");
+    }
+
+    @Test
+    public void startsIndependentStepsTogether() {
+        addCameraGraph();
+        mStartup.start();
+
+        assertEquals(Arrays.asList("info", "recorder", "surface"), mStarted);
+    }
+
+    @Test
+    public void opensCameraBeforeTheSurfaceIsReady() {
+        addCameraGraph();
+        mStartup.start();
+
+        mStartup.complete("info");
+
+        assertEquals(Arrays.asList("info", "recorder", "surface", "open", "readers"), mStarted);
+        assertFalse(mStartup.isStarted("session"));
+    }
+
+    @Test
+    public void joinsEverythingWhenTheSurfaceArrives() {
+        addCameraGraph();
+        mStartup.start();
+        mStartup.complete("info");
+        mStartup.complete("recorder");
+        mStartup.complete("readers");
+        mStartup.complete("open");
+        assertFalse(mStartup.isStarted("session"));
+
+        mStartup.complete("surface");
+
+        assertTrue(mStartup.isStarted("session"));
+    }
+
+    @Test
+    public void reportsTimeToFirstFrame() {
+        addCameraGraph();
+        mStartup.start();
+        mClock.advanceMillis(10);
+        mStartup.complete("info");
+        mStartup.complete("recorder");
+        mClock.advanceMillis(5);
+        mStartup.complete("readers");
+        mClock.advanceMillis(100);
+        mStartup.complete("surface");
+        mClock.advanceMillis(50);
+        mStartup.complete("open");
+        mStartup.complete("session");
+        mClock.advanceMillis(35);
+        mStartup.complete("frame");
+
+        assertTrue(mStartup.isFinished());
+        assertEquals(200 * 1000000L, mStartup.getCompletedNanos("frame"));
+        assertEquals(115 * 1000000L, mStartup.getCompletedNanos("surface"));
+        assertEquals("done@200", mEvents.get(mEvents.size() - 1));
+    }
+
+    @Test
+    public void stepCompletingSynchronouslyStartsItsDependents() {
+        mStartup.addStep("a", new StartupOrchestrator.Step() {
+            @Override
+            public void start(StartupOrchestrator orchestrator) {
+                mStarted.add("a");
+                orchestrator.complete("a");
+            }
+        });
+        mStartup.addStep("b", asyncStep("b"), "a");
+
+        mStartup.start();
+
+        assertEquals(Arrays.asList("a", "b"), mStarted);
+        assertTrue(mStartup.isCompleted("a"));
+    }
+
+    @Test
+    public void repeatedCompletionIsIgnored() {
+        addCameraGraph();
+        mStartup.start();
+        mStartup.complete("surface");
+        mStartup.complete("surface");
+
+        assertEquals(Arrays.asList("surface@0"), mEvents);
+    }
+
+    @Test
+    public void failureStopsDependents() {
+        addCameraGraph();
+        mStartup.start();
+        mStartup.complete("info");
+        mStartup.fail("open", new Exception("camera in use"));
+        mStartup.complete("readers");
+        mStartup.complete("recorder");
+        mStartup.complete("surface");
+
+        assertFalse(mStartup.isStarted("session"));
+        assertEquals(Arrays.asList("info@0", "failed:open"), mEvents);
+    }
+
+    @Test
+    public void cancelIgnoresLateCompletions() {
+        addCameraGraph();
+        mStartup.start();
+        mStartup.cancel();
+        mStartup.complete("info");
+
+        assertTrue(mStartup.isCancelled());
+        assertFalse(mStartup.isStarted("open"));
+        assertTrue(mEvents.isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void completingAStepThatHasNotStartedIsAnError() {
+        addCameraGraph();
+        mStartup.start();
+        mStartup.complete("session");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void dependenciesMustBeAddedFirst() {
+        mStartup.addStep("session", asyncStep("session"), "open");
+    }
+}
@@ -0,0 +1,127 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class StorageThroughputCacheTest {
+    private static final long NOW_MILLIS = 1500000000000L;
+    private static final long MINUTE_NS = 60 * 1000000000L;
+
+    private File mDir;
+    private File mFile;
+    private FakeClock mClock;
+    private StorageThroughputCache mCache;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("storage_throughput", "");
+        mDir.delete();
+        mDir.mkdir();
+        mFile = new File(mDir, "storage_throughput");
+        mClock = new FakeClock();
+        mCache = new StorageThroughputCache(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    private StorageThroughputProbe newProbe() {
+        return new StorageThroughputProbe(mDir, 1024, 1024, 0.5, mClock);
+    }
+
+    private StorageThroughputProbe measuredProbe() {
+        StorageThroughputProbe probe = newProbe();
+        probe.record(20000000, 1000000000L);
+        probe.record(10000000, 1000000000L);
+        return probe;
+    }
+
+    @Test
+    public void missingFileIsACacheMiss() {
+        StorageThroughputProbe probe = newProbe();
+        assertFalse(mCache.load(probe, NOW_MILLIS));
+        assertEquals(0, probe.getSamples());
+    }
+
+    @Test
+    public void estimateSurvivesARestartAndKeepsAging() throws IOException {
+        StorageThroughputProbe saved = measuredProbe();
+        mClock.advanceMillis(60 * 1000);
+        mCache.save(saved, NOW_MILLIS);
+
+        // a new process, whose clock starts elsewhere, two minutes later
+        mClock.now = 5;
+        StorageThroughputProbe probe = newProbe();
+        assertTrue(mCache.load(probe, NOW_MILLIS + 2 * 60 * 1000));
+
+        assertEquals(15000000, probe.getBytesPerSecond());
+        assertEquals(10000000, probe.getLastBytesPerSecond());
+        assertEquals(10000000, probe.getSlowestBytesPerSecond());
+        assertEquals(2, probe.getSamples());
+        assertEquals(3 * MINUTE_NS, probe.getAgeNanos());
+        assertFalse(probe.isStale(10 * MINUTE_NS));
+        assertTrue(probe.isStale(2 * MINUTE_NS));
+        assertEquals(1, mDir.listFiles().length);
+    }
+
+    @Test
+    public void probeWithoutAnEstimateIsNotSaved() throws IOException {
+        mCache.save(newProbe(), NOW_MILLIS);
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void otherDirectoryIsACacheMiss() throws IOException {
+        mCache.save(measuredProbe(), NOW_MILLIS);
+        StorageThroughputProbe other = new StorageThroughputProbe(new File(mDir, "other"), 1024, 1024, 0.5, mClock);
+
+        assertFalse(mCache.load(other, NOW_MILLIS));
+    }
+
+    @Test
+    public void estimateFromTheFutureIsACacheMiss() throws IOException {
+        mCache.save(measuredProbe(), NOW_MILLIS);
+
+        // the wall clock was set back
+        assertFalse(mCache.load(newProbe(), NOW_MILLIS - 1000));
+    }
+
+    @Test
+    public void veryOldEstimateIsStale() throws IOException {
+        mCache.save(measuredProbe(), 0);
+        StorageThroughputProbe probe = newProbe();
+
+        assertTrue(mCache.load(probe, Long.MAX_VALUE / 2));
+        assertTrue(probe.isStale(10 * MINUTE_NS));
+    }
+
+    @Test
+    public void corruptFileIsACacheMiss() throws IOException {
+        mCache.save(measuredProbe(), NOW_MILLIS);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        file.setLength(file.length() - 2);
+        file.close();
+
+        assertFalse(mCache.load(newProbe(), NOW_MILLIS));
+
+        mCache.save(measuredProbe(), NOW_MILLIS);
+        file = new RandomAccessFile(mFile, "rw");
+        file.seek(4);
+        file.writeInt(StorageThroughputCache.VERSION + 1);
+        file.close();
+
+        assertFalse(mCache.load(newProbe(), NOW_MILLIS));
+    }
+}
@@ -0,0 +1,119 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class StorageThroughputProbeTest {
+    private File mDir;
+    private FakeClock mClock;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("probe", "");
+        mDir.delete();
+        mDir.mkdir();
+        mClock = new FakeClock();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void probeMeasuresAndCleansUp() throws IOException {
+        StorageThroughputProbe probe = new StorageThroughputProbe(mDir, 1024 * 1024, 64 * 1024, 0.5, Clock.SYSTEM);
+
+        long bytesPerSecond = probe.probe();
+
+        assertTrue(bytesPerSecond > 0);
+        assertEquals(bytesPerSecond, probe.getBytesPerSecond());
+        assertEquals(1, probe.getSamples());
+        assertFalse(new File(mDir, StorageThroughputProbe.PROBE_FILE_NAME).exists());
+        assertEquals(0, mDir.listFiles().length);
+        assertTrue(probe.getUsableBytes() > 0);
+    }
+
+    @Test
+    public void probeSizeNeedNotBeAMultipleOfTheChunk() throws IOException {
+        StorageThroughputProbe probe = new StorageThroughputProbe(mDir, 100000, 65536, 0.5, Clock.SYSTEM);
+        probe.probe();
+        probe.probe();
+
+        assertEquals(2, probe.getSamples());
+    }
+
+    @Test
+    public void noTwoBlocksOfTheProbeFileAreAlike() {
+        int chunkBytes = 4 * StorageThroughputProbe.BLOCK_BYTES;
+        ByteBuffer chunk = ByteBuffer.allocate(chunkBytes);
+        Set<ByteBuffer> blocks = new HashSet<>();
+        for (long offset = 0; offset < 4 * chunkBytes; offset += chunkBytes) {
+            StorageThroughputProbe.stamp(chunk, offset);
+            for (int at = 0; at < chunkBytes; at += StorageThroughputProbe.BLOCK_BYTES) {
+                byte[] block = new byte[StorageThroughputProbe.BLOCK_BYTES];
+                chunk.position(at);
+                chunk.get(block);
+                assertTrue("block at " + (offset + at), blocks.add(ByteBuffer.wrap(block)));
+            }
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void missingDirectoryFails() throws IOException {
+        new StorageThroughputProbe(new File(mDir, "missing"), 1024, 1024, 0.5, Clock.SYSTEM).probe();
+    }
+
+    @Test
+    public void estimateIsSmoothed() {
+        StorageThroughputProbe probe = new StorageThroughputProbe(mDir, 1024, 1024, 0.25, mClock);
+
+        // 10 MB in a second, then a slow 2 MB/s
+        assertEquals(10000000, probe.record(10000000, 1000000000L));
+        assertEquals(2000000, probe.record(1000000, 500000000L));
+
+        assertEquals(8000000, probe.getBytesPerSecond());
+        assertEquals(2000000, probe.getLastBytesPerSecond());
+        assertEquals(2000000, probe.getSlowestBytesPerSecond());
+    }
+
+    @Test
+    public void unusableMeasurementsAreIgnored() {
+        StorageThroughputProbe probe = new StorageThroughputProbe(mDir, 1024, 1024, 0.25, mClock);
+
+        assertEquals(0, probe.record(1000, 0));
+        assertEquals(0, probe.record(0, 1000));
+
+        assertEquals(0, probe.getSamples());
+        assertEquals(0, probe.getBytesPerSecond());
+    }
+
+    @Test
+    public void becomesStaleWithAge() {
+        StorageThroughputProbe probe = new StorageThroughputProbe(mDir, 1024, 1024, 0.25, mClock);
+        assertTrue(probe.isStale(Long.MAX_VALUE));
+
+        probe.record(1000, 1000);
+        mClock.advanceMillis(1000);
+
+        assertFalse(probe.isStale(2000 * 1000000L));
+        assertTrue(probe.isStale(500 * 1000000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void smoothingMustBeAWeight() {
+        new StorageThroughputProbe(mDir, 1024, 1024, 0, mClock);
+    }
+}
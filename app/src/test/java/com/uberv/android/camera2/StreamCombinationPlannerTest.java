@@ -0,0 +1,172 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static com.uberv.android.camera2.StreamCombinationPlanner.Format.JPEG;
+import static com.uberv.android.camera2.StreamCombinationPlanner.Format.PRIV;
+import static com.uberv.android.camera2.StreamCombinationPlanner.Format.YUV;
+import static org.junit.Assert.*;
+
+public class StreamCombinationPlannerTest {
+    private static final long SCREEN = 1920 * 1080;
+    private static final long RECORD = 3840 * 2160;
+
+    private static StreamCombinationPlanner planner(int level) {
+        return new StreamCombinationPlanner(level, SCREEN, RECORD);
+    }
+
+    private static StreamCombinationPlanner.Stream stream(StreamCombinationPlanner.Format format, int... sizes) {
+        return new StreamCombinationPlanner.Stream(format, sizes);
+    }
+
+    @Test
+    public void previewAndStillAtAnyLevel() {
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(PRIV, 1920, 1080), stream(JPEG, 4032, 3024));
+        for (int level = 0; level <= 4; level++) {
+            assertTrue(planner(level).isGuaranteed(streams));
+        }
+    }
+
+    @Test
+    public void recordingWithStillsNeedsLimited() {
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(PRIV, 1920, 1080), stream(PRIV, 3840, 2160), stream(JPEG, 3840, 2160));
+
+        assertFalse(planner(StreamCombinationPlanner.LEVEL_LEGACY).isGuaranteed(streams));
+        assertTrue(planner(StreamCombinationPlanner.LEVEL_LIMITED).isGuaranteed(streams));
+        assertTrue(planner(StreamCombinationPlanner.LEVEL_EXTERNAL).isGuaranteed(streams));
+        assertTrue(planner(StreamCombinationPlanner.LEVEL_FULL).isGuaranteed(streams));
+        // a still larger than the record size is only guaranteed next to two preview sized streams
+        assertFalse(planner(StreamCombinationPlanner.LEVEL_FULL).isGuaranteed(Arrays.asList(
+                stream(PRIV, 1920, 1080), stream(PRIV, 3840, 2160), stream(JPEG, 4032, 3024))));
+    }
+
+    @Test
+    public void unknownLevelGetsLegacyGuarantees() {
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(stream(PRIV, 1920, 1080), stream(PRIV, 3840, 2160));
+
+        assertFalse(planner(42).isGuaranteed(streams));
+        assertTrue(planner(StreamCombinationPlanner.LEVEL_LIMITED).isGuaranteed(streams));
+    }
+
+    @Test
+    public void previewClassIsCappedByScreen() {
+        StreamCombinationPlanner small = new StreamCombinationPlanner(StreamCombinationPlanner.LEVEL_LEGACY,
+                1280 * 720, RECORD);
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(stream(PRIV, 1920, 1080), stream(YUV, 640, 480));
+
+        assertFalse(small.isGuaranteed(streams));
+        assertTrue(planner(StreamCombinationPlanner.LEVEL_LEGACY).isGuaranteed(streams));
+    }
+
+    @Test
+    public void fullLevelAllowsVgaAnalysisWithMaximumYuv() {
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(YUV, 640, 480), stream(PRIV, 1920, 1080), stream(YUV, 4032, 3024));
+
+        assertTrue(planner(StreamCombinationPlanner.LEVEL_FULL).isGuaranteed(streams));
+        assertTrue(planner(StreamCombinationPlanner.LEVEL_3).isGuaranteed(streams));
+        assertFalse(planner(StreamCombinationPlanner.LEVEL_LIMITED).isGuaranteed(streams));
+    }
+
+    @Test
+    public void twoJpegStreamsAreNeverGuaranteed() {
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(PRIV, 640, 480), stream(JPEG, 640, 480), stream(JPEG, 640, 480));
+        assertFalse(planner(StreamCombinationPlanner.LEVEL_3).isGuaranteed(streams));
+    }
+
+    @Test
+    public void planKeepsWantedSizesWhenGuaranteed() {
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(PRIV, 1920, 1080, 1280, 720), stream(PRIV, 3840, 2160, 1920, 1080),
+                stream(JPEG, 3840, 2160, 1920, 1080));
+
+        StreamCombinationPlanner.Plan plan = planner(StreamCombinationPlanner.LEVEL_LIMITED).plan(streams);
+
+        assertTrue(plan.isComplete());
+        assertEquals(1920, plan.getWidth(0));
+        assertEquals(3840, plan.getWidth(1));
+        assertEquals(3840, plan.getWidth(2));
+        assertEquals(1920L * 1080 + 2L * 3840 * 2160, plan.getPixels());
+    }
+
+    @Test
+    public void planShrinksToMostPixels() {
+        // the still has to come down to the record size; the preview could shrink too, but that loses more pixels
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(PRIV, 1920, 1080, 1280, 720), stream(PRIV, 3840, 2160),
+                stream(JPEG, 4032, 3024, 3840, 2160, 1920, 1080));
+
+        StreamCombinationPlanner.Plan plan = planner(StreamCombinationPlanner.LEVEL_LIMITED).plan(streams);
+
+        assertFalse(plan.isComplete());
+        assertTrue(plan.isIncluded(2));
+        assertEquals("Plan{1920x1080, 3840x2160, 3840x2160}", plan.toString());
+    }
+
+    @Test
+    public void planDropsOptionalStreamsLastFirst() {
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(PRIV, 1920, 1080),
+                stream(JPEG, 4032, 3024),
+                stream(YUV, 640, 480).setOptional(true),
+                stream(PRIV, 1920, 1080).setOptional(true));
+
+        StreamCombinationPlanner.Plan plan = planner(StreamCombinationPlanner.LEVEL_LEGACY).plan(streams);
+
+        assertTrue(plan.isIncluded(0));
+        assertTrue(plan.isIncluded(1));
+        assertTrue(plan.isIncluded(2));
+        assertFalse(plan.isIncluded(3));
+        assertEquals("Plan{1920x1080, 4032x3024, 640x480, dropped}", plan.toString());
+    }
+
+    @Test
+    public void planPrefersShrinkingOverDropping() {
+        // at LEGACY the recorder has to be preview sized to share the session with the preview
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(PRIV, 1920, 1080), stream(PRIV, 3840, 2160, 1920, 1080).setOptional(true));
+
+        StreamCombinationPlanner.Plan plan = planner(StreamCombinationPlanner.LEVEL_LEGACY).plan(streams);
+
+        assertTrue(plan.isIncluded(1));
+        assertEquals(1920, plan.getWidth(1));
+    }
+
+    @Test
+    public void planFailsWhenRequiredStreamsDontFit() {
+        List<StreamCombinationPlanner.Stream> streams = Arrays.asList(
+                stream(PRIV, 1920, 1080), stream(PRIV, 3840, 2160), stream(JPEG, 4032, 3024));
+        assertNull(planner(StreamCombinationPlanner.LEVEL_LEGACY).plan(streams));
+    }
+
+    @Test
+    public void fallbacksFollowSizeClasses() {
+        SizeIndex sizes = new SizeIndex(new int[]{4032, 3024, 3840, 2160, 1920, 1080, 1440, 1080, 640, 480,
+                320, 240});
+        StreamCombinationPlanner planner = new StreamCombinationPlanner(StreamCombinationPlanner.LEVEL_LIMITED,
+                SCREEN, 1920 * 1080);
+
+        int[] fallbacks = StreamCombinationPlanner.Stream.withFallbacks(planner, sizes, 4032, 3024);
+
+        // RECORD and PREVIEW are both 1080p here, so there is one fallback for both, then VGA
+        assertArrayEquals(new int[]{4032, 3024, 1440, 1080, 640, 480}, fallbacks);
+        assertArrayEquals(new int[]{320, 240}, StreamCombinationPlanner.Stream.withFallbacks(planner, sizes, 320, 240));
+    }
+
+    @Test
+    public void levelNames() {
+        assertEquals("LEGACY", StreamCombinationPlanner.levelName(StreamCombinationPlanner.LEVEL_LEGACY));
+        assertEquals("UNKNOWN(9)", StreamCombinationPlanner.levelName(9));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void streamNeedsASize() {
+        new StreamCombinationPlanner.Stream(PRIV, new int[0]);
+    }
+}
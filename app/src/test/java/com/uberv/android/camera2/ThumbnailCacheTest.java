@@ -0,0 +1,216 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        ThumbnailCache<String> cache = new ThumbnailCache<>(2);
+        cache.put("a.jpg", "A");
+        cache.put("b.jpg", "B");
+        // touching a makes b the eldest
+        assertEquals("A", cache.get("a.jpg"));
+        cache.put("c.jpg", "C");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b.jpg"));
+        assertEquals("A", cache.get("a.jpg"));
+        assertEquals("C", cache.get("c.jpg"));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void replacingAnEntryDoesNotEvict() {
+        ThumbnailCache<String> cache = new ThumbnailCache<>(2);
+        cache.put("a.jpg", "A");
+        cache.put("b.jpg", "B");
+        cache.put("a.jpg", "A2");
+
+        assertEquals(2, cache.size());
+        assertEquals("A2", cache.get("a.jpg"));
+        assertEquals(0, cache.getEvictions());
+    }
+
+    @Test
+    public void countsHitsAndMisses() {
+        ThumbnailCache<String> cache = new ThumbnailCache<>(4);
+        cache.put("a.jpg", "A");
+        cache.get("a.jpg");
+        cache.get("b.jpg");
+        cache.get("b.jpg");
+
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void removeAndClear() {
+        ThumbnailCache<String> cache = new ThumbnailCache<>(4);
+        cache.put("a.jpg", "A");
+        cache.put("b.jpg", "B");
+        assertEquals("A", cache.remove("a.jpg"));
+        assertNull(cache.get("a.jpg"));
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCache() {
+        new ThumbnailCache<String>(0);
+    }
+
+    private static final ThumbnailCache.Weigher<byte[]> BYTES = new ThumbnailCache.Weigher<byte[]>() {
+        @Override
+        public long weigh(byte[] value) {
+            return value.length;
+        }
+    };
+
+    @Test
+    public void boundedByWeight() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(100, BYTES,
+                ThumbnailCache.<byte[]>leastRecentlyUsed());
+        cache.put("a.jpg", new byte[40]);
+        cache.put("b.jpg", new byte[40]);
+        assertEquals(80, cache.getWeight());
+        // needs 30 more than fit, a alone makes room
+        cache.put("c.jpg", new byte[50]);
+
+        assertNull(cache.get("a.jpg"));
+        assertNotNull(cache.get("b.jpg"));
+        assertEquals(90, cache.getWeight());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    public void evictsAsManyAsNeeded() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(100, BYTES,
+                ThumbnailCache.<byte[]>leastRecentlyUsed());
+        for (int i = 0; i < 10; i++) {
+            cache.put(i + ".jpg", new byte[10]);
+        }
+        cache.put("big.jpg", new byte[95]);
+
+        assertEquals(1, cache.size());
+        assertEquals(95, cache.getWeight());
+        assertEquals(10, cache.getEvictions());
+    }
+
+    @Test
+    public void replacingAnEntryUpdatesWeight() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(100, BYTES,
+                ThumbnailCache.<byte[]>leastRecentlyUsed());
+        cache.put("a.jpg", new byte[40]);
+        cache.put("a.jpg", new byte[10]);
+        assertEquals(10, cache.getWeight());
+        cache.remove("a.jpg");
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void rejectsValueHeavierThanTheCache() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(100, BYTES,
+                ThumbnailCache.<byte[]>leastRecentlyUsed());
+        cache.put("a.jpg", new byte[40]);
+
+        assertFalse(cache.put("huge.jpg", new byte[101]));
+        assertEquals(1, cache.getRejected());
+        // nothing was evicted for it
+        assertNotNull(cache.get("a.jpg"));
+    }
+
+    @Test
+    public void heaviestPolicyKeepsSmallEntries() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(100, BYTES, ThumbnailCache.<byte[]>heaviest());
+        cache.put("small1.jpg", new byte[10]);
+        cache.put("large.jpg", new byte[60]);
+        cache.put("small2.jpg", new byte[10]);
+        cache.put("small3.jpg", new byte[30]);
+
+        assertNull(cache.get("large.jpg"));
+        assertEquals(3, cache.size());
+        assertEquals(50, cache.getWeight());
+    }
+
+    @Test
+    public void notifiesEvictionsAndReplacements() {
+        final List<String> evicted = new ArrayList<>();
+        ThumbnailCache<String> cache = new ThumbnailCache<>(2);
+        cache.setEvictionListener(new ThumbnailCache.EvictionListener<String>() {
+            @Override
+            public void onEvicted(String path, String value) {
+                evicted.add(path + "=" + value);
+            }
+        });
+        cache.put("a.jpg", "A");
+        cache.put("a.jpg", "A2");
+        cache.put("b.jpg", "B");
+        cache.put("c.jpg", "C");
+        // removal is explicit, not an eviction
+        cache.remove("b.jpg");
+
+        assertEquals(2, evicted.size());
+        assertEquals("a.jpg=A", evicted.get(0));
+        assertEquals("a.jpg=A2", evicted.get(1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectsPolicyReturningForeignEntry() {
+        ThumbnailCache<String> cache = new ThumbnailCache<>(1, new ThumbnailCache.Weigher<String>() {
+            @Override
+            public long weigh(String value) {
+                return 1;
+            }
+        }, new ThumbnailCache.EvictionPolicy<String>() {
+            @Override
+            public ThumbnailCache.Entry<String> selectVictim(Iterable<ThumbnailCache.Entry<String>> entries) {
+                return null;
+            }
+        });
+        cache.put("a.jpg", "A");
+        cache.put("b.jpg", "B");
+    }
+
+    @Test
+    public void staysWithinBoundUnderRandomLoad() {
+        ThumbnailCache<byte[]> cache = new ThumbnailCache<>(64 * 1024, BYTES,
+                ThumbnailCache.<byte[]>leastRecentlyUsed());
+        Random random = new Random(42);
+        long puts = 0;
+        for (int i = 0; i < 20000; i++) {
+            String path = random.nextInt(5000) + ".jpg";
+            if (random.nextInt(3) == 0) {
+                if (cache.put(path, new byte[1 + random.nextInt(4096)])) {
+                    puts++;
+                }
+            } else {
+                cache.get(path);
+            }
+            assertTrue(cache.getWeight() <= cache.getMaxWeight());
+        }
+        assertEquals(20000 - puts, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getEvictions() > 0);
+        assertTrue(cache.getHits() > 0);
+
+        long weight = 0;
+        int found = 0;
+        for (int i = 0; i < 5000; i++) {
+            byte[] value = cache.remove(i + ".jpg");
+            if (value != null) {
+                weight += value.length;
+                found++;
+            }
+        }
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+        assertTrue(found > 0);
+        assertTrue(weight <= cache.getMaxWeight());
+    }
+}
@@ -0,0 +1,49 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailSizingTest {
+
+    @Test
+    public void sampleSizeKeepsThumbnailAtLeastRequiredSize() {
+        // 4000x3000 / 32 = 125x93 still covers 96x72, / 64 would not
+        assertEquals(32, ThumbnailSizing.computeSampleSize(4000, 3000, 96, 72));
+        assertEquals(16, ThumbnailSizing.computeSampleSize(4000, 3000, 192, 144));
+    }
+
+    @Test
+    public void sampleSizeIsLimitedByTheTighterAxis() {
+        // a square thumbnail of a 4:3 image is limited by the height
+        assertEquals(16, ThumbnailSizing.computeSampleSize(4000, 3000, 128, 128));
+    }
+
+    @Test
+    public void smallImagesAreNotSubsampled() {
+        assertEquals(1, ThumbnailSizing.computeSampleSize(160, 120, 96, 96));
+        assertEquals(1, ThumbnailSizing.computeSampleSize(64, 48, 96, 96));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyThumbnailSize() {
+        ThumbnailSizing.computeSampleSize(4000, 3000, 0, 96);
+    }
+
+    @Test
+    public void coversRequiresBothAxes() {
+        assertTrue(ThumbnailSizing.covers(160, 120, 96, 96));
+        assertFalse(ThumbnailSizing.covers(160, 90, 96, 96));
+    }
+
+    @Test
+    public void mapsExifOrientation() {
+        assertEquals(0, ThumbnailSizing.exifOrientationToDegrees(ThumbnailSizing.EXIF_ORIENTATION_NORMAL));
+        assertEquals(90, ThumbnailSizing.exifOrientationToDegrees(ThumbnailSizing.EXIF_ORIENTATION_ROTATE_90));
+        assertEquals(180, ThumbnailSizing.exifOrientationToDegrees(ThumbnailSizing.EXIF_ORIENTATION_ROTATE_180));
+        assertEquals(270, ThumbnailSizing.exifOrientationToDegrees(ThumbnailSizing.EXIF_ORIENTATION_ROTATE_270));
+        // undefined or mirrored
+        assertEquals(0, ThumbnailSizing.exifOrientationToDegrees(0));
+        assertEquals(0, ThumbnailSizing.exifOrientationToDegrees(2));
+    }
+}
@@ -0,0 +1,115 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class TileProcessorTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    private TileProcessor mTiled;
+    private TileProcessor mWhole;
+
+    @Before
+    public void setUp() {
+        // tile size that leaves partial tiles at the right and bottom edges
+        mTiled = new TileProcessor(new ForkJoinPool(4), 8);
+        mWhole = new TileProcessor(new ForkJoinPool(1), Integer.MAX_VALUE / 2);
+    }
+
+    @After
+    public void tearDown() {
+        mTiled.shutdown();
+        mWhole.shutdown();
+    }
+
+    private static int[] randomImage(long seed) {
+        int[] pixels = new int[WIDTH * HEIGHT];
+        Random random = new Random(seed);
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    private static int[] run(TileProcessor processor, int[] image, List<PixelFilter> filters) {
+        int[] pixels = image.clone();
+        return processor.process(pixels, new int[pixels.length], WIDTH, HEIGHT, filters).clone();
+    }
+
+    @Test
+    public void tilesGiveTheSameResultAsOneWholeImagePass() {
+        List<PixelFilter> filters = Arrays.asList(
+                ConvolutionFilter.denoise(),
+                ConvolutionFilter.sharpen(),
+                ToneCurveFilter.contrast(0.5),
+                ToneCurveFilter.gamma(0.8),
+                new GrayscaleFilter());
+        int[] image = randomImage(1);
+
+        for (PixelFilter filter : filters) {
+            List<PixelFilter> single = Collections.singletonList(filter);
+            assertArrayEquals(filter.getClass().getSimpleName(), run(mWhole, image, single), run(mTiled, image, single));
+        }
+        assertArrayEquals(run(mWhole, image, filters), run(mTiled, image, filters));
+    }
+
+    @Test
+    public void resultAlternatesBetweenTheTwoBuffers() {
+        int[] pixels = randomImage(2);
+        int[] scratch = new int[pixels.length];
+
+        assertSame(pixels, mTiled.process(pixels, scratch, WIDTH, HEIGHT, Collections.<PixelFilter>emptyList()));
+        assertSame(scratch, mTiled.process(pixels, scratch, WIDTH, HEIGHT,
+                Collections.<PixelFilter>singletonList(new GrayscaleFilter())));
+        assertSame(pixels, mTiled.process(pixels, scratch, WIDTH, HEIGHT,
+                Arrays.<PixelFilter>asList(new GrayscaleFilter(), new GrayscaleFilter())));
+    }
+
+    @Test
+    public void everyPixelIsWrittenOnce() {
+        final int[] writes = new int[WIDTH * HEIGHT];
+        PixelFilter counting = new PixelFilter() {
+            @Override
+            public void apply(int[] src, int[] dst, int width, int height, int left, int top, int right, int bottom) {
+                for (int y = top; y < bottom; y++) {
+                    for (int x = left; x < right; x++) {
+                        synchronized (writes) {
+                            writes[y * width + x]++;
+                        }
+                    }
+                }
+            }
+        };
+
+        run(mTiled, randomImage(3), Collections.singletonList(counting));
+
+        for (int count : writes) {
+            assertEquals(1, count);
+        }
+    }
+
+    @Test
+    public void usesOneWorkerPerCoreByDefault() {
+        TileProcessor processor = new TileProcessor();
+        try {
+            assertEquals(Runtime.getRuntime().availableProcessors(), processor.getParallelism());
+        } finally {
+            processor.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallScratchBuffer() {
+        mTiled.process(new int[WIDTH * HEIGHT], new int[10], WIDTH, HEIGHT, Collections.<PixelFilter>emptyList());
+    }
+}
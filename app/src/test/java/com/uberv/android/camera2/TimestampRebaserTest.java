@@ -0,0 +1,54 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimestampRebaserTest {
+
+    @Test
+    public void firstSampleOfAnyTrackIsZero() {
+        TimestampRebaser rebaser = new TimestampRebaser();
+
+        assertEquals(0, rebaser.rebase(5000000));
+        assertEquals(33333, rebaser.rebase(5033333));
+        // another track shares the base
+        assertEquals(20000, rebaser.rebase(5020000));
+        assertEquals(5000000, rebaser.getBaseUs());
+        assertEquals(0, rebaser.getCorrections());
+    }
+
+    @Test
+    public void reorderedFramesKeepTheirTimes() {
+        TimestampRebaser rebaser = new TimestampRebaser();
+        // I P B B in decode order, the muxer puts them in presentation order
+        assertEquals(0, rebaser.rebase(1000));
+        assertEquals(99, rebaser.rebase(1099));
+        assertEquals(33, rebaser.rebase(1033));
+        assertEquals(66, rebaser.rebase(1066));
+        assertEquals(0, rebaser.getCorrections());
+    }
+
+    @Test
+    public void sampleBeforeBaseIsClampedToZero() {
+        TimestampRebaser rebaser = new TimestampRebaser();
+        rebaser.rebase(1000);
+
+        assertEquals(0, rebaser.rebase(400));
+        assertEquals(0, rebaser.rebase(900));
+        assertEquals(2, rebaser.getCorrections());
+    }
+
+    @Test
+    public void resetStartsANewBase() {
+        TimestampRebaser rebaser = new TimestampRebaser();
+        rebaser.rebase(1000);
+        rebaser.rebase(900);
+
+        rebaser.reset();
+
+        assertEquals(Long.MIN_VALUE, rebaser.getBaseUs());
+        assertEquals(0, rebaser.rebase(500));
+        assertEquals(0, rebaser.getCorrections());
+    }
+}
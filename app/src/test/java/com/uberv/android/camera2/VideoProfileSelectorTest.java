@@ -0,0 +1,156 @@
+package com.uberv.android.camera2;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class VideoProfileSelectorTest {
+    private static final int[] FPS_RANGES = {15, 30, 30, 30, 7, 60, 60, 60};
+    private static final int[] HIGH_SPEED = {1280, 720, 120, 120, 1280, 720, 240, 240, 1920, 1080, 120, 120};
+    private static final List<VideoProfileSelector.EncoderProfile> PROFILES = Arrays.asList(
+            new VideoProfileSelector.EncoderProfile(720, 480, 30, 2000000),
+            new VideoProfileSelector.EncoderProfile(1280, 720, 30, 12000000),
+            new VideoProfileSelector.EncoderProfile(1920, 1080, 30, 17000000));
+
+    @Test
+    public void frameRateTable() {
+        // {target, expected}
+        int[][] table = {
+                {30, 30},
+                {45, 30},
+                {60, 60},
+                {120, 60},
+                // no fixed range at or below the target, the lowest one wins
+                {24, 30},
+        };
+        for (int[] row : table) {
+            assertEquals("target " + row[0], row[1], VideoProfileSelector.selectFrameRate(FPS_RANGES, row[0]));
+        }
+    }
+
+    @Test
+    public void variableRangesCount() {
+        assertEquals(30, VideoProfileSelector.selectFrameRate(new int[]{15, 30, 7, 60}, 30));
+        assertEquals(VideoProfileSelector.DEFAULT_FRAME_RATE, VideoProfileSelector.selectFrameRate(new int[0], 30));
+    }
+
+    @Test
+    public void lowerFixedRangeDoesNotHideAVariableOneReachingTheTarget() {
+        int[] ranges = {15, 15, 15, 30};
+        assertEquals(30, VideoProfileSelector.selectFrameRate(ranges, 30));
+        assertEquals(15, VideoProfileSelector.selectFrameRate(ranges, 20));
+
+        VideoProfileSelector.VideoProfile profile = new VideoProfileSelector(PROFILES).select(1280, 720, 30, ranges,
+                new int[0], 0);
+        assertEquals(30, profile.getFrameRate());
+        assertEquals(15, profile.getMinFrameRate());
+    }
+
+    @Test
+    public void requestsTheNarrowestRangeForTheFrameRate() {
+        VideoProfileSelector selector = new VideoProfileSelector(PROFILES);
+
+        assertEquals(30, selector.select(1280, 720, 30, FPS_RANGES, HIGH_SPEED, 0).getMinFrameRate());
+        assertEquals(15, selector.select(1280, 720, 30, new int[]{7, 30, 15, 30}, HIGH_SPEED, 0).getMinFrameRate());
+        assertEquals(30, selector.select(1280, 720, 30, new int[0], HIGH_SPEED, 0).getMinFrameRate());
+    }
+
+    @Test
+    public void highSpeedTable() {
+        // {width, height, target, expected}
+        int[][] table = {
+                {1280, 720, 120, 120},
+                {1280, 720, 200, 240},
+                {1280, 720, 480, 240},
+                {1920, 1080, 240, 120},
+                {640, 480, 120, 0},
+        };
+        for (int[] row : table) {
+            assertEquals(Arrays.toString(row), row[3],
+                    VideoProfileSelector.selectHighSpeedFrameRate(HIGH_SPEED, row[0], row[1], row[2]));
+        }
+    }
+
+    @Test
+    public void bitRateScalesTheClosestEncoderProfile() {
+        VideoProfileSelector selector = new VideoProfileSelector(PROFILES);
+        // {width, height, fps, expected bitrate}
+        long[][] table = {
+                {1920, 1080, 30, 17000000},
+                {1280, 720, 30, 12000000},
+                // 1440x1080 scales the 1080p profile by pixel count
+                {1440, 1080, 30, 12750000},
+                {1280, 720, 60, 24000000},
+                // smaller than any profile: the smallest one, scaled down
+                {360, 240, 30, 500000},
+                // larger than any profile: the largest one, scaled up
+                {3840, 2160, 30, 68000000},
+        };
+        for (long[] row : table) {
+            assertEquals(Arrays.toString(row), row[3],
+                    selector.estimateBitRate((int) row[0], (int) row[1], (int) row[2]), 1);
+        }
+    }
+
+    @Test
+    public void bitRateFallsBackToBitsPerPixelTable() {
+        VideoProfileSelector selector = new VideoProfileSelector(
+                Collections.<VideoProfileSelector.EncoderProfile>emptyList());
+        assertEquals(1920 * 1080 * 30 * 0.10, selector.estimateBitRate(1920, 1080, 30), 1);
+        assertEquals(640 * 480 * 30 * 0.15, selector.estimateBitRate(640, 480, 30), 1);
+        assertEquals(3840 * 2160 * 30 * 0.08, selector.estimateBitRate(3840, 2160, 30), 1);
+    }
+
+    @Test
+    public void defaultsTo30FpsAtTheProfileBitRate() {
+        VideoProfileSelector selector = new VideoProfileSelector(PROFILES);
+
+        VideoProfileSelector.VideoProfile profile = selector.select(1920, 1080, 0, FPS_RANGES, HIGH_SPEED, 0);
+
+        assertEquals(30, profile.getFrameRate());
+        assertEquals(17000000, profile.getBitRate());
+        assertFalse(profile.isHighSpeed());
+        assertFalse(profile.isStorageLimited());
+    }
+
+    @Test
+    public void capsBitRateToStorageThroughput() {
+        VideoProfileSelector selector = new VideoProfileSelector(PROFILES);
+
+        // 1 MB/s of storage leaves 4 Mbps for video
+        VideoProfileSelector.VideoProfile profile = selector.select(1920, 1080, 30, FPS_RANGES, HIGH_SPEED, 1000000);
+
+        assertEquals(4000000, profile.getBitRate());
+        assertTrue(profile.isStorageLimited());
+    }
+
+    @Test
+    public void neverGoesBelowTheMinimumBitRate() {
+        VideoProfileSelector selector = new VideoProfileSelector(PROFILES);
+
+        VideoProfileSelector.VideoProfile profile = selector.select(176, 144, 15, FPS_RANGES, HIGH_SPEED, 1000);
+
+        assertEquals(VideoProfileSelector.MIN_BIT_RATE, profile.getBitRate());
+    }
+
+    @Test
+    public void usesHighSpeedOnlyAboveRegularRates() {
+        VideoProfileSelector selector = new VideoProfileSelector(PROFILES);
+
+        VideoProfileSelector.VideoProfile regular = selector.select(1280, 720, 60, FPS_RANGES, HIGH_SPEED, 0);
+        VideoProfileSelector.VideoProfile slowMotion = selector.select(1280, 720, 120, FPS_RANGES, HIGH_SPEED, 0);
+        VideoProfileSelector.VideoProfile unsupported = selector.select(640, 480, 120, FPS_RANGES, HIGH_SPEED, 0);
+
+        assertEquals(60, regular.getFrameRate());
+        assertFalse(regular.isHighSpeed());
+        assertEquals(120, slowMotion.getFrameRate());
+        assertTrue(slowMotion.isHighSpeed());
+        assertEquals(48000000, slowMotion.getBitRate());
+        assertEquals(60, unsupported.getFrameRate());
+        assertFalse(unsupported.isHighSpeed());
+    }
+}
@@ -0,0 +1,160 @@
+package com.uberv.android.camera2;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteRateGovernorTest {
+    private static final long MB = 1024 * 1024;
+
+    private File mDir;
+    private FakeClock mClock;
+    private StorageThroughputProbe mVideoProbe;
+    private StorageThroughputProbe mImageProbe;
+    private List<String> mChanges;
+    private WriteRateGovernor mGovernor;
+
+    @Before
+    public void setUp() throws IOException {
+        mDir = File.createTempFile("governor", "");
+        mDir.delete();
+        mDir.mkdir();
+        mClock = new FakeClock();
+        mVideoProbe = new StorageThroughputProbe(mDir, 256 * 1024, 64 * 1024, 0.5, mClock);
+        mImageProbe = new StorageThroughputProbe(mDir, 256 * 1024, 64 * 1024, 0.5, mClock);
+        mChanges = new ArrayList<>();
+        mGovernor = new WriteRateGovernor(mVideoProbe, mImageProbe, new WriteRateGovernor.Listener() {
+            @Override
+            public void onStorageLevelChanged(WriteRateGovernor.Level level, long usableBytes, long secondsLeft) {
+                mChanges.add(level + " " + secondsLeft);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : mDir.listFiles()) {
+            file.delete();
+        }
+        mDir.delete();
+    }
+
+    @Test
+    public void probesOnlyStaleDirectories() throws IOException {
+        // every probe takes a millisecond
+        Clock ticking = new Clock() {
+            @Override
+            public long nanoTime() {
+                mClock.advanceMillis(1);
+                return mClock.now;
+            }
+        };
+        mVideoProbe = new StorageThroughputProbe(mDir, 256 * 1024, 64 * 1024, 0.5, ticking);
+        mImageProbe = new StorageThroughputProbe(mDir, 256 * 1024, 64 * 1024, 0.5, ticking);
+        mGovernor = new WriteRateGovernor(mVideoProbe, mImageProbe, null);
+
+        assertTrue(mGovernor.probeIfStale(1000));
+        assertEquals(1, mVideoProbe.getSamples());
+        assertEquals(1, mImageProbe.getSamples());
+
+        assertFalse(mGovernor.probeIfStale(Long.MAX_VALUE));
+        assertEquals(1, mVideoProbe.getSamples());
+        assertEquals(1, mImageProbe.getSamples());
+
+        assertTrue(mGovernor.probeIfStale(1000));
+        assertEquals(2, mVideoProbe.getSamples());
+        assertEquals(2, mImageProbe.getSamples());
+        assertEquals(0, mDir.listFiles().length);
+    }
+
+    @Test
+    public void videoThroughputComesFromTheVideoProbe() {
+        assertEquals(0, mGovernor.getVideoBytesPerSecond());
+        mVideoProbe.record(4 * MB, 1000000000L);
+        mImageProbe.record(1 * MB, 1000000000L);
+
+        assertEquals(4 * MB, mGovernor.getVideoBytesPerSecond());
+        // which the profile selector keeps a share of
+        VideoProfileSelector.VideoProfile profile = new VideoProfileSelector(
+                new ArrayList<VideoProfileSelector.EncoderProfile>()).select(3840, 2160, 30, new int[]{30, 30},
+                new int[0], mGovernor.getVideoBytesPerSecond());
+        assertTrue(profile.isStorageLimited());
+        assertEquals(4 * MB * 8 * VideoProfileSelector.STORAGE_BUDGET, profile.getBitRate(), 1);
+    }
+
+    @Test
+    public void burstIsCappedToWhatDrainsInTime() {
+        long stillBytes = 4 * MB;
+        // unknown throughput leaves the burst alone, if it fits
+        int room = (int) Math.min(10, (mDir.getUsableSpace() - WriteRateGovernor.CRITICAL_BYTES) / stillBytes);
+        assertEquals(room, mGovernor.capBurstShots(10, stillBytes));
+
+        mImageProbe.record(8 * MB, 1000000000L);
+
+        // 8 MB/s for 3 s is 6 stills
+        assertEquals(Math.min(6, room), mGovernor.capBurstShots(10, stillBytes));
+        assertEquals(2.0, mGovernor.getSustainableShotsPerSecond(stillBytes), 1e-9);
+
+        // a very slow card still takes one shot
+        mImageProbe.record(1, 1000000000L);
+        mImageProbe.record(1, 1000000000L);
+        mImageProbe.record(1, 1000000000L);
+        mImageProbe.record(1, 1000000000L);
+        assertEquals(Math.min(1, room), mGovernor.capBurstShots(10, stillBytes));
+    }
+
+    @Test
+    public void unknownStillSizeLeavesBurstAlone() {
+        assertEquals(10, mGovernor.capBurstShots(10, 0));
+        assertEquals(0, mGovernor.getSustainableShotsPerSecond(0), 0);
+    }
+
+    @Test
+    public void levelsByFreeBytes() {
+        assertEquals(WriteRateGovernor.Level.OK, mGovernor.check(WriteRateGovernor.LOW_BYTES, 0));
+        assertEquals(WriteRateGovernor.Level.LOW, mGovernor.check(WriteRateGovernor.LOW_BYTES - 1, 0));
+        assertEquals(WriteRateGovernor.Level.CRITICAL, mGovernor.check(WriteRateGovernor.CRITICAL_BYTES - 1, 0));
+
+        assertEquals(Arrays.asList("LOW -1", "CRITICAL -1"), mChanges);
+    }
+
+    @Test
+    public void levelsByRecordingTimeLeft() {
+        long rate = 2 * MB;
+        long tenMinutes = WriteRateGovernor.CRITICAL_BYTES + 600 * rate;
+
+        assertEquals(WriteRateGovernor.Level.OK, mGovernor.check(tenMinutes, rate));
+        // plenty of bytes for stills, but only four minutes of video
+        assertEquals(WriteRateGovernor.Level.LOW,
+                mGovernor.check(WriteRateGovernor.CRITICAL_BYTES + 240 * rate, rate));
+        assertEquals(WriteRateGovernor.Level.CRITICAL,
+                mGovernor.check(WriteRateGovernor.CRITICAL_BYTES + 20 * rate, rate));
+        assertEquals(WriteRateGovernor.Level.OK, mGovernor.check(tenMinutes, 0));
+
+        assertEquals(Arrays.asList("LOW 240", "CRITICAL 20", "OK -1"), mChanges);
+    }
+
+    @Test
+    public void unchangedLevelIsNotReported() {
+        mGovernor.check(WriteRateGovernor.LOW_BYTES - 1, 0);
+        mGovernor.check(WriteRateGovernor.LOW_BYTES - 2, 0);
+
+        assertEquals(1, mChanges.size());
+        assertEquals(WriteRateGovernor.Level.LOW, mGovernor.getLevel());
+    }
+
+    @Test
+    public void checksUseTheDirectoriesFreeSpace() {
+        // whatever the temp directory has left, the level follows from it
+        assertEquals(mGovernor.check(mDir.getUsableSpace(), 0), mGovernor.checkStills());
+        assertEquals(mGovernor.check(mDir.getUsableSpace(), 1000000 / 8), mGovernor.checkRecording(1000000));
+    }
+}
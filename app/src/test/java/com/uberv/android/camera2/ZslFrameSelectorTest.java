@@ -0,0 +1,60 @@
+package com.uberv.android.camera2;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ZslFrameSelectorTest {
+    private static final long MS = 1000000L;
+
+    private FrameRingBuffer<Integer> mRing;
+
+    @Before
+    public void setUp() {
+        mRing = new FrameRingBuffer<>(5, new FrameRingBuffer.Releaser<Integer>() {
+            @Override
+            public void release(Integer frame) {
+            }
+        });
+        // 30 fps preview frames at 1000, 1033, ... ms
+        for (int i = 0; i < 5; i++) {
+            mRing.add(i, (1000 + 33 * i) * MS);
+        }
+    }
+
+    @Test
+    public void picksFrameClosestToPress() {
+        ZslFrameSelector selector = new ZslFrameSelector(50 * MS, false);
+        assertEquals(2, selector.select(mRing, 1070 * MS));
+        assertEquals(0, selector.select(mRing, 900 * MS));
+        assertEquals(4, selector.select(mRing, 5000 * MS));
+    }
+
+    @Test
+    public void maxValueSelectsNewest() {
+        assertEquals(4, new ZslFrameSelector(0, false).select(mRing, Long.MAX_VALUE));
+    }
+
+    @Test
+    public void prefersSharperFrameWithinTolerance() {
+        mRing.setScore(1033 * MS, 1f);
+        mRing.setScore(1132 * MS, 2f);
+        ZslFrameSelector selector = new ZslFrameSelector(50 * MS, true);
+        // 1033 is within 50 ms of 1070, 1132 is not
+        assertEquals(1, selector.select(mRing, 1070 * MS));
+    }
+
+    @Test
+    public void fallsBackToClosestWhenNothingIsWithinTolerance() {
+        mRing.setScore(1000 * MS, 5f);
+        ZslFrameSelector selector = new ZslFrameSelector(10 * MS, true);
+        assertEquals(4, selector.select(mRing, 2000 * MS));
+    }
+
+    @Test
+    public void emptyRingSelectsNothing() {
+        mRing.clear();
+        assertEquals(-1, new ZslFrameSelector(0, true).select(mRing, 0));
+    }
+}
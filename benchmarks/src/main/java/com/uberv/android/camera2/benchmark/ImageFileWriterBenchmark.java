@@ -0,0 +1,73 @@
+package com.uberv.android.camera2.benchmark;
+
+import com.uberv.android.camera2.ChannelImageFileWriter;
+import com.uberv.android.camera2.DirectBufferPool;
+import com.uberv.android.camera2.ImageFileWriter;
+import com.uberv.android.camera2.StreamImageFileWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JPEG persistence: a direct buffer as delivered by the camera written to a file, through the old
+ * {@code byte[]} + {@code FileOutputStream} path and through {@link ChannelImageFileWriter}.
+ * <p>
+ * The numbers include the file system of the machine running the benchmark; compare results from the same host
+ * only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ImageFileWriterBenchmark {
+
+    @Param({"stream", "channel"})
+    public String writer;
+
+    @Param({"2", "8"})
+    public int sizeMiB;
+
+    private ImageFileWriter mWriter;
+    private ByteBuffer mImage;
+    private File mTarget;
+
+    @Setup
+    public void setUp() throws IOException {
+        mWriter = "channel".equals(writer)
+                ? new ChannelImageFileWriter(new DirectBufferPool(1 << 20))
+                : new StreamImageFileWriter();
+        mImage = ByteBuffer.allocateDirect(sizeMiB * 1024 * 1024);
+        byte[] noise = new byte[mImage.capacity()];
+        new Random(42).nextBytes(noise);
+        mImage.put(noise).flip();
+        mTarget = File.createTempFile("benchmark", ".jpg");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mTarget.delete();
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        return mWriter.write(mImage.duplicate(), mTarget);
+    }
+}
@@ -0,0 +1,90 @@
+package com.uberv.android.camera2.benchmark;
+
+import com.uberv.android.camera2.CameraOrientation;
+import com.uberv.android.camera2.SizeIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size selection and rotation as done once per camera setup, on an output size list as long as the ones high-end
+ * devices advertise.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SizeIndexBenchmark {
+    private static final int[] ASPECT_WIDTHS = {4, 16, 1, 3, 18};
+    private static final int[] ASPECT_HEIGHTS = {3, 9, 1, 2, 9};
+
+    private int[] mSizes;
+    private SizeIndex mIndex;
+    private SizeIndex.Query mPreviewQuery;
+    private SizeIndex.Query mTooLargeQuery;
+    private SizeIndex.Query mAnalysisQuery;
+    private int mSensorOrientation;
+    private int mDisplayRotation;
+
+    @Setup
+    public void setUp() {
+        // 48 sizes from 4000 pixels wide down, in the mixed aspect ratios a real device lists
+        mSizes = new int[48 * 2];
+        for (int i = 0; i < mSizes.length / 2; i++) {
+            int aspect = i % ASPECT_WIDTHS.length;
+            int width = 4000 - i * 80;
+            mSizes[2 * i] = width;
+            mSizes[2 * i + 1] = width * ASPECT_HEIGHTS[aspect] / ASPECT_WIDTHS[aspect];
+        }
+        mIndex = new SizeIndex(mSizes);
+        mPreviewQuery = new SizeIndex.Query(1920, 1080);
+        mTooLargeQuery = new SizeIndex.Query(8000, 6000);
+        mAnalysisQuery = new SizeIndex.Query(640, 360).setMaxArea(640 * 360);
+        mSensorOrientation = 90;
+        mDisplayRotation = 1;
+    }
+
+    @Benchmark
+    public SizeIndex buildIndex() {
+        return new SizeIndex(mSizes);
+    }
+
+    @Benchmark
+    public int select() {
+        return mIndex.select(mPreviewQuery);
+    }
+
+    @Benchmark
+    public int selectNoneBigEnough() {
+        return mIndex.select(mTooLargeQuery);
+    }
+
+    @Benchmark
+    public int selectAnalysis() {
+        return mIndex.select(mAnalysisQuery);
+    }
+
+    @Benchmark
+    public int[] selectConsistent() {
+        return SizeIndex.selectConsistent(new SizeIndex[]{mIndex, mIndex, mIndex},
+                new SizeIndex.Query[]{mPreviewQuery, mPreviewQuery, mPreviewQuery});
+    }
+
+    @Benchmark
+    public int sensorToDeviceRotation() {
+        return CameraOrientation.sensorToDeviceRotation(mSensorOrientation,
+                CameraOrientation.displayRotationToDegrees(mDisplayRotation));
+    }
+}
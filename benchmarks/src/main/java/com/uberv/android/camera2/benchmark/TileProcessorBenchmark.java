@@ -0,0 +1,100 @@
+package com.uberv.android.camera2.benchmark;
+
+import com.uberv.android.camera2.ConvolutionFilter;
+import com.uberv.android.camera2.GrayscaleFilter;
+import com.uberv.android.camera2.PixelFilter;
+import com.uberv.android.camera2.TileProcessor;
+import com.uberv.android.camera2.ToneCurveFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pixel filters over a 12 MP ARGB frame through {@link TileProcessor}, single threaded and with one worker per
+ * core, to track both the per-pixel cost of the filters and the scaling of the tiling.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileProcessorBenchmark {
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+
+    @Param({"grayscale", "toneCurve", "sharpen", "chain"})
+    public String filter;
+
+    // 0 = one worker per core
+    @Param({"1", "0"})
+    public int parallelism;
+
+    @Param({"128"})
+    public int tileSize;
+
+    private TileProcessor mProcessor;
+    private List<PixelFilter> mFilters;
+    private int[] mSource;
+    private int[] mPixels;
+    private int[] mScratch;
+
+    @Setup
+    public void setUp() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        mProcessor = new TileProcessor(new ForkJoinPool(threads), tileSize);
+        mFilters = filters(filter);
+        mSource = new int[WIDTH * HEIGHT];
+        Random random = new Random(42);
+        for (int i = 0; i < mSource.length; i++) {
+            mSource[i] = random.nextInt() | 0xff000000;
+        }
+        mPixels = new int[mSource.length];
+        mScratch = new int[mSource.length];
+    }
+
+    private static List<PixelFilter> filters(String name) {
+        switch (name) {
+            case "grayscale":
+                return Collections.<PixelFilter>singletonList(new GrayscaleFilter());
+            case "toneCurve":
+                return Collections.<PixelFilter>singletonList(ToneCurveFilter.contrast(0.3));
+            case "sharpen":
+                return Collections.<PixelFilter>singletonList(ConvolutionFilter.sharpen());
+            case "chain":
+                return Arrays.<PixelFilter>asList(ConvolutionFilter.denoise(), ToneCurveFilter.gamma(0.8),
+                        ConvolutionFilter.sharpen());
+            default:
+                throw new IllegalArgumentException("unknown filter: " + name);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mProcessor.shutdown();
+    }
+
+    @Benchmark
+    public int[] process() {
+        // filters work in place across the two buffers, start every invocation from the same image
+        System.arraycopy(mSource, 0, mPixels, 0, mSource.length);
+        return mProcessor.process(mPixels, mScratch, WIDTH, HEIGHT, mFilters);
+    }
+}
@@ -0,0 +1,85 @@
+package com.uberv.android.camera2.benchmark;
+
+import com.uberv.android.camera2.LumaAnalyzer;
+import com.uberv.android.camera2.YuvFrame;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame work of the analysis stream: copying a {@code YUV_420_888} frame out of the camera buffers and
+ * running the luma analyzer over the copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class YuvFrameBenchmark {
+
+    @Param({"640x480", "1920x1080"})
+    public String size;
+
+    private int mWidth;
+    private int mHeight;
+    private int mRowStride;
+    private ByteBuffer mY;
+    private ByteBuffer mU;
+    private ByteBuffer mV;
+    private YuvFrame mFrame;
+    private LumaAnalyzer mAnalyzer;
+
+    @Setup
+    public void setUp() {
+        String[] dimensions = size.split("x");
+        mWidth = Integer.parseInt(dimensions[0]);
+        mHeight = Integer.parseInt(dimensions[1]);
+        // padded rows and interleaved chroma, the layout most devices deliver
+        mRowStride = (mWidth + 63) / 64 * 64;
+        Random random = new Random(42);
+        mY = direct(random, mRowStride * mHeight);
+        ByteBuffer chroma = direct(random, mRowStride * (mHeight / 2) - 1);
+        mU = chroma.duplicate();
+        ByteBuffer v = chroma.duplicate();
+        v.position(1);
+        mV = v.slice();
+        mFrame = new YuvFrame();
+        mAnalyzer = new LumaAnalyzer(32);
+        // first copy allocates the frame buffers, measure the steady state only
+        copy();
+    }
+
+    private static ByteBuffer direct(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(length);
+        buffer.put(bytes).flip();
+        return buffer;
+    }
+
+    @Benchmark
+    public YuvFrame copy() {
+        mFrame.copyFrom(mWidth, mHeight, 0, mY, mRowStride, mU, mV, mRowStride, 2);
+        return mFrame;
+    }
+
+    @Benchmark
+    public float analyzeLuma() {
+        mAnalyzer.analyze(mFrame);
+        return mAnalyzer.getMeanLuma();
+    }
+}